@@ -0,0 +1,84 @@
+package fr.network.bench;
+
+import fr.network.udp.ClientBetterUpperCaseUDP;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to encode a chat message with Message.encode of the server and of the client, and
+ * to encode and decode a packet of ClientBetterUpperCaseUDP. The payloads stay below the
+ * 1024 bytes of a BetterUpperCase packet.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+    private static final String UDP_CHARSET = "UTF-8";
+
+    /**
+     * Size of each text in UTF-8
+     */
+    @Param({"16", "256", "1000"})
+    public int payloadSize;
+
+    @Param({"ASCII", "UTF8"})
+    public String charset;
+
+    private String text;
+    private fr.networks.tcp_blocking.exo5.Message serverMessage;
+    private fr.networks.tcp.nonblocking.utils.Message clientMessage;
+    private ByteBuffer target; // for encodeInto
+    private ByteBuffer packet; // write-mode, restored before each decoding
+    private int packetSize;
+
+    @Setup
+    public void setup() {
+        text = Payloads.text(payloadSize, Payloads.isAscii(charset));
+        serverMessage = new fr.networks.tcp_blocking.exo5.Message("user", text);
+        clientMessage = new fr.networks.tcp.nonblocking.utils.Message("user", text);
+        target = ByteBuffer.allocateDirect(Payloads.BUFFER_SIZE + 2 * Integer.BYTES + 4);
+        packet = ClientBetterUpperCaseUDP.encodeMessage(text, UDP_CHARSET).orElseThrow();
+        packetSize = packet.position();
+    }
+
+    @Benchmark
+    public ByteBuffer serverEncode() {
+        return serverMessage.encode();
+    }
+
+    @Benchmark
+    public ByteBuffer serverEncodeInto() {
+        return serverMessage.encodeInto(target.clear());
+    }
+
+    @Benchmark
+    public ByteBuffer clientEncode() {
+        return clientMessage.encode();
+    }
+
+    @Benchmark
+    public Optional<ByteBuffer> udpEncode() {
+        return ClientBetterUpperCaseUDP.encodeMessage(text, UDP_CHARSET);
+    }
+
+    @Benchmark
+    public Optional<String> udpDecode() {
+        return ClientBetterUpperCaseUDP.decodeMessage(packet.limit(packet.capacity()).position(packetSize));
+    }
+}
@@ -0,0 +1,80 @@
+package fr.network.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time per int read by the IntReader of the server and of the client, from a buffer
+ * holding many ints or receiving them a few bytes at a time.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class IntReaderBenchmark {
+    private static final int INTS = 256;
+
+    /**
+     * Bytes copied to the input buffer at a time, 0 to fill it
+     */
+    @Param({"0", "3"})
+    public int fragmentSize;
+
+    private ByteBuffer stream;
+    private final ByteBuffer in = ByteBuffer.allocateDirect(Payloads.BUFFER_SIZE);
+    private final fr.networks.tcp_blocking.utils.IntReader serverReader = new fr.networks.tcp_blocking.utils.IntReader();
+    private final fr.networks.tcp.nonblocking.utils.IntReader clientReader = new fr.networks.tcp.nonblocking.utils.IntReader();
+
+    @Setup
+    public void setup() {
+        stream = ByteBuffer.allocate(INTS * Integer.BYTES);
+        for (var i = 0; i < INTS; i++) {
+            stream.putInt(i * 997);
+        }
+        stream.flip();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INTS)
+    public int server(Blackhole blackhole) {
+        return Payloads.feed(stream, in, fragmentSize, bb -> switch (serverReader.process(bb)) {
+            case DONE -> {
+                blackhole.consume(serverReader.get());
+                serverReader.reset();
+                yield true;
+            }
+            case REFILL -> false;
+            case ERROR -> throw new IllegalStateException();
+        });
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INTS)
+    public int client(Blackhole blackhole) {
+        return Payloads.feed(stream, in, fragmentSize, bb -> switch (clientReader.process(bb)) {
+            case DONE -> {
+                blackhole.consume(clientReader.get());
+                clientReader.reset();
+                yield true;
+            }
+            case REFILL -> false;
+            case ERROR -> throw new IllegalStateException();
+        });
+    }
+}
@@ -0,0 +1,131 @@
+package fr.network.bench;
+
+import fr.networks.tcp_blocking.exo5.MessageWireReader;
+import fr.networks.tcp_blocking.utils.BufferPool;
+import fr.networks.tcp_blocking.utils.CharBufferPool;
+import fr.networks.tcp_blocking.utils.StringCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time per message read by the MessageReader of the server, configured as in ServerChat,
+ * and of the client, from a stream of messages sent under a few logins. The texts of
+ * 4096 bytes are larger than the input buffer, so they never arrive whole.
+ * <p>
+ * The MessageWireReader generated from the Message of the server is measured both
+ * building the messages and only looking at their bytes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageReaderBenchmark {
+    private static final int LOGINS = 8;
+    private static final int MAX_TEXT_SIZE = 64 * 1_024;
+
+    /**
+     * Size of each text in UTF-8
+     */
+    @Param({"16", "256", "4096"})
+    public int payloadSize;
+
+    @Param({"ASCII", "UTF8"})
+    public String charset;
+
+    /**
+     * Bytes copied to the input buffer at a time, 0 to fill it
+     */
+    @Param({"0", "7"})
+    public int fragmentSize;
+
+    private ByteBuffer stream;
+    private final ByteBuffer in = ByteBuffer.allocateDirect(Payloads.BUFFER_SIZE);
+    private final fr.networks.tcp_blocking.exo5.MessageReader serverReader =
+            new fr.networks.tcp_blocking.exo5.MessageReader(new BufferPool(Payloads.BUFFER_SIZE, 4),
+                    new CharBufferPool(MAX_TEXT_SIZE, 1), MAX_TEXT_SIZE, new StringCache(256, 64));
+    private final fr.networks.tcp.nonblocking.utils.MessageReader clientReader =
+            new fr.networks.tcp.nonblocking.utils.MessageReader();
+    private final MessageWireReader generatedReader = new MessageWireReader();
+
+    @Setup
+    public void setup() {
+        var text = Payloads.text(payloadSize, Payloads.isAscii(charset));
+        var frames = new ByteBuffer[Payloads.MESSAGES_PER_STREAM];
+        for (var i = 0; i < frames.length; i++) {
+            frames[i] = new fr.networks.tcp_blocking.exo5.Message("user" + i % LOGINS, text).encode().flip();
+        }
+        stream = Payloads.concat(frames);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Payloads.MESSAGES_PER_STREAM)
+    public int server(Blackhole blackhole) {
+        return Payloads.feed(stream, in, fragmentSize, bb -> switch (serverReader.process(bb)) {
+            case DONE -> {
+                blackhole.consume(serverReader.get());
+                serverReader.reset();
+                yield true;
+            }
+            case REFILL -> false;
+            case ERROR -> throw new IllegalStateException();
+        });
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Payloads.MESSAGES_PER_STREAM)
+    public int client(Blackhole blackhole) {
+        return Payloads.feed(stream, in, fragmentSize, bb -> switch (clientReader.process(bb)) {
+            case DONE -> {
+                blackhole.consume(clientReader.get());
+                clientReader.reset();
+                yield true;
+            }
+            case REFILL -> false;
+            case ERROR -> throw new IllegalStateException();
+        });
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Payloads.MESSAGES_PER_STREAM)
+    public int generated(Blackhole blackhole) {
+        return Payloads.feed(stream, in, fragmentSize, bb -> switch (generatedReader.process(bb)) {
+            case DONE -> {
+                blackhole.consume(generatedReader.get());
+                generatedReader.reset();
+                yield true;
+            }
+            case REFILL -> false;
+            case ERROR -> throw new IllegalStateException();
+        });
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Payloads.MESSAGES_PER_STREAM)
+    public int generatedBytes(Blackhole blackhole) {
+        return Payloads.feed(stream, in, fragmentSize, bb -> switch (generatedReader.process(bb)) {
+            case DONE -> {
+                blackhole.consume(generatedReader.bytes()[generatedReader.msgOffset()]);
+                generatedReader.reset();
+                yield true;
+            }
+            case REFILL -> false;
+            case ERROR -> throw new IllegalStateException();
+        });
+    }
+}
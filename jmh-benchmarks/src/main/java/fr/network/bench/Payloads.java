@@ -0,0 +1,104 @@
+package fr.network.bench;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The inputs shared by the benchmarks: texts of a given size in bytes, and the feeding of
+ * a stream of frames to a reader, whole or a few bytes at a time.
+ */
+final class Payloads {
+    // 1 + 2 + 3 + 4 bytes in UTF-8, so that every width of character is decoded
+    private static final String MULTI_BYTE = "aé€😀";
+    static final int MESSAGES_PER_STREAM = 64;
+    static final int BUFFER_SIZE = 1_024;
+
+    private Payloads() {
+    }
+
+    /**
+     * @param bytes size of the text once encoded in UTF-8
+     * @param ascii true for ASCII characters only, false for characters of 1 to 4 bytes
+     * @return a text of exactly bytes bytes in UTF-8
+     */
+    static String text(int bytes, boolean ascii) {
+        var codePoints = MULTI_BYTE.codePoints().toArray();
+        var builder = new StringBuilder();
+        var size = 0;
+        for (var i = 0; size < bytes; i++) {
+            var codePoint = ascii ? 'a' + i % 26 : codePoints[i % codePoints.length];
+            var width = Character.toString(codePoint).getBytes(StandardCharsets.UTF_8).length;
+            if (size + width > bytes) {
+                codePoint = 'z';
+                width = 1;
+            }
+            builder.appendCodePoint(codePoint);
+            size += width;
+        }
+        return builder.toString();
+    }
+
+    static boolean isAscii(String charset) {
+        return switch (charset) {
+            case "ASCII" -> true;
+            case "UTF8" -> false;
+            default -> throw new IllegalArgumentException(charset);
+        };
+    }
+
+    /**
+     * Step of a reader on its input buffer
+     */
+    @FunctionalInterface
+    interface Step {
+        /**
+         * @param in input buffer, in read-mode
+         * @return true if a frame was read, false if the reader needs more bytes
+         */
+        boolean process(ByteBuffer in);
+    }
+
+    /**
+     * Copies stream into in, fragmentSize bytes at a time or as much as fits if
+     * fragmentSize is 0, calling step until it needs more bytes after each copy
+     *
+     * @param stream frames to read, in read-mode, left unchanged
+     * @param in     input buffer of the reader, cleared first
+     * @return the number of frames read
+     */
+    static int feed(ByteBuffer stream, ByteBuffer in, int fragmentSize, Step step) {
+        var source = stream.duplicate();
+        in.clear();
+        var frames = 0;
+        while (source.hasRemaining()) {
+            var length = Math.min(source.remaining(), in.remaining());
+            if (fragmentSize != 0) {
+                length = Math.min(length, fragmentSize);
+            }
+            in.put(in.position(), source, source.position(), length);
+            in.position(in.position() + length);
+            source.position(source.position() + length);
+            in.flip();
+            while (step.process(in)) {
+                frames++;
+            }
+            in.compact();
+        }
+        return frames;
+    }
+
+    /**
+     * @return the concatenation of frames, in read-mode
+     */
+    static ByteBuffer concat(ByteBuffer... frames) {
+        var size = 0;
+        for (var frame : frames) {
+            size += frame.remaining();
+        }
+        var stream = ByteBuffer.allocate(size);
+        for (var frame : frames) {
+            stream.put(frame.duplicate());
+        }
+        return stream.flip();
+    }
+}
@@ -0,0 +1,93 @@
+package fr.network.bench;
+
+import fr.networks.tcp_blocking.utils.BufferPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time per string read by the StringReader of the server and of the client. The server
+ * reader borrows the buffer of a fragmented string from a pool, as in ServerChat.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StringReaderBenchmark {
+
+    /**
+     * Size of each string in UTF-8, at most the largest string of the readers
+     */
+    @Param({"16", "256", "1000"})
+    public int payloadSize;
+
+    @Param({"ASCII", "UTF8"})
+    public String charset;
+
+    /**
+     * Bytes copied to the input buffer at a time, 0 to fill it
+     */
+    @Param({"0", "7"})
+    public int fragmentSize;
+
+    private ByteBuffer stream;
+    private final ByteBuffer in = ByteBuffer.allocateDirect(Payloads.BUFFER_SIZE);
+    private final fr.networks.tcp_blocking.utils.StringReader serverReader =
+            new fr.networks.tcp_blocking.utils.StringReader(new BufferPool(Payloads.BUFFER_SIZE, 4));
+    private final fr.networks.tcp.nonblocking.utils.StringReader clientReader =
+            new fr.networks.tcp.nonblocking.utils.StringReader();
+
+    @Setup
+    public void setup() {
+        var bytes = StandardCharsets.UTF_8.encode(Payloads.text(payloadSize, Payloads.isAscii(charset)));
+        var frame = ByteBuffer.allocate(Integer.BYTES + bytes.remaining()).putInt(bytes.remaining()).put(bytes).flip();
+        var frames = new ByteBuffer[Payloads.MESSAGES_PER_STREAM];
+        Arrays.fill(frames, frame);
+        stream = Payloads.concat(frames);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Payloads.MESSAGES_PER_STREAM)
+    public int server(Blackhole blackhole) {
+        return Payloads.feed(stream, in, fragmentSize, bb -> switch (serverReader.process(bb)) {
+            case DONE -> {
+                blackhole.consume(serverReader.get());
+                serverReader.reset();
+                yield true;
+            }
+            case REFILL -> false;
+            case ERROR -> throw new IllegalStateException();
+        });
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Payloads.MESSAGES_PER_STREAM)
+    public int client(Blackhole blackhole) {
+        return Payloads.feed(stream, in, fragmentSize, bb -> switch (clientReader.process(bb)) {
+            case DONE -> {
+                blackhole.consume(clientReader.get());
+                clientReader.reset();
+                yield true;
+            }
+            case REFILL -> false;
+            case ERROR -> throw new IllegalStateException();
+        });
+    }
+}
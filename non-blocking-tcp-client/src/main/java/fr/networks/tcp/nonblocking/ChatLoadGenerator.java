@@ -0,0 +1,365 @@
+package fr.networks.tcp.nonblocking;
+
+import fr.networks.tcp.nonblocking.utils.LatencyHistogram;
+import fr.networks.tcp.nonblocking.utils.Message;
+import fr.networks.tcp.nonblocking.utils.MessageReader;
+import fr.networks.tcp.nonblocking.utils.OutboundQueue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * A headless chat client driving many sessions from a single selector, to measure the
+ * throughput and the latency of a chat server.
+ * <p>
+ * All the sessions receive the messages of the room; fanIn of them also send. The load is
+ * closed-loop: a sender has at most one message in flight, and sends the next one once
+ * the server has broadcast its previous one back to it. With a rate of 0 the next message
+ * is sent at once; otherwise the senders share the rate, each message having an intended
+ * send time on a fixed schedule. The send time carried in the text of a message is its
+ * intended send time, so a message delayed by a slow echo is measured from the time it
+ * should have been sent, and the latencies do not hide the stalls of the server.
+ * <p>
+ * A message whose echo does not come back within {@link #ECHO_TIMEOUT_MILLIS} ms is
+ * counted as lost, and its sender goes on with the next one, so that a message dropped
+ * by the server does not stop a sender for the rest of the run. An echo coming back
+ * after its timeout is still measured.
+ * <p>
+ * Every session records the latency of every message it receives during the measure,
+ * which starts after a warm-up of {@link #WARMUP_MILLIS} ms.
+ */
+public class ChatLoadGenerator {
+
+    /**
+     * A message of a sender awaiting its echo until timeoutAt
+     */
+    private record Echo(Session session, long intended, long timeoutAt) {}
+
+    private final class Session {
+        private final SelectionKey key;
+        private final SocketChannel sc;
+        private final String login;
+        private final boolean sender;
+        private final ByteBuffer bufferIn = ByteBuffer.allocate(BUFFER_SIZE);
+        private final OutboundQueue outbound = new OutboundQueue();
+        private final MessageReader messageReader = new MessageReader();
+        private long intended; // intended send time of the next message of a sender
+        private long inFlight = -1; // intended send time of the message awaiting its echo, -1 if none
+
+        private Session(SelectionKey key, String login, boolean sender) {
+            this.key = key;
+            this.sc = (SocketChannel) key.channel();
+            this.login = login;
+            this.sender = sender;
+        }
+
+        /**
+         * Process the content of bufferIn
+         *
+         * The convention is that bufferIn is in read-mode before the call to process
+         * and after the call
+         *
+         */
+        private void processIn() throws IOException {
+            while (true) {
+                var status = messageReader.process(bufferIn);
+                switch (status) {
+                    case DONE -> {
+                        var message = messageReader.get();
+                        messageReader.reset();
+                        received(message);
+                    }
+                    case REFILL -> {
+                        return;
+                    }
+                    case ERROR -> {
+                        throw new IOException("malformed message received by " + login);
+                    }
+                }
+            }
+        }
+
+        private void received(Message message) throws IOException {
+            var now = System.nanoTime();
+            var text = message.msg();
+            var separator = text.indexOf(':');
+            if (separator == -1) {
+                return; // not a message of the load
+            }
+            long sentAt;
+            try {
+                sentAt = Long.parseLong(text, 0, separator, 10);
+            } catch (NumberFormatException e) {
+                return; // not a message of the load either
+            }
+            if (sentAt - measureStart >= 0 && now - measureEnd < 0) {
+                histogram.record(now - sentAt);
+            }
+            if (sender && message.login().equals(login) && sentAt == inFlight) {
+                inFlight = -1;
+                scheduleNext(now);
+            }
+        }
+
+        /**
+         * Sends the next message of a closed-loop sender, or schedules it at its
+         * intended send time
+         */
+        private void scheduleNext(long now) throws IOException {
+            if (intervalNanos == 0) {
+                intended = now;
+                send();
+            } else {
+                intended += intervalNanos;
+                due.add(this);
+            }
+        }
+
+        private void send() throws IOException {
+            outbound.add(new Message(login, intended + ":" + padding).encode().flip());
+            sent++;
+            inFlight = intended;
+            var timeoutAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ECHO_TIMEOUT_MILLIS);
+            awaiting.add(new Echo(this, intended, timeoutAt));
+            doWrite();
+        }
+
+        /**
+         * Gives up the message in flight if it is still the one of echo, and goes on with
+         * the next one
+         */
+        private void timeout(Echo echo, long now) throws IOException {
+            if (inFlight != echo.intended()) {
+                return; // its echo came back
+            }
+            inFlight = -1;
+            lost++;
+            scheduleNext(now);
+        }
+
+        private void updateInterestOps() {
+            key.interestOps(outbound.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+
+        /**
+         * Performs the read action on sc
+         *
+         * The convention is that bufferIn is in write-mode before the call to
+         * doRead and after the call
+         *
+         * @throws IOException
+         */
+        private void doRead() throws IOException {
+            if (sc.read(bufferIn) == -1) {
+                throw new IOException("connection of " + login + " closed by the server");
+            }
+            bufferIn.flip();
+            try {
+                processIn();
+            } finally {
+                bufferIn.compact();
+            }
+        }
+
+        private void doWrite() throws IOException {
+            outbound.flush(sc);
+            updateInterestOps();
+        }
+
+        private void doConnect() throws IOException {
+            if (!sc.finishConnect()) {
+                return; // selector gave a bad hint
+            }
+            sc.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            connected++;
+            updateInterestOps();
+        }
+    }
+
+    private static final int BUFFER_SIZE = 10_000;
+    private static final long WARMUP_MILLIS = 1_000;
+    private static final long CONNECT_TIMEOUT_MILLIS = 30_000;
+    private static final long ECHO_TIMEOUT_MILLIS = 2_000;
+    private static final Logger logger = Logger.getLogger(ChatLoadGenerator.class.getName());
+
+    private final InetSocketAddress serverAddress;
+    private final int nbConnections;
+    private final int fanIn;
+    private final long intervalNanos; // between two messages of a sender, 0 for no pacing
+    private final String padding;
+    private final long durationNanos;
+    private final Selector selector;
+    private final ArrayList<Session> sessions = new ArrayList<>();
+    // the senders waiting for the intended send time of their next message
+    private final PriorityQueue<Session> due = new PriorityQueue<>(Comparator.comparingLong(session -> session.intended));
+    // the messages in flight in the order they were sent, which is the order of their timeouts
+    private final ArrayDeque<Echo> awaiting = new ArrayDeque<>();
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private int connected;
+    private long sent;
+    private long lost;
+    private long measureStart;
+    private long measureEnd;
+
+    /**
+     * @param serverAddress  address of the server
+     * @param nbConnections  number of sessions
+     * @param fanIn          number of sessions sending messages, at most nbConnections
+     * @param rate           messages per second sent by all the senders together, 0 to send as fast as the
+     *                       echoes come back
+     * @param payloadSize    number of characters padding the text of each message
+     * @param durationMillis duration of the measure
+     * @throws IOException exception
+     */
+    public ChatLoadGenerator(InetSocketAddress serverAddress, int nbConnections, int fanIn, long rate,
+                             int payloadSize, long durationMillis) throws IOException {
+        if (nbConnections <= 0 || fanIn <= 0 || fanIn > nbConnections || rate < 0 || payloadSize < 0
+                || durationMillis <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.serverAddress = serverAddress;
+        this.nbConnections = nbConnections;
+        this.fanIn = fanIn;
+        this.intervalNanos = rate == 0 ? 0 : TimeUnit.SECONDS.toNanos(fanIn) / rate;
+        this.padding = "x".repeat(payloadSize);
+        this.durationNanos = TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        this.selector = Selector.open();
+    }
+
+    private void connectAll() throws IOException {
+        for (var i = 0; i < nbConnections; i++) {
+            var sc = SocketChannel.open();
+            sc.configureBlocking(false);
+            var key = sc.register(selector, SelectionKey.OP_CONNECT);
+            var session = new Session(key, "load" + i, i < fanIn);
+            key.attach(session);
+            sessions.add(session);
+            if (sc.connect(serverAddress)) {
+                session.doConnect();
+            }
+        }
+        var deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CONNECT_TIMEOUT_MILLIS);
+        while (connected < nbConnections) {
+            if (System.nanoTime() - deadline > 0) {
+                throw new IOException("only " + connected + " sessions connected");
+            }
+            select(CONNECT_TIMEOUT_MILLIS);
+        }
+        logger.info(nbConnections + " sessions connected");
+    }
+
+    /**
+     * Runs the load, then prints the results
+     *
+     * @throws IOException if a session fails
+     */
+    public void launch() throws IOException {
+        connectAll();
+        var start = System.nanoTime();
+        measureStart = start + TimeUnit.MILLISECONDS.toNanos(WARMUP_MILLIS);
+        measureEnd = measureStart + durationNanos;
+        for (var i = 0; i < fanIn; i++) {
+            var session = sessions.get(i);
+            // the first messages of the senders are spread over an interval
+            session.intended = start + intervalNanos * i / fanIn;
+            if (intervalNanos == 0) {
+                session.send();
+            } else {
+                due.add(session);
+            }
+        }
+        var sentAtStart = -1L;
+        var lostAtStart = 0L;
+        var now = System.nanoTime();
+        while (now - measureEnd < 0) {
+            if (sentAtStart == -1 && now - measureStart >= 0) {
+                sentAtStart = sent;
+                lostAtStart = lost;
+            }
+            var next = due.isEmpty() ? measureEnd : Math.min(due.peek().intended, measureEnd);
+            if (!awaiting.isEmpty()) {
+                next = Math.min(next, awaiting.peek().timeoutAt());
+            }
+            select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(next - now)));
+            now = System.nanoTime();
+            while (!awaiting.isEmpty() && awaiting.peek().timeoutAt() - now <= 0) {
+                var echo = awaiting.poll();
+                echo.session().timeout(echo, now);
+            }
+            while (!due.isEmpty() && due.peek().intended - now <= 0) {
+                due.poll().send();
+            }
+        }
+        report(sent - sentAtStart, lost - lostAtStart);
+        for (var session : sessions) {
+            session.sc.close();
+        }
+        selector.close();
+    }
+
+    private void select(long timeoutMillis) throws IOException {
+        try {
+            selector.select(this::treatKey, timeoutMillis);
+        } catch (UncheckedIOException tunneled) {
+            throw tunneled.getCause();
+        }
+    }
+
+    private void treatKey(SelectionKey key) {
+        var session = (Session) key.attachment();
+        try {
+            if (key.isValid() && key.isConnectable()) {
+                session.doConnect();
+            }
+            if (key.isValid() && key.isWritable()) {
+                session.doWrite();
+            }
+            if (key.isValid() && key.isReadable()) {
+                session.doRead();
+            }
+        } catch (IOException ioe) {
+            // lambda call in select requires to tunnel IOException
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    private void report(long sentDuringMeasure, long lostDuringMeasure) {
+        var seconds = durationNanos / 1e9;
+        System.out.printf("%d sessions, %d senders: %.0f msg/s sent, %.0f msg/s delivered, %d lost%n", nbConnections,
+                fanIn, sentDuringMeasure / seconds, histogram.count() / seconds, lostDuringMeasure);
+        System.out.printf("latency us: p50 %.1f p99 %.1f p999 %.1f max %.1f%n", histogram.valueAt(50) / 1_000.0,
+                histogram.valueAt(99) / 1_000.0, histogram.valueAt(99.9) / 1_000.0, histogram.max() / 1_000.0);
+    }
+
+    public static void main(String[] args) throws NumberFormatException, IOException {
+        if (args.length != 7) {
+            usage();
+            return;
+        }
+        var nbConnections = Integer.parseInt(args[2]);
+        var fanIn = Integer.parseInt(args[3]);
+        if (fanIn <= 0 || fanIn > nbConnections) {
+            usage();
+            return;
+        }
+        new ChatLoadGenerator(new InetSocketAddress(args[0], Integer.parseInt(args[1])), nbConnections, fanIn,
+                Long.parseLong(args[4]), Integer.parseInt(args[5]), TimeUnit.SECONDS.toMillis(Long.parseLong(args[6])))
+                .launch();
+    }
+
+    private static void usage() {
+        System.out.println("Usage : ChatLoadGenerator hostname port nbConnections fanIn rate payloadSize durationSeconds");
+    }
+}
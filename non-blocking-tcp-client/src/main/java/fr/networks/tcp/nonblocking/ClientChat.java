@@ -1,7 +1,9 @@
 package fr.networks.tcp.nonblocking;
 
+import fr.networks.tcp.nonblocking.utils.Compression;
 import fr.networks.tcp.nonblocking.utils.Message;
 import fr.networks.tcp.nonblocking.utils.MessageReader;
+import fr.networks.tcp.nonblocking.utils.OutboundQueue;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
@@ -11,11 +13,12 @@ import java.nio.channels.Channel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
-import java.util.ArrayDeque;
 import java.util.Scanner;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
+import java.util.zip.Deflater;
 
 
 public class ClientChat {
@@ -24,24 +27,62 @@ public class ClientChat {
         private final SelectionKey key;
         private final SocketChannel sc;
         private final ByteBuffer bufferIn = ByteBuffer.allocate(BUFFER_SIZE);
-        private final ByteBuffer bufferOut = ByteBuffer.allocate(BUFFER_SIZE);
-        private final ArrayDeque<Message> queue = new ArrayDeque<>();
+        private final OutboundQueue outbound = new OutboundQueue();
         private boolean closed = false;
         private final MessageReader messageReader = new MessageReader();
-
-        private Context(SelectionKey key) {
+        private final int features;
+        // the HELLO answering ours is the first frame received
+        private boolean negotiating;
+        private Deflater deflater; // only once the server granted DEFLATE
+        private final long flushDelayNanos; // -1 if the messages are not coalesced
+        private boolean batching; // the queued messages wait for flushDeadline
+        private long flushDeadline; // System.nanoTime at which the batch is written
+
+        private Context(SelectionKey key, int features, long flushDelayMillis) {
             this.key = key;
             this.sc = (SocketChannel) key.channel();
+            this.features = features;
+            this.negotiating = features != 0;
+            this.flushDelayNanos = flushDelayMillis < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(flushDelayMillis);
+        }
+
+        /**
+         * Reads the HELLO answered by the server, if bufferIn holds all of it
+         *
+         * @return false if the server answered something else
+         */
+        private boolean negotiate() {
+            if (bufferIn.remaining() < Compression.HELLO_SIZE) {
+                return true;
+            }
+            if (bufferIn.getInt() != Compression.HELLO) {
+                return false;
+            }
+            var granted = bufferIn.getInt() & features;
+            if ((granted & Compression.DEFLATE) != 0) {
+                deflater = new Deflater(Deflater.BEST_SPEED);
+            }
+            negotiating = false;
+            return true;
         }
 
         /**
          * Process the content of bufferIn
          *
-         * The convention is that bufferIn is in write-mode before the call to process
+         * The convention is that bufferIn is in read-mode before the call to process
          * and after the call
          *
          */
         private void processIn() {
+            if (negotiating) {
+                if (!negotiate()) {
+                    silentlyClose();
+                    return;
+                }
+                if (negotiating) {
+                    return;
+                }
+            }
             while (true) {
                 var status = messageReader.process(bufferIn);
                 switch (status) {
@@ -63,36 +104,57 @@ public class ClientChat {
         }
 
         /**
-         * Add a message to the message queue, tries to fill bufferOut and updateInterestOps
+         * Encode a message into the outbound queue and updateInterestOps
          *
          * @param msg message
          */
         private void queueMessage(Message msg) {
-            queue.add(msg);
-            processOut();
+            ByteBuffer frame = null;
+            if (deflater != null && msg.msg().length() >= COMPRESSION_THRESHOLD) {
+                frame = Compression.compress(msg, deflater);
+            }
+            var wasEmpty = outbound.isEmpty();
+            outbound.add(frame != null ? frame : msg.encode().flip());
+            if (flushDelayNanos >= 0) {
+                if (outbound.remainingBytes() >= MAX_BATCH_BYTES) {
+                    batching = false;
+                } else if (wasEmpty) {
+                    batching = true;
+                    flushDeadline = System.nanoTime() + flushDelayNanos;
+                }
+            }
             updateInterestOps();
         }
 
         /**
-         * Try to fill bufferOut from the message queue
+         * @return the timeout to give to select so that it returns by the deadline of the
+         * batch, 0 if there is no batch
+         */
+        private long selectTimeoutMillis() {
+            if (!batching) {
+                return 0;
+            }
+            var delay = flushDeadline - System.nanoTime();
+            return Math.max(1, TimeUnit.NANOSECONDS.toMillis(delay + TimeUnit.MILLISECONDS.toNanos(1) - 1));
+        }
+
+        /**
+         * Writes the batch once its deadline has come
          *
+         * @throws IOException
          */
-        private void processOut() {
-            while (!queue.isEmpty()) {
-                var msg = queue.peek();
-                var msgBytes = msg.encode().flip();
-                if (bufferOut.remaining() < msgBytes.remaining()) {
-                    return;
-                }
-                bufferOut.put(msgBytes);
+        private void flushIfDue() throws IOException {
+            if (batching && System.nanoTime() - flushDeadline >= 0) {
+                batching = false;
+                doWrite();
             }
         }
 
         /**
-         * Update the interestOps of the key looking only at values of the boolean
-         * closed and of both ByteBuffers.
+         * Update the interestOps of the key looking only at values of the booleans
+         * closed and batching, of bufferIn and of the outbound queue.
          *
-         * The convention is that both buffers are in write-mode before the call to
+         * The convention is that bufferIn is in write-mode before the call to
          * updateInterestOps and after the call. Also it is assumed that process has
          * been be called just before updateInterestOps.
          */
@@ -104,11 +166,11 @@ public class ClientChat {
                 newInterestOps |= SelectionKey.OP_READ;
             }
 
-            if (bufferOut.position() != 0) {
+            if (!batching && !outbound.isEmpty()) {
                 newInterestOps |= SelectionKey.OP_WRITE;
             }
 
-            if (newInterestOps == 0) {
+            if (newInterestOps == 0 && !batching) {
                 silentlyClose();
                 return;
             }
@@ -126,7 +188,7 @@ public class ClientChat {
         /**
          * Performs the read action on sc
          *
-         * The convention is that both buffers are in write-mode before the call to
+         * The convention is that bufferIn is in write-mode before the call to
          * doRead and after the call
          *
          * @throws IOException
@@ -135,24 +197,21 @@ public class ClientChat {
             if (sc.read(bufferIn) == -1) {
                 closed = true;
             }
+            bufferIn.flip();
             processIn();
+            bufferIn.compact();
             updateInterestOps();
         }
 
         /**
-         * Performs the write action on sc
-         *
-         * The convention is that both buffers are in write-mode before the call to
-         * doWrite and after the call
+         * Performs the write action on sc, sending as many queued messages as the
+         * socket accepts with gathering writes
          *
          * @throws IOException
          */
 
         private void doWrite() throws IOException {
-            bufferOut.flip();
-            sc.write(bufferOut);
-            processOut();
-            bufferOut.compact();
+            outbound.flush(sc);
             updateInterestOps();
         }
 
@@ -161,25 +220,58 @@ public class ClientChat {
                 logger.warning("The selector give a bad hint");
                 return; // selector gave a bad hint
             }
+            if (features != 0) {
+                outbound.add(Compression.hello(features));
+            }
             key.interestOps(SelectionKey.OP_WRITE);
         }
     }
 
     private static final int BUFFER_SIZE = 10_000;
+    private static final int COMPRESSION_THRESHOLD = 256;
+    // bytes of a batch written without waiting for its deadline
+    private static final int MAX_BATCH_BYTES = 16 * 1_024;
     private static final Logger logger = Logger.getLogger(ClientChat.class.getName());
 
     private final SocketChannel sc;
     private final Selector selector;
     private final InetSocketAddress serverAddress;
     private final String login;
+    private final int features;
+    private final long flushDelayMillis;
     private final Thread console;
     private Context uniqueContext;
     private final BlockingQueue<String> messages = new ArrayBlockingQueue<>(10);
     private final Object lock = new Object();
 
     public ClientChat(String login, InetSocketAddress serverAddress) throws IOException {
+        this(login, serverAddress, 0);
+    }
+
+    /**
+     * @param login         login of the user
+     * @param serverAddress address of the server
+     * @param features      feature bits of {@link Compression} asked to the server, 0 for none
+     * @throws IOException exception
+     */
+    public ClientChat(String login, InetSocketAddress serverAddress, int features) throws IOException {
+        this(login, serverAddress, features, -1);
+    }
+
+    /**
+     * @param login            login of the user
+     * @param serverAddress    address of the server
+     * @param features         feature bits of {@link Compression} asked to the server, 0 for none
+     * @param flushDelayMillis delay during which the messages are batched before being written,
+     *                         -1 to write them as soon as possible
+     * @throws IOException exception
+     */
+    public ClientChat(String login, InetSocketAddress serverAddress, int features, long flushDelayMillis)
+            throws IOException {
         this.serverAddress = serverAddress;
         this.login = login;
+        this.features = features;
+        this.flushDelayMillis = flushDelayMillis;
         this.sc = SocketChannel.open();
         this.selector = Selector.open();
         this.console = Thread.ofPlatform().unstarted(this::consoleRun);
@@ -233,7 +325,7 @@ public class ClientChat {
     public void launch() throws IOException {
         sc.configureBlocking(false);
         var key = sc.register(selector, SelectionKey.OP_CONNECT);
-        uniqueContext = new Context(key);
+        uniqueContext = new Context(key, features, flushDelayMillis);
         key.attach(uniqueContext);
         sc.connect(serverAddress);
 
@@ -241,8 +333,11 @@ public class ClientChat {
 
         while (!Thread.interrupted()) {
             try {
-                selector.select(this::treatKey);
+                selector.select(this::treatKey, uniqueContext.selectTimeoutMillis());
                 processCommands();
+                if (uniqueContext.sc.isOpen()) {
+                    uniqueContext.flushIfDue();
+                }
             } catch (UncheckedIOException tunneled) {
                 throw tunneled.getCause();
             }
@@ -276,14 +371,18 @@ public class ClientChat {
     }
 
     public static void main(String[] args) throws NumberFormatException, IOException {
-        if (args.length != 3) {
+        if (args.length < 3 || args.length > 5
+                || (args.length >= 4 && !args[3].equals("deflate") && !args[3].equals("plain"))) {
             usage();
             return;
         }
-        new ClientChat(args[0], new InetSocketAddress(args[1], Integer.parseInt(args[2]))).launch();
+        var features = args.length >= 4 && args[3].equals("deflate") ? Compression.DEFLATE : 0;
+        var flushDelayMillis = args.length == 5 ? Long.parseLong(args[4]) : -1;
+        new ClientChat(args[0], new InetSocketAddress(args[1], Integer.parseInt(args[2])), features, flushDelayMillis)
+                .launch();
     }
 
     private static void usage() {
-        System.out.println("Usage : ClientChat login hostname port");
+        System.out.println("Usage : ClientChat login hostname port [deflate|plain [flushDelayMillis]]");
     }
 }
\ No newline at end of file
@@ -0,0 +1,70 @@
+package fr.networks.tcp.nonblocking.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+
+/**
+ * The frames of the chat protocol negotiating and carrying compressed texts.
+ * <p>
+ * The other frames than the messages start with a negative int, which cannot be the size
+ * of a login:
+ * <ul>
+ * <li>{@value #HELLO} then an int of feature bits, sent by the client as its very first
+ * frame to ask for features, and answered by the server with the ones it grants;</li>
+ * <li>{@value #COMPRESSED} then the size of the login, the login, the size in bytes of
+ * the text, the size of the compressed text and the text compressed in the zlib format,
+ * only sent once {@link #DEFLATE} has been granted.</li>
+ * </ul>
+ */
+public final class Compression {
+    public static final int HELLO = -1;
+    public static final int COMPRESSED = -2;
+    public static final int HELLO_SIZE = 2 * Integer.BYTES;
+
+    /**
+     * Feature bit of the texts compressed with deflate
+     */
+    public static final int DEFLATE = 1;
+
+    private Compression() {
+    }
+
+    /**
+     * @param features feature bits asked for
+     * @return the HELLO frame, in read-mode
+     */
+    public static ByteBuffer hello(int features) {
+        return ByteBuffer.allocate(HELLO_SIZE).putInt(HELLO).putInt(features).flip();
+    }
+
+    /**
+     * @param msg      message to compress
+     * @param deflater deflater, reset after use
+     * @return the COMPRESSED frame of msg in read-mode, or null if it is not shorter than the message
+     */
+    public static ByteBuffer compress(Message msg, Deflater deflater) {
+        var login = StandardCharsets.UTF_8.encode(msg.login());
+        var text = msg.msg().getBytes(StandardCharsets.UTF_8);
+        var plainSize = 2 * Integer.BYTES + login.remaining() + text.length;
+        var headerSize = 4 * Integer.BYTES + login.remaining();
+        if (headerSize >= plainSize) {
+            return null;
+        }
+        var frame = ByteBuffer.allocate(plainSize - 1);
+        frame.putInt(COMPRESSED).putInt(login.remaining()).put(login).putInt(text.length).putInt(0);
+        deflater.setInput(text);
+        deflater.finish();
+        try {
+            while (!deflater.finished() && frame.hasRemaining()) {
+                deflater.deflate(frame);
+            }
+            if (!deflater.finished()) {
+                return null;
+            }
+        } finally {
+            deflater.reset();
+        }
+        return frame.putInt(headerSize - Integer.BYTES, frame.position() - headerSize).flip();
+    }
+}
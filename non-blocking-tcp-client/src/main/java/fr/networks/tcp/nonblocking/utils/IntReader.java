@@ -17,19 +17,16 @@ public class IntReader implements Reader<Integer> {
         if (state == State.DONE || state == State.ERROR) {
             throw new IllegalStateException();
         }
-        buffer.flip();
-        try {
-            if (buffer.remaining() <= internalBuffer.remaining()) {
-                internalBuffer.put(buffer);
-            } else {
-                var oldLimit = buffer.limit();
-                buffer.limit(internalBuffer.remaining());
-                internalBuffer.put(buffer);
-                buffer.limit(oldLimit);
-            }
-        } finally {
-            buffer.compact();
+        if (internalBuffer.position() == 0 && buffer.remaining() >= Integer.BYTES) {
+            // the whole int is there, no need to gather it
+            state = State.DONE;
+            value = buffer.getInt();
+            return ProcessStatus.DONE;
         }
+        var length = Math.min(buffer.remaining(), internalBuffer.remaining());
+        internalBuffer.put(internalBuffer.position(), buffer, buffer.position(), length);
+        internalBuffer.position(internalBuffer.position() + length);
+        buffer.position(buffer.position() + length);
         if (internalBuffer.hasRemaining()) {
             return ProcessStatus.REFILL;
         }
@@ -5,9 +5,9 @@ import java.nio.charset.StandardCharsets;
 
 public record Message(String login, String msg) {
     public ByteBuffer encode() {
-        var bb = ByteBuffer.allocate(1024);
         var loginBytes = StandardCharsets.UTF_8.encode(login);
         var msgBytes = StandardCharsets.UTF_8.encode(msg);
+        var bb = ByteBuffer.allocate(2 * Integer.BYTES + loginBytes.remaining() + msgBytes.remaining());
         return bb.putInt(loginBytes.remaining()).put(loginBytes)
                 .putInt(msgBytes.remaining()).put(msgBytes);
     }
@@ -1,14 +1,37 @@
 package fr.networks.tcp.nonblocking.utils;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
+/**
+ * Reads a message made of a login of at most {@link StringReader#MAX_SIZE} bytes and of a
+ * text of at most {@link #MAX_TEXT_SIZE} bytes, either plain or in a
+ * {@link Compression#COMPRESSED} frame. A compressed text is gathered, then inflated at
+ * once by an Inflater reused from one message to the next.
+ */
 public class MessageReader implements Reader<Message> {
     private enum State {
-        DONE, WAITING_LOGIN, WAITING_MSG, ERROR
+        DONE, WAITING_TAG, WAITING_LOGIN, WAITING_MSG, WAITING_TEXT_SIZE, WAITING_COMPRESSED_SIZE,
+        WAITING_COMPRESSED, ERROR
     }
 
-    private State state = State.WAITING_LOGIN;
-    private final StringReader stringReader = new StringReader();
+    public static final int MAX_TEXT_SIZE = 8 * 1_024 * 1_024;
+    private static final int LOGIN_CACHE_SIZE = 256;
+    private static final int MAX_CACHED_LOGIN_SIZE = 64;
+
+    private State state = State.WAITING_TAG;
+    // a client receives the messages of the same few logins again and again
+    private final StringReader loginReader = new StringReader(StringReader.MAX_SIZE,
+            new StringCache(LOGIN_CACHE_SIZE, MAX_CACHED_LOGIN_SIZE));
+    private final StringReader textReader = new StringReader(MAX_TEXT_SIZE);
+    private final IntReader sizeReader = new IntReader();
+    private final byte[] overflow = new byte[1]; // receives the bytes inflated past the announced size
+    private Inflater inflater; // created with the first compressed message
+    private boolean compressed; // the message being read is a compressed frame
+    private int textSize;
+    private ByteBuffer compressedText; // write-mode, only while gathering a compressed text
     private Message message;
     private String login;
     private String content;
@@ -19,24 +42,40 @@ public class MessageReader implements Reader<Message> {
             throw new IllegalStateException();
         }
 
+        if (state == State.WAITING_TAG) {
+            // the int starting a compressed frame would be the size of the login of a message
+            if (buffer.remaining() < Integer.BYTES) {
+                return ProcessStatus.REFILL;
+            }
+            if (buffer.getInt(buffer.position()) == Compression.COMPRESSED) {
+                buffer.getInt();
+                compressed = true;
+            }
+            state = State.WAITING_LOGIN;
+        }
+
         if (state == State.WAITING_LOGIN) {
-            var status = stringReader.process(buffer);
+            var status = loginReader.process(buffer);
             if (status == ProcessStatus.DONE) {
-                state = State.WAITING_MSG;
-                login = stringReader.get();
-                stringReader.reset();
+                state = compressed ? State.WAITING_TEXT_SIZE : State.WAITING_MSG;
+                login = loginReader.get();
+                loginReader.reset();
             } else {
                 return status;
             }
         }
 
+        if (compressed) {
+            return processCompressed(buffer);
+        }
+
         if (state == State.WAITING_MSG) {
-            var status = stringReader.process(buffer);
+            var status = textReader.process(buffer);
             if (status != ProcessStatus.DONE) {
                 return status;
             } else {
                 state = State.DONE;
-                content = stringReader.get();
+                content = textReader.get();
                 message = new Message(login, content);
                 return ProcessStatus.DONE;
             }
@@ -45,6 +84,96 @@ public class MessageReader implements Reader<Message> {
         throw new AssertionError();
     }
 
+    private ProcessStatus processCompressed(ByteBuffer buffer) {
+        if (state == State.WAITING_TEXT_SIZE) {
+            var status = sizeReader.process(buffer);
+            if (status != ProcessStatus.DONE) {
+                return status;
+            }
+            textSize = sizeReader.get();
+            if (textSize < 0 || textSize > MAX_TEXT_SIZE) {
+                return error();
+            }
+            sizeReader.reset();
+            state = State.WAITING_COMPRESSED_SIZE;
+        }
+
+        if (state == State.WAITING_COMPRESSED_SIZE) {
+            var status = sizeReader.process(buffer);
+            if (status != ProcessStatus.DONE) {
+                return status;
+            }
+            var compressedSize = sizeReader.get();
+            // a compressed frame is only sent when it is shorter than the message
+            if (compressedSize < 0 || compressedSize > textSize) {
+                return error();
+            }
+            compressedText = ByteBuffer.allocate(compressedSize);
+            state = State.WAITING_COMPRESSED;
+        }
+
+        if (state == State.WAITING_COMPRESSED) {
+            var length = Math.min(buffer.remaining(), compressedText.remaining());
+            compressedText.put(compressedText.position(), buffer, buffer.position(), length);
+            compressedText.position(compressedText.position() + length);
+            buffer.position(buffer.position() + length);
+            if (compressedText.hasRemaining()) {
+                return ProcessStatus.REFILL;
+            }
+            var text = inflate();
+            compressedText = null;
+            if (text == null) {
+                return error();
+            }
+            content = text;
+            message = new Message(login, content);
+            state = State.DONE;
+            return ProcessStatus.DONE;
+        }
+
+        throw new AssertionError();
+    }
+
+    /**
+     * @return the text inflated from compressedText, or null if it is not a valid zlib
+     * stream of textSize bytes
+     */
+    private String inflate() {
+        if (inflater == null) {
+            inflater = new Inflater();
+        }
+        inflater.setInput(compressedText.flip());
+        try {
+            var bytes = new byte[textSize];
+            var inflated = 0;
+            while (inflated < textSize) {
+                var count = inflater.inflate(bytes, inflated, textSize - inflated);
+                if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += count;
+            }
+            // the end of the stream may only be seen once the output is full
+            if (inflated == textSize && !inflater.finished() && inflater.inflate(overflow) != 0) {
+                return null;
+            }
+            if (inflated != textSize || !inflater.finished()) {
+                return null;
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            return null;
+        } finally {
+            inflater.reset();
+        }
+    }
+
+    private ProcessStatus error() {
+        state = State.ERROR;
+        compressedText = null;
+        return ProcessStatus.ERROR;
+    }
+
     @Override
     public Message get() {
         if (state != State.DONE) {
@@ -55,7 +184,11 @@ public class MessageReader implements Reader<Message> {
 
     @Override
     public void reset() {
-        state = State.WAITING_LOGIN;
-        stringReader.reset();
+        state = State.WAITING_TAG;
+        loginReader.reset();
+        textReader.reset();
+        sizeReader.reset();
+        compressed = false;
+        compressedText = null;
     }
 }
\ No newline at end of file
@@ -0,0 +1,114 @@
+package fr.networks.tcp.nonblocking.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.Arrays;
+
+/**
+ * A queue of frames ready to be sent, flushed with gathering writes.
+ * <p>
+ * Each entry is a read-mode buffer of its own, so a partial write simply leaves the
+ * position of the first entry somewhere in the middle of the frame. Entries are kept in
+ * a ring buffer so that a contiguous run of them can be handed as is to
+ * {@link GatheringByteChannel#write(ByteBuffer[], int, int)}, without any copy.
+ * <p>
+ * This class is not thread-safe, it belongs to the thread of the selector.
+ */
+public final class OutboundQueue {
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int MAX_BUFFERS_PER_WRITE = 64;
+
+    private ByteBuffer[] buffers = new ByteBuffer[INITIAL_CAPACITY];
+    private int head;
+    private int size;
+    private long remainingBytes;
+
+    /**
+     * Adds a buffer to the queue. The buffer is in read-mode and must not be modified until
+     * it has been sent.
+     *
+     * @param buffer bytes to send
+     */
+    public void add(ByteBuffer buffer) {
+        if (size == buffers.length) {
+            grow();
+        }
+        buffers[(head + size) & (buffers.length - 1)] = buffer;
+        size++;
+        remainingBytes += buffer.remaining();
+    }
+
+    private void grow() {
+        var newBuffers = new ByteBuffer[buffers.length * 2];
+        for (var i = 0; i < size; i++) {
+            newBuffers[i] = buffers[(head + i) & (buffers.length - 1)];
+        }
+        buffers = newBuffers;
+        head = 0;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the number of frames not yet completely sent
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of bytes not yet sent
+     */
+    public long remainingBytes() {
+        return remainingBytes;
+    }
+
+    /**
+     * Writes as many queued frames as the channel accepts. Gathering writes are issued
+     * until the queue is empty or the channel stops accepting all the bytes it is given.
+     *
+     * @param channel channel to write to
+     * @return the number of bytes written
+     * @throws IOException if the write fails
+     */
+    public long flush(GatheringByteChannel channel) throws IOException {
+        var total = 0L;
+        while (size != 0) {
+            // only a contiguous run of the ring can be given to the channel
+            var length = Math.min(Math.min(size, buffers.length - head), MAX_BUFFERS_PER_WRITE);
+            var expected = 0L;
+            for (var i = head; i < head + length; i++) {
+                expected += buffers[i].remaining();
+            }
+            var written = channel.write(buffers, head, length);
+            total += written;
+            remainingBytes -= written;
+            removeSent();
+            if (written < expected) {
+                return total;
+            }
+        }
+        return total;
+    }
+
+    private void removeSent() {
+        while (size != 0 && !buffers[head].hasRemaining()) {
+            buffers[head] = null;
+            head = (head + 1) & (buffers.length - 1);
+            size--;
+        }
+    }
+
+    /**
+     * Drops all the queued frames.
+     */
+    public void clear() {
+        Arrays.fill(buffers, null);
+        head = 0;
+        size = 0;
+        remainingBytes = 0;
+    }
+}
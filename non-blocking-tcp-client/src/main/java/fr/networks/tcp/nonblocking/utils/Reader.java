@@ -2,14 +2,33 @@ package fr.networks.tcp.nonblocking.utils;
 
 import java.nio.ByteBuffer;
 
+/**
+ * Reads a value from the bytes received in a buffer.
+ * <p>
+ * The buffer given to {@link #process(ByteBuffer)} is in read-mode. The reader consumes
+ * the bytes of the value in place, from the position of the buffer, and leaves the
+ * position after the last byte it consumed. It never moves the bytes of the buffer: the
+ * caller flips its buffer once after reading from the channel, calls process as long as
+ * it returns DONE, then compacts the buffer once, so that the bytes left in the buffer
+ * are moved once per read whatever the number of fields of the frames.
+ * <p>
+ * On REFILL, the reader may leave the first bytes of a field it needs whole, such as a
+ * header, in the buffer. They are kept by the compaction of the caller and given again to
+ * the next call.
+ */
 public interface Reader<T> {
 
     public static enum ProcessStatus { DONE, REFILL, ERROR };
 
+    /**
+     * @param bb buffer in read-mode, whose position is moved after the bytes consumed
+     * @return DONE once the value is read, REFILL if more bytes are needed, ERROR if the
+     * bytes are not a valid value
+     */
     public ProcessStatus process(ByteBuffer bb);
 
     public T get();
 
     public void reset();
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,102 @@
+package fr.networks.tcp.nonblocking.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A bounded cache of decoded strings, keyed by their UTF-8 bytes.
+ * <p>
+ * It spares decoding, and allocating, the strings which come again and again, such as
+ * the logins of the chat messages. The bytes are looked up where they were received,
+ * so a hit costs a hash and a comparison of the bytes. The cache is direct-mapped: a
+ * string takes the slot given by the hash of its bytes, evicting the string which was
+ * there. Strings longer than maxLength bytes are never cached.
+ * <p>
+ * This class is not thread-safe, it belongs to the thread of the selector.
+ */
+public final class StringCache {
+    private final byte[][] keys;
+    private final String[] values;
+    private final int maxLength;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param capacity  number of strings kept, rounded up to a power of two
+     * @param maxLength size in bytes of the longest string cached
+     */
+    public StringCache(int capacity, int maxLength) {
+        if (capacity <= 0 || capacity > 1 << 30 || maxLength < 0) {
+            throw new IllegalArgumentException();
+        }
+        var slots = Integer.highestOneBit(capacity - 1) << 1;
+        keys = new byte[Math.max(slots, 1)][];
+        values = new String[keys.length];
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * Decodes length bytes of buffer starting at index, without changing its position nor
+     * its limit
+     *
+     * @param buffer buffer holding the bytes
+     * @param index  index of the first byte
+     * @param length number of bytes
+     * @return the cached string for these bytes, or the freshly decoded one
+     */
+    public String get(ByteBuffer buffer, int index, int length) {
+        if (length > maxLength) {
+            return decode(buffer, index, length);
+        }
+        var hash = 1;
+        for (var i = index; i < index + length; i++) {
+            hash = 31 * hash + buffer.get(i);
+        }
+        var slot = (hash ^ hash >>> 16) & (keys.length - 1);
+        var key = keys[slot];
+        if (key != null && matches(key, buffer, index, length)) {
+            hits++;
+            return values[slot];
+        }
+        misses++;
+        key = new byte[length];
+        buffer.get(index, key);
+        var value = new String(key, StandardCharsets.UTF_8);
+        keys[slot] = key;
+        values[slot] = value;
+        return value;
+    }
+
+    /**
+     * Decodes length bytes of buffer starting at index, straight from the array of a heap
+     * buffer, without changing its position nor its limit
+     */
+    static String decode(ByteBuffer buffer, int index, int length) {
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + index, length, StandardCharsets.UTF_8);
+        }
+        var bytes = new byte[length];
+        buffer.get(index, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static boolean matches(byte[] key, ByteBuffer buffer, int index, int length) {
+        if (key.length != length) {
+            return false;
+        }
+        for (var i = 0; i < length; i++) {
+            if (key[i] != buffer.get(index + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long hits() {
+        return hits;
+    }
+
+    public long misses() {
+        return misses;
+    }
+}
@@ -0,0 +1,190 @@
+package fr.networks.tcp_blocking.bench;
+
+import fr.networks.tcp_blocking.exo5.Message;
+import fr.networks.tcp_blocking.exo5.MessageWireReader;
+import fr.networks.tcp_blocking.utils.Reader;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A closed-loop chat workload, run in a process of its own by {@link EngineBenchmark} so
+ * that the memory of the clients does not show in the memory of the server.
+ * <p>
+ * All the clients connect, then the process prints {@code CONNECTED} and waits for a line
+ * on its standard input. Then each sender sends its messages one at a time, waiting for
+ * the broadcast of each message to come back before sending the next one. Every client
+ * records the latency of every message it receives, the send time being carried in the
+ * text of the message. The process waits for the messages of totalSenders senders, more
+ * than its own when the server is linked to other nodes sending as well. Finally it prints
+ * {@code RESULT elapsedNanos deliveries p50 p99 p999 max}, the latencies in nanoseconds.
+ * <p>
+ * The clients read the messages with a {@link MessageWireReader}, looking at their bytes
+ * without decoding them, so that the clients weigh as little as possible on the machine.
+ */
+public final class ChatLoad {
+    private static final long DRAIN_TIMEOUT_MILLIS = 5_000;
+
+    private final class Client {
+        private final SocketChannel sc;
+        private final String login;
+        private final byte[] loginBytes;
+        private final Semaphore echoed = new Semaphore(0);
+        private final LatencyHistogram histogram = new LatencyHistogram();
+
+        private Client(SocketChannel sc, String login) {
+            this.sc = sc;
+            this.login = login;
+            this.loginBytes = login.getBytes(StandardCharsets.UTF_8);
+        }
+
+        private void readLoop() {
+            var bufferIn = ByteBuffer.allocate(1_024);
+            var messageReader = new MessageWireReader();
+            try {
+                while (sc.read(bufferIn) != -1) {
+                    bufferIn.flip();
+                    while (true) {
+                        var status = messageReader.process(bufferIn);
+                        if (status != Reader.ProcessStatus.DONE) {
+                            break;
+                        }
+                        var bytes = messageReader.bytes();
+                        histogram.record(System.nanoTime() - sentAt(bytes, messageReader.msgOffset()));
+                        deliveries.increment();
+                        var loginOffset = messageReader.loginOffset();
+                        if (Arrays.equals(bytes, loginOffset, loginOffset + messageReader.loginLength(), loginBytes, 0,
+                                loginBytes.length)) {
+                            echoed.release();
+                        }
+                        messageReader.reset();
+                    }
+                    bufferIn.compact();
+                }
+            } catch (IOException e) {
+                // the connection is lost, the results will show it
+            }
+        }
+
+        private void sendLoop() throws IOException, InterruptedException {
+            var bufferOut = ByteBuffer.allocate(2 * 1_024);
+            for (var i = 0; i < messagesPerSender; i++) {
+                bufferOut.clear();
+                new Message(login, System.nanoTime() + ":" + padding).encodeInto(bufferOut).flip();
+                while (bufferOut.hasRemaining()) {
+                    sc.write(bufferOut);
+                }
+                if (!echoed.tryAcquire(DRAIN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    throw new IOException("message of " + login + " lost");
+                }
+            }
+        }
+    }
+
+    private final InetSocketAddress server;
+    private final int nbClients;
+    private final int nbSenders;
+    private final int totalSenders; // senders of all the processes loading the federation
+    private final int messagesPerSender;
+    private final String padding;
+    private final LongAdder deliveries = new LongAdder();
+
+    private ChatLoad(InetSocketAddress server, int nbClients, int nbSenders, int totalSenders,
+            int messagesPerSender, int payloadSize) {
+        this.server = server;
+        this.nbClients = nbClients;
+        this.nbSenders = nbSenders;
+        this.totalSenders = totalSenders;
+        this.messagesPerSender = messagesPerSender;
+        this.padding = "x".repeat(payloadSize);
+    }
+
+    /**
+     * @return the send time written in decimal at the start of a text, before a ':'
+     */
+    private static long sentAt(byte[] text, int offset) {
+        var sentAt = 0L;
+        var negative = text[offset] == '-';
+        for (var i = negative ? offset + 1 : offset; text[i] != ':'; i++) {
+            sentAt = 10 * sentAt + (text[i] - '0');
+        }
+        return negative ? -sentAt : sentAt;
+    }
+
+    private void run() throws IOException, InterruptedException {
+        var clients = new ArrayList<Client>(nbClients);
+        for (var i = 0; i < nbClients; i++) {
+            clients.add(new Client(SocketChannel.open(server), "client" + i));
+        }
+        var readers = new ArrayList<Thread>(nbClients);
+        for (var client : clients) {
+            readers.add(Thread.ofVirtual().start(client::readLoop));
+        }
+        System.out.println("CONNECTED");
+        new BufferedReader(new InputStreamReader(System.in)).readLine();
+
+        var start = System.nanoTime();
+        var senders = new ArrayList<Thread>(nbSenders);
+        for (var client : clients.subList(0, nbSenders)) {
+            senders.add(Thread.ofVirtual().start(() -> {
+                try {
+                    client.sendLoop();
+                } catch (IOException | InterruptedException e) {
+                    System.err.println(e);
+                }
+            }));
+        }
+        for (var sender : senders) {
+            sender.join();
+        }
+        // let the last broadcasts reach every client
+        var expected = (long) nbClients * totalSenders * messagesPerSender;
+        var deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DRAIN_TIMEOUT_MILLIS);
+        while (deliveries.sum() < expected && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        var elapsed = System.nanoTime() - start;
+
+        for (var client : clients) {
+            client.sc.shutdownInput();
+        }
+        var histogram = new LatencyHistogram();
+        for (var i = 0; i < nbClients; i++) {
+            readers.get(i).join();
+            histogram.merge(clients.get(i).histogram);
+            clients.get(i).sc.close();
+        }
+        System.out.println("RESULT " + elapsed + " " + histogram.count() + " " + histogram.valueAt(50) + " "
+                + histogram.valueAt(99) + " " + histogram.valueAt(99.9) + " " + histogram.max());
+    }
+
+    public static void main(String[] args) throws NumberFormatException, IOException, InterruptedException {
+        if (args.length != 6 && args.length != 7) {
+            usage();
+            return;
+        }
+        var nbClients = Integer.parseInt(args[2]);
+        var nbSenders = Integer.parseInt(args[3]);
+        var totalSenders = args.length == 7 ? Integer.parseInt(args[6]) : nbSenders;
+        if (nbSenders > nbClients || totalSenders < nbSenders) {
+            usage();
+            return;
+        }
+        new ChatLoad(new InetSocketAddress(args[0], Integer.parseInt(args[1])), nbClients, nbSenders, totalSenders,
+                Integer.parseInt(args[4]), Integer.parseInt(args[5])).run();
+    }
+
+    private static void usage() {
+        System.out.println("Usage : ChatLoad host port nbClients nbSenders messagesPerSender payloadSize [totalSenders]");
+    }
+}
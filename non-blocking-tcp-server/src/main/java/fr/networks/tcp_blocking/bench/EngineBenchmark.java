@@ -0,0 +1,181 @@
+package fr.networks.tcp_blocking.bench;
+
+import fr.networks.tcp_blocking.exo5.ServerChat;
+import fr.networks.tcp_blocking.exo5.ServerChatConfig;
+import fr.networks.tcp_blocking.exo5.ServerChatVirtual;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives the selector engine, {@link ServerChat}, and the virtual thread engine,
+ * {@link ServerChatVirtual}, with the same loopback workload and prints, for each of
+ * them, the throughput, the latency percentiles and the memory used per connection.
+ * <p>
+ * The server runs in this process, the clients run in a {@link ChatLoad} child process.
+ * The memory per connection is the growth of the heap and of the direct memory of this
+ * process once all the clients are connected, divided by the number of clients.
+ * <p>
+ * The two engines do not do the same work: the virtual thread engine only broadcasts,
+ * without rooms nor slow consumer policy, and drops a frame for a client whose queue of
+ * 256 frames is full. The frames dropped by each engine are printed with its results, and
+ * a result is only comparable to the other one when neither dropped anything.
+ */
+public final class EngineBenchmark {
+    private static final long SETTLE_MILLIS = 500;
+
+    private interface Engine {
+        void launch() throws IOException;
+
+        /**
+         * @return the number of frames not delivered to a client because it was too slow
+         */
+        long dropped();
+    }
+
+    private record Result(String engine, double deliveriesPerSecond, long p50, long p99, long p999, long max,
+                          long bytesPerConnection, long dropped) {
+        @Override
+        public String toString() {
+            return String.format("%-8s %12.0f %9.1f %9.1f %9.1f %9.1f %12d %9d", engine, deliveriesPerSecond,
+                    p50 / 1_000.0, p99 / 1_000.0, p999 / 1_000.0, max / 1_000.0, bytesPerConnection, dropped);
+        }
+    }
+
+    private final int nbClients;
+    private final int nbSenders;
+    private final int messagesPerSender;
+    private final int payloadSize;
+
+    private EngineBenchmark(int nbClients, int nbSenders, int messagesPerSender, int payloadSize) {
+        this.nbClients = nbClients;
+        this.nbSenders = nbSenders;
+        this.messagesPerSender = messagesPerSender;
+        this.payloadSize = payloadSize;
+    }
+
+    private static int freePort() throws IOException {
+        try (var socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static long usedMemory() throws InterruptedException {
+        for (var i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        var heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        var direct = ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class).stream()
+                .filter(pool -> pool.getName().equals("direct"))
+                .mapToLong(BufferPoolMXBean::getMemoryUsed)
+                .sum();
+        return heap + direct;
+    }
+
+    private Result run(String name, int port, Engine engine) throws IOException, InterruptedException {
+        var server = Thread.ofPlatform().name(name).start(() -> {
+            try {
+                engine.launch();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        var baseline = usedMemory();
+        var java = ProcessHandle.current().info().command().orElse("java");
+        var load = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                ChatLoad.class.getName(), "localhost", Integer.toString(port), Integer.toString(nbClients),
+                Integer.toString(nbSenders), Integer.toString(messagesPerSender), Integer.toString(payloadSize))
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        try (var output = new BufferedReader(new InputStreamReader(load.getInputStream(), StandardCharsets.UTF_8))) {
+            var bytesPerConnection = 0L;
+            String line;
+            while ((line = output.readLine()) != null) {
+                if (line.equals("CONNECTED")) {
+                    // let the server register all the clients before measuring
+                    Thread.sleep(SETTLE_MILLIS);
+                    bytesPerConnection = (usedMemory() - baseline) / nbClients;
+                    load.getOutputStream().write('\n');
+                    load.getOutputStream().flush();
+                } else if (line.startsWith("RESULT ")) {
+                    var fields = line.split(" ");
+                    var elapsed = Long.parseLong(fields[1]);
+                    var deliveries = Long.parseLong(fields[2]);
+                    return new Result(name, deliveries * 1e9 / elapsed, Long.parseLong(fields[3]),
+                            Long.parseLong(fields[4]), Long.parseLong(fields[5]), Long.parseLong(fields[6]),
+                            bytesPerConnection, engine.dropped());
+                }
+            }
+            throw new IOException("the load process of " + name + " stopped without result");
+        } finally {
+            load.waitFor(10, TimeUnit.SECONDS);
+            load.destroy();
+            server.interrupt();
+            server.join();
+        }
+    }
+
+    private List<Result> runAll(int nbReactors) throws IOException, InterruptedException {
+        var results = new ArrayList<Result>();
+        var reactorPort = freePort();
+        var reactor = new ServerChat(reactorPort, ServerChatConfig.DEFAULT.withReactors(nbReactors));
+        results.add(run("reactor", reactorPort, new Engine() {
+            @Override
+            public void launch() throws IOException {
+                reactor.launch();
+            }
+
+            @Override
+            public long dropped() {
+                var stats = reactor.outboundStats();
+                return stats.droppedOldest() + stats.droppedNewest();
+            }
+        }));
+        var virtualPort = freePort();
+        var virtual = new ServerChatVirtual(virtualPort);
+        results.add(run("virtual", virtualPort, new Engine() {
+            @Override
+            public void launch() throws IOException {
+                virtual.launch();
+            }
+
+            @Override
+            public long dropped() {
+                return virtual.droppedFrames();
+            }
+        }));
+        return results;
+    }
+
+    public static void main(String[] args) throws NumberFormatException, IOException, InterruptedException {
+        if (args.length != 4 && args.length != 5) {
+            usage();
+            return;
+        }
+        var benchmark = new EngineBenchmark(Integer.parseInt(args[0]), Integer.parseInt(args[1]),
+                Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+        var nbReactors = args.length == 5 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+        var results = benchmark.runAll(nbReactors);
+        System.out.printf("%-8s %12s %9s %9s %9s %9s %12s %9s%n", "engine", "msg/s", "p50 us", "p99 us",
+                "p999 us", "max us", "bytes/conn", "dropped");
+        for (var result : results) {
+            System.out.println(result);
+        }
+        System.out.println("reactor: rooms and the " + ServerChatConfig.DEFAULT.limits().policy()
+                + " slow consumer policy; virtual: broadcast only, frames dropped once 256 are queued to a client");
+    }
+
+    private static void usage() {
+        System.out.println("Usage : EngineBenchmark nbClients nbSenders messagesPerSender payloadSize [nbReactors]");
+    }
+}
@@ -0,0 +1,195 @@
+package fr.networks.tcp_blocking.bench;
+
+import fr.networks.tcp_blocking.exo5.Federation;
+import fr.networks.tcp_blocking.exo5.ServerChat;
+import fr.networks.tcp_blocking.exo5.ServerChatConfig;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the aggregate throughput of a federation of {@link ServerChat} nodes as nodes
+ * are added.
+ * <p>
+ * For 1 to maxNodes nodes, the nodes run in this process on loopback ports, each node
+ * linked to the previous one, and each node is loaded by a {@link ChatLoad} child process
+ * with the same number of clients and senders. Every client receives the messages of the
+ * senders of all the nodes, so the deliveries grow with the square of the number of nodes
+ * while the work of each node grows linearly. The benchmark prints, for each number of
+ * nodes, the deliveries per second summed over the nodes, the messages forwarded on the
+ * links per second and the worst p99 latency of the nodes.
+ */
+public final class FederationBenchmark {
+    private static final long LINK_TIMEOUT_MILLIS = 5_000;
+    private static final String SECRET = "federation-benchmark";
+
+    private record Result(int nodes, double deliveriesPerSecond, double forwardsPerSecond, long p99) {
+        @Override
+        public String toString() {
+            return String.format("%5d %14.0f %14.0f %9.1f", nodes, deliveriesPerSecond, forwardsPerSecond,
+                    p99 / 1_000.0);
+        }
+    }
+
+    private final int nbReactors;
+    private final int nbClients;
+    private final int nbSenders;
+    private final int messagesPerSender;
+    private final int payloadSize;
+
+    private FederationBenchmark(int nbReactors, int nbClients, int nbSenders, int messagesPerSender,
+            int payloadSize) {
+        this.nbReactors = nbReactors;
+        this.nbClients = nbClients;
+        this.nbSenders = nbSenders;
+        this.messagesPerSender = messagesPerSender;
+        this.payloadSize = payloadSize;
+    }
+
+    private static int freePort() throws IOException {
+        try (var socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private Process startLoad(int port, int nbNodes) throws IOException {
+        var java = ProcessHandle.current().info().command().orElse("java");
+        return new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                ChatLoad.class.getName(), "localhost", Integer.toString(port), Integer.toString(nbClients),
+                Integer.toString(nbSenders), Integer.toString(messagesPerSender), Integer.toString(payloadSize),
+                Integer.toString(nbNodes * nbSenders))
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+    }
+
+    private static void awaitLine(BufferedReader output, String expected) throws IOException {
+        String line;
+        while ((line = output.readLine()) != null) {
+            if (line.startsWith(expected)) {
+                return;
+            }
+        }
+        throw new IOException("the load process stopped before " + expected);
+    }
+
+    private Result run(int nbNodes) throws IOException, InterruptedException {
+        var nodes = new ArrayList<ServerChat>();
+        var ports = new ArrayList<Integer>();
+        var peerPorts = new ArrayList<Integer>();
+        for (var i = 0; i < nbNodes; i++) {
+            var port = freePort();
+            var peerPort = freePort();
+            // a chain: each node dials the previous one
+            var dial = i == 0 ? List.<InetSocketAddress>of()
+                    : List.of(new InetSocketAddress("localhost", peerPorts.get(i - 1)));
+            nodes.add(new ServerChat(port, ServerChatConfig.DEFAULT.withReactors(nbReactors)
+                    .withFederation(new Federation(i, peerPort, dial, SECRET))));
+            ports.add(port);
+            peerPorts.add(peerPort);
+        }
+        var servers = new ArrayList<Thread>();
+        for (var i = 0; i < nbNodes; i++) {
+            var node = nodes.get(i);
+            servers.add(Thread.ofPlatform().name("node-" + i).start(() -> {
+                try {
+                    node.launch();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+        }
+        var loads = new ArrayList<Process>();
+        try {
+            awaitLinks(nodes);
+            var outputs = new ArrayList<BufferedReader>();
+            for (var port : ports) {
+                var load = startLoad(port, nbNodes);
+                loads.add(load);
+                outputs.add(new BufferedReader(new InputStreamReader(load.getInputStream(), StandardCharsets.UTF_8)));
+            }
+            for (var output : outputs) {
+                awaitLine(output, "CONNECTED");
+            }
+            var forwardedBefore = forwarded(nodes);
+            for (var load : loads) {
+                load.getOutputStream().write('\n');
+                load.getOutputStream().flush();
+            }
+            var deliveriesPerSecond = 0.0;
+            var maxElapsed = 0L;
+            var p99 = 0L;
+            for (var output : outputs) {
+                var line = output.readLine();
+                while (line != null && !line.startsWith("RESULT ")) {
+                    line = output.readLine();
+                }
+                if (line == null) {
+                    throw new IOException("a load process stopped without result");
+                }
+                var fields = line.split(" ");
+                var elapsed = Long.parseLong(fields[1]);
+                deliveriesPerSecond += Long.parseLong(fields[2]) * 1e9 / elapsed;
+                maxElapsed = Math.max(maxElapsed, elapsed);
+                p99 = Math.max(p99, Long.parseLong(fields[4]));
+            }
+            var forwardsPerSecond = (forwarded(nodes) - forwardedBefore) * 1e9 / maxElapsed;
+            return new Result(nbNodes, deliveriesPerSecond, forwardsPerSecond, p99);
+        } finally {
+            for (var load : loads) {
+                load.waitFor(10, TimeUnit.SECONDS);
+                load.destroy();
+            }
+            for (var server : servers) {
+                server.interrupt();
+                server.join();
+            }
+        }
+    }
+
+    /**
+     * Waits for the links of the chain, two per node but the ends
+     */
+    private static void awaitLinks(List<ServerChat> nodes) throws IOException, InterruptedException {
+        var expected = 2 * (nodes.size() - 1);
+        var deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(LINK_TIMEOUT_MILLIS);
+        while (nodes.stream().mapToInt(node -> node.federationStats().links()).sum() < expected) {
+            if (System.nanoTime() > deadline) {
+                throw new IOException("the nodes are not linked");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static long forwarded(List<ServerChat> nodes) {
+        return nodes.stream().mapToLong(node -> node.federationStats().forwarded()).sum();
+    }
+
+    public static void main(String[] args) throws NumberFormatException, IOException, InterruptedException {
+        if (args.length != 5 && args.length != 6) {
+            usage();
+            return;
+        }
+        var maxNodes = Integer.parseInt(args[0]);
+        var nbReactors = args.length == 6 ? Integer.parseInt(args[5]) : 1;
+        var benchmark = new FederationBenchmark(nbReactors, Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+                Integer.parseInt(args[3]), Integer.parseInt(args[4]));
+        System.out.printf("%5s %14s %14s %9s%n", "nodes", "deliveries/s", "forwards/s", "p99 us");
+        for (var nbNodes = 1; nbNodes <= maxNodes; nbNodes++) {
+            System.out.println(benchmark.run(nbNodes));
+        }
+    }
+
+    private static void usage() {
+        System.out.println(
+                "Usage : FederationBenchmark maxNodes nbClientsPerNode nbSendersPerNode messagesPerSender payloadSize"
+                        + " [nbReactorsPerNode]");
+    }
+}
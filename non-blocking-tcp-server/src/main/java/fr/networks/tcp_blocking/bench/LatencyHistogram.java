@@ -0,0 +1,93 @@
+package fr.networks.tcp_blocking.bench;
+
+/**
+ * A histogram of latencies in nanoseconds, with log-linear buckets.
+ * <p>
+ * Values below 128 have a bucket of their own; above, each power of two is cut in 64
+ * buckets, so a recorded value is known within 1.6%. Recording is a few shifts and an
+ * increment, without allocation, whatever the range of the values.
+ * <p>
+ * This class is not thread-safe: each thread records in its own histogram, and the
+ * histograms are merged once the measure is over.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * HALF_SUB_BUCKETS + SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long max;
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        var shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return shift * HALF_SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * @return the highest value falling in the bucket at index
+     */
+    private static long highestValueAt(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        var shift = index / HALF_SUB_BUCKETS - 1;
+        var mantissa = (long) (index - shift * HALF_SUB_BUCKETS);
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    /**
+     * @param nanos latency, negative values are recorded as 0
+     */
+    public void record(long nanos) {
+        var value = Math.max(0, nanos);
+        counts[indexOf(value)]++;
+        count++;
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Adds all the values recorded by other to this histogram
+     *
+     * @param other histogram to merge
+     */
+    public void merge(LatencyHistogram other) {
+        for (var i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        max = Math.max(max, other.max);
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public long max() {
+        return max;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the value under which percentile percents of the recorded values fall, 0 if
+     * nothing was recorded
+     */
+    public long valueAt(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        var rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        var seen = 0L;
+        for (var i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highestValueAt(i), max);
+            }
+        }
+        return max;
+    }
+}
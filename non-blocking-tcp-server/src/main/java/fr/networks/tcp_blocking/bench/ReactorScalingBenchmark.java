@@ -0,0 +1,117 @@
+package fr.networks.tcp_blocking.bench;
+
+import fr.networks.tcp_blocking.exo5.ServerChat;
+import fr.networks.tcp_blocking.exo5.ServerChatConfig;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how the throughput of {@link ServerChat} grows with its number of reactors.
+ * <p>
+ * For 1, 2, 4... up to maxReactors reactors, the server runs in this process on a loopback
+ * port and is loaded by a {@link ChatLoad} child process with the same clients and senders.
+ * The benchmark prints, for each number of reactors, the deliveries per second, the
+ * speedup over a single reactor, the speedup divided by the number of reactors, and the
+ * p99 latency. The clients share the machine with the server, so the speedup flattens
+ * once the cores are busy with both.
+ */
+public final class ReactorScalingBenchmark {
+    private record Measure(double deliveriesPerSecond, long p99) {
+    }
+
+    private record Result(int reactors, double deliveriesPerSecond, double speedup, long p99) {
+        @Override
+        public String toString() {
+            return String.format("%8d %14.0f %8.2f %10.2f %9.1f", reactors, deliveriesPerSecond, speedup,
+                    speedup / reactors, p99 / 1_000.0);
+        }
+    }
+
+    private final int nbClients;
+    private final int nbSenders;
+    private final int messagesPerSender;
+    private final int payloadSize;
+
+    private ReactorScalingBenchmark(int nbClients, int nbSenders, int messagesPerSender, int payloadSize) {
+        this.nbClients = nbClients;
+        this.nbSenders = nbSenders;
+        this.messagesPerSender = messagesPerSender;
+        this.payloadSize = payloadSize;
+    }
+
+    private static int freePort() throws IOException {
+        try (var socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private Measure run(int nbReactors) throws IOException, InterruptedException {
+        var port = freePort();
+        var chat = new ServerChat(port, ServerChatConfig.DEFAULT.withReactors(nbReactors));
+        var server = Thread.ofPlatform().name("server").start(() -> {
+            try {
+                chat.launch();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        var java = ProcessHandle.current().info().command().orElse("java");
+        var load = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                ChatLoad.class.getName(), "localhost", Integer.toString(port), Integer.toString(nbClients),
+                Integer.toString(nbSenders), Integer.toString(messagesPerSender), Integer.toString(payloadSize))
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        try (var output = new BufferedReader(new InputStreamReader(load.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = output.readLine()) != null) {
+                if (line.equals("CONNECTED")) {
+                    load.getOutputStream().write('\n');
+                    load.getOutputStream().flush();
+                } else if (line.startsWith("RESULT ")) {
+                    var fields = line.split(" ");
+                    var elapsed = Long.parseLong(fields[1]);
+                    var deliveries = Long.parseLong(fields[2]);
+                    return new Measure(deliveries * 1e9 / elapsed, Long.parseLong(fields[4]));
+                }
+            }
+            throw new IOException("the load process stopped without result");
+        } finally {
+            load.waitFor(10, TimeUnit.SECONDS);
+            load.destroy();
+            server.interrupt();
+            server.join();
+        }
+    }
+
+    public static void main(String[] args) throws NumberFormatException, IOException, InterruptedException {
+        if (args.length != 5) {
+            usage();
+            return;
+        }
+        var maxReactors = Integer.parseInt(args[0]);
+        var benchmark = new ReactorScalingBenchmark(Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+                Integer.parseInt(args[3]), Integer.parseInt(args[4]));
+        System.out.printf("%8s %14s %8s %10s %9s%n", "reactors", "deliveries/s", "speedup", "efficiency",
+                "p99 us");
+        var base = 0.0;
+        for (var nbReactors = 1; nbReactors <= maxReactors; nbReactors *= 2) {
+            var measured = benchmark.run(nbReactors);
+            if (nbReactors == 1) {
+                base = measured.deliveriesPerSecond();
+            }
+            System.out.println(new Result(nbReactors, measured.deliveriesPerSecond(),
+                    measured.deliveriesPerSecond() / base, measured.p99()));
+        }
+    }
+
+    private static void usage() {
+        System.out.println("Usage : ReactorScalingBenchmark maxReactors nbClients nbSenders messagesPerSender"
+                + " payloadSize");
+    }
+}
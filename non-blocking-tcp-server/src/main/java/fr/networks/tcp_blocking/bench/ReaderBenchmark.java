@@ -0,0 +1,130 @@
+package fr.networks.tcp_blocking.bench;
+
+import fr.networks.tcp_blocking.exo5.Message;
+import fr.networks.tcp_blocking.exo5.MessageEncoder;
+import fr.networks.tcp_blocking.exo5.MessageReader;
+import fr.networks.tcp_blocking.exo5.RelayReader;
+import fr.networks.tcp_blocking.utils.BufferPool;
+import fr.networks.tcp_blocking.utils.CharBufferPool;
+import fr.networks.tcp_blocking.utils.Frame;
+import fr.networks.tcp_blocking.utils.FramePool;
+import fr.networks.tcp_blocking.utils.Reader;
+import fr.networks.tcp_blocking.utils.StringCache;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.function.Supplier;
+
+/**
+ * Measures the CPU time and the memory allocated per message to turn a stream of
+ * messages, sent under a few logins, into frames ready to be relayed, as
+ * {@link fr.networks.tcp_blocking.exo5.ServerChat} does. The messages are either decoded
+ * by a {@link MessageReader} then encoded again by a {@link MessageEncoder}, or copied
+ * as they are by a {@link RelayReader}.
+ * <p>
+ * The stream is copied into a direct input buffer of the size of the ones of the
+ * server, either filling it at once or a few bytes at a time. In the first case, most
+ * strings are decoded straight from the input buffer, in the second one they are all
+ * gathered in a pooled buffer first.
+ */
+public final class ReaderBenchmark {
+    private static final int BUFFER_SIZE = 1_024;
+    private static final int FRAGMENT_SIZE = 16;
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int ROUNDS = 20;
+
+    private final ByteBuffer stream; // read-mode
+    private final FramePool smallFrames = new FramePool(2 * BUFFER_SIZE, 16);
+    private final FramePool largeFrames = new FramePool(64 * 1_024, 16);
+    private final int nbMessages;
+
+    private ReaderBenchmark(int nbMessages, int nbLogins, int textSize) {
+        this.nbMessages = nbMessages;
+        var text = "x".repeat(textSize);
+        var encoded = new ByteBuffer[nbMessages];
+        var size = 0;
+        for (var i = 0; i < nbMessages; i++) {
+            encoded[i] = new Message("user-" + i % nbLogins, text).encode().flip();
+            size += encoded[i].remaining();
+        }
+        stream = ByteBuffer.allocateDirect(size);
+        for (var message : encoded) {
+            stream.put(message);
+        }
+        stream.flip();
+    }
+
+    /**
+     * Reads the whole stream once
+     *
+     * @return the number of messages read
+     */
+    private int readAll(Reader<?> reader, MessageEncoder encoder, ByteBuffer bufferIn, int fragmentSize) {
+        var source = stream.duplicate();
+        var count = 0;
+        while (source.hasRemaining()) {
+            var length = Math.min(Math.min(fragmentSize, bufferIn.remaining()), source.remaining());
+            bufferIn.put(bufferIn.position(), source, source.position(), length);
+            bufferIn.position(bufferIn.position() + length);
+            source.position(source.position() + length);
+            bufferIn.flip();
+            while (reader.process(bufferIn) == Reader.ProcessStatus.DONE) {
+                var value = reader.get();
+                var frame = value instanceof Message message ? encoder.encode(message) : (Frame) value;
+                frame.release();
+                reader.reset();
+                count++;
+            }
+            bufferIn.compact();
+        }
+        return count;
+    }
+
+    private void run(String name, Supplier<Reader<?>> readers, int fragmentSize) {
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        var reader = readers.get();
+        var encoder = new MessageEncoder(smallFrames, largeFrames);
+        var bufferIn = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        for (var i = 0; i < WARMUP_ROUNDS; i++) {
+            readAll(reader, encoder, bufferIn, fragmentSize);
+        }
+        var allocated = threads.getCurrentThreadAllocatedBytes();
+        var cpu = threads.getCurrentThreadCpuTime();
+        var count = 0L;
+        for (var i = 0; i < ROUNDS; i++) {
+            count += readAll(reader, encoder, bufferIn, fragmentSize);
+        }
+        cpu = threads.getCurrentThreadCpuTime() - cpu;
+        allocated = threads.getCurrentThreadAllocatedBytes() - allocated;
+        if (count != (long) ROUNDS * nbMessages) {
+            throw new AssertionError("read " + count + " messages");
+        }
+        System.out.printf("%-10s %10.1f %12.1f%n", name, (double) cpu / count, (double) allocated / count);
+    }
+
+    private RelayReader relayReader(boolean validateUtf8) {
+        return new RelayReader(smallFrames, largeFrames, 1 << 20, validateUtf8);
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 3) {
+            usage();
+            return;
+        }
+        var benchmark = new ReaderBenchmark(Integer.parseInt(args[0]), Integer.parseInt(args[1]),
+                Integer.parseInt(args[2]));
+        var pool = new BufferPool(BUFFER_SIZE, 16);
+        var charPool = new CharBufferPool(1 << 20, 1);
+        System.out.printf("%-10s %10s %12s%n", "path", "ns/msg", "bytes/msg");
+        benchmark.run("gathered", () -> new MessageReader(pool, charPool, 1 << 20), FRAGMENT_SIZE);
+        benchmark.run("in-place", () -> new MessageReader(pool, charPool, 1 << 20), BUFFER_SIZE);
+        benchmark.run("cached", () -> new MessageReader(pool, charPool, 1 << 20, new StringCache(1_024, 64)),
+                BUFFER_SIZE);
+        benchmark.run("raw", () -> benchmark.relayReader(false), BUFFER_SIZE);
+        benchmark.run("validated", () -> benchmark.relayReader(true), BUFFER_SIZE);
+    }
+
+    private static void usage() {
+        System.out.println("Usage : ReaderBenchmark nbMessages nbLogins textSize");
+    }
+}
@@ -0,0 +1,109 @@
+package fr.networks.tcp_blocking.bench;
+
+import fr.networks.tcp_blocking.exo3.ServerSumBetter;
+import fr.networks.tcp_blocking.utils.PairSummer;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Measures, on one core, how many bytes of requests per second the processing of
+ * {@link ServerSumBetter} turns into sums: the former loop summing one pair at a time
+ * with getInt and putInt, then the batches of {@link PairSummer}, scalar and, when run
+ * with {@code --add-modules jdk.incubator.vector}, vectorized.
+ * <p>
+ * Each round sums a full input buffer of the given size into an output buffer, both
+ * direct as the ones of the server. A run measures a single loop, so that the JIT does
+ * not see the other implementations of {@link PairSummer}.
+ */
+public final class SumBenchmark {
+    private static final long WARMUP_NANOS = 1_000_000_000L;
+    private static final long MEASURE_NANOS = 2_000_000_000L;
+
+    private interface Processing {
+        void process(ByteBuffer src, ByteBuffer dst);
+    }
+
+    private final ByteBuffer src;
+    private final ByteBuffer dst;
+    // the first sum of every round, printed so that the JIT cannot drop the rounds
+    private int checksum;
+
+    private SumBenchmark(int bufferSize) {
+        var random = new Random(0);
+        src = ByteBuffer.allocateDirect(bufferSize);
+        while (src.remaining() >= Long.BYTES) {
+            src.putInt(random.nextInt()).putInt(random.nextInt());
+        }
+        src.flip();
+        dst = ByteBuffer.allocateDirect(bufferSize / 2);
+    }
+
+    /**
+     * The loop of ServerSumBetter before the batches
+     */
+    private static void perPair(ByteBuffer src, ByteBuffer dst) {
+        while (dst.remaining() >= Integer.BYTES && src.remaining() >= Integer.BYTES * 2) {
+            dst.putInt(src.getInt() + src.getInt());
+        }
+    }
+
+    /**
+     * @return the bytes of requests processed per second
+     */
+    private double run(Processing processing, long nanos) {
+        var bytes = 0L;
+        var sums = 0;
+        var start = System.nanoTime();
+        var elapsed = 0L;
+        while (elapsed < nanos) {
+            for (var i = 0; i < 1_000; i++) {
+                src.rewind();
+                dst.clear();
+                processing.process(src, dst);
+                bytes += src.position();
+                sums += dst.getInt(0);
+            }
+            elapsed = System.nanoTime() - start;
+        }
+        checksum += sums;
+        return bytes * 1e9 / elapsed;
+    }
+
+    private void measure(String name, Processing processing) {
+        run(processing, WARMUP_NANOS);
+        System.out.printf("%-8s %10.1f %11x%n", name, run(processing, MEASURE_NANOS) / (1 << 20), checksum);
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 2) {
+            usage();
+            return;
+        }
+        var bufferSize = args.length == 2 ? Integer.parseInt(args[1]) : 1_024;
+        var maxPairs = bufferSize / Long.BYTES;
+        Processing processing;
+        switch (args[0]) {
+            case "per-pair" -> processing = SumBenchmark::perPair;
+            case "scalar" -> processing = PairSummer.scalar(maxPairs)::sum;
+            case "vector" -> {
+                var summer = PairSummer.create(maxPairs);
+                if (!summer.isVectorized()) {
+                    System.out.println("Vector API unavailable, run with --add-modules jdk.incubator.vector");
+                    return;
+                }
+                processing = summer::sum;
+            }
+            default -> {
+                usage();
+                return;
+            }
+        }
+        System.out.printf("%-8s %10s %11s%n", "loop", "MiB/s", "checksum");
+        new SumBenchmark(bufferSize).measure(args[0], processing);
+    }
+
+    private static void usage() {
+        System.out.println("Usage : SumBenchmark per-pair|scalar|vector [bufferSize]");
+    }
+}
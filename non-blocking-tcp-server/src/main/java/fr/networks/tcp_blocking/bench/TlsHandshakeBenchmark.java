@@ -0,0 +1,192 @@
+package fr.networks.tcp_blocking.bench;
+
+import fr.networks.tcp_blocking.exo5.Message;
+import fr.networks.tcp_blocking.exo5.ServerChat;
+import fr.networks.tcp_blocking.exo5.ServerChatConfig;
+import fr.networks.tcp_blocking.utils.TlsSettings;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the TLS handshakes per second of {@link ServerChat}, with full handshakes and
+ * with resumed sessions, for TLS 1.3 and TLS 1.2.
+ * <p>
+ * The server runs in this process with a self-signed certificate, and so do the clients:
+ * each client thread connects, sends a message, waits for its broadcast and disconnects,
+ * again and again. The round trip lets the client receive the session tickets sent after
+ * the handshake. For the full handshakes, each connection gets a context of its own, so
+ * it has no session to resume; for the resumed ones, the connections of the benchmark
+ * share one context, which keeps their sessions. The benchmark prints, for each case, the
+ * connections per second and the share of them which resumed a session.
+ */
+public final class TlsHandshakeBenchmark {
+    private static final char[] PASSWORD = "changeit".toCharArray();
+    private static final long WARMUP_MILLIS = 2_000;
+
+    private record Result(String protocol, boolean resumption, double handshakesPerSecond, double resumedRate) {
+        @Override
+        public String toString() {
+            return String.format("%-8s %-8s %14.0f %9.1f", protocol, resumption ? "resumed" : "full",
+                    handshakesPerSecond, resumedRate * 100);
+        }
+    }
+
+    private final int port;
+    private final TrustManager[] trustManagers;
+    private final int nbThreads;
+    private final long durationMillis;
+
+    private TlsHandshakeBenchmark(int port, TrustManager[] trustManagers, int nbThreads, long durationMillis) {
+        this.port = port;
+        this.trustManagers = trustManagers;
+        this.nbThreads = nbThreads;
+        this.durationMillis = durationMillis;
+    }
+
+    private static int freePort() throws IOException {
+        try (var socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private SSLContext newClientContext() {
+        try {
+            var context = SSLContext.getInstance("TLS");
+            context.init(null, trustManagers, null);
+            return context;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Connects, exchanges a message with the server and disconnects
+     *
+     * @return the creation time of the session, which is the one of the session resumed
+     */
+    private long connectOnce(SSLContext context, String protocol, byte[] request, byte[] login) throws IOException {
+        try (var socket = (SSLSocket) context.getSocketFactory().createSocket()) {
+            socket.setEnabledProtocols(new String[] {protocol});
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            socket.getOutputStream().write(request);
+            socket.getOutputStream().flush();
+            var in = new DataInputStream(socket.getInputStream());
+            // the messages of the other clients may come first
+            while (true) {
+                var received = new byte[in.readInt()];
+                in.readFully(received);
+                in.readFully(new byte[in.readInt()]);
+                if (Arrays.equals(received, login)) {
+                    return socket.getSession().getCreationTime();
+                }
+            }
+        }
+    }
+
+    private Result run(String protocol, boolean resumption, long millis) throws InterruptedException {
+        var shared = resumption ? newClientContext() : null;
+        var handshakes = new LongAdder();
+        var resumed = new LongAdder();
+        var deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        var threads = new ArrayList<Thread>(nbThreads);
+        var start = System.nanoTime();
+        for (var i = 0; i < nbThreads; i++) {
+            var login = "client" + i;
+            threads.add(Thread.ofPlatform().start(() -> {
+                var bb = new Message(login, "ping").encode().flip();
+                var request = new byte[bb.remaining()];
+                bb.get(request);
+                var loginBytes = login.getBytes(StandardCharsets.UTF_8);
+                try {
+                    while (System.nanoTime() < deadline) {
+                        var context = shared == null ? newClientContext() : shared;
+                        var connected = System.currentTimeMillis();
+                        // a session created by an earlier connection, of any thread, was resumed
+                        if (connectOnce(context, protocol, request, loginBytes) < connected) {
+                            resumed.increment();
+                        }
+                        handshakes.increment();
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+        }
+        for (var thread : threads) {
+            thread.join();
+        }
+        var elapsed = System.nanoTime() - start;
+        var count = handshakes.sum();
+        return new Result(protocol, resumption, count * 1e9 / elapsed, count == 0 ? 0 : (double) resumed.sum() / count);
+    }
+
+    public static void main(String[] args) throws NumberFormatException, IOException, GeneralSecurityException,
+            InterruptedException {
+        if (args.length < 2 || args.length > 3) {
+            usage();
+            return;
+        }
+        var durationMillis = Long.parseLong(args[0]) * 1_000;
+        var nbThreads = Integer.parseInt(args[1]);
+        var nbReactors = args.length == 3 ? Integer.parseInt(args[2]) : 1;
+
+        var keyStore = Files.createTempDirectory("tls-bench").resolve("server.p12");
+        TlsSettings.generateSelfSigned(keyStore, PASSWORD);
+        var trustStore = KeyStore.getInstance("PKCS12");
+        try (var in = Files.newInputStream(keyStore)) {
+            trustStore.load(in, PASSWORD);
+        }
+        var trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(trustStore);
+
+        var port = freePort();
+        var server = new ServerChat(port, ServerChatConfig.DEFAULT.withReactors(nbReactors)
+                .withTls(TlsSettings.load(keyStore, PASSWORD)));
+        var serverThread = Thread.ofPlatform().name("server").start(() -> {
+            try {
+                server.launch();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        try {
+            var benchmark = new TlsHandshakeBenchmark(port, trustManagers.getTrustManagers(), nbThreads,
+                    durationMillis);
+            benchmark.run("TLSv1.3", false, WARMUP_MILLIS);
+            benchmark.run("TLSv1.3", true, WARMUP_MILLIS);
+            System.out.printf("%-8s %-8s %14s %9s%n", "protocol", "session", "handshakes/s", "resumed%");
+            for (var protocol : new String[] {"TLSv1.3", "TLSv1.2"}) {
+                for (var resumption : new boolean[] {false, true}) {
+                    System.out.println(benchmark.run(protocol, resumption, durationMillis));
+                }
+            }
+        } finally {
+            serverThread.interrupt();
+            serverThread.join();
+            Files.deleteIfExists(keyStore);
+            Files.deleteIfExists(keyStore.getParent());
+        }
+    }
+
+    private static void usage() {
+        System.out.println("Usage : TlsHandshakeBenchmark seconds nbClientThreads [nbReactors]");
+    }
+}
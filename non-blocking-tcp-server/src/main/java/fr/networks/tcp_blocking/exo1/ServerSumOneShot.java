@@ -1,132 +1,118 @@
 package fr.networks.tcp_blocking.exo1;
 
-import fr.networks.tcp_blocking.utils.Helpers;
+import fr.networks.tcp_blocking.reactor.Connection;
+import fr.networks.tcp_blocking.reactor.ListenMode;
+import fr.networks.tcp_blocking.reactor.Reactor;
+import fr.networks.tcp_blocking.reactor.ReactorGroup;
+import fr.networks.tcp_blocking.utils.ConnectionTimeouts;
 
 import java.io.IOException;
-import java.io.UncheckedIOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
-import java.nio.channels.*;
+import java.nio.channels.SelectionKey;
 import java.util.logging.Logger;
 
 public class ServerSumOneShot {
-
-	private static final int BUFFER_SIZE = 2 * Integer.BYTES;
-	private static final Logger logger = Logger.getLogger(ServerSumOneShot.class.getName());
-
-	private final ServerSocketChannel serverSocketChannel;
-	private final Selector selector;
-
-	public ServerSumOneShot(int port) throws IOException {
-		serverSocketChannel = ServerSocketChannel.open();
-		serverSocketChannel.bind(new InetSocketAddress(port));
-		selector = Selector.open();
-	}
-
-	public void launch() throws IOException {
-		serverSocketChannel.configureBlocking(false);
-		serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
-		while (!Thread.interrupted()) {
-			Helpers.printKeys(selector); // for debug
-			System.out.println("Starting select");
-			try {
-				selector.select(this::treatKey);
-			} catch (IOException e) {
-				e.getCause();
-			}
-			System.out.println("Select finished");
+	/**
+	 * State of a client: the buffer of its request or of its answer
+	 */
+	static private class Context extends Connection {
+		private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		private final ConnectionTimeouts timeouts;
+
+		private Context(ServerSumOneShot server, Reactor reactor, SelectionKey key) {
+			super(reactor, key);
+			this.timeouts = server.timeouts;
 		}
-	}
 
-	private void treatKey(SelectionKey key) {
-		Helpers.printSelectedKey(key); // for debug
-		try {
-			if (key.isValid() && key.isAcceptable()) {
-				doAccept(key);
-			}
-		} catch (IOException e) {
-			throw new UncheckedIOException(e);
+		@Override
+		protected void opened() {
+			setInterestOps(SelectionKey.OP_READ);
+			scheduleTimeout(timeouts.idleMillis());
 		}
-		try {
-			if (key.isValid() && key.isWritable()) {
-				doWrite(key);
+
+		@Override
+		protected void doRead() throws IOException {
+			if (sc.read(buffer) == -1) { // kick the client when he closes the connection first
+				logger.fine("Connection closed with client");
+				silentlyClose();
+				return;
 			}
-			if (key.isValid() && key.isReadable()) {
-				doRead(key);
+
+			if (buffer.hasRemaining()) { // read while there is space in my buffer
+				scheduleTimeout(buffer.position() == 0 ? timeouts.idleMillis() : timeouts.readMillis());
+				return;
 			}
-		} catch (IOException e) {
-			logger.info("Connection closed with client due to IOException");
-			silentlyClose(key);
-		}
-	}
 
-	private void doAccept(SelectionKey key) throws IOException {
-		var server = (ServerSocketChannel) key.channel();
-		var client = server.accept();
-		if (client == null) {
-			logger.warning("The selector give a bad hint");
-			return; // selector gave a bad hint
+			buffer.flip();
+			int res = buffer.getInt() + buffer.getInt();
+			buffer.clear();
+			buffer.putInt(res);
+			setInterestOps(SelectionKey.OP_WRITE);
+			scheduleTimeout(timeouts.writeMillis());
 		}
-		client.configureBlocking(false);
-		client.register(selector, SelectionKey.OP_READ, ByteBuffer.allocate(BUFFER_SIZE));
-	}
 
-	private void doRead(SelectionKey key) throws IOException {
-		var client = (SocketChannel) key.channel();
-		var buffer = (ByteBuffer) key.attachment();
+		@Override
+		protected void doWrite() throws IOException {
+			buffer.flip();
 
-		if (client.read(buffer) == -1) { // kick the client when he closes the connection first
-			logger.info("Connection closed with client");
-			silentlyClose(key);
-			return;
+			try {
+				sc.write(buffer);
+				if (buffer.hasRemaining()) {
+					scheduleTimeout(timeouts.writeMillis());
+					return;
+				}
+
+				silentlyClose();
+			} finally {
+				buffer.compact();
+			}
 		}
+	}
 
-		if (buffer.hasRemaining()) { // read while there is space in my buffer
-			return;
-		}
+	private static final int BUFFER_SIZE = 2 * Integer.BYTES;
+	private static final Logger logger = Logger.getLogger(ServerSumOneShot.class.getName());
 
-		buffer.flip();
-		int res = buffer.getInt() + buffer.getInt();
-		buffer.clear();
-		buffer.putInt(res);
-		key.interestOps(SelectionKey.OP_WRITE);
-	}
+	private final ReactorGroup reactors;
+	private final ConnectionTimeouts timeouts = ConnectionTimeouts.DEFAULT;
 
-	private void doWrite(SelectionKey key) throws IOException {
-		var client = (SocketChannel) key.channel();
-		var buffer = (ByteBuffer) key.attachment();
-		buffer.flip();
+	public ServerSumOneShot(int port) throws IOException {
+		this(port, 1, ListenMode.SHARED);
+	}
 
-		try {
-			client.write(buffer);
-			if (buffer.hasRemaining()) {
-				return;
-			}
+	/**
+	 * @param port       port to listen on
+	 * @param nbReactors number of reactors serving the clients
+	 * @param mode       how the clients are accepted by the reactors
+	 * @throws IOException exception
+	 */
+	public ServerSumOneShot(int port, int nbReactors, ListenMode mode) throws IOException {
+		reactors = new ReactorGroup(new InetSocketAddress(port), nbReactors, mode,
+				(reactor, key) -> new Context(this, reactor, key));
+	}
 
-			silentlyClose(key);
-		} finally {
-			buffer.compact();
-		}
+	public void launch() throws IOException {
+		reactors.launch();
 	}
 
-	private void silentlyClose(SelectionKey key) {
-		var sc = (Channel) key.channel();
-		try {
-			sc.close();
-		} catch (IOException e) {
-			// ignore exception
-		}
+	/**
+	 * @return the number of connections of each reactor
+	 */
+	public int[] connectionCounts() {
+		return reactors.connectionCounts();
 	}
 
 	public static void main(String[] args) throws NumberFormatException, IOException {
-		if (args.length != 1) {
+		if (args.length < 1 || args.length > 3) {
 			usage();
 			return;
 		}
-		new ServerSumOneShot(Integer.parseInt(args[0])).launch();
+		var nbReactors = args.length >= 2 ? Integer.parseInt(args[1]) : 1;
+		var mode = args.length == 3 ? ListenMode.valueOf(args[2]) : ListenMode.SHARED;
+		new ServerSumOneShot(Integer.parseInt(args[0]), nbReactors, mode).launch();
 	}
 
 	private static void usage() {
-		System.out.println("Usage : ServerSumOneShot port");
+		System.out.println("Usage : ServerSumOneShot port [nbReactors [SHARED|REUSE_PORT]]");
 	}
 }
\ No newline at end of file
@@ -1,41 +1,59 @@
 package fr.networks.tcp_blocking.exo2;
 
-import fr.networks.tcp_blocking.utils.Helpers;
+import fr.networks.tcp_blocking.reactor.Connection;
+import fr.networks.tcp_blocking.reactor.ListenMode;
+import fr.networks.tcp_blocking.reactor.Reactor;
+import fr.networks.tcp_blocking.reactor.ReactorGroup;
+import fr.networks.tcp_blocking.utils.BufferPool;
+import fr.networks.tcp_blocking.utils.ConnectionTimeouts;
 
 import java.io.IOException;
-import java.io.UncheckedIOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
-import java.nio.channels.*;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.nio.channels.SelectionKey;
 
 public class ServerEcho {
-	static private class Context {
-		private final SelectionKey key;
-		private final SocketChannel sc;
-		private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+	static private class Context extends Connection {
+		private final ServerEcho server;
+		private final BufferPool pool;
+		private ByteBuffer buffer; // borrowed from the pool only while it holds bytes to echo
 		private boolean closed = false;
 
-		private Context(SelectionKey key) {
-			this.key = key;
-			this.sc = (SocketChannel) key.channel();
+		private Context(ServerEcho server, Reactor reactor, SelectionKey key) {
+			super(reactor, key);
+			this.server = server;
+			this.pool = server.bufferPool;
+		}
+
+		@Override
+		protected void opened() {
+			armTimer();
+			updateInterestOps();
+		}
+
+		/**
+		 * Arm the timer of the context with the timeout matching its state: bytes
+		 * waiting to be echoed or nothing at all.
+		 */
+		private void armTimer() {
+			var delay = buffer != null ? server.timeouts.writeMillis() : server.timeouts.idleMillis();
+			scheduleTimeout(delay);
 		}
 
 		/**
 		 * Update the interestOps of the key looking only at values of the boolean
 		 * closed and the ByteBuffer buffer.
 		 *
-		 * The convention is that buff is in write-mode.
+		 * The convention is that buff, when borrowed, is in write-mode.
 		 */
 		private void updateInterestOps() {
 			var newInterestOps = 0;
 
-			if (!closed && buffer.hasRemaining()) {
+			if (!closed && (buffer == null || buffer.hasRemaining())) {
 				newInterestOps |= SelectionKey.OP_READ;
 			}
 
-			if (buffer.position() != 0) {
+			if (buffer != null && buffer.position() != 0) {
 				newInterestOps |= SelectionKey.OP_WRITE;
 			}
 
@@ -43,7 +61,7 @@ public class ServerEcho {
 				silentlyClose();
 				return;
 			}
-			key.interestOps(newInterestOps);
+			setInterestOps(newInterestOps);
 		}
 
 		/**
@@ -54,10 +72,20 @@ public class ServerEcho {
 		 *
 		 * @throws IOException
 		 */
-		private void doRead() throws IOException {
-			if (sc.read(buffer) == -1) {
+		@Override
+		protected void doRead() throws IOException {
+			if (buffer == null) {
+				buffer = pool.acquire();
+			}
+			var wasWriting = buffer.position() != 0;
+			var read = sc.read(buffer);
+			if (read == -1) {
 				closed = true;
-				return;
+			}
+			releaseDrainedBuffer();
+			// while bytes are waiting to be echoed, only the progress of the writes counts
+			if (read > 0 && !wasWriting) {
+				armTimer();
 			}
 			updateInterestOps();
 		}
@@ -70,101 +98,85 @@ public class ServerEcho {
 		 *
 		 * @throws IOException
 		 */
-		private void doWrite() throws IOException {
+		@Override
+		protected void doWrite() throws IOException {
 			buffer.flip();
-			sc.write(buffer);
+			var written = sc.write(buffer);
 			buffer.compact();
+			releaseDrainedBuffer();
+			if (written > 0) {
+				armTimer();
+			}
 			updateInterestOps();
 		}
 
-		private void silentlyClose() {
-			try {
-				sc.close();
-			} catch (IOException e) {
-				// ignore exception
+		private void releaseDrainedBuffer() {
+			if (buffer != null && buffer.position() == 0) {
+				pool.release(buffer);
+				buffer = null;
+			}
+		}
+
+		@Override
+		protected void onClose() {
+			if (buffer != null) {
+				pool.release(buffer);
+				buffer = null;
 			}
 		}
 	}
 
 	private static final int BUFFER_SIZE = 1_024;
-	private static final Logger logger = Logger.getLogger(ServerEcho.class.getName());
+	private static final int BUFFERS_PER_SLAB = 256;
 
-	private final ServerSocketChannel serverSocketChannel;
-	private final Selector selector;
+	private final ReactorGroup reactors;
+	private final ConnectionTimeouts timeouts = ConnectionTimeouts.DEFAULT;
+	private final BufferPool bufferPool = new BufferPool(BUFFER_SIZE, BUFFERS_PER_SLAB);
 
 	public ServerEcho(int port) throws IOException {
-		serverSocketChannel = ServerSocketChannel.open();
-		serverSocketChannel.bind(new InetSocketAddress(port));
-		selector = Selector.open();
+		this(port, 1, ListenMode.SHARED);
 	}
 
-	public void launch() throws IOException {
-		serverSocketChannel.configureBlocking(false);
-		serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
-		while (!Thread.interrupted()) {
-			Helpers.printKeys(selector); // for debug
-			System.out.println("Starting select");
-			try {
-				selector.select(this::treatKey);
-			} catch (UncheckedIOException tunneled) {
-				throw tunneled.getCause();
-			}
-			System.out.println("Select finished");
-		}
+	/**
+	 * @param port       port to listen on
+	 * @param nbReactors number of reactors serving the clients
+	 * @param mode       how the clients are accepted by the reactors
+	 * @throws IOException exception
+	 */
+	public ServerEcho(int port, int nbReactors, ListenMode mode) throws IOException {
+		reactors = new ReactorGroup(new InetSocketAddress(port), nbReactors, mode,
+				(reactor, key) -> new Context(this, reactor, key));
 	}
 
-	private void treatKey(SelectionKey key) {
-		Helpers.printSelectedKey(key); // for debug
-		try {
-			if (key.isValid() && key.isAcceptable()) {
-				doAccept(key);
-			}
-		} catch (IOException ioe) {
-			// lambda call in select requires to tunnel IOException
-			throw new UncheckedIOException(ioe);
-		}
-		try {
-			if (key.isValid() && key.isWritable()) {
-				((Context) key.attachment()).doWrite();
-			}
-			if (key.isValid() && key.isReadable()) {
-				((Context) key.attachment()).doRead();
-			}
-		} catch (IOException e) {
-			logger.log(Level.INFO, "Connection closed with client due to IOException", e);
-			silentlyClose(key);
-		}
+	public void launch() throws IOException {
+		reactors.launch();
 	}
 
-	private void doAccept(SelectionKey key) throws IOException {
-		var client = serverSocketChannel.accept();
-		if (client == null) {
-			logger.warning("The selector give a bad hint");
-			return; // selector gave a bad hint
-		}
-		client.configureBlocking(false);
-		var clientKey = client.register(selector, SelectionKey.OP_READ);
-		clientKey.attach(new Context(clientKey));
+	/**
+	 * @return the number of connections of each reactor
+	 */
+	public int[] connectionCounts() {
+		return reactors.connectionCounts();
 	}
 
-	private void silentlyClose(SelectionKey key) {
-		var sc = (Channel) key.channel();
-		try {
-			sc.close();
-		} catch (IOException e) {
-			// ignore exception
-		}
+	/**
+	 * @return the metrics of the pool of connection buffers
+	 */
+	public BufferPool.Stats bufferPoolStats() {
+		return bufferPool.stats();
 	}
 
 	public static void main(String[] args) throws NumberFormatException, IOException {
-		if (args.length != 1) {
+		if (args.length < 1 || args.length > 3) {
 			usage();
 			return;
 		}
-		new ServerEcho(Integer.parseInt(args[0])).launch();
+		var nbReactors = args.length >= 2 ? Integer.parseInt(args[1]) : 1;
+		var mode = args.length == 3 ? ListenMode.valueOf(args[2]) : ListenMode.SHARED;
+		new ServerEcho(Integer.parseInt(args[0]), nbReactors, mode).launch();
 	}
 
 	private static void usage() {
-		System.out.println("Usage : ServerEcho port");
+		System.out.println("Usage : ServerEcho port [nbReactors [SHARED|REUSE_PORT]]");
 	}
 }
\ No newline at end of file
@@ -0,0 +1,107 @@
+package fr.networks.tcp_blocking.exo3;
+
+import fr.networks.tcp_blocking.utils.IntReader;
+import fr.networks.tcp_blocking.utils.Reader;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads an operation of the LongSum protocol, an int giving the number of operands
+ * followed by the operands as longs, and gives their sum.
+ * <p>
+ * The operands are added to the sum as they arrive, the bytes of an operand split
+ * between two calls to process are accumulated like in {@link IntReader}: the reader
+ * never keeps any byte of the buffer, whatever the number of operands. As the server
+ * of reference, an operation with no operand, or a negative number of them, sums to 0.
+ */
+public class LongSumReader implements Reader<Long> {
+
+    private enum State {
+        DONE, WAITING_COUNT, WAITING_OPERANDS, ERROR
+    }
+
+    private State state = State.WAITING_COUNT;
+    private final IntReader countReader = new IntReader();
+    private int remainingOperands;
+    private int operandBytes; // bytes of the current operand already accumulated in operand
+    private long operand;
+    private long sum;
+
+    @Override
+    public ProcessStatus process(ByteBuffer buffer) {
+        if (state == State.DONE || state == State.ERROR) {
+            throw new IllegalStateException();
+        }
+
+        if (state == State.WAITING_COUNT) {
+            var status = countReader.process(buffer);
+            if (status != ProcessStatus.DONE) {
+                return status;
+            }
+            remainingOperands = Math.max(countReader.get(), 0);
+            state = State.WAITING_OPERANDS;
+        }
+
+        if (state == State.WAITING_OPERANDS) {
+            addOperands(buffer);
+            if (remainingOperands != 0) {
+                return ProcessStatus.REFILL;
+            }
+            state = State.DONE;
+            return ProcessStatus.DONE;
+        }
+        throw new AssertionError();
+    }
+
+    /**
+     * Adds the operands of buffer to the sum, and accumulates the first bytes of the next
+     * one, without reading past the last operand
+     */
+    private void addOperands(ByteBuffer buffer) {
+        // first complete the operand split by the previous call
+        while (operandBytes != 0 && buffer.hasRemaining()) {
+            operand = (operand << 8) | (buffer.get() & 0xFF);
+            if (++operandBytes == Long.BYTES) {
+                sum += operand;
+                remainingOperands--;
+                operandBytes = 0;
+                operand = 0;
+            }
+        }
+        while (remainingOperands != 0 && buffer.remaining() >= Long.BYTES) {
+            sum += buffer.getLong();
+            remainingOperands--;
+        }
+        if (remainingOperands != 0) {
+            while (buffer.hasRemaining()) {
+                operand = (operand << 8) | (buffer.get() & 0xFF);
+                operandBytes++;
+            }
+        }
+    }
+
+    /**
+     * @return true if part of an operation has been read but not the whole of it
+     */
+    public boolean inProgress() {
+        return state == State.WAITING_OPERANDS || countReader.inProgress();
+    }
+
+    @Override
+    public Long get() {
+        if (state != State.DONE) {
+            throw new IllegalStateException();
+        }
+        return sum;
+    }
+
+    @Override
+    public void reset() {
+        state = State.WAITING_COUNT;
+        countReader.reset();
+        remainingOperands = 0;
+        operandBytes = 0;
+        operand = 0;
+        sum = 0;
+    }
+}
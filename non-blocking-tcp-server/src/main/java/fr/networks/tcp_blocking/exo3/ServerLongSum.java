@@ -0,0 +1,247 @@
+package fr.networks.tcp_blocking.exo3;
+
+import fr.networks.tcp_blocking.reactor.Connection;
+import fr.networks.tcp_blocking.reactor.ListenMode;
+import fr.networks.tcp_blocking.reactor.Reactor;
+import fr.networks.tcp_blocking.reactor.ReactorGroup;
+import fr.networks.tcp_blocking.utils.BufferPool;
+import fr.networks.tcp_blocking.utils.ConnectionTimeouts;
+import fr.networks.tcp_blocking.utils.Reader;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+
+/**
+ * Non-blocking server of the LongSum protocol, the one of ServerLongSumTCP.jar: each
+ * operation is an int giving the number of operands followed by the operands as longs,
+ * and is answered by their sum as a long. A client sends as many operations as it wants
+ * on its connection, then closes it.
+ * <p>
+ * The operands are added as they arrive by a {@link LongSumReader}, so a connection only
+ * holds a few fields whatever the number of operands, plus a pooled buffer while it has
+ * bytes not processed yet or sums not sent yet.
+ */
+public class ServerLongSum {
+	static private class Context extends Connection {
+		private final ServerLongSum server;
+		private final BufferPool pool;
+		private final LongSumReader reader = new LongSumReader();
+		// both buffers are borrowed from the pool only while they hold bytes
+		private ByteBuffer bufferIn;
+		private ByteBuffer bufferOut;
+		private boolean closed = false;
+
+		private Context(ServerLongSum server, Reactor reactor, SelectionKey key) {
+			super(reactor, key);
+			this.server = server;
+			this.pool = server.bufferPool;
+		}
+
+		@Override
+		protected void opened() {
+			armTimer();
+			updateInterestOps();
+		}
+
+		/**
+		 * Arm the timer of the context with the timeout matching its state: sums
+		 * waiting to be sent, an operation partially received, or nothing at all.
+		 */
+		private void armTimer() {
+			long delay;
+			if (bufferOut != null) {
+				delay = server.timeouts.writeMillis();
+			} else if (bufferIn != null || reader.inProgress()) {
+				delay = server.timeouts.readMillis();
+			} else {
+				delay = server.timeouts.idleMillis();
+			}
+			scheduleTimeout(delay);
+		}
+
+		/**
+		 * Process the content of bufferIn, adding the sum of each complete operation to
+		 * bufferOut as long as it has room for it.
+		 *
+		 * The convention is that both buffers, when borrowed, are in write-mode before the
+		 * call to process and after the call
+		 */
+		private void process() {
+			if (bufferIn == null) {
+				return;
+			}
+			bufferIn.flip();
+			try {
+				while (bufferOut == null || bufferOut.remaining() >= Long.BYTES) {
+					if (reader.process(bufferIn) != Reader.ProcessStatus.DONE) {
+						// the reader never fails, it consumed all of bufferIn
+						return;
+					}
+					if (bufferOut == null) {
+						bufferOut = pool.acquire();
+					}
+					bufferOut.putLong(reader.get());
+					reader.reset();
+				}
+			} finally {
+				bufferIn.compact();
+			}
+		}
+
+		/**
+		 * Give the drained buffers back to the pool
+		 */
+		private void releaseDrainedBuffers() {
+			if (bufferIn != null && bufferIn.position() == 0) {
+				pool.release(bufferIn);
+				bufferIn = null;
+			}
+			if (bufferOut != null && bufferOut.position() == 0) {
+				pool.release(bufferOut);
+				bufferOut = null;
+			}
+		}
+
+		/**
+		 * Update the interestOps of the key looking only at values of the boolean
+		 * closed and of both ByteBuffers.
+		 *
+		 * The convention is that both buffers, when borrowed, are in write-mode before the
+		 * call to updateInterestOps and after the call. Also it is assumed that process has
+		 * been be called just before updateInterestOps.
+		 */
+		private void updateInterestOps() {
+			var newInterestOps = 0;
+
+			if (!closed && (bufferIn == null || bufferIn.hasRemaining())) {
+				newInterestOps |= SelectionKey.OP_READ;
+			}
+
+			if (bufferOut != null && bufferOut.position() != 0) {
+				newInterestOps |= SelectionKey.OP_WRITE;
+			}
+
+			if (newInterestOps == 0) {
+				silentlyClose();
+				return;
+			}
+			setInterestOps(newInterestOps);
+		}
+
+		@Override
+		protected void onClose() {
+			if (bufferIn != null) {
+				pool.release(bufferIn);
+				bufferIn = null;
+			}
+			if (bufferOut != null) {
+				pool.release(bufferOut);
+				bufferOut = null;
+			}
+		}
+
+		/**
+		 * Performs the read action on sc
+		 *
+		 * The convention is that both buffers, when borrowed, are in write-mode before the
+		 * call to doRead and after the call
+		 *
+		 * @throws IOException
+		 */
+		@Override
+		protected void doRead() throws IOException {
+			if (bufferIn == null) {
+				bufferIn = pool.acquire();
+			}
+			var read = sc.read(bufferIn);
+			if (read == -1) {
+				closed = true;
+			}
+			var wasWriting = bufferOut != null;
+			process();
+			releaseDrainedBuffers();
+			// while sums are waiting to be sent, only the progress of the writes counts
+			if (read > 0 && !wasWriting) {
+				armTimer();
+			}
+			updateInterestOps();
+		}
+
+		/**
+		 * Performs the write action on sc
+		 *
+		 * The convention is that both buffers, when borrowed, are in write-mode before the
+		 * call to doWrite and after the call
+		 *
+		 * @throws IOException
+		 */
+		@Override
+		protected void doWrite() throws IOException {
+			bufferOut.flip();
+			var written = sc.write(bufferOut);
+			bufferOut.compact();
+			process();
+			releaseDrainedBuffers();
+			if (written > 0) {
+				armTimer();
+			}
+			updateInterestOps();
+		}
+	}
+
+	private static final int BUFFER_SIZE = 1024;
+	private static final int BUFFERS_PER_SLAB = 256;
+
+	private final ReactorGroup reactors;
+	private final ConnectionTimeouts timeouts = ConnectionTimeouts.DEFAULT;
+	private final BufferPool bufferPool = new BufferPool(BUFFER_SIZE, BUFFERS_PER_SLAB);
+
+	public ServerLongSum(int port) throws IOException {
+		this(port, 1, ListenMode.SHARED);
+	}
+
+	/**
+	 * @param port       port to listen on
+	 * @param nbReactors number of reactors serving the clients
+	 * @param mode       how the clients are accepted by the reactors
+	 * @throws IOException exception
+	 */
+	public ServerLongSum(int port, int nbReactors, ListenMode mode) throws IOException {
+		reactors = new ReactorGroup(new InetSocketAddress(port), nbReactors, mode,
+				(reactor, key) -> new Context(this, reactor, key));
+	}
+
+	public void launch() throws IOException {
+		reactors.launch();
+	}
+
+	/**
+	 * @return the number of connections of each reactor
+	 */
+	public int[] connectionCounts() {
+		return reactors.connectionCounts();
+	}
+
+	/**
+	 * @return the metrics of the pool of connection buffers
+	 */
+	public BufferPool.Stats bufferPoolStats() {
+		return bufferPool.stats();
+	}
+
+	public static void main(String[] args) throws NumberFormatException, IOException {
+		if (args.length < 1 || args.length > 3) {
+			usage();
+			return;
+		}
+		var nbReactors = args.length >= 2 ? Integer.parseInt(args[1]) : 1;
+		var mode = args.length == 3 ? ListenMode.valueOf(args[2]) : ListenMode.SHARED;
+		new ServerLongSum(Integer.parseInt(args[0]), nbReactors, mode).launch();
+	}
+
+	private static void usage() {
+		System.out.println("Usage : ServerLongSum port [nbReactors [SHARED|REUSE_PORT]]");
+	}
+}
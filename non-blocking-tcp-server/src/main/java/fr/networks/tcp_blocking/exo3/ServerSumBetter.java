@@ -1,62 +1,110 @@
 package fr.networks.tcp_blocking.exo3;
 
-import fr.networks.tcp_blocking.utils.Helpers;
+import fr.networks.tcp_blocking.reactor.Connection;
+import fr.networks.tcp_blocking.reactor.ListenMode;
+import fr.networks.tcp_blocking.reactor.Reactor;
+import fr.networks.tcp_blocking.reactor.ReactorGroup;
+import fr.networks.tcp_blocking.utils.BufferPool;
+import fr.networks.tcp_blocking.utils.ConnectionTimeouts;
+import fr.networks.tcp_blocking.utils.PairSummer;
 
 import java.io.IOException;
-import java.io.UncheckedIOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
-import java.nio.channels.*;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.nio.channels.SelectionKey;
 
 public class ServerSumBetter {
-	static private class Context {
-		private final SelectionKey key;
-		private final SocketChannel sc;
-		private final ByteBuffer bufferIn = ByteBuffer.allocate(BUFFER_SIZE);
-		private final ByteBuffer bufferOut = ByteBuffer.allocate(BUFFER_SIZE);
+	static private class Context extends Connection {
+		private final ServerSumBetter server;
+		private final BufferPool pool;
+		private final PairSummer summer;
+		// both buffers are borrowed from the pool only while they hold bytes
+		private ByteBuffer bufferIn;
+		private ByteBuffer bufferOut;
 		private boolean closed = false;
 
-		private Context(SelectionKey key) {
-			this.key = key;
-			this.sc = (SocketChannel) key.channel();
+		private Context(ServerSumBetter server, PairSummer summer, Reactor reactor, SelectionKey key) {
+			super(reactor, key);
+			this.server = server;
+			this.pool = server.bufferPool;
+			this.summer = summer;
+		}
+
+		@Override
+		protected void opened() {
+			armTimer();
+			updateInterestOps();
 		}
 
 		/**
-		 * Process the content of bufferIn into bufferOut
+		 * Arm the timer of the context with the timeout matching its state: sums
+		 * waiting to be sent, a request partially received, or nothing at all.
+		 */
+		private void armTimer() {
+			long delay;
+			if (bufferOut != null) {
+				delay = server.timeouts.writeMillis();
+			} else if (bufferIn != null) {
+				delay = server.timeouts.readMillis();
+			} else {
+				delay = server.timeouts.idleMillis();
+			}
+			scheduleTimeout(delay);
+		}
+
+		/**
+		 * Process the content of bufferIn into bufferOut, borrowing bufferOut if there is
+		 * something to answer. All the complete pairs for which bufferOut has room are
+		 * summed as one batch.
 		 *
-		 * The convention is that both buffers are in write-mode before the call to
-		 * process and after the call
+		 * The convention is that both buffers, when borrowed, are in write-mode before the
+		 * call to process and after the call
 		 *
 		 */
 
 		private void process() {
-			bufferIn.flip();
-			while (bufferOut.remaining() > Integer.BYTES && bufferIn.remaining() >= Integer.BYTES * 2) {
-				int res = bufferIn.getInt() + bufferIn.getInt();
-				bufferOut.putInt(res);
+			if (bufferIn == null || bufferIn.position() < Integer.BYTES * 2) {
+				return;
+			}
+			if (bufferOut == null) {
+				bufferOut = pool.acquire();
 			}
+			bufferIn.flip();
+			summer.sum(bufferIn, bufferOut);
 			bufferIn.compact();
 		}
 
+		/**
+		 * Give the drained buffers back to the pool
+		 */
+		private void releaseDrainedBuffers() {
+			if (bufferIn != null && bufferIn.position() == 0) {
+				pool.release(bufferIn);
+				bufferIn = null;
+			}
+			if (bufferOut != null && bufferOut.position() == 0) {
+				pool.release(bufferOut);
+				bufferOut = null;
+			}
+		}
+
 		/**
 		 * Update the interestOps of the key looking only at values of the boolean
 		 * closed and of both ByteBuffers.
 		 *
-		 * The convention is that both buffers are in write-mode before the call to
-		 * updateInterestOps and after the call. Also it is assumed that process has
+		 * The convention is that both buffers, when borrowed, are in write-mode before the
+		 * call to updateInterestOps and after the call. Also it is assumed that process has
 		 * been be called just before updateInterestOps.
 		 */
 
 		private void updateInterestOps() {
 			var newInterestOps = 0;
 
-			if (!closed && bufferIn.hasRemaining()) {
+			if (!closed && (bufferIn == null || bufferIn.hasRemaining())) {
 				newInterestOps |= SelectionKey.OP_READ;
 			}
 
-			if (bufferOut.position() != 0) {
+			if (bufferOut != null && bufferOut.position() != 0) {
 				newInterestOps |= SelectionKey.OP_WRITE;
 			}
 
@@ -64,133 +112,127 @@ public class ServerSumBetter {
 				silentlyClose();
 				return;
 			}
-			key.interestOps(newInterestOps);
+			setInterestOps(newInterestOps);
 		}
 
-		private void silentlyClose() {
-			try {
-				sc.close();
-			} catch (IOException e) {
-				// ignore exception
+		@Override
+		protected void onClose() {
+			if (bufferIn != null) {
+				pool.release(bufferIn);
+				bufferIn = null;
+			}
+			if (bufferOut != null) {
+				pool.release(bufferOut);
+				bufferOut = null;
 			}
 		}
 
 		/**
 		 * Performs the read action on sc
 		 *
-		 * The convention is that both buffers are in write-mode before the call to
-		 * doRead and after the call
+		 * The convention is that both buffers, when borrowed, are in write-mode before the
+		 * call to doRead and after the call
 		 *
 		 * @throws IOException
 		 */
 
-		private void doRead() throws IOException {
-			if (sc.read(bufferIn) == -1) {
+		@Override
+		protected void doRead() throws IOException {
+			if (bufferIn == null) {
+				bufferIn = pool.acquire();
+			}
+			var read = sc.read(bufferIn);
+			if (read == -1) {
 				closed = true;
-				return;
 			}
+			var wasWriting = bufferOut != null;
 			process();
+			releaseDrainedBuffers();
+			// while sums are waiting to be sent, only the progress of the writes counts
+			if (read > 0 && !wasWriting) {
+				armTimer();
+			}
 			updateInterestOps();
 		}
 
 		/**
 		 * Performs the write action on sc
 		 *
-		 * The convention is that both buffers are in write-mode before the call to
-		 * doWrite and after the call
+		 * The convention is that both buffers, when borrowed, are in write-mode before the
+		 * call to doWrite and after the call
 		 *
 		 * @throws IOException
 		 */
 
-		private void doWrite() throws IOException {
+		@Override
+		protected void doWrite() throws IOException {
 			bufferOut.flip();
-			sc.write(bufferOut);
+			var written = sc.write(bufferOut);
 			bufferOut.compact();
 			process();
+			releaseDrainedBuffers();
+			if (written > 0) {
+				armTimer();
+			}
 			updateInterestOps();
 		}
 
 	}
 
 	private static final int BUFFER_SIZE = 1024;
-	private static final Logger logger = Logger.getLogger(ServerSumBetter.class.getName());
+	private static final int BUFFERS_PER_SLAB = 256;
 
-	private final ServerSocketChannel serverSocketChannel;
-	private final Selector selector;
+	private final ReactorGroup reactors;
+	private final ConnectionTimeouts timeouts = ConnectionTimeouts.DEFAULT;
+	private final BufferPool bufferPool = new BufferPool(BUFFER_SIZE, BUFFERS_PER_SLAB);
 
 	public ServerSumBetter(int port) throws IOException {
-		serverSocketChannel = ServerSocketChannel.open();
-		serverSocketChannel.bind(new InetSocketAddress(port));
-		selector = Selector.open();
+		this(port, 1, ListenMode.SHARED);
 	}
 
-	public void launch() throws IOException {
-		serverSocketChannel.configureBlocking(false);
-		serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
-		while (!Thread.interrupted()) {
-			Helpers.printKeys(selector); // for debug
-			System.out.println("Starting select");
-			try {
-				selector.select(this::treatKey);
-			} catch (UncheckedIOException tunneled) {
-				throw tunneled.getCause();
-			}
-			System.out.println("Select finished");
-		}
+	/**
+	 * @param port       port to listen on
+	 * @param nbReactors number of reactors serving the clients
+	 * @param mode       how the clients are accepted by the reactors
+	 * @throws IOException exception
+	 */
+	public ServerSumBetter(int port, int nbReactors, ListenMode mode) throws IOException {
+		reactors = new ReactorGroup(new InetSocketAddress(port), nbReactors, mode, i -> {
+			// shared by the contexts of a reactor, which all run on its thread
+			var summer = PairSummer.create(BUFFER_SIZE / Integer.BYTES);
+			return (reactor, key) -> new Context(this, summer, reactor, key);
+		});
 	}
 
-	private void treatKey(SelectionKey key) {
-		Helpers.printSelectedKey(key); // for debug
-		try {
-			if (key.isValid() && key.isAcceptable()) {
-				doAccept(key);
-			}
-		} catch (IOException ioe) {
-			// lambda call in select requires to tunnel IOException
-			throw new UncheckedIOException(ioe);
-		}
-		try {
-			if (key.isValid() && key.isWritable()) {
-				((Context) key.attachment()).doWrite();
-			}
-			if (key.isValid() && key.isReadable()) {
-				((Context) key.attachment()).doRead();
-			}
-		} catch (IOException e) {
-			logger.log(Level.INFO, "Connection closed with client due to IOException", e);
-			silentlyClose(key);
-		}
+	public void launch() throws IOException {
+		reactors.launch();
 	}
 
-	private void doAccept(SelectionKey key) throws IOException {
-		var client = serverSocketChannel.accept();
-		if (client == null) {
-			logger.warning("The selector give a bad hint");
-			return; // selector gave a bad hint
-		}
-		client.configureBlocking(false);
-		var clientKey = client.register(selector, SelectionKey.OP_READ);
-		clientKey.attach(new Context(clientKey));
+	/**
+	 * @return the number of connections of each reactor
+	 */
+	public int[] connectionCounts() {
+		return reactors.connectionCounts();
 	}
 
-	private void silentlyClose(SelectionKey key) {
-		Channel sc = (Channel) key.channel();
-		try {
-			sc.close();
-		} catch (IOException e) {
-			// ignore exception
-		}
+	/**
+	 * @return the metrics of the pool of connection buffers
+	 */
+	public BufferPool.Stats bufferPoolStats() {
+		return bufferPool.stats();
 	}
 
 	public static void main(String[] args) throws NumberFormatException, IOException {
-		if (args.length != 1) {
+		if (args.length < 1 || args.length > 3) {
 			usage();
 			return;
 		}
-		new ServerSumBetter(Integer.parseInt(args[0])).launch();
+		var nbReactors = args.length >= 2 ? Integer.parseInt(args[1]) : 1;
+		var mode = args.length == 3 ? ListenMode.valueOf(args[2]) : ListenMode.SHARED;
+		new ServerSumBetter(Integer.parseInt(args[0]), nbReactors, mode).launch();
 	}
 
 	private static void usage() {
-		System.out.println("Usage : ServerSumBetter port");
+		System.out.println("Usage : ServerSumBetter port [nbReactors [SHARED|REUSE_PORT]]");
 	}
 }
\ No newline at end of file
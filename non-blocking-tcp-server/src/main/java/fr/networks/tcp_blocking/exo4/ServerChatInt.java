@@ -1,41 +1,45 @@
 package fr.networks.tcp_blocking.exo4;
 
-import fr.networks.tcp_blocking.utils.Helpers;
+import fr.networks.tcp_blocking.reactor.Connection;
+import fr.networks.tcp_blocking.reactor.Reactor;
+import fr.networks.tcp_blocking.utils.BufferPool;
+import fr.networks.tcp_blocking.utils.ConnectionTimeouts;
 import fr.networks.tcp_blocking.utils.IntReader;
+import fr.networks.tcp_blocking.utils.OutboundQueue;
 
 import java.io.IOException;
-import java.io.UncheckedIOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
-import java.nio.channels.*;
-import java.util.ArrayDeque;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
 
 public class ServerChatInt {
-	static private class Context {
-		private final SelectionKey key;
-		private final SocketChannel sc;
-		private final ByteBuffer bufferIn = ByteBuffer.allocate(BUFFER_SIZE);
-		private final ByteBuffer bufferOut = ByteBuffer.allocate(BUFFER_SIZE);
-		private final ArrayDeque<Integer> queue = new ArrayDeque<>();
+	static private class Context extends Connection {
+		private ByteBuffer bufferIn; // borrowed from the pool only while it holds unprocessed bytes
+		private final OutboundQueue outbound = new OutboundQueue();
 		private final ServerChatInt server; // we could also have Context as an instance class, which would naturally
 		// give access to ServerChatInt.this
 		private final IntReader intReader;
 		private boolean closed = false;
+		private boolean inFrame = false; // an integer has been partially received
 
-		private Context(ServerChatInt server, SelectionKey key) {
-			this.key = key;
-			this.sc = (SocketChannel) key.channel();
+		private Context(ServerChatInt server, Reactor reactor, SelectionKey key) {
+			super(reactor, key);
 			this.server = server;
 			intReader = new IntReader();
 		}
 
+		@Override
+		protected void opened() {
+			armTimer();
+			updateInterestOps();
+		}
+
 		/**
 		 * Process the content of bufferIn
 		 *
-		 * The convention is that bufferIn is in write-mode before the call to process and
-		 * after the call
+		 * The convention is that bufferIn is in read-mode before the call to process and
+		 * after the call, the reader consuming the integers in place
 		 *
 		 */
 		private void processIn() {
@@ -51,6 +55,7 @@ public class ServerChatInt {
 						int value = intReader.get();
 						server.broadcast(value);
 						intReader.reset();
+						inFrame = bufferIn.hasRemaining();
 					}
 					case REFILL -> {
 						return;
@@ -64,43 +69,55 @@ public class ServerChatInt {
 		}
 
 		/**
-		 * Add a message to the message queue, tries to fill bufferOut and updateInterestOps
+		 * Add an encoded message to the outbound queue and updateInterestOps
 		 *
-		 * @param msg
+		 * @param frame encoded message in read-mode, shared with the other clients
 		 */
-		public void queueMessage(Integer msg) {
-			queue.add(msg);
-			processOut();
+		public void queueFrame(ByteBuffer frame) {
+			var wasEmpty = outbound.isEmpty();
+			outbound.add(frame.duplicate());
+			if (wasEmpty) {
+				armTimer();
+			}
 			updateInterestOps();
 		}
 
 		/**
-		 * Try to fill bufferOut from the message queue
-		 *
+		 * Arm the timer of the context with the timeout matching its state: bytes
+		 * waiting to be sent, an integer partially received, or nothing at all.
 		 */
-		private void processOut() {
-			while (bufferOut.remaining() >= Integer.BYTES && !queue.isEmpty()) {
-				bufferOut.putInt(queue.remove());
+		private void armTimer() {
+			long delay;
+			if (!outbound.isEmpty()) {
+				delay = server.timeouts.writeMillis();
+			} else if (inFrame) {
+				delay = server.timeouts.readMillis();
+			} else {
+				delay = server.timeouts.idleMillis();
 			}
+			scheduleTimeout(delay);
 		}
 
 		/**
 		 * Update the interestOps of the key looking only at values of the boolean
-		 * closed and of both ByteBuffers.
+		 * closed, of bufferIn and of the outbound queue.
 		 *
-		 * The convention is that both buffers are in write-mode before the call to
-		 * updateInterestOps and after the call. Also, it is assumed that process has
-		 * been called just before updateInterestOps.
+		 * The convention is that bufferIn, when borrowed, is in write-mode before the
+		 * call to updateInterestOps and after the call. Also, it is assumed that process
+		 * has been called just before updateInterestOps.
 		 */
 
 		private void updateInterestOps() {
+			if (!key.isValid()) {
+				return;
+			}
 			var newInterestOps = 0;
 
-			if (!closed && bufferIn.hasRemaining()) {
+			if (!closed && (bufferIn == null || bufferIn.hasRemaining())) {
 				newInterestOps |= SelectionKey.OP_READ;
 			}
 
-			if (bufferOut.position() != 0) {
+			if (!outbound.isEmpty()) {
 				newInterestOps |= SelectionKey.OP_WRITE;
 			}
 
@@ -108,134 +125,105 @@ public class ServerChatInt {
 				silentlyClose();
 				return;
 			}
-			key.interestOps(newInterestOps);
+			setInterestOps(newInterestOps);
+		}
+
+		@Override
+		protected void onClose() {
+			outbound.clear();
+			releaseBufferIn();
 		}
 
-		private void silentlyClose() {
-			try {
-				sc.close();
-			} catch (IOException e) {
-				// ignore exception
+		private void releaseBufferIn() {
+			if (bufferIn != null) {
+				server.bufferPool.release(bufferIn);
+				bufferIn = null;
 			}
 		}
 
 		/**
 		 * Performs the read action on sc
 		 * <p>
-		 * The convention is that both buffers are in write-mode before the call to
-		 * doRead and after the call
+		 * bufferIn is borrowed for the read and given back to the pool once every
+		 * byte has been processed. The convention is that bufferIn is in write-mode
+		 * before the call to doRead and after the call
 		 *
 		 * @throws IOException
 		 */
-		private void doRead() throws IOException {
-			if (sc.read(bufferIn) == -1) {
+		@Override
+		protected void doRead() throws IOException {
+			if (bufferIn == null) {
+				bufferIn = server.bufferPool.acquire();
+			}
+			var read = sc.read(bufferIn);
+			if (read == -1) {
 				closed = true;
-				return;
+			} else if (read > 0) {
+				inFrame = true;
 			}
+			bufferIn.flip();
 			processIn();
+			if (bufferIn != null && bufferIn.compact().position() == 0) {
+				releaseBufferIn();
+			}
+			// while bytes are waiting to be sent, only the progress of the writes counts
+			if (read > 0 && sc.isOpen() && outbound.isEmpty()) {
+				armTimer();
+			}
 			updateInterestOps();
 		}
 
 		/**
-		 * Performs the write action on sc
-		 * <p>
-		 * The convention is that both buffers are in write-mode before the call to
-		 * doWrite and after the call
+		 * Performs the write action on sc, sending as many queued messages as the
+		 * socket accepts with gathering writes
 		 *
 		 * @throws IOException
 		 */
 
-		private void doWrite() throws IOException {
-			bufferOut.flip();
-			sc.write(bufferOut);
-			bufferOut.compact();
+		@Override
+		protected void doWrite() throws IOException {
+			if (outbound.flush(sc) > 0) {
+				armTimer();
+			}
 			updateInterestOps();
 		}
 
 	}
 
 	private static final int BUFFER_SIZE = 1_024;
-	private static final Logger logger = Logger.getLogger(ServerChatInt.class.getName());
+	private static final int BUFFERS_PER_SLAB = 256;
 
 	private final ServerSocketChannel serverSocketChannel;
-	private final Selector selector;
+	private final Reactor reactor;
+	private final ConnectionTimeouts timeouts = ConnectionTimeouts.DEFAULT;
+	private final BufferPool bufferPool = new BufferPool(BUFFER_SIZE, BUFFERS_PER_SLAB);
 
 	public ServerChatInt(int port) throws IOException {
 		serverSocketChannel = ServerSocketChannel.open();
 		serverSocketChannel.bind(new InetSocketAddress(port));
-		selector = Selector.open();
+		reactor = new Reactor((reactor, key) -> new Context(this, reactor, key));
 	}
 
 	public void launch() throws IOException {
-		serverSocketChannel.configureBlocking(false);
-		serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
-		while (!Thread.interrupted()) {
-			Helpers.printKeys(selector); // for debug
-			System.out.println("Starting select");
-			try {
-				selector.select(this::treatKey);
-			} catch (UncheckedIOException tunneled) {
-				throw tunneled.getCause();
-			}
-			System.out.println("Select finished");
-		}
-	}
-
-	private void treatKey(SelectionKey key) {
-		Helpers.printSelectedKey(key); // for debug
-		try {
-			if (key.isValid() && key.isAcceptable()) {
-				doAccept(key);
-			}
-		} catch (IOException ioe) {
-			// lambda call in select requires to tunnel IOException
-			throw new UncheckedIOException(ioe);
-		}
-		try {
-			if (key.isValid() && key.isWritable()) {
-				((Context) key.attachment()).doWrite();
-			}
-			if (key.isValid() && key.isReadable()) {
-				((Context) key.attachment()).doRead();
-			}
-		} catch (IOException e) {
-			logger.log(Level.INFO, "Connection closed with client due to IOException", e);
-			silentlyClose(key);
-		}
+		reactor.listen(serverSocketChannel);
+		reactor.launch();
 	}
 
-	private void doAccept(SelectionKey key) throws IOException {
-		var client = serverSocketChannel.accept();
-		if (client == null) {
-			logger.warning("The selector give a bad hint");
-			return; // selector gave a bad hint
-		}
-		client.configureBlocking(false);
-		var clientKey = client.register(selector, SelectionKey.OP_READ);
-		clientKey.attach(new Context(this, clientKey));
-	}
-
-	private void silentlyClose(SelectionKey key) {
-		Channel sc = key.channel();
-		try {
-			sc.close();
-		} catch (IOException e) {
-			// ignore exception
-		}
+	/**
+	 * @return the metrics of the pool of connection buffers
+	 */
+	public BufferPool.Stats bufferPoolStats() {
+		return bufferPool.stats();
 	}
 
 	/**
-	 * Add a message to all connected clients queue
+	 * Add a message to all connected clients queue, the message is encoded only once
 	 *
 	 * @param msg
 	 */
-	private void broadcast(Integer msg) {
-		selector.keys().forEach(selectionKey -> {
-			if (selectionKey.channel() instanceof ServerSocketChannel) {
-				return;
-			}
-			((Context) selectionKey.attachment()).queueMessage(msg);
-		});
+	private void broadcast(int msg) {
+		var frame = ByteBuffer.allocate(Integer.BYTES).putInt(msg).flip();
+		reactor.forEachConnection((connection, shared) -> ((Context) connection).queueFrame(shared), frame);
 	}
 
 	public static void main(String[] args) throws NumberFormatException, IOException {
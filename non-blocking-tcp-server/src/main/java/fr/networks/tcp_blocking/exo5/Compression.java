@@ -0,0 +1,31 @@
+package fr.networks.tcp_blocking.exo5;
+
+/**
+ * The frames of the chat protocol negotiating and carrying compressed texts.
+ * <p>
+ * A message is sent as the size of the login, the login, the size of the text and the
+ * text. The other frames start instead with a negative int, which cannot be the size of
+ * a login:
+ * <ul>
+ * <li>{@value #HELLO} then an int of feature bits. A client sends it as its very first
+ * frame to ask for features, the server answers with the ones it grants. A client which
+ * does not send it gets no feature.</li>
+ * <li>{@value #COMPRESSED} then the size of the login, the login, the size in bytes of
+ * the text, the size of the compressed text and the text compressed in the zlib format.
+ * It is only sent to a peer granted {@link #DEFLATE}, and only when it is shorter than
+ * the message it replaces.</li>
+ * </ul>
+ */
+public final class Compression {
+    public static final int HELLO = -1;
+    public static final int COMPRESSED = -2;
+    public static final int HELLO_SIZE = 2 * Integer.BYTES;
+
+    /**
+     * Feature bit of the texts compressed with deflate
+     */
+    public static final int DEFLATE = 1;
+
+    private Compression() {
+    }
+}
@@ -0,0 +1,107 @@
+package fr.networks.tcp_blocking.exo5;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.List;
+
+/**
+ * The place of a {@link ServerChat} among linked nodes, and the frames they exchange.
+ * <p>
+ * A node accepts the links of the other nodes on peerPort, and dials the peer port of each
+ * node of dial, reconnecting whenever the link is lost. A link is dialed by one of its two
+ * ends only. The links may form any connected graph: a message is flooded to every link
+ * but the one it came from, and the copies of a message reaching a node through several
+ * paths are dropped thanks to its id.
+ * <p>
+ * All the links of a node are served by its first shard. Each link carries the messages of
+ * a client in the order it sent them, and the first copy of each message is kept: handled
+ * one after the other on a single thread, the copies arriving through several links keep
+ * that order. Links on several shards would race each other, a later message arriving
+ * through a fast path being delivered before an earlier one still queued on another shard.
+ * <p>
+ * Only the nodes sharing the secret are linked, whichever end dials: anyone can connect
+ * to the peer port, and the addresses the links come from say nothing about the nodes at
+ * the other end. A link starts with a {@value #PEER} frame in each direction, followed by
+ * the id of the node sending it and a random challenge of {@value #CHALLENGE_SIZE} bytes.
+ * Each end answers the challenge of the other with {@value #AUTH}, followed by the
+ * HMAC-SHA256 of the challenge and of its own id keyed by the secret, so that the secret
+ * never goes over the link and an answer cannot be replayed. A link on which a wrong
+ * answer or anything else arrives is closed before any message goes through it.
+ * <p>
+ * Then every message is sent as {@value #FORWARD}, the id of the node which received it
+ * from a client, its sequence number on that node, the size of the name of its room, the
+ * ASCII name of the room, then the message in the format of {@link MessageReader}.
+ *
+ * @param nodeId   id of this node, unique among the linked nodes
+ * @param peerPort port on which the links of the other nodes are accepted
+ * @param dial     peer addresses of the nodes this node links to
+ * @param secret   secret shared by all the linked nodes
+ */
+public record Federation(int nodeId, int peerPort, List<InetSocketAddress> dial, String secret) {
+    public static final int PEER = -3;
+    public static final int FORWARD = -4;
+    public static final int AUTH = -5;
+    public static final int CHALLENGE_SIZE = 16;
+    public static final int PEER_SIZE = 2 * Integer.BYTES + CHALLENGE_SIZE;
+    public static final int ANSWER_SIZE = 32;
+    public static final int AUTH_SIZE = Integer.BYTES + ANSWER_SIZE;
+    // the tag, the node, the sequence number and the size of the room
+    public static final int FORWARD_HEADER_SIZE = 3 * Integer.BYTES + Long.BYTES;
+    public static final int MAX_ROOM_SIZE = 64;
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    public Federation {
+        if (nodeId < 0) {
+            throw new IllegalArgumentException("the id of a node cannot be negative");
+        }
+        dial = List.copyOf(dial);
+        if (secret.isEmpty()) {
+            throw new IllegalArgumentException("the secret of the nodes cannot be empty");
+        }
+    }
+
+    /**
+     * @return a new challenge for the node at the other end of a link
+     */
+    public static byte[] challenge() {
+        var challenge = new byte[CHALLENGE_SIZE];
+        RANDOM.nextBytes(challenge);
+        return challenge;
+    }
+
+    /**
+     * @param challenge challenge sent by the node at the other end of a link
+     * @param node      id of the node answering it
+     * @return the answer of node to challenge, of {@value #ANSWER_SIZE} bytes
+     */
+    public byte[] answer(byte[] challenge, int node) {
+        try {
+            var mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), MAC_ALGORITHM));
+            mac.update(challenge);
+            return mac.doFinal(ByteBuffer.allocate(Integer.BYTES).putInt(node).array());
+        } catch (GeneralSecurityException e) {
+            // every Java platform provides HmacSHA256
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * @return true if answer is the one of node to challenge, compared in constant time
+     */
+    public boolean isAnswer(byte[] answer, byte[] challenge, int node) {
+        return MessageDigest.isEqual(answer, answer(challenge, node));
+    }
+
+    @Override
+    public String toString() {
+        return "Federation[nodeId=" + nodeId + ", peerPort=" + peerPort + ", dial=" + dial + "]";
+    }
+}
@@ -0,0 +1,17 @@
+package fr.networks.tcp_blocking.exo5;
+
+import fr.network.wire.WireRecord;
+import fr.networks.tcp_blocking.utils.Reader;
+
+/**
+ * The header of a {@link Federation#FORWARD} frame, whose {@link ForwardHeaderWireReader}
+ * is generated from its components.
+ *
+ * @param tag      {@link Federation#FORWARD}
+ * @param origin   node which received the message from a client
+ * @param sequence sequence number of the message on its origin
+ * @param room     ASCII name of the room of the message
+ */
+@WireRecord(reader = Reader.class, maxSize = Federation.MAX_ROOM_SIZE)
+record ForwardHeader(int tag, int origin, long sequence, String room) {
+}
@@ -0,0 +1,106 @@
+package fr.networks.tcp_blocking.exo5;
+
+import fr.networks.tcp_blocking.utils.Frame;
+import fr.networks.tcp_blocking.utils.FramePool;
+import fr.networks.tcp_blocking.utils.Reader;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads a {@link Federation#FORWARD} frame: its header, then the message it carries into a
+ * frame ready to be relayed, as {@link RelayReader} does.
+ * <p>
+ * The header is read by the {@link ForwardHeaderWireReader} generated from
+ * {@link ForwardHeader}, which keeps the name of the room as bytes until it is complete.
+ */
+public class ForwardReader implements Reader<Frame> {
+    private enum State {
+        DONE, WAITING_HEADER, WAITING_MESSAGE, ERROR
+    }
+
+    private State state = State.WAITING_HEADER;
+    private final ForwardHeaderWireReader headerReader = new ForwardHeaderWireReader();
+    private final RelayReader messageReader;
+    private int origin;
+    private long sequence;
+    private String room;
+
+    /**
+     * @param smallFrames pool of the first frame of a message
+     * @param largeFrames pool of the frames chained for the large texts
+     * @param maxTextSize size in bytes of the largest text accepted
+     */
+    public ForwardReader(FramePool smallFrames, FramePool largeFrames, int maxTextSize) {
+        messageReader = new RelayReader(smallFrames, largeFrames, maxTextSize, false);
+    }
+
+    @Override
+    public ProcessStatus process(ByteBuffer buffer) {
+        if (state == State.DONE || state == State.ERROR) {
+            throw new IllegalStateException();
+        }
+
+        if (state == State.WAITING_HEADER) {
+            var status = headerReader.process(buffer);
+            if (status == ProcessStatus.REFILL) {
+                return status;
+            }
+            if (status == ProcessStatus.ERROR || headerReader.tag() != Federation.FORWARD
+                    || headerReader.roomLength() == 0) {
+                state = State.ERROR;
+                return ProcessStatus.ERROR;
+            }
+            origin = headerReader.origin();
+            sequence = headerReader.sequence();
+            room = headerReader.room();
+            state = State.WAITING_MESSAGE;
+        }
+
+        var status = messageReader.process(buffer);
+        if (status == ProcessStatus.DONE) {
+            state = State.DONE;
+        } else if (status == ProcessStatus.ERROR) {
+            state = State.ERROR;
+        }
+        return status;
+    }
+
+    /**
+     * The frame of the message, the caller takes the only reference on it
+     *
+     * @return the sealed frame
+     */
+    @Override
+    public Frame get() {
+        if (state != State.DONE) {
+            throw new IllegalStateException();
+        }
+        return messageReader.get();
+    }
+
+    /**
+     * @return the node which received the message from a client
+     */
+    public int origin() {
+        return origin;
+    }
+
+    /**
+     * @return the sequence number of the message on its origin
+     */
+    public long sequence() {
+        return sequence;
+    }
+
+    public String room() {
+        return room;
+    }
+
+    @Override
+    public void reset() {
+        state = State.WAITING_HEADER;
+        headerReader.reset();
+        messageReader.reset();
+        room = null;
+    }
+}
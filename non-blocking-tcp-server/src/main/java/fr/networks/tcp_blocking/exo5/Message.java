@@ -1,14 +1,29 @@
 package fr.networks.tcp_blocking.exo5;
 
+import fr.network.wire.MaxSize;
+import fr.network.wire.WireRecord;
+import fr.networks.tcp_blocking.utils.Reader;
+import fr.networks.tcp_blocking.utils.StringReader;
+
 import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
 
-public record Message(String login, String msg) {
+/**
+ * A message of the chat. Its {@link MessageWireReader} and {@link MessageWireWriter} are
+ * generated from its components.
+ */
+@WireRecord(reader = Reader.class, maxSize = ServerChat.MAX_TEXT_SIZE)
+public record Message(@MaxSize(StringReader.MAX_SIZE) String login, String msg) {
     public ByteBuffer encode() {
-        var bb = ByteBuffer.allocate(1024);
-        var loginBytes = StandardCharsets.UTF_8.encode(login);
-        var msgBytes = StandardCharsets.UTF_8.encode(msg);
-        return bb.putInt(loginBytes.remaining()).put(loginBytes)
-                .putInt(msgBytes.remaining()).put(msgBytes);
+        return encodeInto(ByteBuffer.allocate(MessageWireWriter.encodedSize(this)));
+    }
+
+    /**
+     * Writes the message at the position of bb, which is in write-mode
+     *
+     * @param bb buffer receiving the message
+     * @return bb
+     */
+    public ByteBuffer encodeInto(ByteBuffer bb) {
+        return MessageWireWriter.encodeInto(this, bb);
     }
 }
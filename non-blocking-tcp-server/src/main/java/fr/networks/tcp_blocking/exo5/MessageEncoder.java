@@ -0,0 +1,180 @@
+package fr.networks.tcp_blocking.exo5;
+
+import fr.networks.tcp_blocking.utils.Frame;
+import fr.networks.tcp_blocking.utils.FramePool;
+import fr.networks.tcp_blocking.utils.Utf8;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+
+/**
+ * Encodes messages into pooled frames, whatever their size.
+ * <p>
+ * The sizes of the login and of the text are computed without encoding them. A message
+ * fitting in a frame of the small pool is encoded into it with
+ * {@link Message#encodeInto(ByteBuffer)}. A larger one is encoded by a CharsetEncoder,
+ * reused from one message to the next, straight into a chain of frames of the large pool.
+ * <p>
+ * A message can also be compressed into a {@link Compression#COMPRESSED} frame, by a
+ * Deflater reused from one message to the next as well, and an encoded message can be
+ * wrapped in a {@link Federation#FORWARD} frame for the links to the other nodes.
+ * <p>
+ * This class is not thread-safe, each thread encoding messages needs its own encoder.
+ */
+public final class MessageEncoder {
+    private final FramePool smallFrames;
+    private final FramePool largeFrames;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private Deflater deflater; // created with the first compressed message
+    private Frame tail; // last frame of the chain being encoded
+
+    /**
+     * @param smallFrames pool of the frames of the usual messages
+     * @param largeFrames pool of the frames chained for the large messages
+     */
+    public MessageEncoder(FramePool smallFrames, FramePool largeFrames) {
+        this.smallFrames = smallFrames;
+        this.largeFrames = largeFrames;
+    }
+
+    /**
+     * @param msg message to encode
+     * @return the sealed frame of the message, the caller owns its only reference
+     */
+    public Frame encode(Message msg) {
+        var loginSize = Utf8.encodedLength(msg.login());
+        var textSize = Utf8.encodedLength(msg.msg());
+        if (2L * Integer.BYTES + loginSize + textSize <= smallFrames.frameCapacity()) {
+            var frame = smallFrames.acquire();
+            msg.encodeInto(frame.content());
+            return frame.seal();
+        }
+        var head = largeFrames.acquire();
+        tail = head;
+        putInt(loginSize);
+        putString(msg.login());
+        putInt(textSize);
+        putString(msg.msg());
+        tail = null;
+        return head.seal();
+    }
+
+    /**
+     * Compresses the text of msg, which should be large enough for deflate to pay off
+     *
+     * @param msg message to encode
+     * @return the sealed frame of the message, the caller owns its only reference, or null
+     * if the compressed frame would not be shorter than the message
+     */
+    public Frame compress(Message msg) {
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.BEST_SPEED);
+        }
+        var text = msg.msg().getBytes(StandardCharsets.UTF_8);
+        var loginSize = Utf8.encodedLength(msg.login());
+        // the header always fits in a frame of the small pool, as a login fits in a buffer
+        var head = smallFrames.acquire();
+        var content = head.content();
+        content.putInt(Compression.COMPRESSED).putInt(loginSize);
+        putLogin(content, msg.login());
+        content.putInt(text.length);
+        var sizeIndex = content.position();
+        content.putInt(0);
+        var headerSize = content.position();
+        // no use compressing beyond the size of the plain message
+        var maxCompressedSize = 2 * Integer.BYTES + loginSize + text.length - headerSize;
+        tail = head;
+        var compressedSize = 0;
+        deflater.setInput(text);
+        deflater.finish();
+        try {
+            while (!deflater.finished() && compressedSize < maxCompressedSize) {
+                if (!tail.content().hasRemaining()) {
+                    tail = tail.chain(largeFrames.acquire());
+                }
+                compressedSize += deflater.deflate(tail.content());
+            }
+        } finally {
+            deflater.reset();
+            tail = null;
+        }
+        if (compressedSize >= maxCompressedSize) {
+            head.seal().release();
+            return null;
+        }
+        content.putInt(sizeIndex, compressedSize);
+        return head.seal();
+    }
+
+    /**
+     * Wraps the encoded message of a room in a {@link Federation#FORWARD} frame
+     *
+     * @param origin   node which received the message from a client
+     * @param sequence sequence number of the message on origin
+     * @param room     ASCII name of the room
+     * @param message  sealed frame of the message, not released
+     * @return the sealed frame, the caller owns its only reference
+     */
+    public Frame forward(int origin, long sequence, String room, Frame message) {
+        // the header always fits in a frame of the small pool, as the name of a room is short
+        var head = smallFrames.acquire();
+        var content = head.content();
+        content.putInt(Federation.FORWARD).putInt(origin).putLong(sequence).putInt(room.length());
+        for (var i = 0; i < room.length(); i++) {
+            content.put((byte) room.charAt(i));
+        }
+        tail = head;
+        for (var part = message; part != null; part = part.next()) {
+            var view = part.view();
+            while (view.hasRemaining()) {
+                if (!tail.content().hasRemaining()) {
+                    tail = tail.chain(largeFrames.acquire());
+                }
+                var target = tail.content();
+                var length = Math.min(view.remaining(), target.remaining());
+                target.put(target.position(), view, view.position(), length);
+                target.position(target.position() + length);
+                view.position(view.position() + length);
+            }
+        }
+        tail = null;
+        return head.seal();
+    }
+
+    private void putLogin(ByteBuffer content, String login) {
+        encoder.reset();
+        encoder.encode(CharBuffer.wrap(login), content, true);
+        encoder.flush(content);
+    }
+
+    private void putInt(int value) {
+        if (tail.content().remaining() >= Integer.BYTES) {
+            tail.content().putInt(value);
+            return;
+        }
+        // the size straddles two frames
+        for (var shift = Integer.SIZE - Byte.SIZE; shift >= 0; shift -= Byte.SIZE) {
+            if (!tail.content().hasRemaining()) {
+                tail = tail.chain(largeFrames.acquire());
+            }
+            tail.content().put((byte) (value >>> shift));
+        }
+    }
+
+    private void putString(String string) {
+        encoder.reset();
+        var chars = CharBuffer.wrap(string);
+        while (encoder.encode(chars, tail.content(), true).isOverflow()) {
+            tail = tail.chain(largeFrames.acquire());
+        }
+        while (encoder.flush(tail.content()).isOverflow()) {
+            tail = tail.chain(largeFrames.acquire());
+        }
+    }
+}
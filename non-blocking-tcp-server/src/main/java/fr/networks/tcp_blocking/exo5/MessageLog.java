@@ -0,0 +1,437 @@
+package fr.networks.tcp_blocking.exo5;
+
+import fr.networks.tcp_blocking.utils.FileRegion;
+import fr.networks.tcp_blocking.utils.Frame;
+import fr.networks.tcp_blocking.utils.LogRetention;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * A persistent log of the messages of a room, kept as the frames of the protocol and
+ * numbered from 0 by their sequence number.
+ * <p>
+ * The log is cut in segments of {@link LogRetention#segmentSize()} bytes, one file per
+ * segment named after the sequence number of its first message. Messages are appended
+ * through a memory-mapped view of the last segment. A sparse index keeps the position of
+ * one message out of {@value #INDEX_INTERVAL} of each segment, the position of the other
+ * ones being found by skipping the frames following it. The oldest segments are deleted
+ * according to the {@link LogRetention}.
+ * <p>
+ * Messages are replayed as a {@link FileRegion}, sent straight from the files of the
+ * segments. A segment deleted while it is being replayed is only closed once the replay
+ * is over.
+ * <p>
+ * Once reopened, the log goes on after the last complete message of its last segment. A
+ * message whose login and text are both empty cannot be told apart from the unused end of
+ * a segment, so it is not kept.
+ * <p>
+ * This class is thread-safe.
+ */
+public final class MessageLog implements Closeable {
+    private static final int INDEX_INTERVAL = 64;
+    private static final String SUFFIX = ".log";
+    private static final Logger logger = Logger.getLogger(MessageLog.class.getName());
+
+    private static final class Segment {
+        private final long baseSequence;
+        private final Path path;
+        private final FileChannel channel;
+        private MappedByteBuffer map; // the bytes of the segment, writable for the last segment
+        private int[] index = new int[16]; // position of the messages baseSequence + i * INDEX_INTERVAL
+        private int size; // bytes of the complete messages
+        private int count; // number of messages
+        private long lastAppendMillis;
+        private int readers; // replays holding the segment
+        private boolean retired; // closed once there is no reader anymore
+
+        private Segment(long baseSequence, Path path, FileChannel channel) {
+            this.baseSequence = baseSequence;
+            this.path = path;
+            this.channel = channel;
+        }
+
+        /**
+         * Adds the message ending at position end, and starting at size
+         */
+        private void add(int end) {
+            if (count % INDEX_INTERVAL == 0) {
+                var slot = count / INDEX_INTERVAL;
+                if (slot == index.length) {
+                    index = Arrays.copyOf(index, slot * 2);
+                }
+                index[slot] = size;
+            }
+            count++;
+            size = end;
+        }
+
+        /**
+         * @return the position of the message of sequence number sequence
+         */
+        private int position(long sequence) {
+            var rank = (int) (sequence - baseSequence);
+            var position = index[rank / INDEX_INTERVAL];
+            for (var i = 0; i < rank % INDEX_INTERVAL; i++) {
+                position += frameSize(map, position, size);
+            }
+            return position;
+        }
+    }
+
+    /**
+     * The messages of a log from a sequence number to the end of the log when it was asked
+     * for. It holds the segments it goes through until it is closed.
+     * <p>
+     * This class is not thread-safe, it belongs to the thread sending it.
+     */
+    public final class Replay implements FileRegion {
+        private final Segment[] segments;
+        private final long[] positions;
+        private final long[] ends;
+        private final long endSequence;
+        private int current; // index of the segment being sent
+        private long remaining;
+
+        private Replay(Segment[] segments, long[] positions, long[] ends, long endSequence) {
+            this.segments = segments;
+            this.positions = positions;
+            this.ends = ends;
+            this.endSequence = endSequence;
+            for (var i = 0; i < segments.length; i++) {
+                remaining += ends[i] - positions[i];
+            }
+        }
+
+        /**
+         * @return the sequence number of the message following the last one replayed
+         */
+        public long endSequence() {
+            return endSequence;
+        }
+
+        @Override
+        public long remaining() {
+            return remaining;
+        }
+
+        @Override
+        public long transferTo(WritableByteChannel target) throws IOException {
+            var sent = 0L;
+            while (current < segments.length) {
+                var transferred = segments[current].channel.transferTo(positions[current],
+                        ends[current] - positions[current], target);
+                positions[current] += transferred;
+                remaining -= transferred;
+                sent += transferred;
+                if (positions[current] != ends[current]) {
+                    return sent;
+                }
+                release(segments[current]);
+                current++;
+            }
+            return sent;
+        }
+
+        @Override
+        public void close() {
+            while (current < segments.length) {
+                release(segments[current]);
+                current++;
+            }
+        }
+    }
+
+    private final Path directory;
+    private final LogRetention retention;
+    private final ArrayList<Segment> segments = new ArrayList<>(); // the last one is appended to
+    private long nextSequence;
+    private long bytes; // bytes of the messages of all the segments
+    private boolean closed;
+
+    private MessageLog(Path directory, LogRetention retention) {
+        this.directory = directory;
+        this.retention = retention;
+    }
+
+    /**
+     * Opens the log kept in directory, creating it if needed
+     *
+     * @param directory directory of the segments of the log
+     * @param retention how much of the log is kept
+     * @return the log, going on after its last message
+     * @throws IOException if the directory or a segment cannot be opened
+     */
+    public static MessageLog open(Path directory, LogRetention retention) throws IOException {
+        Files.createDirectories(directory);
+        var log = new MessageLog(directory, retention);
+        var paths = new ArrayList<Path>();
+        try (var files = Files.list(directory)) {
+            files.filter(path -> baseSequence(path) >= 0).forEach(paths::add);
+        }
+        paths.sort(Comparator.comparingLong(MessageLog::baseSequence));
+        try {
+            for (var i = 0; i < paths.size(); i++) {
+                log.recover(paths.get(i), i == paths.size() - 1);
+            }
+        } catch (IOException e) {
+            log.close();
+            throw e;
+        }
+        if (!log.segments.isEmpty()) {
+            var last = log.segments.getLast();
+            log.nextSequence = last.baseSequence + last.count;
+        }
+        log.applyRetention(System.currentTimeMillis());
+        return log;
+    }
+
+    /**
+     * @return the sequence number in the name of a segment, or -1 if path is not a segment
+     */
+    private static long baseSequence(Path path) {
+        var name = path.getFileName().toString();
+        if (!name.endsWith(SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name, 0, name.length() - SUFFIX.length(), 10);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the size of the frame at position in map, or -1 if there is no complete frame
+     * before limit
+     */
+    private static int frameSize(MappedByteBuffer map, int position, int limit) {
+        var available = limit - position - 2 * Integer.BYTES;
+        if (available < 0) {
+            return -1;
+        }
+        var loginSize = map.getInt(position);
+        if (loginSize < 0 || loginSize > available) {
+            return -1;
+        }
+        var textSize = map.getInt(position + Integer.BYTES + loginSize);
+        if (textSize < 0 || textSize > available - loginSize || loginSize == 0 && textSize == 0) {
+            return -1;
+        }
+        return 2 * Integer.BYTES + loginSize + textSize;
+    }
+
+    /**
+     * Reopens a segment, indexing its complete messages
+     */
+    private void recover(Path path, boolean last) throws IOException {
+        var channel = FileChannel.open(path, READ, WRITE);
+        try {
+            var segment = new Segment(baseSequence(path), path, channel);
+            var fileSize = (int) Math.min(channel.size(), Integer.MAX_VALUE);
+            segment.map = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+            int frameSize;
+            while ((frameSize = frameSize(segment.map, segment.size, fileSize)) != -1) {
+                segment.add(segment.size + frameSize);
+            }
+            segment.lastAppendMillis = Files.getLastModifiedTime(path).toMillis();
+            if (last) {
+                segment.map = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                        Math.max(fileSize, retention.segmentSize()));
+            } else if (fileSize != segment.size) {
+                seal(segment);
+            }
+            segments.add(segment);
+            bytes += segment.size;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Cuts the file of segment after its last message, and maps it read-only
+     */
+    private static void seal(Segment segment) throws IOException {
+        segment.channel.truncate(segment.size);
+        segment.map = segment.channel.map(FileChannel.MapMode.READ_ONLY, 0, segment.size);
+    }
+
+    /**
+     * Appends a message to the log
+     *
+     * @param frame the sealed frame of the message
+     * @return the sequence number of the message, or -1 if it is not kept
+     * @throws IOException if a new segment cannot be created
+     */
+    public synchronized long append(Frame frame) throws IOException {
+        var size = frame.size();
+        if (closed || size > retention.segmentSize() || size == 2 * Integer.BYTES) {
+            return -1;
+        }
+        var segment = segments.isEmpty() ? null : segments.getLast();
+        if (segment == null || segment.map.capacity() - segment.size < size) {
+            segment = roll(segment);
+        }
+        var position = segment.size;
+        for (var part = frame; part != null; part = part.next()) {
+            var view = part.view();
+            segment.map.put(position, view, view.position(), view.remaining());
+            position += view.remaining();
+        }
+        segment.add(position);
+        bytes += size;
+        var now = System.currentTimeMillis();
+        segment.lastAppendMillis = now;
+        applyRetention(now);
+        return nextSequence++;
+    }
+
+    /**
+     * Seals last, if any, and starts a new segment with the next message
+     */
+    private Segment roll(Segment last) throws IOException {
+        if (last != null) {
+            seal(last);
+        }
+        var path = directory.resolve(String.format("%020d%s", nextSequence, SUFFIX));
+        var channel = FileChannel.open(path, CREATE, READ, WRITE);
+        try {
+            var segment = new Segment(nextSequence, path, channel);
+            segment.map = channel.map(FileChannel.MapMode.READ_WRITE, 0, retention.segmentSize());
+            segments.add(segment);
+            return segment;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Deletes the oldest segments, as long as the retention says so
+     */
+    private void applyRetention(long now) {
+        while (segments.size() > 1) {
+            var oldest = segments.getFirst();
+            if (bytes <= retention.maxBytes() && now - oldest.lastAppendMillis <= retention.maxAgeMillis()) {
+                return;
+            }
+            segments.removeFirst();
+            bytes -= oldest.size;
+            try {
+                Files.deleteIfExists(oldest.path);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Cannot delete the segment " + oldest.path, e);
+            }
+            retire(oldest);
+        }
+    }
+
+    private void retire(Segment segment) {
+        segment.retired = true;
+        if (segment.readers == 0) {
+            closeChannel(segment);
+        }
+    }
+
+    private synchronized void release(Segment segment) {
+        segment.readers--;
+        if (segment.retired && segment.readers == 0) {
+            closeChannel(segment);
+        }
+    }
+
+    private static void closeChannel(Segment segment) {
+        segment.map = null;
+        try {
+            segment.channel.close();
+        } catch (IOException e) {
+            // ignore exception
+        }
+    }
+
+    /**
+     * @return the sequence number of the oldest message kept
+     */
+    public synchronized long firstSequence() {
+        return segments.isEmpty() ? nextSequence : segments.getFirst().baseSequence;
+    }
+
+    /**
+     * @return the sequence number of the next message appended
+     */
+    public synchronized long nextSequence() {
+        return nextSequence;
+    }
+
+    /**
+     * @param count number of messages
+     * @return the last count messages of the log, or all the messages kept if there are fewer
+     */
+    public synchronized Replay replayLast(long count) {
+        return replay(nextSequence - Math.max(0, Math.min(count, nextSequence)));
+    }
+
+    /**
+     * @param fromSequence sequence number of the first message
+     * @return the messages of the log from fromSequence, or from the oldest message kept if
+     * it is more recent
+     */
+    public synchronized Replay replay(long fromSequence) {
+        var from = Math.max(fromSequence, firstSequence());
+        if (closed || from >= nextSequence) {
+            return new Replay(new Segment[0], new long[0], new long[0], nextSequence);
+        }
+        var first = segments.size() - 1;
+        while (segments.get(first).baseSequence > from) {
+            first--;
+        }
+        var count = segments.size() - first;
+        var replayed = new Segment[count];
+        var positions = new long[count];
+        var ends = new long[count];
+        for (var i = 0; i < count; i++) {
+            var segment = segments.get(first + i);
+            segment.readers++;
+            replayed[i] = segment;
+            positions[i] = i == 0 ? segment.position(from) : 0;
+            ends[i] = segment.size;
+        }
+        return new Replay(replayed, positions, ends, nextSequence);
+    }
+
+    /**
+     * Closes the log, the replays in progress going on until they are closed
+     *
+     * @throws IOException if the last segment cannot be cut after its last message
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (!segments.isEmpty()) {
+                seal(segments.getLast());
+            }
+        } finally {
+            for (var segment : segments) {
+                retire(segment);
+            }
+            segments.clear();
+        }
+    }
+}
@@ -1,45 +1,156 @@
 package fr.networks.tcp_blocking.exo5;
 
+import fr.networks.tcp_blocking.utils.BufferPool;
+import fr.networks.tcp_blocking.utils.CharBufferPool;
+import fr.networks.tcp_blocking.utils.Frame;
+import fr.networks.tcp_blocking.utils.FramePool;
+import fr.networks.tcp_blocking.utils.IntReader;
 import fr.networks.tcp_blocking.utils.Reader;
+import fr.networks.tcp_blocking.utils.StringCache;
 import fr.networks.tcp_blocking.utils.StringReader;
 
 import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
+/**
+ * Reads a message made of a login of at most {@link StringReader#MAX_SIZE} bytes and of a
+ * text of at most maxTextSize bytes.
+ * <p>
+ * Once {@link #acceptCompressed(Inflater, FramePool)} is called, the reader also accepts
+ * the {@link Compression#COMPRESSED} frames. Their compressed text is gathered, in a buffer
+ * of the pool if it fits or in a chain of pooled frames otherwise, then inflated at once,
+ * so that the Inflater can be shared by the readers of a thread. The text is inflated
+ * into a buffer of the pool and decoded as its bytes come out, like a text received plain.
+ */
 public class MessageReader implements Reader<Message> {
     private enum State {
-        DONE, WAITING_LOGIN, WAITING_MSG, ERROR
+        DONE, WAITING_TAG, WAITING_LOGIN, WAITING_MSG, WAITING_TEXT_SIZE, WAITING_COMPRESSED_SIZE,
+        WAITING_COMPRESSED, ERROR
     }
 
-    private State state = State.WAITING_LOGIN;
-    private final StringReader stringReader = new StringReader();
+    private State state;
+    private final StringReader loginReader;
+    private final StringReader textReader;
+    private final BufferPool pool; // or null
+    private final int maxTextSize;
+    private Inflater inflater; // or null while the compressed frames are refused
+    private FramePool framePool; // frames of the compressed texts too large for the pool, or null
+    private final IntReader sizeReader = new IntReader();
+    private final byte[] overflow = new byte[1]; // receives the bytes inflated past the announced size
+    private boolean compressed; // the message being read is a compressed frame
+    private int textSize;
+    private int inflated; // bytes of the text inflated so far
+    private ByteBuffer compressedText; // write-mode, only while gathering a compressed text in a buffer of the pool
+    private Frame compressedFrames; // only while gathering a compressed text in frames, sealed once complete
+    private Frame lastFrame; // frame of compressedFrames receiving the next bytes
+    private int compressedRemaining; // bytes of the compressed text gathered in frames not received yet
     private Message message;
     private String login;
     private String content;
 
+    public MessageReader() {
+        loginReader = new StringReader();
+        textReader = new StringReader();
+        pool = null;
+        maxTextSize = StringReader.MAX_SIZE;
+        inflater = null;
+        state = State.WAITING_LOGIN;
+    }
+
+    /**
+     * @param pool pool to borrow the buffer of a partially received string from
+     */
+    public MessageReader(BufferPool pool) {
+        this(pool, null, StringReader.MAX_SIZE);
+    }
+
+    /**
+     * @param pool        pool to borrow the buffer of a partially received string from
+     * @param charPool    pool to borrow the characters of a large text from
+     * @param maxTextSize size in bytes of the largest text accepted
+     */
+    public MessageReader(BufferPool pool, CharBufferPool charPool, int maxTextSize) {
+        this(pool, charPool, maxTextSize, null);
+    }
+
+    /**
+     * @param pool        pool to borrow the buffer of a partially received string from
+     * @param charPool    pool to borrow the characters of a large text from
+     * @param maxTextSize size in bytes of the largest text accepted
+     * @param loginCache  cache of the logins, only used by the thread of this reader
+     */
+    public MessageReader(BufferPool pool, CharBufferPool charPool, int maxTextSize, StringCache loginCache) {
+        loginReader = loginCache == null ? new StringReader(pool) : new StringReader(pool, loginCache);
+        textReader = new StringReader(pool, charPool, maxTextSize);
+        this.pool = pool;
+        this.maxTextSize = maxTextSize;
+        state = initialState();
+    }
+
+    /**
+     * Accepts the compressed frames from the next message on, once the peer was granted
+     * {@link Compression#DEFLATE}. It must be called between two messages.
+     *
+     * @param inflater  inflater of the compressed texts, only used by the thread of this reader
+     * @param framePool pool of the frames gathering the compressed texts too large for a buffer of the pool
+     */
+    public void acceptCompressed(Inflater inflater, FramePool framePool) {
+        if (pool == null) {
+            throw new IllegalStateException("a pool is needed to inflate the texts");
+        }
+        if (state != initialState()) {
+            throw new IllegalStateException("a message is being read");
+        }
+        this.inflater = inflater;
+        this.framePool = framePool;
+        state = initialState();
+    }
+
+    private State initialState() {
+        return inflater == null ? State.WAITING_LOGIN : State.WAITING_TAG;
+    }
+
     @Override
     public ProcessStatus process(ByteBuffer buffer) {
         if (state == State.DONE || state == State.ERROR) {
             throw new IllegalStateException();
         }
 
+        if (state == State.WAITING_TAG) {
+            // the int starting a compressed frame would be the size of the login of a message
+            if (buffer.remaining() < Integer.BYTES) {
+                return ProcessStatus.REFILL;
+            }
+            if (buffer.getInt(buffer.position()) == Compression.COMPRESSED) {
+                buffer.getInt();
+                compressed = true;
+            }
+            state = State.WAITING_LOGIN;
+        }
+
         if (state == State.WAITING_LOGIN) {
-            var status = stringReader.process(buffer);
+            var status = loginReader.process(buffer);
             if (status == ProcessStatus.DONE) {
-                state = State.WAITING_MSG;
-                login = stringReader.get();
-                stringReader.reset();
+                state = compressed ? State.WAITING_TEXT_SIZE : State.WAITING_MSG;
+                login = loginReader.get();
+                loginReader.reset();
             } else {
                 return status;
             }
         }
 
+        if (compressed) {
+            return processCompressed(buffer);
+        }
+
         if (state == State.WAITING_MSG) {
-            var status = stringReader.process(buffer);
+            var status = textReader.process(buffer);
             if (status != ProcessStatus.DONE) {
                 return status;
             } else {
                 state = State.DONE;
-                content = stringReader.get();
+                content = textReader.get();
                 message = new Message(login, content);
                 return ProcessStatus.DONE;
             }
@@ -48,6 +159,176 @@ public class MessageReader implements Reader<Message> {
         throw new AssertionError();
     }
 
+    private ProcessStatus processCompressed(ByteBuffer buffer) {
+        if (state == State.WAITING_TEXT_SIZE) {
+            var status = sizeReader.process(buffer);
+            if (status != ProcessStatus.DONE) {
+                return status;
+            }
+            textSize = sizeReader.get();
+            if (textSize < 0 || textSize > maxTextSize) {
+                return error();
+            }
+            sizeReader.reset();
+            state = State.WAITING_COMPRESSED_SIZE;
+        }
+
+        if (state == State.WAITING_COMPRESSED_SIZE) {
+            var status = sizeReader.process(buffer);
+            if (status != ProcessStatus.DONE) {
+                return status;
+            }
+            var compressedSize = sizeReader.get();
+            // a compressed frame is only sent when it is shorter than the message
+            if (compressedSize < 0 || compressedSize > textSize) {
+                return error();
+            }
+            if (compressedSize <= pool.bufferSize()) {
+                compressedText = pool.acquire().limit(compressedSize);
+            } else {
+                compressedFrames = framePool.acquire();
+                lastFrame = compressedFrames;
+                compressedRemaining = compressedSize;
+            }
+            state = State.WAITING_COMPRESSED;
+        }
+
+        if (state == State.WAITING_COMPRESSED) {
+            if (!gatherCompressed(buffer)) {
+                return ProcessStatus.REFILL;
+            }
+            var text = inflate();
+            releaseCompressedText();
+            if (text == null) {
+                return error();
+            }
+            content = text;
+            message = new Message(login, content);
+            state = State.DONE;
+            return ProcessStatus.DONE;
+        }
+
+        throw new AssertionError();
+    }
+
+    /**
+     * Moves the bytes of the compressed text available in buffer to compressedText or to
+     * the frames of compressedFrames
+     *
+     * @return true once the whole compressed text is gathered
+     */
+    private boolean gatherCompressed(ByteBuffer buffer) {
+        if (compressedText != null) {
+            fill(buffer, compressedText, compressedText.remaining());
+            return !compressedText.hasRemaining();
+        }
+        while (compressedRemaining != 0 && buffer.hasRemaining()) {
+            if (!lastFrame.content().hasRemaining()) {
+                lastFrame = lastFrame.chain(framePool.acquire());
+            }
+            compressedRemaining -= fill(buffer, lastFrame.content(), compressedRemaining);
+        }
+        if (compressedRemaining != 0) {
+            return false;
+        }
+        compressedFrames.seal();
+        return true;
+    }
+
+    /**
+     * Moves at most max bytes from src to dst
+     *
+     * @return the number of bytes moved
+     */
+    private static int fill(ByteBuffer src, ByteBuffer dst, int max) {
+        var length = Math.min(max, Math.min(src.remaining(), dst.remaining()));
+        dst.put(dst.position(), src, src.position(), length);
+        dst.position(dst.position() + length);
+        src.position(src.position() + length);
+        return length;
+    }
+
+    /**
+     * Inflates the compressed text into a buffer of the pool, handing the inflated bytes
+     * to textReader after the size of the text, as if they were received plain
+     *
+     * @return the text inflated from the compressed text, or null if it is not a valid
+     * zlib stream of textSize bytes
+     */
+    private String inflate() {
+        var output = pool.acquire();
+        try {
+            textReader.process(output.putInt(textSize).flip());
+            inflated = 0;
+            if (compressedText != null) {
+                if (!inflate(compressedText.flip(), output)) {
+                    return null;
+                }
+            } else {
+                for (var frame = compressedFrames; frame != null; frame = frame.next()) {
+                    if (!inflate(frame.view(), output)) {
+                        return null;
+                    }
+                }
+            }
+            if (inflated != textSize || !inflater.finished()) {
+                return null;
+            }
+            return textReader.get();
+        } catch (DataFormatException e) {
+            return null;
+        } finally {
+            inflater.reset();
+            pool.release(output);
+        }
+    }
+
+    /**
+     * Inflates input, the next part of the compressed text, through output
+     *
+     * @return false if the text is longer than textSize bytes
+     * @throws DataFormatException if the compressed text is not a valid zlib stream
+     */
+    private boolean inflate(ByteBuffer input, ByteBuffer output) throws DataFormatException {
+        inflater.setInput(input);
+        while (inflated < textSize) {
+            output.clear().limit(Math.min(output.capacity(), textSize - inflated));
+            var count = inflater.inflate(output);
+            if (count == 0) {
+                // finished, or waiting for the next part
+                return true;
+            }
+            inflated += count;
+            textReader.process(output.flip());
+        }
+        // the end of the stream may only be seen once the output is full
+        return inflater.finished() || inflater.inflate(overflow) == 0;
+    }
+
+    private ProcessStatus error() {
+        state = State.ERROR;
+        releaseCompressedText();
+        textReader.reset();
+        return ProcessStatus.ERROR;
+    }
+
+    private void releaseCompressedText() {
+        if (compressedText != null) {
+            pool.release(compressedText);
+            compressedText = null;
+        }
+        if (compressedFrames != null) {
+            if (compressedRemaining != 0) {
+                // only sealed to be released
+                compressedFrames.seal();
+            }
+            compressedFrames.release();
+            compressedFrames = null;
+            lastFrame = null;
+            compressedRemaining = 0;
+        }
+    }
+
     @Override
     public Message get() {
         if (state != State.DONE) {
@@ -58,7 +339,11 @@ public class MessageReader implements Reader<Message> {
 
     @Override
     public void reset() {
-        state = State.WAITING_LOGIN;
-        stringReader.reset();
+        state = initialState();
+        loginReader.reset();
+        textReader.reset();
+        sizeReader.reset();
+        compressed = false;
+        releaseCompressedText();
     }
 }
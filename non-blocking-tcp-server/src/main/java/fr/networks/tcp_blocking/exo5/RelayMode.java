@@ -0,0 +1,20 @@
+package fr.networks.tcp_blocking.exo5;
+
+/**
+ * How {@link ServerChat} handles the messages it relays
+ */
+public enum RelayMode {
+    /**
+     * Decode every message with a {@link MessageReader} and encode it again
+     */
+    DECODE,
+    /**
+     * Check only the framing of the messages and relay their bytes as they were received,
+     * with a {@link RelayReader}
+     */
+    RAW,
+    /**
+     * Like RAW, also checking that the login and the text are well-formed UTF-8
+     */
+    RAW_VALIDATED
+}
@@ -0,0 +1,236 @@
+package fr.networks.tcp_blocking.exo5;
+
+import fr.networks.tcp_blocking.utils.Frame;
+import fr.networks.tcp_blocking.utils.FramePool;
+import fr.networks.tcp_blocking.utils.IntReader;
+import fr.networks.tcp_blocking.utils.Reader;
+import fr.networks.tcp_blocking.utils.StringReader;
+import fr.networks.tcp_blocking.utils.Utf8;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads a message in the format of {@link MessageReader}, without decoding it, into a
+ * frame ready to be relayed.
+ * <p>
+ * Only the framing is checked: the sizes of the login and of the text, and optionally
+ * that both are well-formed UTF-8. The bytes are copied as they arrive into a frame of
+ * the small pool, chained to frames of the large pool when the text does not fit. A
+ * suffix, such as {@code @room}, can be appended to the login on the way, as long as the
+ * login still fits in {@link StringReader#MAX_SIZE} bytes.
+ * <p>
+ * The text is only decoded when it may be a command, that is when it starts with '/'
+ * and is short enough, see {@link #command()}.
+ */
+public class RelayReader implements Reader<Frame> {
+    private enum State {
+        DONE, WAITING_LOGIN_SIZE, WAITING_LOGIN, WAITING_TEXT_SIZE, WAITING_TEXT, ERROR
+    }
+
+    private static final byte[] NO_SUFFIX = new byte[0];
+
+    private State state = State.WAITING_LOGIN_SIZE;
+    private final FramePool smallFrames;
+    private final FramePool largeFrames;
+    private final int maxTextSize;
+    private final IntReader sizeReader = new IntReader();
+    private final Utf8.Validator validator; // or null
+    private byte[] loginSuffix = NO_SUFFIX;
+    private byte[] suffix; // suffix of the login being read, or null if it does not fit
+    private Frame head; // frame of the message being read, owned by the reader until get
+    private Frame tail;
+    private int remaining; // bytes of the current string not copied yet
+    private int textStart; // index of the text in head
+    private int textSize;
+    private String command;
+
+    /**
+     * @param smallFrames  pool of the first frame of a message, its frames must hold a login and a text of
+     *                     {@link StringReader#MAX_SIZE} bytes each, with their sizes
+     * @param largeFrames  pool of the frames chained for the large texts
+     * @param maxTextSize  size in bytes of the largest text accepted
+     * @param validateUtf8 whether the login and the text must be well-formed UTF-8
+     */
+    public RelayReader(FramePool smallFrames, FramePool largeFrames, int maxTextSize, boolean validateUtf8) {
+        if (smallFrames.frameCapacity() < 2 * (Integer.BYTES + StringReader.MAX_SIZE)) {
+            throw new IllegalArgumentException("frames of the small pool are too small");
+        }
+        this.smallFrames = smallFrames;
+        this.largeFrames = largeFrames;
+        this.maxTextSize = maxTextSize;
+        this.validator = validateUtf8 ? new Utf8.Validator() : null;
+    }
+
+    /**
+     * Sets the bytes appended to the logins of the next messages
+     *
+     * @param loginSuffix ASCII bytes, not modified afterwards
+     */
+    public void loginSuffix(byte[] loginSuffix) {
+        this.loginSuffix = loginSuffix;
+    }
+
+    @Override
+    public ProcessStatus process(ByteBuffer buffer) {
+        if (state == State.DONE || state == State.ERROR) {
+            throw new IllegalStateException();
+        }
+
+        if (state == State.WAITING_LOGIN_SIZE) {
+            var status = sizeReader.process(buffer);
+            if (status != ProcessStatus.DONE) {
+                return status;
+            }
+            var size = sizeReader.get();
+            if (size < 0 || size > StringReader.MAX_SIZE) {
+                return error();
+            }
+            suffix = size + loginSuffix.length <= StringReader.MAX_SIZE ? loginSuffix : null;
+            head = smallFrames.acquire();
+            tail = head;
+            head.content().putInt(suffix == null ? size : size + suffix.length);
+            startString(size);
+            state = State.WAITING_LOGIN;
+        }
+
+        if (state == State.WAITING_LOGIN) {
+            if (!copy(buffer)) {
+                return error();
+            }
+            if (remaining != 0) {
+                return ProcessStatus.REFILL;
+            }
+            if (!endString()) {
+                return error();
+            }
+            if (suffix != null) {
+                head.content().put(suffix);
+            }
+            sizeReader.reset();
+            state = State.WAITING_TEXT_SIZE;
+        }
+
+        if (state == State.WAITING_TEXT_SIZE) {
+            var status = sizeReader.process(buffer);
+            if (status != ProcessStatus.DONE) {
+                return status;
+            }
+            textSize = sizeReader.get();
+            if (textSize < 0 || textSize > maxTextSize) {
+                return error();
+            }
+            head.content().putInt(textSize);
+            textStart = head.content().position();
+            startString(textSize);
+            state = State.WAITING_TEXT;
+        }
+
+        if (state == State.WAITING_TEXT) {
+            if (!copy(buffer)) {
+                return error();
+            }
+            if (remaining != 0) {
+                return ProcessStatus.REFILL;
+            }
+            if (!endString()) {
+                return error();
+            }
+            // a short text is entirely in head
+            var content = head.content();
+            if (textSize != 0 && textSize <= StringReader.MAX_SIZE && content.get(textStart) == '/') {
+                command = Utf8.decode(content, textStart, textSize);
+            }
+            head.seal();
+            state = State.DONE;
+            return ProcessStatus.DONE;
+        }
+        throw new AssertionError();
+    }
+
+    private void startString(int size) {
+        remaining = size;
+        if (validator != null) {
+            validator.reset();
+        }
+    }
+
+    private boolean endString() {
+        return validator == null || validator.isComplete();
+    }
+
+    /**
+     * Copies the bytes of the current string available in buffer at the end of the chain
+     *
+     * @return false if the bytes are not well-formed UTF-8
+     */
+    private boolean copy(ByteBuffer buffer) {
+        var length = Math.min(buffer.remaining(), remaining);
+        while (length > 0) {
+            var content = tail.content();
+            if (!content.hasRemaining()) {
+                tail = tail.chain(largeFrames.acquire());
+                content = tail.content();
+            }
+            var chunk = Math.min(length, content.remaining());
+            if (validator != null && !validator.update(buffer, buffer.position(), chunk)) {
+                return false;
+            }
+            content.put(content.position(), buffer, buffer.position(), chunk);
+            content.position(content.position() + chunk);
+            buffer.position(buffer.position() + chunk);
+            remaining -= chunk;
+            length -= chunk;
+        }
+        return true;
+    }
+
+    private ProcessStatus error() {
+        state = State.ERROR;
+        releaseHead();
+        return ProcessStatus.ERROR;
+    }
+
+    /**
+     * The frame of the message, the caller takes the only reference on it
+     *
+     * @return the sealed frame
+     */
+    @Override
+    public Frame get() {
+        if (state != State.DONE || head == null) {
+            throw new IllegalStateException();
+        }
+        var frame = head;
+        head = null;
+        tail = null;
+        return frame;
+    }
+
+    /**
+     * @return the text of the last message read, decoded, if it starts with '/' and is at most
+     * {@link StringReader#MAX_SIZE} bytes long, or null
+     */
+    public String command() {
+        if (state != State.DONE) {
+            throw new IllegalStateException();
+        }
+        return command;
+    }
+
+    @Override
+    public void reset() {
+        state = State.WAITING_LOGIN_SIZE;
+        sizeReader.reset();
+        command = null;
+        releaseHead();
+    }
+
+    private void releaseHead() {
+        if (head != null) {
+            // the frames of an unfinished message are not sealed yet
+            head.seal().release();
+            head = null;
+            tail = null;
+        }
+    }
+}
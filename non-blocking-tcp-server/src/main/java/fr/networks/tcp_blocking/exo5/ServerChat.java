@@ -1,50 +1,222 @@
 package fr.networks.tcp_blocking.exo5;
 
-import fr.networks.tcp_blocking.utils.Helpers;
+import fr.networks.tcp_blocking.reactor.Connection;
+import fr.networks.tcp_blocking.reactor.ListenMode;
+import fr.networks.tcp_blocking.reactor.Reactor;
+import fr.networks.tcp_blocking.reactor.ReactorGroup;
+import fr.networks.tcp_blocking.reactor.TlsChannel;
+import fr.networks.tcp_blocking.utils.BufferPool;
+import fr.networks.tcp_blocking.utils.CharBufferPool;
+import fr.networks.tcp_blocking.utils.ConnectionTimeouts;
+import fr.networks.tcp_blocking.utils.DuplicateFilter;
+import fr.networks.tcp_blocking.utils.Frame;
+import fr.networks.tcp_blocking.utils.FramePool;
+import fr.networks.tcp_blocking.utils.LogRetention;
+import fr.networks.tcp_blocking.utils.OutboundLimits;
+import fr.networks.tcp_blocking.utils.OutboundQueue;
+import fr.networks.tcp_blocking.utils.SlowConsumerPolicy;
+import fr.networks.tcp_blocking.utils.SpillFile;
+import fr.networks.tcp_blocking.utils.StringCache;
+import fr.networks.tcp_blocking.utils.StringReader;
+import fr.networks.tcp_blocking.utils.SubscriptionIndex;
+import fr.networks.tcp_blocking.utils.TlsSettings;
+import fr.networks.tcp_blocking.utils.Utf8;
+import fr.networks.tcp_blocking.utils.WriteCoalescing;
 
 import java.io.IOException;
-import java.io.UncheckedIOException;
 import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
 import java.nio.channels.*;
-import java.util.ArrayDeque;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.Inflater;
 
+/**
+ * A chat server with rooms, served by several reactors.
+ * <p>
+ * Every client starts in the room {@value #DEFAULT_ROOM}. A message whose text is
+ * {@code /join room} subscribes its sender to room, which becomes the room of the next
+ * messages of the sender, and {@code /leave room} ends the subscription. Any other message
+ * is delivered to the subscribers of the room of its sender only. Messages of the other
+ * rooms than {@value #DEFAULT_ROOM} are relayed with {@code login@room} as login. The name
+ * of a room is made of at most 64 ASCII letters, digits, '-' and '_'.
+ * <p>
+ * The text of a message may be up to {@value #MAX_TEXT_SIZE} bytes long. It is decoded
+ * while it is received and a large one is relayed in a chain of frames. With a raw
+ * {@link RelayMode}, messages are not decoded at all: their bytes are relayed as they
+ * were received, only the texts which may be commands being decoded.
+ * <p>
+ * A client may negotiate the compression of the texts with a {@link Compression#HELLO}
+ * frame, granted unless the server relays the messages raw or has compression disabled.
+ * The texts of at least compressionThreshold bytes are then compressed, once per message
+ * by the shard which received it, the clients which did not negotiate it getting the
+ * plain frame.
+ * <p>
+ * With {@link WriteCoalescing}, the frames queued to a client are held in batches, all the
+ * batches of a shard being written at the deadline of the oldest one, or as soon as one of
+ * them is large enough.
+ * <p>
+ * With a history directory, the messages of each room are also appended to a
+ * {@link MessageLog}. A client asks for the last n messages of its room with
+ * {@code /history n}, or for its messages from the sequence number seq with
+ * {@code /since seq}. They are sent straight from the files of the log, followed by a
+ * message from {@value #HISTORY_LOGIN} whose text is the room and the sequence number
+ * of its next message. A message may be both replayed and received live around that
+ * sequence number.
+ * <p>
+ * With a {@link Federation}, the node is linked to other nodes, and the messages received
+ * from its clients reach the clients of every node. A message is wrapped once in a
+ * {@link Federation#FORWARD} frame shared by all the links, and a node forwards the
+ * messages of the other nodes to its other links, dropping the copies it already saw.
+ * All the links are served by the first shard, so that the messages of a client reach
+ * the clients and the histories of the other nodes in the order it sent them.
+ * <p>
+ * With {@link TlsSettings}, the clients talk TLS, each context reading and writing through
+ * a {@link TlsChannel}. The cryptography of the handshakes runs on a pool of threads of its
+ * own, so that a storm of reconnections does not stall the reactors, and the clients
+ * reconnecting resume their sessions. The links to the other nodes stay in clear.
+ * <p>
+ * {@link ServerChatVirtual} serves the same protocol with virtual threads, but only its
+ * broadcast: none of the rooms, commands and slow consumer policies above, a client
+ * whose queue is full just missing the message.
+ */
 public class ServerChat {
-	static private class Context {
-		private final SelectionKey key;
-		private final SocketChannel sc;
-		private final ByteBuffer bufferIn = ByteBuffer.allocate(BUFFER_SIZE);
-		private final ByteBuffer bufferOut = ByteBuffer.allocate(BUFFER_SIZE);
-		private final ArrayDeque<Message> queue = new ArrayDeque<>();
-		private final ServerChat server; // we could also have Context as an instance class, which would naturally
-		// give access to ServerChat.this
-		private final MessageReader messageReader;
+	static private class Context extends Connection {
+		private ByteBuffer bufferIn; // borrowed from the pool only while it holds unprocessed bytes
+		private final OutboundQueue outbound = new OutboundQueue(); // this context owns one reference per frame
+		private final Shard shard; // the shard owning this context, every call happens on its thread
+		private final MessageReader messageReader; // null when the messages are relayed raw
+		private final RelayReader relayReader; // null when the messages are decoded
+		private final ForwardReader forwardReader; // only for the links to other nodes
+		private final TlsChannel tls; // null for the clients in clear and the links
+		private final GatheringByteChannel channel; // written to, tls or sc in clear
+		private boolean handshaking; // the TLS handshake is not over
+		private boolean resumeQueued = false; // resumeTls is waiting for its turn on the reactor thread
+		private int peerNode = -1; // node at the other end of a link, once known
+		private byte[] challenge; // sent to the node at the other end of a link, until it answers
+		private boolean linked = false; // the node at the other end of the link answered the challenge
 		private boolean closed = false;
+		private boolean slow = false; // handled by the policy until the queue is back under the low watermark
+		private SpillFile spill; // frames over the high watermark with the SPILL_TO_DISK policy, created lazily
+		private boolean inFrame = false; // a message has been partially received
+		private boolean processing = false; // bufferIn is in read-mode, its frames being processed
+		private boolean negotiating; // the first frame, which may be a HELLO, has not been read yet
+		private boolean compressing = false; // the client was granted DEFLATE
+		private boolean batching = false; // the queued frames wait for the deadline of the batches of the shard
+		private boolean held = false; // in the batches of the shard, even if its batch was written early
+		private final HashMap<String, SubscriptionIndex.Subscription<Context>> rooms = new HashMap<>();
+		private String room = DEFAULT_ROOM; // room of the messages of the client, null once it left it
 
-		private Context(ServerChat server, SelectionKey key) {
-			this.key = key;
-			this.sc = (SocketChannel) key.channel();
-			this.server = server;
-			messageReader = new MessageReader();
+		private Context(Shard shard, Reactor reactor, SelectionKey key) {
+			super(reactor, key);
+			this.shard = shard;
+			var server = shard.server;
+			if (server.isLink(sc)) {
+				try {
+					// a link carries many small frames, which must not wait for the acks of the previous ones
+					sc.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				} catch (IOException e) {
+					// the forwards are only delayed
+				}
+				messageReader = null;
+				relayReader = null;
+				forwardReader = new ForwardReader(server.framePool, server.largeFramePool, MAX_TEXT_SIZE);
+			} else if (server.relayMode == RelayMode.DECODE) {
+				messageReader = new MessageReader(server.bufferPool, server.charPool, MAX_TEXT_SIZE, shard.logins);
+				relayReader = null;
+				forwardReader = null;
+			} else {
+				messageReader = null;
+				relayReader = new RelayReader(server.framePool, server.largeFramePool, MAX_TEXT_SIZE,
+						server.relayMode == RelayMode.RAW_VALIDATED);
+				forwardReader = null;
+			}
+			negotiating = forwardReader == null;
+			if (forwardReader == null && server.tls != null) {
+				try {
+					// the flights of the handshake, the session tickets and the first messages must
+					// not wait for the delayed acks of the client
+					sc.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				} catch (IOException e) {
+					// the handshake is only delayed
+				}
+				tls = new TlsChannel(sc, server.tls.newServerEngine(), server.tlsPool, server.handshakeTasks, reactor,
+						this::resumeTls);
+				channel = tls;
+			} else {
+				tls = null;
+				channel = sc;
+			}
+			handshaking = tls != null;
+		}
+
+		private boolean isLink() {
+			return forwardReader != null;
+		}
+
+		@Override
+		protected void opened() {
+			if (isLink()) {
+				challenge = Federation.challenge();
+				var peer = shard.server.framePool.acquire();
+				peer.content().putInt(Federation.PEER).putInt(shard.server.federation.nodeId()).put(challenge);
+				peer.seal();
+				queueFrame(peer);
+				peer.release();
+				return;
+			}
+			join(DEFAULT_ROOM);
+			armTimer();
+			updateInterestOps();
 		}
 
 		/**
 		 * Process the content of bufferIn
 		 * <p>
-		 * The convention is that bufferIn is in write-mode before the call to process and
-		 * after the call
+		 * The convention is that bufferIn is in read-mode before the call to process and
+		 * after the call, the readers consuming the frames in place
 		 *
 		 */
 		private void processIn() {
+			if (isLink()) {
+				processLink();
+				return;
+			}
+			if (negotiating && !negotiate()) {
+				return;
+			}
 			while (true) {
-				var status = messageReader.process(bufferIn);
+				var status = relayReader == null ? messageReader.process(bufferIn) : relayReader.process(bufferIn);
 				switch (status) {
 					case DONE -> {
-						var value = messageReader.get();
-						server.broadcast(value);
-						messageReader.reset();
+						if (relayReader == null) {
+							onMessage(messageReader.get());
+						} else {
+							onFrame(relayReader.command(), relayReader.get());
+						}
+						if (!sc.isOpen()) {
+							return; // disconnected as a slow consumer of its own message
+						}
+						resetReader();
+						inFrame = bufferIn.hasRemaining();
 					}
 					case REFILL -> {
 						return;
@@ -58,192 +230,1514 @@ public class ServerChat {
 		}
 
 		/**
-		 * Add a message to the message queue, tries to fill bufferOut and updateInterestOps
+		 * Read the HELLO frame the client may start with, and answer it with the features
+		 * granted
 		 *
-		 * @param msg message
+		 * @return false if the first frame is not known yet
 		 */
-		public void queueMessage(Message msg) {
-			queue.add(msg);
-			processOut();
-			updateInterestOps();
+		private boolean negotiate() {
+			if (bufferIn.remaining() < Integer.BYTES) {
+				return false;
+			}
+			if (bufferIn.getInt(bufferIn.position()) != Compression.HELLO) {
+				negotiating = false;
+				return true;
+			}
+			if (bufferIn.remaining() < Compression.HELLO_SIZE) {
+				return false;
+			}
+			bufferIn.getInt();
+			var granted = bufferIn.getInt() & shard.server.features();
+			negotiating = false;
+			if ((granted & Compression.DEFLATE) != 0) {
+				compressing = true;
+				shard.server.compressingClients.incrementAndGet();
+				// the clients not granted DEFLATE cannot send compressed frames
+				messageReader.acceptCompressed(shard.inflater, shard.server.largeFramePool);
+			}
+			var hello = shard.server.framePool.acquire();
+			hello.content().putInt(Compression.HELLO).putInt(granted);
+			hello.seal();
+			queueFrame(hello);
+			hello.release();
+			return true;
 		}
 
 		/**
-		 * Try to fill bufferOut from the message queue
+		 * Process the content of bufferIn on a link: the PEER frame telling the node at
+		 * the other end and its challenge, the AUTH frame answering ours, then the
+		 * forwarded messages
+		 */
+		private void processLink() {
+			var federation = shard.server.federation;
+			if (peerNode == -1) {
+				if (bufferIn.remaining() < Federation.PEER_SIZE) {
+					return;
+				}
+				var tag = bufferIn.getInt();
+				var node = bufferIn.getInt();
+				var peerChallenge = new byte[Federation.CHALLENGE_SIZE];
+				bufferIn.get(peerChallenge);
+				if (tag != Federation.PEER || node < 0 || node == federation.nodeId()) {
+					logger.warning("Closing a link without a valid PEER frame");
+					silentlyClose();
+					return;
+				}
+				peerNode = node;
+				var auth = shard.server.framePool.acquire();
+				auth.content().putInt(Federation.AUTH).put(federation.answer(peerChallenge, federation.nodeId()));
+				auth.seal();
+				queueFrame(auth);
+				auth.release();
+			}
+			if (!linked) {
+				if (bufferIn.remaining() < Federation.AUTH_SIZE) {
+					return;
+				}
+				var tag = bufferIn.getInt();
+				var answer = new byte[Federation.ANSWER_SIZE];
+				bufferIn.get(answer);
+				if (tag != Federation.AUTH || !federation.isAnswer(answer, challenge, peerNode)) {
+					logger.warning("Closing the link of node " + peerNode + " which does not know the secret");
+					silentlyClose();
+					return;
+				}
+				challenge = null;
+				linked = true;
+				shard.addLink(this);
+				armTimer();
+				logger.info("Linked to node " + peerNode);
+			}
+			var server = shard.server;
+			while (true) {
+				switch (forwardReader.process(bufferIn)) {
+					case DONE -> {
+						var room = forwardReader.room();
+						var frame = forwardReader.get();
+						if (!isValidRoom(room)) {
+							frame.release();
+							silentlyClose();
+							return;
+						}
+						server.receive(forwardReader.origin(), forwardReader.sequence(), room, frame, this);
+						if (!sc.isOpen()) {
+							return;
+						}
+						forwardReader.reset();
+						inFrame = bufferIn.hasRemaining();
+					}
+					case REFILL -> {
+						return;
+					}
+					case ERROR -> {
+						silentlyClose();
+						return;
+					}
+				}
+			}
+		}
+
+		private void resetReader() {
+			if (isLink()) {
+				forwardReader.reset();
+			} else if (relayReader == null) {
+				messageReader.reset();
+			} else {
+				relayReader.reset();
+			}
+		}
+
+		/**
+		 * Apply the room command carried by msg, or send it to the room of the client
+		 *
+		 * @param msg message received from the client
+		 */
+		private void onMessage(Message msg) {
+			if (!onCommand(msg.msg()) && room != null) {
+				shard.server.broadcast(msg, room, shard);
+			}
+		}
+
+		/**
+		 * Apply the room command carried by a raw message, or relay it to the room of the client
 		 *
+		 * @param command text of the message if it may be a command, or null
+		 * @param frame   the message, the context owns the only reference on it
 		 */
-		private void processOut() {
-			while (!queue.isEmpty()) {
-				var msg = queue.remove().encode().flip();
-				if (bufferOut.remaining() < msg.remaining()) {
+		private void onFrame(String command, Frame frame) {
+			if (command != null && onCommand(command) || room == null) {
+				frame.release();
+				return;
+			}
+			shard.server.relay(frame, null, room, shard);
+		}
+
+		/**
+		 * @param text text of a message
+		 * @return true if text was a room or history command, which has been applied
+		 */
+		private boolean onCommand(String text) {
+			if (text.startsWith(HISTORY_COMMAND)) {
+				replayHistory(text.substring(HISTORY_COMMAND.length()), true);
+				return true;
+			}
+			if (text.startsWith(SINCE_COMMAND)) {
+				replayHistory(text.substring(SINCE_COMMAND.length()), false);
+				return true;
+			}
+			if (text.startsWith(JOIN_COMMAND)) {
+				join(text.substring(JOIN_COMMAND.length()));
+				return true;
+			}
+			if (text.startsWith(LEAVE_COMMAND)) {
+				leave(text.substring(LEAVE_COMMAND.length()));
+				return true;
+			}
+			return false;
+		}
+
+		private void join(String name) {
+			if (!isValidRoom(name)) {
+				return;
+			}
+			if (!rooms.containsKey(name)) {
+				rooms.put(name, shard.subscribe(name, this));
+			}
+			room = name;
+			if (relayReader != null) {
+				relayReader.loginSuffix(loginSuffix(name));
+			}
+		}
+
+		/**
+		 * Queue the messages of the history of the room of the client, then the message
+		 * telling the sequence number of the next one. Nothing is replayed to a slow
+		 * consumer, whose spilled frames would be sent after the replay.
+		 *
+		 * @param argument number of messages, or first sequence number
+		 * @param last     true for the last messages, false from a sequence number
+		 */
+		private void replayHistory(String argument, boolean last) {
+			if (room == null || slow) {
+				return;
+			}
+			long number;
+			try {
+				number = Long.parseLong(argument.strip());
+			} catch (NumberFormatException e) {
+				return;
+			}
+			var replayed = room;
+			shard.server.withHistory(replayed, reactor, log -> replay(log, replayed, number, last));
+		}
+
+		/**
+		 * Queue the messages of the history of room, once it is open
+		 *
+		 * @param log    history of room, or null if it has none
+		 * @param room   room whose history is replayed
+		 * @param number number of messages, or first sequence number
+		 * @param last   true for the last messages, false from a sequence number
+		 */
+		private void replay(MessageLog log, String room, long number, boolean last) {
+			if (log == null || !isOpen() || slow) {
+				return;
+			}
+			var replay = last ? log.replayLast(number) : log.replay(number);
+			var wasEmpty = outbound.isEmpty() && !hasSpilledBytes();
+			outbound.add(replay);
+			if (wasEmpty) {
+				armTimer();
+			}
+			var next = shard.encoder.encode(new Message(HISTORY_LOGIN, room + " " + replay.endSequence()));
+			queueFrame(next);
+			next.release();
+		}
+
+		private void leave(String name) {
+			var subscription = rooms.remove(name);
+			if (subscription != null) {
+				shard.unsubscribe(subscription);
+			}
+			if (name.equals(room)) {
+				room = null;
+			}
+		}
+
+		/**
+		 * Add a frame to the outbound queue and updateInterestOps. If the queue would go
+		 * over its high watermark, the slow consumer policy of the server is applied first.
+		 *
+		 * @param frame encoded message, the context takes a reference on it
+		 */
+		public void queueFrame(Frame frame) {
+			var limits = shard.server.limits;
+			// a message larger than the high watermark is still queued to an empty queue
+			if (slow || !outbound.isEmpty() && outbound.remainingBytes() + frame.size() > limits.highWatermark()) {
+				if (!handleSlowConsumer(frame, limits)) {
 					return;
 				}
-				bufferOut.put(msg);
 			}
+			var wasEmpty = outbound.isEmpty() && !hasSpilledBytes();
+			outbound.add(frame.retain());
+			shard.pendingBytes += frame.size();
+			if (wasEmpty) {
+				armTimer();
+			}
+			var coalescing = shard.server.coalescing;
+			if (outbound.remainingBytes() >= coalescing.maxBytes()) {
+				batching = false;
+			} else if (wasEmpty) {
+				batching = true;
+				shard.hold(this);
+			}
+			updateInterestOps();
+		}
+
+		/**
+		 * Writes the batch held by the context, once its deadline has come
+		 */
+		private void flushBatch() {
+			if (!batching || !isOpen()) {
+				return;
+			}
+			batching = false;
+			try {
+				doWrite();
+			} catch (IOException e) {
+				logger.log(Level.FINE, "Connection closed with client due to IOException", e);
+				silentlyClose();
+			}
+		}
+
+		/**
+		 * Arm the timer of the context with the timeout matching its state: bytes
+		 * waiting to be sent, a message partially received or a TLS handshake going on,
+		 * or nothing at all. Once linked, a link only times out on its writes.
+		 */
+		private void armTimer() {
+			var timeouts = shard.server.timeouts;
+			if (linked && outbound.isEmpty() && !hasSpilledBytes()) {
+				// a link is kept as long as it accepts its bytes
+				cancelTimeout();
+				return;
+			}
+			long delay;
+			if (!outbound.isEmpty() || hasSpilledBytes()) {
+				delay = timeouts.writeMillis();
+			} else if (inFrame || handshaking || isLink()) {
+				// a link not answering its challenge yet is handshaking
+				delay = timeouts.readMillis();
+			} else {
+				delay = timeouts.idleMillis();
+			}
+			scheduleTimeout(delay);
+		}
+
+		/**
+		 * Apply the slow consumer policy before queueing frame
+		 *
+		 * @param frame frame about to be queued
+		 * @param limits limits of the outbound queue
+		 * @return true if frame must still be queued
+		 */
+		private boolean handleSlowConsumer(Frame frame, OutboundLimits limits) {
+			var server = shard.server;
+			switch (limits.policy()) {
+				case DROP_NEWEST -> {
+					slow = true;
+					server.droppedNewest.increment();
+					return false;
+				}
+				case DROP_OLDEST -> {
+					while (outbound.remainingBytes() + frame.size() > limits.lowWatermark()) {
+						var dropped = outbound.dropOldest();
+						if (dropped == 0) {
+							break;
+						}
+						shard.pendingBytes -= dropped;
+						server.droppedOldest.increment();
+					}
+					return true;
+				}
+				case DISCONNECT -> {
+					server.disconnected.increment();
+					silentlyClose();
+					return false;
+				}
+				case SPILL_TO_DISK -> {
+					spillFrame(frame);
+					return false;
+				}
+				default -> throw new AssertionError();
+			}
+		}
+
+		/**
+		 * Append frame to the spill file of the context. Once a frame is spilled, the
+		 * following ones are spilled too until the connection has caught up, so that
+		 * they are sent in order.
+		 *
+		 * @param frame frame to spill
+		 */
+		private void spillFrame(Frame frame) {
+			try {
+				if (spill == null) {
+					spill = SpillFile.create(SPILL_DIRECTORY, SPILL_SEGMENT_SIZE);
+				}
+				for (var segment = frame; segment != null; segment = segment.next()) {
+					spill.append(segment.view());
+				}
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Cannot spill to disk, disconnecting the client", e);
+				shard.server.disconnected.increment();
+				silentlyClose();
+				return;
+			}
+			slow = true;
+			shard.server.spilled.increment();
+			updateInterestOps();
+		}
+
+		private boolean hasSpilledBytes() {
+			return spill != null && spill.remaining() != 0;
 		}
 
 		/**
-		 * Update the interestOps of the key looking only at values of the boolean
-		 * closed and of both ByteBuffers.
+		 * Update the interestOps of the key looking only at values of the booleans
+		 * closed and batching, of bufferIn, of the outbound queue and of whether the
+		 * reactor paused reading.
+		 * <p>
+		 * The convention is that bufferIn, when borrowed, is in write-mode before the
+		 * call to updateInterestOps and after the call. Also, it is assumed that process
+		 * has been called just before updateInterestOps. While the frames of bufferIn are
+		 * processed, the update is left to doRead, once bufferIn is back in write-mode.
 		 * <p>
-		 * The convention is that both buffers are in write-mode before the call to
-		 * updateInterestOps and after the call. Also, it is assumed that process has
-		 * been called just before updateInterestOps.
+		 * With TLS, the interest ops are the ones the session needs for them, and bytes
+		 * already received by the session are read on the reactor thread, as they do not
+		 * make the socket readable.
 		 */
 
 		private void updateInterestOps() {
+			if (!key.isValid() || processing) {
+				return;
+			}
 			var newInterestOps = 0;
 
-			if (!closed && bufferIn.hasRemaining()) {
+			if (!closed && !shard.readsPaused && (bufferIn == null || bufferIn.hasRemaining())) {
 				newInterestOps |= SelectionKey.OP_READ;
 			}
 
-			if (bufferOut.position() != 0) {
+			if (!batching && (!outbound.isEmpty() || hasSpilledBytes())) {
 				newInterestOps |= SelectionKey.OP_WRITE;
 			}
 
-			if (newInterestOps == 0) {
+			if (newInterestOps == 0 && !batching && (closed || !shard.readsPaused)) {
 				silentlyClose();
 				return;
 			}
-			key.interestOps(newInterestOps);
+			if (tls != null) {
+				if ((newInterestOps & SelectionKey.OP_READ) != 0 && !resumeQueued && tls.hasBufferedInput()) {
+					resumeQueued = true;
+					reactor.execute(this::resumeTls);
+				}
+				newInterestOps = tls.interestOps(newInterestOps);
+			}
+			setInterestOps(newInterestOps);
 		}
 
-		private void silentlyClose() {
+		/**
+		 * Resume the TLS session once the tasks of its handshake are over, and read the
+		 * bytes it already received
+		 */
+		private void resumeTls() {
+			resumeQueued = false;
+			if (!isOpen()) {
+				return;
+			}
 			try {
-				sc.close();
+				tls.flush();
+				checkHandshake();
+				if (!closed && !shard.readsPaused && tls.hasBufferedInput()) {
+					doRead();
+				} else {
+					updateInterestOps();
+				}
 			} catch (IOException e) {
-				// ignore exception
+				logger.log(Level.FINE, "Connection closed with client due to IOException", e);
+				silentlyClose();
 			}
 		}
 
 		/**
-		 * Performs the read action on sc
+		 * Arm the timer for an idle client once the TLS handshake is over
+		 */
+		private void checkHandshake() {
+			if (handshaking && tls.isHandshakeDone()) {
+				handshaking = false;
+				armTimer();
+			}
+		}
+
+		@Override
+		protected void onClose() {
+			if (linked) {
+				shard.removeLink(this);
+				logger.info("Link to node " + peerNode + " lost");
+			}
+			if (compressing) {
+				compressing = false;
+				shard.server.compressingClients.decrementAndGet();
+			}
+			for (var subscription : rooms.values()) {
+				shard.unsubscribe(subscription);
+			}
+			rooms.clear();
+			shard.pendingBytes -= outbound.remainingBytes();
+			outbound.clear();
+			batching = false;
+			if (spill != null) {
+				try {
+					spill.close();
+				} catch (IOException e) {
+					// ignore exception
+				}
+				spill = null;
+			}
+			resetReader();
+			releaseBufferIn();
+			if (tls != null) {
+				try {
+					tls.close();
+				} catch (IOException e) {
+					// ignore exception
+				}
+			}
+		}
+
+		private void releaseBufferIn() {
+			if (bufferIn != null) {
+				shard.server.bufferPool.release(bufferIn);
+				bufferIn = null;
+			}
+		}
+
+		/**
+		 * Performs the read action on the channel
 		 * <p>
-		 * The convention is that both buffers are in write-mode before the call to
-		 * doRead and after the call
+		 * bufferIn is borrowed for the read and given back to the pool once every
+		 * byte has been processed. The convention is that bufferIn is in write-mode
+		 * before the call to doRead and after the call. With TLS, the reads go on
+		 * while the session holds bytes already received.
 		 *
 		 * @throws IOException exception
 		 */
-		private void doRead() throws IOException {
-			if (sc.read(bufferIn) == -1) {
-				closed = true;
+		@Override
+		protected void doRead() throws IOException {
+			var received = false;
+			int read;
+			do {
+				if (bufferIn == null) {
+					bufferIn = shard.server.bufferPool.acquire();
+				}
+				read = tls == null ? sc.read(bufferIn) : tls.read(bufferIn);
+				if (read == -1) {
+					closed = true;
+				} else if (read > 0) {
+					inFrame = true;
+					received = true;
+				}
+				bufferIn.flip();
+				processing = true;
+				try {
+					processIn();
+				} finally {
+					processing = false;
+				}
+				// the bytes left are moved once, whatever the number of frames processed
+				if (bufferIn != null && bufferIn.compact().position() == 0) {
+					releaseBufferIn();
+				}
+			} while (read > 0 && tls != null && isOpen() && !shard.readsPaused && tls.hasBufferedInput());
+			checkHandshake();
+			// while bytes are waiting to be sent, only the progress of the writes counts
+			if (received && sc.isOpen() && outbound.isEmpty() && !hasSpilledBytes()) {
+				armTimer();
 			}
-			processIn();
 			updateInterestOps();
 		}
 
 		/**
-		 * Performs the write action on sc
-		 * <p>
-		 * The convention is that both buffers are in write-mode before the call to
-		 * doWrite and after the call
+		 * Performs the write action on the channel, sending as many queued frames as
+		 * the socket accepts with gathering writes, then the spilled frames straight
+		 * from their file. With TLS, the handshake and the records already wrapped
+		 * come first, and the files are copied through the session.
 		 *
 		 * @throws IOException exception
 		 */
 
-		private void doWrite() throws IOException {
-			bufferOut.flip();
-			sc.write(bufferOut);
-			bufferOut.compact();
+		@Override
+		protected void doWrite() throws IOException {
+			if (tls != null) {
+				var flushed = tls.flush();
+				checkHandshake();
+				if (!flushed) {
+					updateInterestOps();
+					return;
+				}
+			}
+			var writes = outbound.writes();
+			var messagesSent = outbound.messagesSent();
+			var queued = outbound.remainingBytes();
+			var written = outbound.flush(channel);
+			// the replayed bytes are not in memory, they never counted
+			shard.pendingBytes -= queued - outbound.remainingBytes();
+			shard.server.writes.add(outbound.writes() - writes);
+			shard.server.framesWritten.add(outbound.messagesSent() - messagesSent);
+			if (outbound.isEmpty() && hasSpilledBytes()) {
+				written += spill.transferTo(channel);
+			}
+			if (written > 0) {
+				armTimer();
+			}
+			if (slow && !hasSpilledBytes() && outbound.remainingBytes() <= shard.server.limits.lowWatermark()) {
+				slow = false;
+			}
 			updateInterestOps();
 		}
 
 	}
 
+	/**
+	 * A message sent to a room, as handed over to the shards. Each shard receiving the
+	 * delivery owns a reference on its frames until it has queued them.
+	 *
+	 * @param frame      encoded message
+	 * @param compressed the message as a compressed frame, or null if it is not compressed
+	 * @param room       room of the message
+	 * @param forward    the message as a FORWARD frame for the links, or null if it is not forwarded
+	 * @param from       link the message came from, which it is not forwarded to, or null
+	 */
+	private record Delivery(Frame frame, Frame compressed, String room, Frame forward, Context from) {
+		private Delivery retain() {
+			frame.retain();
+			if (compressed != null) {
+				compressed.retain();
+			}
+			if (forward != null) {
+				forward.retain();
+			}
+			return this;
+		}
+
+		private void release() {
+			frame.release();
+			if (compressed != null) {
+				compressed.release();
+			}
+			if (forward != null) {
+				forward.release();
+			}
+		}
+
+		/**
+		 * @return the frame to queue to context
+		 */
+		private Frame frameFor(Context context) {
+			return context.compressing && compressed != null ? compressed : frame;
+		}
+	}
+
+	/**
+	 * The chat state of one {@link Reactor}: the rooms of its contexts, the frames
+	 * handed over by the other reactors and the pressure of the fan-out.
+	 * <p>
+	 * Only the reactor thread touches its contexts. Other threads hand frames over
+	 * through a lock-free queue, drained after each select.
+	 * <p>
+	 * The subscription index of the shard only holds its own contexts. The server keeps,
+	 * for each room, the set of the shards having subscribers to it, so that a message is
+	 * handed only to those shards.
+	 * <p>
+	 * The shard keeps track of the bytes queued on its contexts. When they go over
+	 * the fan-out high watermark, every shard stops reading from its clients until
+	 * they are back under the fan-out low watermark.
+	 * <p>
+	 * The contexts holding a batch are written together once the deadline of the oldest
+	 * batch has come, the shard asking its reactor to select until then.
+	 */
+	/**
+	 * The history of a room, opened on the thread of historyTasks so that no reactor waits
+	 * for the disk. While it is being opened, the messages of the room wait in memory, up
+	 * to MAX_PENDING_HISTORY of them, and the replays asked for wait for it.
+	 */
+	static private class History {
+		private volatile MessageLog log; // null until open, or for good if it cannot be opened
+		// the messages and the replays waiting for the log, both null once the open is over
+		private ArrayList<Frame> pending = new ArrayList<>();
+		private ArrayList<Runnable> replays = new ArrayList<>();
+	}
+
+	static private class Shard implements Runnable {
+		private final ServerChat server;
+		private final Reactor reactor;
+		private final long bit; // this shard in the masks of the server rooms
+		private final SubscriptionIndex<Context> rooms = new SubscriptionIndex<>();
+		private final ConcurrentLinkedQueue<Delivery> pendingFrames = new ConcurrentLinkedQueue<>();
+		private final MessageEncoder encoder; // encodes the messages received by this shard
+		private final Inflater inflater; // shared by the readers of the contexts granted DEFLATE, or null
+		private final StringCache logins = new StringCache(LOGIN_CACHE_SIZE, MAX_CACHED_LOGIN_SIZE);
+		private long pendingBytes; // bytes queued on the contexts of this shard
+		private boolean saturated; // pendingBytes went over the fan-out high watermark
+		private boolean readsPaused; // some shard is saturated
+		private final ArrayList<Context> batching = new ArrayList<>(); // contexts holding a batch
+		private final ArrayList<Context> links = new ArrayList<>(); // links to the other nodes
+		private long flushDeadline; // System.nanoTime at which the batches are written
+
+		private Shard(ServerChat server, int index) throws IOException {
+			this.server = server;
+			this.bit = 1L << index;
+			this.encoder = new MessageEncoder(server.framePool, server.largeFramePool);
+			this.inflater = server.features() == 0 ? null : new Inflater();
+			this.reactor = new Reactor((reactor, key) -> new Context(this, reactor, key));
+			reactor.afterSelect(this::processPending);
+		}
+
+		@Override
+		public void run() {
+			try {
+				reactor.run();
+			} finally {
+				Delivery delivery;
+				while ((delivery = pendingFrames.poll()) != null) {
+					delivery.release();
+				}
+				if (inflater != null) {
+					inflater.end();
+				}
+			}
+		}
+
+		/**
+		 * Subscribes context to the room name, publishing the first subscriber of the
+		 * shard to the server
+		 */
+		private SubscriptionIndex.Subscription<Context> subscribe(String name, Context context) {
+			if (rooms.subscribers(name) == 0) {
+				server.rooms.merge(name, bit, (mask, added) -> mask | added);
+			}
+			return rooms.subscribe(name, context);
+		}
+
+		/**
+		 * Ends subscription, publishing the departure of the last subscriber of the shard
+		 * to the server
+		 */
+		private void unsubscribe(SubscriptionIndex.Subscription<Context> subscription) {
+			if (rooms.unsubscribe(subscription)) {
+				server.rooms.computeIfPresent(subscription.topic(),
+						(name, mask) -> (mask & ~bit) == 0 ? null : mask & ~bit);
+			}
+		}
+
+		/**
+		 * Called by another shard to deliver a message to the clients of this one
+		 *
+		 * @param delivery message, this shard takes a reference on its frames until delivery
+		 */
+		private void submit(Delivery delivery) {
+			pendingFrames.add(delivery.retain());
+			reactor.wakeup();
+		}
+
+		/**
+		 * Delivers the pending frames and updates the fan-out pressure, on the
+		 * reactor thread
+		 */
+		private void processPending() {
+			Delivery delivery;
+			while ((delivery = pendingFrames.poll()) != null) {
+				deliver(delivery);
+				delivery.release();
+			}
+			updateFanOutPressure();
+			flushBatches();
+		}
+
+		/**
+		 * Registers context as holding a batch, written at the deadline of the batches
+		 */
+		private void hold(Context context) {
+			if (context.held) {
+				return;
+			}
+			if (batching.isEmpty()) {
+				flushDeadline = System.nanoTime()
+						+ TimeUnit.MILLISECONDS.toNanos(server.coalescing.flushDelayMillis());
+			}
+			context.held = true;
+			batching.add(context);
+		}
+
+		/**
+		 * Writes the batches if their deadline has come, or makes the reactor select
+		 * until then
+		 */
+		private void flushBatches() {
+			if (batching.isEmpty()) {
+				return;
+			}
+			if (System.nanoTime() - flushDeadline < 0) {
+				reactor.selectBy(flushDeadline);
+				return;
+			}
+			for (var context : batching) {
+				context.held = false;
+				context.flushBatch();
+			}
+			batching.clear();
+		}
+
+		/**
+		 * Publish whether this shard is saturated, and pause or resume the reads of
+		 * its clients according to the state of all the shards
+		 */
+		private void updateFanOutPressure() {
+			var limits = server.limits;
+			if (!saturated && pendingBytes > limits.fanOutHighWatermark()) {
+				saturated = true;
+				server.saturatedShards.incrementAndGet();
+				server.wakeupShards();
+			} else if (saturated && pendingBytes < limits.fanOutLowWatermark()) {
+				saturated = false;
+				server.saturatedShards.decrementAndGet();
+				server.wakeupShards();
+			}
+			var pause = server.saturatedShards.get() > 0;
+			if (pause == readsPaused) {
+				return;
+			}
+			readsPaused = pause;
+			if (pause) {
+				server.readPauses.increment();
+			}
+			reactor.forEachConnection((connection, unused) -> ((Context) connection).updateInterestOps(), null);
+		}
+
+		/**
+		 * Add a message to the queue of every client of this shard subscribed to its room,
+		 * and of every link of this shard but the one it came from if it is forwarded
+		 *
+		 * @param delivery message
+		 */
+		private void deliver(Delivery delivery) {
+			rooms.forEachSubscriber(delivery.room(),
+					(context, shared) -> context.queueFrame(shared.frameFor(context)), delivery);
+			if (delivery.forward() == null) {
+				return;
+			}
+			// from the end, so that losing the current link does not skip any other
+			for (var i = links.size() - 1; i >= 0; i--) {
+				if (i < links.size() && links.get(i) != delivery.from()) {
+					links.get(i).queueFrame(delivery.forward());
+					server.forwarded.increment();
+				}
+			}
+		}
+
+		private void addLink(Context link) {
+			if (links.isEmpty()) {
+				server.linkShards.getAndUpdate(mask -> mask | bit);
+			}
+			links.add(link);
+			server.linkCount.incrementAndGet();
+		}
+
+		private void removeLink(Context link) {
+			links.remove(link);
+			server.linkCount.decrementAndGet();
+			if (links.isEmpty()) {
+				server.linkShards.getAndUpdate(mask -> mask & ~bit);
+			}
+		}
+	}
+
 	private static final int BUFFER_SIZE = 1_024;
+	// a login and a text of at most BUFFER_SIZE bytes each, with their sizes
+	private static final int FRAME_SIZE = 2 * BUFFER_SIZE;
+	private static final int MAX_POOLED_FRAMES = 4_096;
+	public static final int MAX_TEXT_SIZE = 8 * 1_024 * 1_024;
+	// the segments of the messages too large for a frame of FRAME_SIZE bytes
+	private static final int LARGE_FRAME_SIZE = 64 * 1_024;
+	private static final int MAX_POOLED_LARGE_FRAMES = 256;
+	private static final int MAX_POOLED_CHAR_BUFFERS = 2;
+	// the logins received by a shard, decoded once
+	private static final int LOGIN_CACHE_SIZE = 1_024;
+	private static final int MAX_CACHED_LOGIN_SIZE = 64;
+	private static final int BUFFERS_PER_SLAB = 256;
+	// buffers of the TLS sessions, of about 16 KiB each, only borrowed while they hold bytes
+	private static final int TLS_BUFFERS_PER_SLAB = 64;
+	private static final String SELF_SIGNED = "self-signed";
+	private static final char[] SELF_SIGNED_PASSWORD = "changeit".toCharArray();
+	private static final String SECRET_VARIABLE = "CHAT_FEDERATION_SECRET";
+	// messages of a room kept while its history is opened, the next ones not being kept
+	private static final int MAX_PENDING_HISTORY = 1_024;
+	private static final Path SPILL_DIRECTORY = Path.of(System.getProperty("java.io.tmpdir"));
+	private static final int SPILL_SEGMENT_SIZE = 16 * 1_024 * 1_024;
 	private static final Logger logger = Logger.getLogger(ServerChat.class.getName());
+	public static final String DEFAULT_ROOM = "lobby";
+	private static final String JOIN_COMMAND = "/join ";
+	private static final String LEAVE_COMMAND = "/leave ";
+	private static final int MAX_ROOM_NAME_LENGTH = 64;
+	private static final String HISTORY_COMMAND = "/history ";
+	private static final String SINCE_COMMAND = "/since ";
+	/**
+	 * Login of the message following a replay of the history
+	 */
+	public static final String HISTORY_LOGIN = "#history";
+	private static final long RECONNECT_DELAY_MILLIS = 1_000;
+	/**
+	 * Size in bytes of the smallest text compressed by default
+	 */
+	public static final int DEFAULT_COMPRESSION_THRESHOLD = 256;
+	/**
+	 * The compression threshold disabling compression
+	 */
+	public static final int NO_COMPRESSION = -1;
+
+	/**
+	 * Counters of the decisions taken on the outbound queues
+	 *
+	 * @param droppedOldest frames dropped from the head of a slow consumer queue
+	 * @param droppedNewest frames not queued to a slow consumer
+	 * @param disconnected  slow consumers disconnected
+	 * @param spilled       frames appended to the spill file of a slow consumer
+	 * @param readPauses    times the reactors stopped reading because of the fan-out
+	 */
+	public record OutboundStats(long droppedOldest, long droppedNewest, long disconnected, long spilled,
+								long readPauses) {
+	}
 
-	private final ServerSocketChannel serverSocketChannel;
-	private final Selector selector;
+	/**
+	 * Counters of the messages exchanged with the other nodes
+	 *
+	 * @param links      links to the other nodes currently up
+	 * @param forwarded  messages queued to a link
+	 * @param received   messages received from a link for the first time
+	 * @param duplicates copies of messages already received dropped
+	 */
+	public record FederationStats(int links, long forwarded, long received, long duplicates) {
+	}
+
+	/**
+	 * Counters of the writes to the clients
+	 *
+	 * @param writes gathering writes issued
+	 * @param frames messages completely written
+	 */
+	public record WriteStats(long writes, long frames) {
+		/**
+		 * @return the average number of messages per write, 0 if nothing was written
+		 */
+		public double framesPerWrite() {
+			return writes == 0 ? 0 : (double) frames / writes;
+		}
+	}
+
+	// a single channel served by the acceptor, or one channel per shard sharing the port
+	private final ServerSocketChannel[] listeners;
+	private final Reactor acceptor;
+	private final Shard[] shards;
+	private final OutboundLimits limits;
+	private final ConnectionTimeouts timeouts;
+	private final RelayMode relayMode;
+	private final int compressionThreshold;
+	private final WriteCoalescing coalescing;
+	private final Path historyDirectory; // null without history
+	private final LogRetention retention;
+	// the history of each room, opened with its first message or replay
+	private final ConcurrentHashMap<String, History> histories = new ConcurrentHashMap<>();
+	private final ExecutorService historyTasks; // opens the histories, null without history
+	private final Federation federation; // null for a lone node
+	private final TlsSettings tls; // null for clients in clear
+	private final BufferPool tlsPool; // records and unwrapped bytes of the TLS sessions, null without TLS
+	private final ExecutorService handshakeTasks; // cryptography of the TLS handshakes, null without TLS
+	private final ServerSocketChannel peerListener; // null for a lone node
+	// links dialed by this node, until their context is created
+	private final Set<SocketChannel> dialed = ConcurrentHashMap.newKeySet();
+	private final DuplicateFilter seen = new DuplicateFilter();
+	// of the messages received from the clients, from the start time so that a restarted
+	// node is not taken for a duplicate by the nodes which saw its previous messages
+	private final AtomicLong nextSequence = new AtomicLong(System.currentTimeMillis() << 20);
+	private final AtomicLong linkShards = new AtomicLong(); // mask of the shards having links
+	private final AtomicInteger linkCount = new AtomicInteger();
+	private final LongAdder forwarded = new LongAdder();
+	private final LongAdder received = new LongAdder();
+	private final LongAdder duplicates = new LongAdder();
+	// negotiated DEFLATE, no message is compressed while there is none
+	private final AtomicInteger compressingClients = new AtomicInteger();
+	private final AtomicInteger saturatedShards = new AtomicInteger();
+	private final LongAdder droppedOldest = new LongAdder();
+	private final LongAdder droppedNewest = new LongAdder();
+	private final LongAdder disconnected = new LongAdder();
+	private final LongAdder spilled = new LongAdder();
+	private final LongAdder readPauses = new LongAdder();
+	private final LongAdder writes = new LongAdder();
+	private final LongAdder framesWritten = new LongAdder();
+	private final FramePool framePool = new FramePool(FRAME_SIZE, MAX_POOLED_FRAMES);
+	private final FramePool largeFramePool = new FramePool(LARGE_FRAME_SIZE, MAX_POOLED_LARGE_FRAMES);
+	// shared by the reactors for the texts too large for a buffer of the pool
+	private final CharBufferPool charPool = new CharBufferPool(MAX_TEXT_SIZE, MAX_POOLED_CHAR_BUFFERS);
+	// shared by the reactors for the input buffers and the partially received strings
+	private final BufferPool bufferPool = new BufferPool(BUFFER_SIZE, BUFFERS_PER_SLAB);
+	// for each room, the mask of the shards having subscribers to it
+	private final ConcurrentHashMap<String, Long> rooms = new ConcurrentHashMap<>();
 
 	public ServerChat(int port) throws IOException {
-		serverSocketChannel = ServerSocketChannel.open();
-		serverSocketChannel.bind(new InetSocketAddress(port));
-		selector = Selector.open();
+		this(port, ServerChatConfig.DEFAULT);
 	}
 
-	public void launch() throws IOException {
-		serverSocketChannel.configureBlocking(false);
-		serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
-		while (!Thread.interrupted()) {
-			Helpers.printKeys(selector); // for debug
-			System.out.println("Starting select");
+	public ServerChat(int port, ServerChatConfig config) throws IOException {
+		var nbReactors = config.nbReactors();
+		this.limits = config.limits();
+		this.timeouts = config.timeouts();
+		this.relayMode = config.relayMode();
+		this.compressionThreshold = config.compressionThreshold();
+		this.coalescing = config.coalescing();
+		this.historyDirectory = config.historyDirectory();
+		this.retention = config.retention();
+		historyTasks = historyDirectory == null ? null
+				: Executors.newSingleThreadExecutor(Thread.ofPlatform().name("history").daemon().factory());
+		this.federation = config.federation();
+		this.tls = config.tls();
+		if (tls == null) {
+			tlsPool = null;
+			handshakeTasks = null;
+		} else {
+			tls.configureSessions();
+			tlsPool = new BufferPool(TlsChannel.bufferSize(tls.newServerEngine()), TLS_BUFFERS_PER_SLAB);
+			handshakeTasks = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+					Thread.ofPlatform().name("tls-handshake-", 0).daemon().factory());
+		}
+		shards = new Shard[nbReactors];
+		for (var i = 0; i < nbReactors; i++) {
+			shards[i] = new Shard(this, i);
+		}
+		if (config.listenMode() == ListenMode.REUSE_PORT) {
+			listeners = ReactorGroup.bind(new InetSocketAddress(port), nbReactors);
+			acceptor = null;
+		} else {
+			listeners = ReactorGroup.bind(new InetSocketAddress(port), 1);
+			acceptor = new Reactor();
+		}
+		if (federation == null) {
+			peerListener = null;
+		} else {
 			try {
-				selector.select(this::treatKey);
-			} catch (UncheckedIOException tunneled) {
-				throw tunneled.getCause();
+				peerListener = ReactorGroup.bind(new InetSocketAddress(federation.peerPort()), 1)[0];
+			} catch (IOException | RuntimeException e) {
+				for (var listener : listeners) {
+					listener.close();
+				}
+				throw e;
 			}
-			System.out.println("Select finished");
 		}
 	}
 
-	private void treatKey(SelectionKey key) {
-		Helpers.printSelectedKey(key); // for debug
-		try {
-			if (key.isValid() && key.isAcceptable()) {
-				doAccept(key);
+	/**
+	 * Starts the reactor threads and runs the acceptor loop on the calling thread, or the
+	 * first shard if each shard accepts its own clients
+	 *
+	 * @throws IOException exception
+	 */
+	public void launch() throws IOException {
+		if (acceptor == null) {
+			for (var i = 0; i < shards.length; i++) {
+				shards[i].reactor.listen(listeners[i]);
+			}
+		}
+		var reactors = new Reactor[shards.length];
+		for (var i = 0; i < shards.length; i++) {
+			reactors[i] = shards[i].reactor;
+		}
+		if (peerListener != null) {
+			// all the links on the first shard, see Federation
+			(acceptor == null ? reactors[0] : acceptor).listen(peerListener, reactors[0]);
+		}
+		var threads = new ArrayList<Thread>();
+		var first = acceptor == null ? 1 : 0;
+		for (var i = first; i < shards.length; i++) {
+			threads.add(Thread.ofPlatform().name("reactor-" + i).start(shards[i]));
+		}
+		if (federation != null) {
+			for (var i = 0; i < federation.dial().size(); i++) {
+				var address = federation.dial().get(i);
+				threads.add(Thread.ofPlatform().name("dialer-" + i).daemon().start(() -> dial(address, shards[0])));
 			}
-		} catch (IOException ioe) {
-			// lambda call in select requires to tunnel IOException
-			throw new UncheckedIOException(ioe);
 		}
 		try {
-			if (key.isValid() && key.isWritable()) {
-				((Context) key.attachment()).doWrite();
+			if (acceptor == null) {
+				shards[0].run();
+			} else {
+				acceptor.listen(listeners[0], reactors);
+				acceptor.launch();
 			}
-			if (key.isValid() && key.isReadable()) {
-				((Context) key.attachment()).doRead();
+		} finally {
+			for (var thread : threads) {
+				thread.interrupt();
+			}
+			if (historyTasks != null) {
+				historyTasks.shutdownNow();
+			}
+			closeHistories();
+			if (handshakeTasks != null) {
+				handshakeTasks.shutdownNow();
+			}
+		}
+	}
+
+	/**
+	 * Keeps a link to the node listening on address, reconnecting whenever it is lost,
+	 * until the thread is interrupted
+	 *
+	 * @param address peer address of the node
+	 * @param shard   shard serving the link
+	 */
+	private void dial(InetSocketAddress address, Shard shard) {
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				try {
+					var sc = SocketChannel.open(address);
+					sc.configureBlocking(false);
+					dialed.add(sc);
+					shard.reactor.register(sc);
+					while (sc.isOpen()) {
+						Thread.sleep(RECONNECT_DELAY_MILLIS);
+					}
+				} catch (IOException e) {
+					logger.log(Level.FINE, "Cannot link to " + address, e);
+				}
+				Thread.sleep(RECONNECT_DELAY_MILLIS);
 			}
+		} catch (InterruptedException e) {
+			// the server is stopping
+		}
+	}
+
+	/**
+	 * @return true if sc is a link to another node, dialed by this node or accepted on the
+	 * peer port
+	 */
+	private boolean isLink(SocketChannel sc) {
+		if (federation == null) {
+			return false;
+		}
+		if (dialed.remove(sc)) {
+			return true;
+		}
+		try {
+			return ((InetSocketAddress) sc.getLocalAddress()).getPort() == federation.peerPort();
 		} catch (IOException e) {
-			logger.log(Level.INFO, "Connection closed with client due to IOException", e);
-			silentlyClose(key);
+			return false;
 		}
 	}
 
-	private void doAccept(SelectionKey key) throws IOException {
-		var client = serverSocketChannel.accept();
-		if (client == null) {
-			logger.warning("The selector give a bad hint");
-			return; // selector gave a bad hint
+	/**
+	 * Returns the history of a room, whose log is opened on historyTasks with the first
+	 * message or replay of the room
+	 *
+	 * @return the history of room
+	 */
+	private History history(String room) {
+		var history = histories.get(room);
+		if (history != null) {
+			return history;
+		}
+		var created = new History();
+		history = histories.putIfAbsent(room, created);
+		if (history != null) {
+			return history;
 		}
-		client.configureBlocking(false);
-		var clientKey = client.register(selector, SelectionKey.OP_READ);
-		clientKey.attach(new Context(this, clientKey));
+		historyTasks.execute(() -> openHistory(room, created));
+		return created;
 	}
 
-	private void silentlyClose(SelectionKey key) {
-		Channel sc = key.channel();
+	/**
+	 * Opens the log of history, on the thread of historyTasks, then appends the messages
+	 * and runs the replays which waited for it
+	 * <p>
+	 * A history which cannot be opened is given up for good, so that the following
+	 * messages of the room do not try the disk again.
+	 */
+	private void openHistory(String room, History history) {
+		MessageLog log = null;
 		try {
-			sc.close();
+			log = MessageLog.open(historyDirectory.resolve(room), retention);
 		} catch (IOException e) {
-			// ignore exception
+			logger.log(Level.WARNING, "Cannot open the history of " + room + ", which is not kept", e);
+		}
+		ArrayList<Runnable> replays;
+		synchronized (history) {
+			for (var frame : history.pending) {
+				if (log != null) {
+					append(log, room, frame);
+				}
+				frame.release();
+			}
+			history.pending = null;
+			history.log = log;
+			replays = history.replays;
+			history.replays = null;
 		}
+		replays.forEach(Runnable::run);
 	}
 
 	/**
-	 * Add a message to all connected clients queue
+	 * Appends a message to the history of its room, if there is one, or keeps it until the
+	 * history is open
 	 *
-	 * @param msg message
+	 * @param room  room of the message
+	 * @param frame encoded message, a reference is taken on it if it has to wait
 	 */
-	private void broadcast(Message msg) {
-		selector.keys().forEach(selectionKey -> {
-			if (selectionKey.channel() instanceof ServerSocketChannel) {
+	private void appendToHistory(String room, Frame frame) {
+		if (historyDirectory == null) {
+			return;
+		}
+		var history = history(room);
+		var log = history.log;
+		if (log == null) {
+			synchronized (history) {
+				if (history.pending != null) {
+					if (history.pending.size() < MAX_PENDING_HISTORY) {
+						history.pending.add(frame.retain());
+					}
+					return;
+				}
+				log = history.log;
+			}
+			if (log == null) {
 				return;
 			}
-			((Context) selectionKey.attachment()).queueMessage(msg);
-		});
+		}
+		append(log, room, frame);
+	}
+
+	private static void append(MessageLog log, String room, Frame frame) {
+		try {
+			log.append(frame);
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Cannot append to the history of " + room, e);
+		}
+	}
+
+	/**
+	 * Hands the history of a room to replay, on the calling thread if it is open, or on
+	 * executor once it is
+	 *
+	 * @param room     room whose history is replayed
+	 * @param executor thread of the caller
+	 * @param replay   receives the log of the history, or null if the room has none
+	 */
+	private void withHistory(String room, Executor executor, Consumer<MessageLog> replay) {
+		if (historyDirectory == null) {
+			replay.accept(null);
+			return;
+		}
+		var history = history(room);
+		var log = history.log;
+		if (log == null) {
+			synchronized (history) {
+				if (history.replays != null) {
+					history.replays.add(() -> executor.execute(() -> replay.accept(history.log)));
+					return;
+				}
+				log = history.log;
+			}
+		}
+		replay.accept(log);
+	}
+
+	private void closeHistories() {
+		for (var history : histories.values()) {
+			var log = history.log;
+			if (log == null) {
+				continue;
+			}
+			try {
+				log.close();
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Cannot close a history", e);
+			}
+		}
+	}
+
+	/**
+	 * @return the number of connections of each shard
+	 */
+	public int[] connectionCounts() {
+		var counts = new int[shards.length];
+		for (var i = 0; i < shards.length; i++) {
+			counts[i] = shards[i].reactor.connectionCount();
+		}
+		return counts;
+	}
+
+	/**
+	 * @return the features granted to the clients asking for them
+	 */
+	private int features() {
+		return relayMode == RelayMode.DECODE && compressionThreshold != NO_COMPRESSION ? Compression.DEFLATE : 0;
+	}
+
+	private void wakeupShards() {
+		for (var shard : shards) {
+			shard.reactor.wakeup();
+		}
+	}
+
+	public OutboundStats outboundStats() {
+		return new OutboundStats(droppedOldest.sum(), droppedNewest.sum(), disconnected.sum(), spilled.sum(),
+				readPauses.sum());
+	}
+
+	public FederationStats federationStats() {
+		return new FederationStats(linkCount.get(), forwarded.sum(), received.sum(), duplicates.sum());
+	}
+
+	public WriteStats writeStats() {
+		return new WriteStats(writes.sum(), framesWritten.sum());
+	}
+
+	/**
+	 * @return the metrics of the pool of connection buffers
+	 */
+	public BufferPool.Stats bufferPoolStats() {
+		return bufferPool.stats();
+	}
+
+	/**
+	 * @return the metrics of the pool of the buffers of the TLS sessions, or null without TLS
+	 */
+	public BufferPool.Stats tlsBufferPoolStats() {
+		return tlsPool == null ? null : tlsPool.stats();
+	}
+
+	private static boolean isValidRoom(String name) {
+		if (name.isEmpty() || name.length() > MAX_ROOM_NAME_LENGTH) {
+			return false;
+		}
+		for (var i = 0; i < name.length(); i++) {
+			var c = name.charAt(i);
+			if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '-' || c == '_')) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the login under which a message of login is relayed in room, with the room
+	 * if it still fits in a string of the protocol
+	 */
+	private static String relayedLogin(String login, String room) {
+		if (room.equals(DEFAULT_ROOM)) {
+			return login;
+		}
+		// the name of a room is ASCII, one byte per char
+		var size = Utf8.encodedLength(login) + 1 + room.length();
+		return size <= StringReader.MAX_SIZE ? login + "@" + room : login;
+	}
+
+	/**
+	 * @return the bytes appended by a {@link RelayReader} to the logins of the messages relayed in room,
+	 * matching relayedLogin
+	 */
+	private static byte[] loginSuffix(String room) {
+		if (room.equals(DEFAULT_ROOM)) {
+			return new byte[0];
+		}
+		return ("@" + room).getBytes(StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Add a message to the queue of the subscribers of room. The message is encoded
+	 * once, by the encoder of the origin shard, in pooled frames shared by all the
+	 * recipients. A large enough text is also compressed once, if some client may
+	 * receive it compressed.
+	 *
+	 * @param msg message
+	 * @param room room of the message
+	 * @param origin shard on which the message was received
+	 */
+	private void broadcast(Message msg, String room, Shard origin) {
+		var login = relayedLogin(msg.login(), room);
+		var relayed = login.equals(msg.login()) ? msg : new Message(login, msg.msg());
+		var frame = origin.encoder.encode(relayed);
+		Frame compressed = null;
+		// the text takes at least as many bytes as chars
+		if (compressingClients.get() != 0 && compressionThreshold != NO_COMPRESSION
+				&& relayed.msg().length() >= compressionThreshold) {
+			compressed = origin.encoder.compress(relayed);
+		}
+		relay(frame, compressed, room, origin);
+	}
+
+	/**
+	 * Add a message received from a client to the queue of the subscribers of room, and
+	 * forward it to the other nodes
+	 *
+	 * @param frame      encoded message, the server takes the reference of the caller on it
+	 * @param compressed the message as a compressed frame, or null, the server takes the
+	 *                   reference of the caller on it
+	 * @param room       room of the message
+	 * @param origin     shard on which the message was received
+	 */
+	private void relay(Frame frame, Frame compressed, String room, Shard origin) {
+		Frame forward = null;
+		if (linkCount.get() != 0) {
+			forward = origin.encoder.forward(federation.nodeId(), nextSequence.getAndIncrement(), room, frame);
+		}
+		deliver(new Delivery(frame, compressed, room, forward, null), origin);
+	}
+
+	/**
+	 * Add a message received from a link to the queue of the subscribers of room, and
+	 * forward it to the other links, unless it has already been received
+	 *
+	 * @param node     node which received the message from a client
+	 * @param sequence sequence number of the message on node
+	 * @param room     room of the message
+	 * @param frame    encoded message, the server takes the reference of the caller on it
+	 * @param from     link the message came from
+	 */
+	private void receive(int node, long sequence, String room, Frame frame, Context from) {
+		if (node == federation.nodeId() || !seen.firstSeen(node, sequence)) {
+			duplicates.increment();
+			frame.release();
+			return;
+		}
+		received.increment();
+		Frame forward = null;
+		if (linkCount.get() > 1) {
+			forward = from.shard.encoder.forward(node, sequence, room, frame);
+		}
+		deliver(new Delivery(frame, null, room, forward, from), from.shard);
+	}
+
+	/**
+	 * Hands a message to the shards having subscribers to its room or, if it is forwarded,
+	 * links. The shard on which the message was received serves its contexts directly. The
+	 * message is appended to the history of its room first, if there is one.
+	 *
+	 * @param delivery message, the server takes the references of the caller on its frames
+	 * @param origin   shard on which the message was received
+	 */
+	private void deliver(Delivery delivery, Shard origin) {
+		var room = delivery.room();
+		appendToHistory(room, delivery.frame());
+		var mask = rooms.getOrDefault(room, 0L);
+		if (delivery.forward() != null) {
+			mask |= linkShards.get();
+		}
+		for (var shard : shards) {
+			if ((mask & shard.bit) == 0) {
+				continue;
+			}
+			if (shard == origin) {
+				shard.deliver(delivery);
+			} else {
+				shard.submit(delivery);
+			}
+		}
+		delivery.release();
 	}
 
-	public static void main(String[] args) throws NumberFormatException, IOException {
-		if (args.length != 1) {
+	public static void main(String[] args) throws IOException, GeneralSecurityException {
+		if (args.length < 1) {
 			usage();
 			return;
 		}
-		new ServerChat(Integer.parseInt(args[0])).launch();
+		int port;
+		var config = ServerChatConfig.DEFAULT;
+		try {
+			port = Integer.parseInt(args[0]);
+			for (var i = 1; i < args.length; i++) {
+				var separator = args[i].indexOf('=');
+				if (!args[i].startsWith("--") || separator == -1) {
+					throw new IllegalArgumentException("not an option: " + args[i]);
+				}
+				config = parseOption(config, args[i].substring(2, separator), args[i].substring(separator + 1));
+			}
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			usage();
+			return;
+		}
+		new ServerChat(port, config).launch();
+	}
+
+	/**
+	 * @return config changed by the option name=value of the command line
+	 * @throws IllegalArgumentException if the option is unknown or its value is invalid
+	 */
+	private static ServerChatConfig parseOption(ServerChatConfig config, String name, String value)
+			throws IOException, GeneralSecurityException {
+		return switch (name) {
+			case "reactors" -> config.withReactors(Integer.parseInt(value));
+			case "policy" -> config.withLimits(config.limits().withPolicy(SlowConsumerPolicy.valueOf(value)));
+			case "relay" -> config.withRelayMode(RelayMode.valueOf(value));
+			case "listen" -> config.withListenMode(ListenMode.valueOf(value));
+			case "compression" -> config.withCompressionThreshold(value.equals("off") ? NO_COMPRESSION
+					: Integer.parseInt(value));
+			case "flush-delay" -> config.withCoalescing(WriteCoalescing.of(Long.parseLong(value)));
+			case "history" -> config.withHistoryDirectory(Path.of(value));
+			case "federation" -> config.withFederation(parseFederation(value));
+			case "tls" -> config.withTls(parseTls(value));
+			default -> throw new IllegalArgumentException("unknown option --" + name);
+		};
+	}
+
+	/**
+	 * @param spec keyStore:password of a PKCS12 key store, or self-signed to have one
+	 *             generated in a temporary directory
+	 */
+	private static TlsSettings parseTls(String spec) throws IOException, GeneralSecurityException {
+		if (spec.equals(SELF_SIGNED)) {
+			var keyStore = Files.createTempDirectory("chat-tls").resolve("server.p12");
+			TlsSettings.generateSelfSigned(keyStore, SELF_SIGNED_PASSWORD);
+			logger.info("Self-signed certificate in " + keyStore + ", password " + new String(SELF_SIGNED_PASSWORD));
+			return TlsSettings.load(keyStore, SELF_SIGNED_PASSWORD);
+		}
+		var separator = spec.lastIndexOf(':');
+		return TlsSettings.load(Path.of(spec.substring(0, separator)), spec.substring(separator + 1).toCharArray());
+	}
+
+	/**
+	 * @param spec nodeId,peerPort followed by the host:peerPort of the nodes to dial, separated by commas,
+	 *             the secret of the nodes being read from the {@value #SECRET_VARIABLE} environment
+	 *             variable so that it does not show on the command line
+	 */
+	private static Federation parseFederation(String spec) {
+		var secret = System.getenv(SECRET_VARIABLE);
+		if (secret == null || secret.isEmpty()) {
+			throw new IllegalArgumentException("--federation needs the secret of the nodes in " + SECRET_VARIABLE);
+		}
+		var parts = spec.split(",");
+		var dial = new ArrayList<InetSocketAddress>();
+		for (var i = 2; i < parts.length; i++) {
+			var separator = parts[i].lastIndexOf(':');
+			dial.add(new InetSocketAddress(parts[i].substring(0, separator),
+					Integer.parseInt(parts[i].substring(separator + 1))));
+		}
+		return new Federation(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), dial, secret);
 	}
 
 	private static void usage() {
-		System.out.println("Usage : ServerSumBetter port");
+		System.out.println("Usage : ServerChat port [--reactors=nbReactors]"
+				+ " [--policy=DROP_OLDEST|DROP_NEWEST|DISCONNECT|SPILL_TO_DISK] [--relay=DECODE|RAW|RAW_VALIDATED]"
+				+ " [--listen=SHARED|REUSE_PORT] [--compression=threshold|off] [--flush-delay=millis]"
+				+ " [--history=directory] [--federation=nodeId,peerPort[,host:peerPort]...]"
+				+ " [--tls=keyStore:password|self-signed]");
+		System.out.println("The nodes of a federation share the secret given in " + SECRET_VARIABLE);
 	}
-}
\ No newline at end of file
+}
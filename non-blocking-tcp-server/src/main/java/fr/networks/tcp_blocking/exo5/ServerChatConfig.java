@@ -0,0 +1,115 @@
+package fr.networks.tcp_blocking.exo5;
+
+import fr.networks.tcp_blocking.reactor.ListenMode;
+import fr.networks.tcp_blocking.utils.ConnectionTimeouts;
+import fr.networks.tcp_blocking.utils.LogRetention;
+import fr.networks.tcp_blocking.utils.OutboundLimits;
+import fr.networks.tcp_blocking.utils.TlsSettings;
+import fr.networks.tcp_blocking.utils.WriteCoalescing;
+
+import java.nio.file.Path;
+import java.util.Objects;
+
+/**
+ * How a {@link ServerChat} is run, {@link #DEFAULT} being changed one setting at a time
+ * with the with methods.
+ *
+ * @param nbReactors           reactors serving the clients, between 1 and {@value Long#SIZE}
+ * @param limits               bounds of the outbound queues
+ * @param timeouts             how long the connections may stay idle
+ * @param relayMode            whether the messages are decoded or relayed raw
+ * @param listenMode           SHARED to accept the clients on a dedicated thread handing them
+ *                             out to the shards, REUSE_PORT to have each shard accept its own
+ * @param compressionThreshold size in bytes of the smallest text compressed for the clients
+ *                             which negotiated it, or {@link ServerChat#NO_COMPRESSION}
+ * @param coalescing           how the frames queued to a client are batched, trading latency
+ *                             for fewer writes
+ * @param historyDirectory     directory of the histories of the rooms, one sub-directory per
+ *                             room, or null to keep no history
+ * @param retention            how much of the history of each room is kept
+ * @param federation           the links of this node to the other nodes, or null for a lone node
+ * @param tls                  how the clients are served with TLS, or null to serve them in clear
+ */
+public record ServerChatConfig(int nbReactors, OutboundLimits limits, ConnectionTimeouts timeouts,
+                               RelayMode relayMode, ListenMode listenMode, int compressionThreshold,
+                               WriteCoalescing coalescing, Path historyDirectory, LogRetention retention,
+                               Federation federation, TlsSettings tls) {
+
+    /**
+     * One reactor per processor, no history, no federation and no TLS
+     */
+    public static final ServerChatConfig DEFAULT = new ServerChatConfig(Runtime.getRuntime().availableProcessors(),
+            OutboundLimits.DEFAULT, ConnectionTimeouts.DEFAULT, RelayMode.DECODE, ListenMode.SHARED,
+            ServerChat.DEFAULT_COMPRESSION_THRESHOLD, WriteCoalescing.DISABLED, null, LogRetention.DEFAULT, null,
+            null);
+
+    public ServerChatConfig {
+        if (nbReactors < 1 || nbReactors > Long.SIZE) {
+            throw new IllegalArgumentException("between 1 and " + Long.SIZE + " reactors are needed");
+        }
+        if (compressionThreshold < 0 && compressionThreshold != ServerChat.NO_COMPRESSION) {
+            throw new IllegalArgumentException("invalid compression threshold " + compressionThreshold);
+        }
+        Objects.requireNonNull(limits);
+        Objects.requireNonNull(timeouts);
+        Objects.requireNonNull(relayMode);
+        Objects.requireNonNull(listenMode);
+        Objects.requireNonNull(coalescing);
+        Objects.requireNonNull(retention);
+    }
+
+    public ServerChatConfig withReactors(int nbReactors) {
+        return new ServerChatConfig(nbReactors, limits, timeouts, relayMode, listenMode, compressionThreshold,
+                coalescing, historyDirectory, retention, federation, tls);
+    }
+
+    public ServerChatConfig withLimits(OutboundLimits limits) {
+        return new ServerChatConfig(nbReactors, limits, timeouts, relayMode, listenMode, compressionThreshold,
+                coalescing, historyDirectory, retention, federation, tls);
+    }
+
+    public ServerChatConfig withTimeouts(ConnectionTimeouts timeouts) {
+        return new ServerChatConfig(nbReactors, limits, timeouts, relayMode, listenMode, compressionThreshold,
+                coalescing, historyDirectory, retention, federation, tls);
+    }
+
+    public ServerChatConfig withRelayMode(RelayMode relayMode) {
+        return new ServerChatConfig(nbReactors, limits, timeouts, relayMode, listenMode, compressionThreshold,
+                coalescing, historyDirectory, retention, federation, tls);
+    }
+
+    public ServerChatConfig withListenMode(ListenMode listenMode) {
+        return new ServerChatConfig(nbReactors, limits, timeouts, relayMode, listenMode, compressionThreshold,
+                coalescing, historyDirectory, retention, federation, tls);
+    }
+
+    public ServerChatConfig withCompressionThreshold(int compressionThreshold) {
+        return new ServerChatConfig(nbReactors, limits, timeouts, relayMode, listenMode, compressionThreshold,
+                coalescing, historyDirectory, retention, federation, tls);
+    }
+
+    public ServerChatConfig withCoalescing(WriteCoalescing coalescing) {
+        return new ServerChatConfig(nbReactors, limits, timeouts, relayMode, listenMode, compressionThreshold,
+                coalescing, historyDirectory, retention, federation, tls);
+    }
+
+    public ServerChatConfig withHistoryDirectory(Path historyDirectory) {
+        return new ServerChatConfig(nbReactors, limits, timeouts, relayMode, listenMode, compressionThreshold,
+                coalescing, historyDirectory, retention, federation, tls);
+    }
+
+    public ServerChatConfig withRetention(LogRetention retention) {
+        return new ServerChatConfig(nbReactors, limits, timeouts, relayMode, listenMode, compressionThreshold,
+                coalescing, historyDirectory, retention, federation, tls);
+    }
+
+    public ServerChatConfig withFederation(Federation federation) {
+        return new ServerChatConfig(nbReactors, limits, timeouts, relayMode, listenMode, compressionThreshold,
+                coalescing, historyDirectory, retention, federation, tls);
+    }
+
+    public ServerChatConfig withTls(TlsSettings tls) {
+        return new ServerChatConfig(nbReactors, limits, timeouts, relayMode, listenMode, compressionThreshold,
+                coalescing, historyDirectory, retention, federation, tls);
+    }
+}
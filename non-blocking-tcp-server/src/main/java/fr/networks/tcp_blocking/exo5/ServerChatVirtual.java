@@ -0,0 +1,257 @@
+package fr.networks.tcp_blocking.exo5;
+
+import fr.networks.tcp_blocking.utils.BufferPool;
+import fr.networks.tcp_blocking.utils.CharBufferPool;
+import fr.networks.tcp_blocking.utils.Frame;
+import fr.networks.tcp_blocking.utils.FramePool;
+import fr.networks.tcp_blocking.utils.OutboundQueue;
+import fr.networks.tcp_blocking.utils.StringCache;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The chat protocol of {@link ServerChat}, served with one virtual thread per connection
+ * and blocking channels instead of selectors.
+ * <p>
+ * Each session has a reader thread, which decodes the messages with a
+ * {@link MessageReader} and broadcasts them, and a writer thread, which sends the frames
+ * of its bounded queue. A broadcast message is encoded once in a pooled frame shared by
+ * all the sessions. When the queue of a session is full, the frame is dropped for it.
+ * <p>
+ * Only the broadcast of {@link ServerChat} is served: there are no rooms, every text
+ * including the commands being sent to every client, no compression, no history, no
+ * federation and no TLS. There is no {@link fr.networks.tcp_blocking.utils.SlowConsumerPolicy}
+ * either: the queue of a session holds 256 frames whatever their size,
+ * a frame which does not fit is dropped silently for that client, only counted by
+ * {@link #droppedFrames()}, and the server never stops reading however much is queued.
+ */
+public class ServerChatVirtual {
+	static private class Session {
+		private final SocketChannel sc;
+		private final ServerChatVirtual server;
+		private final ArrayBlockingQueue<Frame> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+		private Thread writer;
+		// set once the writer stops, after which nothing takes the queued frames
+		private volatile boolean closed;
+
+		private Session(ServerChatVirtual server, SocketChannel sc) {
+			this.server = server;
+			this.sc = sc;
+		}
+
+		private void run() {
+			writer = Thread.ofVirtual().start(this::writeLoop);
+			try {
+				readLoop();
+			} catch (IOException e) {
+				logger.log(Level.INFO, "Connection closed with client due to IOException", e);
+			} finally {
+				server.sessions.remove(this);
+				writer.interrupt();
+				silentlyClose();
+			}
+		}
+
+		/**
+		 * Reads and broadcasts the messages of the client until it closes the connection,
+		 * encoding them with an encoder of its own
+		 * <p>
+		 * The convention is that bufferIn is in write-mode between two reads
+		 *
+		 * @throws IOException exception
+		 */
+		private void readLoop() throws IOException {
+			var bufferIn = ByteBuffer.allocateDirect(BUFFER_SIZE);
+			// a client usually sends all its messages under the same few logins
+			var logins = new StringCache(SESSION_LOGIN_CACHE_SIZE, MAX_CACHED_LOGIN_SIZE);
+			var messageReader = new MessageReader(server.bufferPool, server.charPool, ServerChat.MAX_TEXT_SIZE,
+					logins);
+			var encoder = new MessageEncoder(server.framePool, server.largeFramePool);
+			try {
+				while (sc.read(bufferIn) != -1) {
+					bufferIn.flip();
+					while (true) {
+						var status = messageReader.process(bufferIn);
+						if (status == MessageReader.ProcessStatus.REFILL) {
+							break;
+						}
+						if (status == MessageReader.ProcessStatus.ERROR) {
+							return;
+						}
+						server.broadcast(messageReader.get(), encoder);
+						messageReader.reset();
+					}
+					bufferIn.compact();
+				}
+			} finally {
+				// gives back the pooled buffers of a message left incomplete
+				messageReader.reset();
+			}
+		}
+
+		/**
+		 * Sends the queued frames, as many as available with each gathering write
+		 */
+		private void writeLoop() {
+			var outbound = new OutboundQueue();
+			var batch = new ArrayList<Frame>();
+			try {
+				while (true) {
+					outbound.add(queue.take());
+					queue.drainTo(batch);
+					for (var frame : batch) {
+						outbound.add(frame);
+					}
+					batch.clear();
+					while (!outbound.isEmpty()) {
+						outbound.flush(sc);
+					}
+				}
+			} catch (InterruptedException | ClosedByInterruptException e) {
+				// the session is over
+			} catch (IOException e) {
+				logger.log(Level.INFO, "Connection closed with client due to IOException", e);
+				silentlyClose();
+			} finally {
+				closed = true;
+				outbound.clear();
+				releaseQueued();
+			}
+		}
+
+		private void releaseQueued() {
+			Frame frame;
+			while ((frame = queue.poll()) != null) {
+				frame.release();
+			}
+		}
+
+		/**
+		 * Queues a frame for the client if there is room for it and its writer still runs
+		 * <p>
+		 * A frame queued while the writer stops is released here, as the writer may have
+		 * emptied the queue already.
+		 *
+		 * @param frame encoded message, the session takes a reference on it if queued
+		 * @return true if the frame was queued
+		 */
+		private boolean offer(Frame frame) {
+			if (closed) {
+				return false;
+			}
+			frame.retain();
+			if (!queue.offer(frame)) {
+				frame.release();
+				return false;
+			}
+			if (closed) {
+				releaseQueued();
+			}
+			return true;
+		}
+
+		private void silentlyClose() {
+			try {
+				sc.close();
+			} catch (IOException e) {
+				// ignore exception
+			}
+		}
+	}
+
+	private static final int BUFFER_SIZE = 1_024;
+	private static final int FRAME_SIZE = 2 * BUFFER_SIZE;
+	private static final int MAX_POOLED_FRAMES = 4_096;
+	private static final int QUEUE_CAPACITY = 256;
+	private static final int BUFFERS_PER_SLAB = 256;
+	private static final int LARGE_FRAME_SIZE = 64 * 1_024;
+	private static final int MAX_POOLED_LARGE_FRAMES = 256;
+	private static final int MAX_POOLED_CHAR_BUFFERS = 2;
+	private static final int SESSION_LOGIN_CACHE_SIZE = 4;
+	private static final int MAX_CACHED_LOGIN_SIZE = 64;
+	private static final Logger logger = Logger.getLogger(ServerChatVirtual.class.getName());
+
+	private final ServerSocketChannel serverSocketChannel;
+	private final Set<Session> sessions = ConcurrentHashMap.newKeySet();
+	private final FramePool framePool = new FramePool(FRAME_SIZE, MAX_POOLED_FRAMES);
+	private final FramePool largeFramePool = new FramePool(LARGE_FRAME_SIZE, MAX_POOLED_LARGE_FRAMES);
+	// shared by the sessions for the partially received strings
+	private final BufferPool bufferPool = new BufferPool(BUFFER_SIZE, BUFFERS_PER_SLAB);
+	private final CharBufferPool charPool = new CharBufferPool(ServerChat.MAX_TEXT_SIZE, MAX_POOLED_CHAR_BUFFERS);
+	private final LongAdder dropped = new LongAdder();
+
+	public ServerChatVirtual(int port) throws IOException {
+		serverSocketChannel = ServerSocketChannel.open();
+		serverSocketChannel.bind(new InetSocketAddress(port));
+	}
+
+	/**
+	 * Accepts clients on the calling thread, each of them being served by its own
+	 * virtual threads, until the calling thread is interrupted
+	 *
+	 * @throws IOException exception
+	 */
+	public void launch() throws IOException {
+		try {
+			while (!Thread.interrupted()) {
+				var client = serverSocketChannel.accept();
+				var session = new Session(this, client);
+				sessions.add(session);
+				Thread.ofVirtual().start(session::run);
+			}
+		} catch (ClosedByInterruptException e) {
+			// interrupted while waiting for a client
+		} finally {
+			for (var session : sessions) {
+				session.silentlyClose();
+			}
+		}
+	}
+
+	/**
+	 * Queues a message for all the connected clients, encoding it only once
+	 *
+	 * @param msg     message
+	 * @param encoder encoder of the calling session
+	 */
+	private void broadcast(Message msg, MessageEncoder encoder) {
+		var frame = encoder.encode(msg);
+		for (var session : sessions) {
+			if (!session.offer(frame)) {
+				dropped.increment();
+			}
+		}
+		frame.release();
+	}
+
+	/**
+	 * @return the number of frames dropped because the queue of a client was full
+	 */
+	public long droppedFrames() {
+		return dropped.sum();
+	}
+
+	public static void main(String[] args) throws NumberFormatException, IOException {
+		if (args.length != 1) {
+			usage();
+			return;
+		}
+		new ServerChatVirtual(Integer.parseInt(args[0])).launch();
+	}
+
+	private static void usage() {
+		System.out.println("Usage : ServerChatVirtual port");
+	}
+}
@@ -0,0 +1,44 @@
+package fr.networks.tcp_blocking.reactor;
+
+import java.io.IOException;
+import java.nio.channels.ServerSocketChannel;
+import java.util.logging.Logger;
+
+/**
+ * Attachment of the key of a server socket channel, accepting the clients and handing
+ * them out round-robin to the reactors serving them.
+ */
+final class Acceptor {
+    private static final Logger logger = Logger.getLogger(Acceptor.class.getName());
+
+    private final ServerSocketChannel serverSocketChannel;
+    private final Reactor[] targets;
+    private int next;
+
+    Acceptor(ServerSocketChannel serverSocketChannel, Reactor[] targets) {
+        this.serverSocketChannel = serverSocketChannel;
+        this.targets = targets.clone();
+    }
+
+    /**
+     * Accepts a client and registers it, directly if it goes to the current reactor
+     *
+     * @param current reactor running the acceptor
+     * @throws IOException exception
+     */
+    void doAccept(Reactor current) throws IOException {
+        var client = serverSocketChannel.accept();
+        if (client == null) {
+            logger.warning("The selector give a bad hint");
+            return; // selector gave a bad hint
+        }
+        client.configureBlocking(false);
+        var target = targets[next];
+        next = (next + 1) % targets.length;
+        if (target == current) {
+            target.registerNow(client);
+        } else {
+            target.register(client);
+        }
+    }
+}
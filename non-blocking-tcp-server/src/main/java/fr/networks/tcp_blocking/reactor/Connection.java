@@ -0,0 +1,143 @@
+package fr.networks.tcp_blocking.reactor;
+
+import fr.networks.tcp_blocking.utils.TimingWheel;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The state of a client of a {@link Reactor}, to be extended by the context of each
+ * protocol.
+ * <p>
+ * The reactor calls {@link #doWrite()} and {@link #doRead()} when the channel is ready,
+ * and closes the connection if they throw an IOException. The subclass keeps the interest
+ * ops up to date with {@link #setInterestOps(int)}, which only touches the key when they
+ * change, and arms its timeout with {@link #scheduleTimeout(long)}.
+ * <p>
+ * Every method is called on the thread of the reactor.
+ */
+public abstract class Connection {
+    private static final Logger logger = Logger.getLogger(Connection.class.getName());
+
+    protected final SelectionKey key;
+    protected final SocketChannel sc;
+    protected final Reactor reactor;
+    private TimingWheel.Timer timer; // created by the first scheduleTimeout, not to leak this from the constructor
+    private int interestOps; // last interest ops given to the key
+    int slot = -1; // index in the connections of the reactor, -1 once closed
+
+    protected Connection(Reactor reactor, SelectionKey key) {
+        this.reactor = reactor;
+        this.key = key;
+        this.sc = (SocketChannel) key.channel();
+        this.interestOps = key.interestOps();
+    }
+
+    /**
+     * Called once the connection is registered, with no interest ops. It typically arms
+     * the timeout and updates the interest ops.
+     */
+    protected abstract void opened();
+
+    /**
+     * Performs the read action on sc
+     *
+     * @throws IOException exception, the connection is then closed
+     */
+    protected abstract void doRead() throws IOException;
+
+    /**
+     * Performs the write action on sc
+     *
+     * @throws IOException exception, the connection is then closed
+     */
+    protected abstract void doWrite() throws IOException;
+
+    /**
+     * Called once when the connection is closed, to give back the resources it holds
+     */
+    protected void onClose() {
+        // nothing to release by default
+    }
+
+    /**
+     * Called when the timeout armed by scheduleTimeout expires, closes the connection
+     * by default
+     */
+    protected void timeout() {
+        logger.fine("Closing a connection without progress");
+        silentlyClose();
+    }
+
+    /**
+     * Gives the interest ops to the key, only if they changed since the last call
+     *
+     * @param ops new interest ops
+     */
+    protected final void setInterestOps(int ops) {
+        if (ops != interestOps && key.isValid()) {
+            key.interestOps(ops);
+            interestOps = ops;
+        }
+    }
+
+    /**
+     * Arms the timeout of the connection, replacing the previous one
+     *
+     * @param delayMillis delay before timeout is called
+     */
+    protected final void scheduleTimeout(long delayMillis) {
+        if (timer == null) {
+            timer = new TimingWheel.Timer(this::timeout);
+        }
+        reactor.wheel().schedule(timer, delayMillis);
+    }
+
+    /**
+     * Disarms the timeout of the connection, which then never expires
+     */
+    protected final void cancelTimeout() {
+        if (timer != null) {
+            reactor.wheel().cancel(timer);
+        }
+    }
+
+    public final boolean isOpen() {
+        return slot != -1;
+    }
+
+    /**
+     * Closes the channel and releases the resources of the connection, does nothing if it
+     * is already closed
+     */
+    public final void silentlyClose() {
+        if (slot == -1) {
+            return;
+        }
+        try {
+            sc.close();
+        } catch (IOException e) {
+            // ignore exception
+        }
+        cancelTimeout();
+        reactor.remove(this);
+        onClose();
+    }
+
+    final void handle() {
+        try {
+            if (key.isValid() && key.isWritable()) {
+                doWrite();
+            }
+            if (key.isValid() && key.isReadable()) {
+                doRead();
+            }
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Connection closed with client due to IOException", e);
+            silentlyClose();
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package fr.networks.tcp_blocking.reactor;
+
+/**
+ * How the clients of a server running several reactors are accepted
+ */
+public enum ListenMode {
+    /**
+     * One server socket channel, accepting on a single reactor which hands the clients
+     * out round-robin
+     */
+    SHARED,
+    /**
+     * One server socket channel per reactor, all bound to the same port with
+     * SO_REUSEPORT, so that the kernel spreads the incoming connections between them.
+     * Only available where SO_REUSEPORT is, such as on Linux.
+     */
+    REUSE_PORT
+}
@@ -0,0 +1,315 @@
+package fr.networks.tcp_blocking.reactor;
+
+import fr.networks.tcp_blocking.utils.ConnectionTimeouts;
+import fr.networks.tcp_blocking.utils.TimingWheel;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A select loop owning a Selector, a {@link TimingWheel} and the {@link Connection}s
+ * registered on it.
+ * <p>
+ * The reactor is its own select action, so that the loop does not capture a lambda at
+ * each select, and it dispatches to the connections without allocation nor logging.
+ * Clients come from an {@link Acceptor}, registered with {@link #listen}, either on this
+ * reactor or on another one. Other threads hand over clients through a lock-free queue,
+ * followed by a wakeup of the selector if one is not already on its way.
+ * <p>
+ * A server can run some code of its own on the reactor thread after each select with
+ * {@link #afterSelect(Runnable)}, typically to drain queues filled by other threads
+ * before calling {@link #wakeup()}. Such code may ask the next select to return by a
+ * deadline finer than the ticks of the wheel with {@link #selectBy(long)}.
+ * <p>
+ * The reactor is also an {@link Executor} running the code handed over by other threads
+ * on its own thread, after the next select, typically to resume a connection once some
+ * work done elsewhere on its behalf is over.
+ */
+public final class Reactor implements Runnable, Consumer<SelectionKey>, Executor {
+
+    /**
+     * Creates the context of a client freshly registered on a reactor
+     */
+    @FunctionalInterface
+    public interface ConnectionFactory {
+        Connection create(Reactor reactor, SelectionKey key);
+    }
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final Logger logger = Logger.getLogger(Reactor.class.getName());
+
+    private final Selector selector;
+    private final TimingWheel wheel = ConnectionTimeouts.newWheel();
+    private final ConnectionFactory factory;
+    private final ConcurrentLinkedQueue<SocketChannel> pendingChannels = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Runnable> pendingCommands = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    private Runnable afterSelect = () -> {};
+    private boolean hasDeadline;
+    private long deadline; // System.nanoTime by which the next select returns, if hasDeadline
+    private Connection[] connections = new Connection[INITIAL_CAPACITY];
+    private int size;
+    private volatile int publishedSize; // size, for the other threads
+
+    public Reactor(ConnectionFactory factory) throws IOException {
+        this(Objects.requireNonNull(factory), Selector.open());
+    }
+
+    /**
+     * Creates a reactor which only accepts clients on behalf of other reactors
+     *
+     * @throws IOException exception
+     */
+    public Reactor() throws IOException {
+        this(null, Selector.open());
+    }
+
+    private Reactor(ConnectionFactory factory, Selector selector) {
+        this.factory = factory;
+        this.selector = selector;
+    }
+
+    /**
+     * Accepts the clients of serverSocketChannel on this reactor and hands them out
+     * round-robin to targets, or keeps them if no target is given. Must be called before
+     * the reactor is started.
+     *
+     * @param serverSocketChannel bound server socket channel
+     * @param targets             reactors serving the accepted clients
+     * @throws IOException exception
+     */
+    public void listen(ServerSocketChannel serverSocketChannel, Reactor... targets) throws IOException {
+        if (targets.length == 0 && factory == null) {
+            throw new IllegalStateException("an acceptor only reactor needs targets");
+        }
+        var acceptor = new Acceptor(serverSocketChannel, targets.length == 0 ? new Reactor[] { this } : targets);
+        serverSocketChannel.configureBlocking(false);
+        serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT, acceptor);
+    }
+
+    /**
+     * @param action code run on the reactor thread after each select
+     */
+    public void afterSelect(Runnable action) {
+        this.afterSelect = Objects.requireNonNull(action);
+    }
+
+    /**
+     * Makes the next select return by deadlineNanos at the latest, whether or not a
+     * channel is ready. Only holds for the next select, on the reactor thread.
+     *
+     * @param deadlineNanos deadline, in the time of {@link System#nanoTime()}
+     */
+    public void selectBy(long deadlineNanos) {
+        if (!hasDeadline || deadlineNanos - deadline < 0) {
+            deadline = deadlineNanos;
+            hasDeadline = true;
+        }
+    }
+
+    public TimingWheel wheel() {
+        return wheel;
+    }
+
+    /**
+     * Runs the select loop on the calling thread until it is interrupted, then closes
+     * all the connections
+     *
+     * @throws IOException if the selector or the server socket channel fails
+     */
+    public void launch() throws IOException {
+        try {
+            while (!Thread.interrupted()) {
+                try {
+                    select();
+                } catch (UncheckedIOException tunneled) {
+                    throw tunneled.getCause();
+                }
+                processPending();
+                afterSelect.run();
+                wheel.expire();
+            }
+        } finally {
+            silentlyCloseAll();
+        }
+    }
+
+    private void select() throws IOException {
+        var timeout = wheel.timeoutMillis();
+        if (hasDeadline) {
+            hasDeadline = false;
+            var delay = deadline - System.nanoTime();
+            if (delay <= 0) {
+                selector.selectNow(this);
+                return;
+            }
+            var delayMillis = TimeUnit.NANOSECONDS.toMillis(delay + TimeUnit.MILLISECONDS.toNanos(1) - 1);
+            timeout = timeout == 0 ? delayMillis : Math.min(timeout, delayMillis);
+        }
+        selector.select(this, timeout);
+    }
+
+    @Override
+    public void run() {
+        try {
+            launch();
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Reactor stopped due to IOException", e);
+        }
+    }
+
+    @Override
+    public void accept(SelectionKey key) {
+        if (key.attachment() instanceof Connection connection) {
+            connection.handle();
+            return;
+        }
+        try {
+            if (key.isValid() && key.isAcceptable()) {
+                ((Acceptor) key.attachment()).doAccept(this);
+            }
+        } catch (IOException ioe) {
+            // select action requires to tunnel IOException
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    /**
+     * Hands over a freshly accepted or connected client, from any thread
+     *
+     * @param client connected client, in non-blocking mode
+     */
+    public void register(SocketChannel client) {
+        pendingChannels.add(client);
+        wakeup();
+    }
+
+    /**
+     * Runs command on the reactor thread after the next select, from any thread. The
+     * commands still pending when the reactor stops are dropped.
+     *
+     * @param command code to run on the reactor thread
+     */
+    @Override
+    public void execute(Runnable command) {
+        pendingCommands.add(Objects.requireNonNull(command));
+        wakeup();
+    }
+
+    /**
+     * Wakes the reactor up, unless a wakeup is already on its way
+     */
+    public void wakeup() {
+        if (wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    private void processPending() throws IOException {
+        // cleared before draining so that a concurrent add either is seen here or wakes us up again
+        wakeupPending.set(false);
+        SocketChannel client;
+        while ((client = pendingChannels.poll()) != null) {
+            registerNow(client);
+        }
+        Runnable command;
+        while ((command = pendingCommands.poll()) != null) {
+            command.run();
+        }
+    }
+
+    /**
+     * Registers a client on the reactor thread
+     *
+     * @param client accepted client, in non-blocking mode
+     * @throws IOException exception
+     */
+    void registerNow(SocketChannel client) throws IOException {
+        var key = client.register(selector, 0);
+        var connection = factory.create(this, key);
+        key.attach(connection);
+        if (size == connections.length) {
+            connections = Arrays.copyOf(connections, size * 2);
+        }
+        connection.slot = size;
+        connections[size++] = connection;
+        publishedSize = size;
+        connection.opened();
+    }
+
+    void remove(Connection connection) {
+        var slot = connection.slot;
+        var last = connections[--size];
+        connections[slot] = last;
+        last.slot = slot;
+        connections[size] = null;
+        publishedSize = size;
+        connection.slot = -1;
+    }
+
+    /**
+     * @return the number of connections of this reactor
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of connections of this reactor, as last published by its thread,
+     * from any thread
+     */
+    public int connectionCount() {
+        return publishedSize;
+    }
+
+    /**
+     * Calls action on every connection of this reactor, with argument. The action may close
+     * the connection it is given. A non-capturing action avoids any allocation.
+     *
+     * @param action   action taking a connection and argument
+     * @param argument argument given to every call
+     * @param <T>      type of the argument
+     */
+    public <T> void forEachConnection(BiConsumer<? super Connection, ? super T> action, T argument) {
+        // from the end, so that closing the current connection does not skip any other
+        for (var i = size - 1; i >= 0; i--) {
+            if (i < size) {
+                action.accept(connections[i], argument);
+            }
+        }
+    }
+
+    private void silentlyCloseAll() {
+        for (var i = size - 1; i >= 0; i--) {
+            connections[i].silentlyClose();
+        }
+        SocketChannel client;
+        while ((client = pendingChannels.poll()) != null) {
+            try {
+                client.close();
+            } catch (IOException e) {
+                // ignore exception
+            }
+        }
+        pendingCommands.clear();
+        try {
+            selector.close();
+        } catch (IOException e) {
+            // ignore exception
+        }
+    }
+}
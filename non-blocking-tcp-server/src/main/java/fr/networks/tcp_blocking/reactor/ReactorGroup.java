@@ -0,0 +1,125 @@
+package fr.networks.tcp_blocking.reactor;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.util.function.IntFunction;
+
+/**
+ * Reactors serving the clients of one port, each one on its own thread but the first,
+ * which runs on the thread calling {@link #launch()}.
+ * <p>
+ * With {@link ListenMode#SHARED}, the first reactor accepts every client and hands them
+ * out round-robin. With {@link ListenMode#REUSE_PORT}, each reactor accepts on its own
+ * server socket channel, so that a storm of connections is spread by the kernel instead
+ * of funnelling through a single accepting thread.
+ */
+public final class ReactorGroup {
+    private final ServerSocketChannel[] listeners;
+    private final Reactor[] reactors;
+
+    /**
+     * @param address    address to bind
+     * @param nbReactors number of reactors
+     * @param mode       how the clients are accepted
+     * @param factories  gives the factory of the contexts of the reactor of each index
+     * @throws IOException                   exception
+     * @throws UnsupportedOperationException if mode is REUSE_PORT and SO_REUSEPORT is not supported
+     */
+    public ReactorGroup(InetSocketAddress address, int nbReactors, ListenMode mode,
+                        IntFunction<Reactor.ConnectionFactory> factories) throws IOException {
+        if (nbReactors < 1) {
+            throw new IllegalArgumentException("at least one reactor is needed");
+        }
+        reactors = new Reactor[nbReactors];
+        for (var i = 0; i < nbReactors; i++) {
+            reactors[i] = new Reactor(factories.apply(i));
+        }
+        listeners = bind(address, mode == ListenMode.REUSE_PORT ? nbReactors : 1);
+        if (listeners.length == 1) {
+            reactors[0].listen(listeners[0], reactors);
+        } else {
+            for (var i = 0; i < nbReactors; i++) {
+                reactors[i].listen(listeners[i]);
+            }
+        }
+    }
+
+    /**
+     * @param address    address to bind
+     * @param nbReactors number of reactors
+     * @param mode       how the clients are accepted
+     * @param factory    factory of the contexts, shared by all the reactors
+     * @throws IOException exception
+     */
+    public ReactorGroup(InetSocketAddress address, int nbReactors, ListenMode mode,
+                        Reactor.ConnectionFactory factory) throws IOException {
+        this(address, nbReactors, mode, i -> factory);
+    }
+
+    /**
+     * Opens count server socket channels bound to address, with SO_REUSEPORT if there are
+     * several of them
+     *
+     * @param address address to bind
+     * @param count   number of channels
+     * @return the bound channels
+     * @throws IOException                   exception
+     * @throws UnsupportedOperationException if several channels are asked for and SO_REUSEPORT is not supported
+     */
+    public static ServerSocketChannel[] bind(InetSocketAddress address, int count) throws IOException {
+        var channels = new ServerSocketChannel[count];
+        try {
+            for (var i = 0; i < count; i++) {
+                channels[i] = ServerSocketChannel.open();
+                if (count > 1) {
+                    if (!channels[i].supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                        throw new UnsupportedOperationException("SO_REUSEPORT is not supported");
+                    }
+                    channels[i].setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                }
+                channels[i].bind(address);
+            }
+        } catch (IOException | RuntimeException e) {
+            for (var channel : channels) {
+                if (channel != null) {
+                    channel.close();
+                }
+            }
+            throw e;
+        }
+        return channels;
+    }
+
+    /**
+     * Starts the reactors, running the first one on the calling thread until it is
+     * interrupted or fails, then interrupts the other ones
+     *
+     * @throws IOException if the selector or a server socket channel of the first reactor fails
+     */
+    public void launch() throws IOException {
+        var threads = new Thread[reactors.length];
+        for (var i = 1; i < reactors.length; i++) {
+            threads[i] = Thread.ofPlatform().name("reactor-" + i).start(reactors[i]);
+        }
+        try {
+            reactors[0].launch();
+        } finally {
+            for (var i = 1; i < threads.length; i++) {
+                threads[i].interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return the number of connections of each reactor, readable from any thread
+     */
+    public int[] connectionCounts() {
+        var counts = new int[reactors.length];
+        for (var i = 0; i < reactors.length; i++) {
+            counts[i] = reactors[i].connectionCount();
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,490 @@
+package fr.networks.tcp_blocking.reactor;
+
+import fr.networks.tcp_blocking.utils.BufferPool;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+
+/**
+ * A TLS session over a non-blocking {@link SocketChannel}, driving an {@link SSLEngine}
+ * for a {@link Connection} which reads and writes its plain bytes through it instead of
+ * the socket.
+ * <p>
+ * The handshake is driven by the reads and the writes: until it is done they return 0,
+ * and {@link #interestOps(int)} turns the interest ops of the connection into the ones
+ * the handshake needs. The delegated tasks of the engine, which do the cryptography of the
+ * handshake, run on the tasks executor rather than on the reactor thread. Meanwhile the
+ * channel asks for no interest op at all, and once they are over onReady is run on the
+ * reactor thread, where the connection resumes the handshake by writing and reading.
+ * <p>
+ * The records received, the records to send and the bytes unwrapped but not read yet each
+ * take a buffer of the pool, borrowed only while it holds bytes, so an idle TLS connection
+ * holds no buffer. The pool hands out buffers of at least {@link #bufferSize} bytes.
+ * <p>
+ * A read may leave bytes in the channel when the buffer it is given is full. They do not
+ * make the socket readable, so the connection reads again as long as
+ * {@link #hasBufferedInput()} holds.
+ * <p>
+ * Closing the channel closes the socket without sending a close_notify alert, so the
+ * peer sees the end of the session as a truncation.
+ * <p>
+ * Every method is called on the reactor thread.
+ */
+public final class TlsChannel implements ByteChannel, GatheringByteChannel {
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final SocketChannel sc;
+    private final SSLEngine engine;
+    private final BufferPool pool;
+    private final Executor tasks;
+    private final Executor reactor;
+    private final Runnable onReady;
+    private final ByteBuffer[] single = new ByteBuffer[1]; // for write(ByteBuffer), without allocation
+    private ByteBuffer netIn; // records received not unwrapped yet, in write-mode, or null
+    private ByteBuffer netOut; // records to send, in write-mode, or null
+    private ByteBuffer appIn; // bytes unwrapped not read yet, in write-mode, or null
+    private boolean underflow; // netIn holds no complete record
+    private boolean inputClosed; // the socket reached its end, or the peer sent close_notify
+    private boolean started; // the initial handshake has begun
+    private boolean handshakeDone; // the initial handshake is over
+    private boolean tasksRunning; // the engine is used by the tasks executor
+    private boolean closed;
+
+    /**
+     * @param sc      connected socket channel, in non-blocking mode
+     * @param engine  engine of the session, in server or in client mode
+     * @param pool    pool of buffers of at least {@link #bufferSize(SSLEngine)} bytes
+     * @param tasks   executor running the delegated tasks of the engine
+     * @param reactor executor running onReady on the reactor thread
+     * @param onReady called on the reactor thread once the delegated tasks are over
+     */
+    public TlsChannel(SocketChannel sc, SSLEngine engine, BufferPool pool, Executor tasks, Executor reactor,
+            Runnable onReady) {
+        this.sc = Objects.requireNonNull(sc);
+        this.engine = Objects.requireNonNull(engine);
+        this.pool = Objects.requireNonNull(pool);
+        this.tasks = Objects.requireNonNull(tasks);
+        this.reactor = Objects.requireNonNull(reactor);
+        this.onReady = Objects.requireNonNull(onReady);
+        if (pool.bufferSize() < bufferSize(engine)) {
+            throw new IllegalArgumentException("buffers of at least " + bufferSize(engine) + " bytes are needed");
+        }
+    }
+
+    /**
+     * @return the size of the buffers of the pool of a TlsChannel driving engine, large
+     * enough for a record and for its unwrapped bytes
+     */
+    public static int bufferSize(SSLEngine engine) {
+        var session = engine.getSession();
+        return Math.max(session.getPacketBufferSize(), session.getApplicationBufferSize());
+    }
+
+    /**
+     * @return true once the initial handshake is over
+     */
+    public boolean isHandshakeDone() {
+        return handshakeDone;
+    }
+
+    /**
+     * @return true if bytes can be read without the socket being readable. The bytes
+     * received during the handshake are left to onReady or to the end of the handshake.
+     */
+    public boolean hasBufferedInput() {
+        return handshakeDone && !tasksRunning && (appIn != null || netIn != null && !underflow);
+    }
+
+    /**
+     * @param ops interest ops of the connection, for its plain bytes
+     * @return the interest ops to give to the key, for the records
+     */
+    public int interestOps(int ops) {
+        if (tasksRunning) {
+            return 0;
+        }
+        if (!started) {
+            // the client speaks first
+            ops = engine.getUseClientMode() ? SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+        } else if (!handshakeDone) {
+            ops = isUnwrapping() ? SelectionKey.OP_READ : 0;
+        }
+        if (netOut != null) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        return ops;
+    }
+
+    private boolean isUnwrapping() {
+        var status = engine.getHandshakeStatus();
+        return status == SSLEngineResult.HandshakeStatus.NEED_UNWRAP
+                || status == SSLEngineResult.HandshakeStatus.NEED_UNWRAP_AGAIN;
+    }
+
+    /**
+     * Drives the handshake as far as possible, then sends the records waiting to be sent
+     *
+     * @return true if the handshake is done and every record has been sent
+     * @throws IOException if the handshake fails or the socket fails
+     */
+    public boolean flush() throws IOException {
+        try {
+            return handshake() && flushNet();
+        } finally {
+            releaseDrained();
+        }
+    }
+
+    /**
+     * Reads the bytes received, unwrapping the records buffered then the ones read from
+     * the socket, until dst is full or no complete record is left
+     *
+     * @return the number of bytes read, 0 while the handshake goes on, or -1 once the
+     * socket reached its end or the peer closed the session
+     */
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        try {
+            if (!handshake()) {
+                return 0;
+            }
+            var total = 0;
+            while (dst.hasRemaining()) {
+                if (appIn == null && (inputClosed || !unwrap())) {
+                    break;
+                }
+                total += drainAppIn(dst);
+            }
+            return total == 0 && inputClosed && appIn == null ? -1 : total;
+        } finally {
+            releaseDrained();
+        }
+    }
+
+    /**
+     * Wraps the bytes of the buffers in records, as long as the socket accepts the records.
+     * The records wrapped but not sent yet are sent by the following writes, or by
+     * {@link #flush()}.
+     *
+     * @return the number of bytes wrapped, 0 while the handshake goes on
+     */
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        ensureOpen();
+        try {
+            if (!handshake() || !flushNet()) {
+                return 0;
+            }
+            var expected = 0L;
+            for (var i = offset; i < offset + length; i++) {
+                expected += srcs[i].remaining();
+            }
+            var consumed = 0L;
+            while (consumed < expected) {
+                if (netOut == null) {
+                    netOut = pool.acquire();
+                }
+                var result = engine.wrap(srcs, offset, length, netOut);
+                consumed += result.bytesConsumed();
+                switch (result.getStatus()) {
+                    case BUFFER_OVERFLOW -> {
+                        if (!flushNet()) {
+                            return consumed;
+                        }
+                    }
+                    case CLOSED -> throw new ClosedChannelException();
+                    default -> {
+                        if (result.bytesConsumed() == 0) {
+                            return consumed; // the engine wants to handshake again
+                        }
+                    }
+                }
+            }
+            flushNet();
+            return consumed;
+        } finally {
+            releaseDrained();
+        }
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs) throws IOException {
+        return write(srcs, 0, srcs.length);
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        single[0] = src;
+        try {
+            return (int) write(single, 0, 1);
+        } finally {
+            single[0] = null;
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    /**
+     * Closes the socket and gives the buffers back to the pool, the delegated tasks still
+     * running being left to end on their own
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        netIn = release(netIn);
+        netOut = release(netOut);
+        appIn = release(appIn);
+        sc.close();
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    /**
+     * Drives the handshake, or the messages of the session exchanged after it, until it
+     * has to wait for the socket or for the delegated tasks
+     *
+     * @return true if no handshake message is waiting to be sent or received
+     */
+    private boolean handshake() throws IOException {
+        if (tasksRunning) {
+            return false;
+        }
+        if (!started) {
+            started = true;
+            engine.beginHandshake();
+        }
+        while (true) {
+            switch (engine.getHandshakeStatus()) {
+                case NEED_TASK -> {
+                    runTasks();
+                    return false;
+                }
+                case NEED_WRAP -> {
+                    if (!wrapHandshake()) {
+                        return false;
+                    }
+                }
+                case NEED_UNWRAP, NEED_UNWRAP_AGAIN -> {
+                    if (handshakeDone) {
+                        return true; // a new handshake of the session, unwrapped with the application bytes
+                    }
+                    if (!flushNet() || !unwrapHandshake()) {
+                        return false;
+                    }
+                }
+                default -> {
+                    if (!handshakeDone) {
+                        handshakeDone = true;
+                        // the last flight, or the session tickets, are sent at once
+                        flushNet();
+                    }
+                    return true;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return false if the records wrapped could not be sent to make room for the next one
+     */
+    private boolean wrapHandshake() throws IOException {
+        if (netOut == null) {
+            netOut = pool.acquire();
+        }
+        var result = engine.wrap(EMPTY, netOut);
+        return switch (result.getStatus()) {
+            case OK -> true;
+            case BUFFER_OVERFLOW -> flushNet();
+            case CLOSED -> {
+                if (result.bytesProduced() == 0) {
+                    throw new SSLException("TLS session closed during the handshake");
+                }
+                yield true;
+            }
+            case BUFFER_UNDERFLOW -> throw new AssertionError();
+        };
+    }
+
+    /**
+     * @return false if the socket has no more bytes for now
+     */
+    private boolean unwrapHandshake() throws IOException {
+        var result = unwrapNetIn();
+        return switch (result.getStatus()) {
+            case OK -> true;
+            case BUFFER_UNDERFLOW -> {
+                underflow = true;
+                var read = sc.read(netIn);
+                if (read == -1) {
+                    throw new EOFException("connection closed during the TLS handshake");
+                }
+                if (read == 0) {
+                    yield false;
+                }
+                underflow = false;
+                yield true;
+            }
+            case BUFFER_OVERFLOW -> throw new SSLException("application bytes received during the handshake");
+            case CLOSED -> throw new SSLException("TLS session closed during the handshake");
+        };
+    }
+
+    /**
+     * Unwraps the complete records of netIn into appIn, reading from the socket once if
+     * none is buffered
+     *
+     * @return true if appIn holds bytes
+     */
+    private boolean unwrap() throws IOException {
+        var hasRead = false;
+        while (true) {
+            var result = unwrapNetIn();
+            switch (result.getStatus()) {
+                case OK -> {
+                    // a key update, or a new handshake, may ask for an answer or for tasks
+                    if (result.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING
+                            && !handshake()) {
+                        return appIn.position() != 0;
+                    }
+                }
+                case BUFFER_UNDERFLOW -> {
+                    underflow = true;
+                    if (hasRead || appIn.position() != 0) {
+                        return appIn.position() != 0;
+                    }
+                    var read = sc.read(netIn);
+                    hasRead = true;
+                    if (read == -1) {
+                        inputClosed = true;
+                        return false;
+                    }
+                    if (read == 0) {
+                        return false;
+                    }
+                    underflow = false;
+                }
+                case BUFFER_OVERFLOW -> {
+                    if (appIn.position() == 0) {
+                        throw new SSLException("record larger than the buffers");
+                    }
+                    return true;
+                }
+                case CLOSED -> {
+                    inputClosed = true;
+                    handshake(); // the close_notify answering the one of the peer
+                    return appIn.position() != 0;
+                }
+            }
+        }
+    }
+
+    private SSLEngineResult unwrapNetIn() throws SSLException {
+        if (netIn == null) {
+            netIn = pool.acquire();
+        }
+        if (appIn == null) {
+            appIn = pool.acquire();
+        }
+        netIn.flip();
+        try {
+            return engine.unwrap(netIn, appIn);
+        } finally {
+            netIn.compact();
+        }
+    }
+
+    private int drainAppIn(ByteBuffer dst) {
+        appIn.flip();
+        var length = Math.min(appIn.remaining(), dst.remaining());
+        var limit = appIn.limit();
+        appIn.limit(appIn.position() + length);
+        dst.put(appIn);
+        appIn.limit(limit);
+        if (appIn.hasRemaining()) {
+            appIn.compact();
+        } else {
+            appIn = release(appIn);
+        }
+        return length;
+    }
+
+    /**
+     * @return true if every record wrapped has been sent
+     */
+    private boolean flushNet() throws IOException {
+        if (netOut == null) {
+            return true;
+        }
+        netOut.flip();
+        sc.write(netOut);
+        if (netOut.hasRemaining()) {
+            netOut.compact();
+            return false;
+        }
+        netOut = release(netOut);
+        return true;
+    }
+
+    private void runTasks() {
+        tasksRunning = true;
+        tasks.execute(() -> {
+            Runnable task;
+            while ((task = engine.getDelegatedTask()) != null) {
+                task.run();
+            }
+            reactor.execute(this::tasksDone);
+        });
+    }
+
+    private void tasksDone() {
+        tasksRunning = false;
+        if (!closed) {
+            onReady.run();
+        }
+    }
+
+    /**
+     * Gives the empty buffers back to the pool
+     */
+    private void releaseDrained() {
+        if (netIn != null && netIn.position() == 0) {
+            netIn = release(netIn);
+            underflow = false;
+        }
+        if (appIn != null && appIn.position() == 0) {
+            appIn = release(appIn);
+        }
+        if (netOut != null && netOut.position() == 0) {
+            netOut = release(netOut);
+        }
+    }
+
+    private ByteBuffer release(ByteBuffer buffer) {
+        if (buffer != null) {
+            pool.release(buffer);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,106 @@
+package fr.networks.tcp_blocking.utils;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe pool of fixed-size direct buffers, carved out of larger direct slabs.
+ * <p>
+ * Connections are expected to borrow a buffer only while they hold bytes in flight and
+ * to give it back as soon as it is drained, so that the memory used depends on the number
+ * of busy connections rather than on the number of open ones. Slabs are allocated on
+ * demand and never freed: the pool grows up to the peak number of buffers in use.
+ * <p>
+ * Buffers are handed out cleared, in write-mode.
+ */
+public final class BufferPool {
+
+    /**
+     * A snapshot of the metrics of a pool
+     *
+     * @param bufferSize   size of each buffer
+     * @param capacity     number of buffers carved out of the slabs so far
+     * @param available    number of buffers waiting in the pool
+     * @param acquisitions number of calls to acquire
+     * @param hits         number of acquisitions served without allocating a new slab
+     */
+    public record Stats(int bufferSize, int capacity, int available, long acquisitions, long hits) {
+        public int inUse() {
+            return capacity - available;
+        }
+
+        public double hitRate() {
+            return acquisitions == 0 ? 1.0 : (double) hits / acquisitions;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d buffers of %d bytes, %d in use, hit rate %.2f%%",
+                    capacity, bufferSize, inUse(), hitRate() * 100);
+        }
+    }
+
+    private final int bufferSize;
+    private final int buffersPerSlab;
+    private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger capacity = new AtomicInteger();
+    private final AtomicInteger available = new AtomicInteger();
+    private final LongAdder acquisitions = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+
+    public BufferPool(int bufferSize, int buffersPerSlab) {
+        if (bufferSize <= 0 || buffersPerSlab <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.bufferSize = bufferSize;
+        this.buffersPerSlab = buffersPerSlab;
+    }
+
+    /**
+     * @return a cleared buffer of bufferSize bytes, in write-mode
+     */
+    public ByteBuffer acquire() {
+        acquisitions.increment();
+        var buffer = free.poll();
+        if (buffer != null) {
+            available.decrementAndGet();
+            hits.increment();
+            return buffer;
+        }
+        return allocateSlab();
+    }
+
+    /**
+     * Gives a buffer back to the pool. The caller must not use it afterwards.
+     *
+     * @param buffer a buffer obtained from acquire
+     */
+    public void release(ByteBuffer buffer) {
+        buffer.clear();
+        available.incrementAndGet();
+        free.offer(buffer);
+    }
+
+    /**
+     * Allocates a new slab, keeps its first buffer for the caller and makes the others
+     * available. Two threads missing at the same time allocate two slabs, which is fine.
+     */
+    private ByteBuffer allocateSlab() {
+        var slab = ByteBuffer.allocateDirect(bufferSize * buffersPerSlab);
+        capacity.addAndGet(buffersPerSlab);
+        for (var i = 1; i < buffersPerSlab; i++) {
+            release(slab.slice(i * bufferSize, bufferSize));
+        }
+        return slab.slice(0, bufferSize);
+    }
+
+    public int bufferSize() {
+        return bufferSize;
+    }
+
+    public Stats stats() {
+        return new Stats(bufferSize, capacity.get(), available.get(), acquisitions.sum(), hits.sum());
+    }
+}
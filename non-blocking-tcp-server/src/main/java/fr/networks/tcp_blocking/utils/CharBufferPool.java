@@ -0,0 +1,92 @@
+package fr.networks.tcp_blocking.utils;
+
+import java.nio.CharBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A thread-safe pool of char buffers, with a class of buffers per power of two capacity.
+ * <p>
+ * It holds the characters of the large strings decoded while they are received. A
+ * buffer is grown by borrowing one of the next class and giving the small one back, so
+ * a reader only holds the capacity of the string it is decoding, and only until it is
+ * done. At most maxPooledPerClass buffers of each class are kept.
+ */
+public final class CharBufferPool {
+    private static final int MIN_CAPACITY_BITS = 10;
+
+    private final ConcurrentLinkedQueue<CharBuffer>[] classes;
+    private final AtomicInteger[] pooled;
+    private final int maxPooledPerClass;
+
+    /**
+     * @param maxCapacity       capacity of the largest buffer handed out
+     * @param maxPooledPerClass number of buffers kept for each capacity
+     */
+    public CharBufferPool(int maxCapacity, int maxPooledPerClass) {
+        if (maxCapacity <= 0 || maxPooledPerClass < 0) {
+            throw new IllegalArgumentException();
+        }
+        var count = classOf(maxCapacity) + 1;
+        @SuppressWarnings("unchecked")
+        var queues = (ConcurrentLinkedQueue<CharBuffer>[]) new ConcurrentLinkedQueue<?>[count];
+        classes = queues;
+        pooled = new AtomicInteger[count];
+        for (var i = 0; i < count; i++) {
+            classes[i] = new ConcurrentLinkedQueue<>();
+            pooled[i] = new AtomicInteger();
+        }
+        this.maxPooledPerClass = maxPooledPerClass;
+    }
+
+    private static int classOf(int capacity) {
+        var bits = Integer.SIZE - Integer.numberOfLeadingZeros(Math.max(capacity, 1) - 1);
+        return Math.max(0, bits - MIN_CAPACITY_BITS);
+    }
+
+    /**
+     * @param minCapacity number of chars needed, at most the maximal capacity of the pool
+     * @return a cleared buffer of at least minCapacity chars
+     */
+    public CharBuffer acquire(int minCapacity) {
+        var index = classOf(minCapacity);
+        if (index >= classes.length) {
+            throw new IllegalArgumentException("capacity too large " + minCapacity);
+        }
+        var buffer = classes[index].poll();
+        if (buffer == null) {
+            return CharBuffer.allocate(1 << (index + MIN_CAPACITY_BITS));
+        }
+        pooled[index].decrementAndGet();
+        return buffer;
+    }
+
+    /**
+     * Borrows a buffer twice as large as buffer, copies the content of buffer into it and
+     * gives buffer back to the pool
+     *
+     * @param buffer a buffer obtained from acquire, in write-mode
+     * @return the new buffer, in write-mode
+     */
+    public CharBuffer grow(CharBuffer buffer) {
+        var larger = acquire(buffer.capacity() * 2);
+        larger.put(buffer.flip());
+        release(buffer);
+        return larger;
+    }
+
+    /**
+     * Gives a buffer back to the pool. The caller must not use it afterwards.
+     *
+     * @param buffer a buffer obtained from acquire or grow
+     */
+    public void release(CharBuffer buffer) {
+        buffer.clear();
+        var index = classOf(buffer.capacity());
+        if (pooled[index].incrementAndGet() > maxPooledPerClass) {
+            pooled[index].decrementAndGet();
+            return;
+        }
+        classes[index].offer(buffer);
+    }
+}
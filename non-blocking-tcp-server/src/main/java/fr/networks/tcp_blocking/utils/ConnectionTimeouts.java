@@ -0,0 +1,36 @@
+package fr.networks.tcp_blocking.utils;
+
+/**
+ * How long a connection may stay without progress before being closed
+ *
+ * @param idleMillis  nothing to read nor to write
+ * @param readMillis  a request or a message has been partially received
+ * @param writeMillis bytes are waiting to be sent
+ */
+public record ConnectionTimeouts(long idleMillis, long readMillis, long writeMillis) {
+
+    public static final ConnectionTimeouts DEFAULT = new ConnectionTimeouts(300_000, 30_000, 30_000);
+
+    /**
+     * Duration of a tick of the timing wheels enforcing the timeouts
+     */
+    public static final long TICK_MILLIS = 100;
+
+    /**
+     * Number of buckets of the timing wheels enforcing the timeouts
+     */
+    public static final int WHEEL_SIZE = 1_024;
+
+    public ConnectionTimeouts {
+        if (idleMillis <= 0 || readMillis <= 0 || writeMillis <= 0) {
+            throw new IllegalArgumentException("timeouts must be positive");
+        }
+    }
+
+    /**
+     * @return a timing wheel suited to enforce connection timeouts
+     */
+    public static TimingWheel newWheel() {
+        return new TimingWheel(TICK_MILLIS, WHEEL_SIZE);
+    }
+}
@@ -0,0 +1,67 @@
+package fr.networks.tcp_blocking.utils;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tells whether a message identified by its origin and a sequence number increasing on
+ * that origin has already been seen.
+ * <p>
+ * For each origin, the filter remembers the highest sequence number seen and which of the
+ * {@value #WINDOW} sequence numbers below it have been seen, so that messages reaching
+ * the filter out of order through several paths are still told apart. A message older
+ * than the window is taken as already seen.
+ * <p>
+ * This class is thread-safe.
+ */
+public final class DuplicateFilter {
+    private static final int WINDOW = 4_096;
+
+    private static final class Window {
+        private final long[] seen = new long[WINDOW / Long.SIZE];
+        private long highest = -1;
+
+        private synchronized boolean add(long sequence) {
+            if (sequence > highest) {
+                // the sequence numbers between highest and sequence leave the window unseen
+                if (sequence - highest >= WINDOW) {
+                    Arrays.fill(seen, 0);
+                } else {
+                    for (var skipped = highest + 1; skipped < sequence; skipped++) {
+                        seen[index(skipped)] &= ~mask(skipped);
+                    }
+                }
+                highest = sequence;
+                seen[index(sequence)] |= mask(sequence);
+                return true;
+            }
+            if (highest - sequence >= WINDOW || (seen[index(sequence)] & mask(sequence)) != 0) {
+                return false;
+            }
+            seen[index(sequence)] |= mask(sequence);
+            return true;
+        }
+
+        private static int index(long sequence) {
+            return (int) (sequence & (WINDOW - 1)) / Long.SIZE;
+        }
+
+        private static long mask(long sequence) {
+            return 1L << (sequence & (Long.SIZE - 1));
+        }
+    }
+
+    private final ConcurrentHashMap<Integer, Window> windows = new ConcurrentHashMap<>();
+
+    /**
+     * @param origin   origin of the message
+     * @param sequence sequence number of the message on origin, from 0
+     * @return true the first time the message is seen, false afterwards
+     */
+    public boolean firstSeen(int origin, long sequence) {
+        if (sequence < 0) {
+            return false;
+        }
+        return windows.computeIfAbsent(origin, unused -> new Window()).add(sequence);
+    }
+}
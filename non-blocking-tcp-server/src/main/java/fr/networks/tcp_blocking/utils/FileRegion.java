@@ -0,0 +1,34 @@
+package fr.networks.tcp_blocking.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Bytes of files queued to a connection, sent with
+ * {@link FileChannel#transferTo(long, long, WritableByteChannel)} so that they never go
+ * through the heap.
+ */
+public interface FileRegion extends Closeable {
+
+    /**
+     * @return the number of bytes not yet sent
+     */
+    long remaining();
+
+    /**
+     * Sends as many bytes of the region as the target accepts
+     *
+     * @param target channel to send to
+     * @return the number of bytes sent
+     * @throws IOException if the transfer fails
+     */
+    long transferTo(WritableByteChannel target) throws IOException;
+
+    /**
+     * Gives back the files of the region, whether it was completely sent or not
+     */
+    @Override
+    void close();
+}
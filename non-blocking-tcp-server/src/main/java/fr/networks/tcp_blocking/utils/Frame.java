@@ -0,0 +1,128 @@
+package fr.networks.tcp_blocking.utils;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An encoded message shared by all its recipients.
+ * <p>
+ * A frame is filled once through {@link #content()}, then sealed. From then on it is
+ * immutable and recipients only read it through {@link #view()}. Each holder of the
+ * frame owns one reference, the frame goes back to its pool when the last one is
+ * released.
+ * <p>
+ * A message larger than one buffer is encoded in a chain of frames, linked with
+ * {@link #chain(Frame)}. The first frame of the chain stands for the whole message: it
+ * holds the size and the references, and releasing it recycles every frame of the chain.
+ */
+public final class Frame {
+    private final ByteBuffer buffer;
+    private final FramePool pool; // null when the frame is not pooled
+    private final AtomicInteger refCount = new AtomicInteger();
+    private Frame next; // next segment of the message, or null
+    private int size;
+
+    Frame(ByteBuffer buffer, FramePool pool) {
+        this.buffer = buffer;
+        this.pool = pool;
+    }
+
+    /**
+     * The buffer to encode the frame into, in write-mode. Only valid before {@link #seal()}.
+     *
+     * @return the buffer of the frame
+     */
+    public ByteBuffer content() {
+        return buffer;
+    }
+
+    /**
+     * Appends segment to the chain of this frame, the message goes on in it. Only valid
+     * before {@link #seal()}.
+     *
+     * @param segment empty frame
+     * @return segment
+     */
+    public Frame chain(Frame segment) {
+        if (next != null) {
+            throw new IllegalStateException("frame already chained");
+        }
+        next = segment;
+        return segment;
+    }
+
+    /**
+     * @return the next frame of the chain, or null if this frame ends the message
+     */
+    public Frame next() {
+        return next;
+    }
+
+    /**
+     * Ends the encoding of the message starting with this frame, the caller owns the
+     * only reference on it.
+     *
+     * @return this frame
+     */
+    public Frame seal() {
+        size = 0;
+        for (var segment = this; segment != null; segment = segment.next) {
+            segment.buffer.flip();
+            size += segment.buffer.limit();
+        }
+        refCount.set(1);
+        return this;
+    }
+
+    /**
+     * @return the number of bytes of the message starting with this sealed frame
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * A read-mode view on the whole frame, without the next frames of the chain, with
+     * its own position and limit.
+     *
+     * @return a read-only view of the frame
+     */
+    public ByteBuffer view() {
+        return buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * Takes one more reference on the frame.
+     *
+     * @return this frame
+     */
+    public Frame retain() {
+        if (refCount.getAndIncrement() <= 0) {
+            throw new IllegalStateException("frame already released");
+        }
+        return this;
+    }
+
+    /**
+     * Gives back one reference on the frame, the frame returns to its pool when it was the last one.
+     */
+    public void release() {
+        var count = refCount.decrementAndGet();
+        if (count > 0) {
+            return;
+        }
+        if (count < 0) {
+            throw new IllegalStateException("frame released too many times");
+        }
+        var segment = this;
+        while (segment != null) {
+            var following = segment.next;
+            segment.next = null;
+            if (segment.pool != null) {
+                segment.buffer.clear();
+                segment.pool.recycle(segment);
+            }
+            segment = following;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package fr.networks.tcp_blocking.utils;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A thread-safe pool of frames backed by direct buffers of the same capacity.
+ * <p>
+ * Frames may be released on another thread than the one which acquired them, so the
+ * pool relies on a lock-free queue. At most maxPooled frames are kept, the others are
+ * left to the garbage collector.
+ */
+public final class FramePool {
+    private final int frameCapacity;
+    private final int maxPooled;
+    private final ConcurrentLinkedQueue<Frame> frames = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    public FramePool(int frameCapacity, int maxPooled) {
+        if (frameCapacity <= 0 || maxPooled < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.frameCapacity = frameCapacity;
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * @return an empty frame to encode into, its content is in write-mode
+     */
+    public Frame acquire() {
+        var frame = frames.poll();
+        if (frame == null) {
+            return new Frame(ByteBuffer.allocateDirect(frameCapacity), this);
+        }
+        pooled.decrementAndGet();
+        return frame;
+    }
+
+    void recycle(Frame frame) {
+        if (pooled.incrementAndGet() > maxPooled) {
+            pooled.decrementAndGet();
+            return;
+        }
+        frames.offer(frame);
+    }
+
+    public int frameCapacity() {
+        return frameCapacity;
+    }
+}
@@ -11,7 +11,7 @@ public class IntReader implements Reader<Integer> {
     }
 
     private State state = State.WAITING;
-    private final ByteBuffer internalBuffer = ByteBuffer.allocate(Integer.BYTES); // write-mode
+    private int bytesRead; // the bytes of the value are accumulated in value, no buffer is kept
     private int value;
 
     @Override
@@ -19,25 +19,19 @@ public class IntReader implements Reader<Integer> {
         if (state == State.DONE || state == State.ERROR) {
             throw new IllegalStateException();
         }
-        buffer.flip();
-        try {
-            if (buffer.remaining() <= internalBuffer.remaining()) {
-                internalBuffer.put(buffer);
-            } else {
-                var oldLimit = buffer.limit();
-                buffer.limit(internalBuffer.remaining());
-                internalBuffer.put(buffer);
-                buffer.limit(oldLimit);
+        if (bytesRead == 0 && buffer.remaining() >= Integer.BYTES) {
+            value = buffer.getInt();
+            bytesRead = Integer.BYTES;
+        } else {
+            while (bytesRead < Integer.BYTES && buffer.hasRemaining()) {
+                value = (value << 8) | (buffer.get() & 0xFF);
+                bytesRead++;
             }
-        } finally {
-            buffer.compact();
         }
-        if (internalBuffer.hasRemaining()) {
+        if (bytesRead < Integer.BYTES) {
             return ProcessStatus.REFILL;
         }
         state = State.DONE;
-        internalBuffer.flip();
-        value = internalBuffer.getInt();
         return ProcessStatus.DONE;
     }
 
@@ -49,9 +43,17 @@ public class IntReader implements Reader<Integer> {
         return value;
     }
 
+    /**
+     * @return true if some bytes of the value have been read but not all of them
+     */
+    public boolean inProgress() {
+        return state == State.WAITING && bytesRead != 0;
+    }
+
     @Override
     public void reset() {
         state = State.WAITING;
-        internalBuffer.clear();
+        bytesRead = 0;
+        value = 0;
     }
 }
\ No newline at end of file
@@ -0,0 +1,23 @@
+package fr.networks.tcp_blocking.utils;
+
+/**
+ * How much of a log is kept. The oldest segments of the log are deleted while it is
+ * over maxBytes, or while their last append is older than maxAgeMillis, the segment
+ * being appended to always being kept.
+ *
+ * @param segmentSize  size in bytes of the segments of the log, and of its largest record
+ * @param maxBytes     bytes over which the oldest segments are deleted
+ * @param maxAgeMillis age after which a segment is deleted
+ */
+public record LogRetention(int segmentSize, long maxBytes, long maxAgeMillis) {
+
+    public static final LogRetention DEFAULT = new LogRetention(64 * 1_024 * 1_024, 1_024L * 1_024 * 1_024,
+            7L * 24 * 3_600 * 1_000);
+
+    public LogRetention {
+        if (segmentSize <= 0 || maxBytes < segmentSize || maxAgeMillis <= 0) {
+            throw new IllegalArgumentException("invalid retention " + segmentSize + " " + maxBytes + " "
+                    + maxAgeMillis);
+        }
+    }
+}
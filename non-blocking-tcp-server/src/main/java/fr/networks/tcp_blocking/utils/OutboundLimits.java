@@ -0,0 +1,39 @@
+package fr.networks.tcp_blocking.utils;
+
+/**
+ * Bounds, in bytes, of the outbound queues of a server.
+ * <p>
+ * A connection whose queue goes over highWatermark is a slow consumer and is handled
+ * according to policy, until its queue is back under lowWatermark. Independently, the
+ * server stops reading from its clients while the bytes queued on a reactor are over
+ * fanOutHighWatermark, and resumes once they are back under fanOutLowWatermark.
+ *
+ * @param lowWatermark        bytes under which a connection is no longer a slow consumer
+ * @param highWatermark       bytes over which a connection is a slow consumer
+ * @param policy              what to do with a slow consumer
+ * @param fanOutLowWatermark  bytes queued on a reactor under which reading resumes
+ * @param fanOutHighWatermark bytes queued on a reactor over which reading is paused
+ */
+public record OutboundLimits(int lowWatermark, int highWatermark, SlowConsumerPolicy policy,
+                             long fanOutLowWatermark, long fanOutHighWatermark) {
+
+    public static final OutboundLimits DEFAULT = new OutboundLimits(64 * 1_024, 256 * 1_024,
+            SlowConsumerPolicy.DROP_OLDEST, 32 * 1_024 * 1_024, 64 * 1_024 * 1_024);
+
+    public OutboundLimits {
+        if (lowWatermark < 0 || lowWatermark > highWatermark) {
+            throw new IllegalArgumentException("invalid watermarks " + lowWatermark + " " + highWatermark);
+        }
+        if (fanOutLowWatermark < 0 || fanOutLowWatermark > fanOutHighWatermark) {
+            throw new IllegalArgumentException("invalid fan-out watermarks " + fanOutLowWatermark + " "
+                    + fanOutHighWatermark);
+        }
+        if (policy == null) {
+            throw new NullPointerException("policy");
+        }
+    }
+
+    public OutboundLimits withPolicy(SlowConsumerPolicy policy) {
+        return new OutboundLimits(lowWatermark, highWatermark, policy, fanOutLowWatermark, fanOutHighWatermark);
+    }
+}
@@ -0,0 +1,309 @@
+package fr.networks.tcp_blocking.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.Arrays;
+
+/**
+ * A queue of frames ready to be sent, flushed with gathering writes.
+ * <p>
+ * Each entry is a read-mode buffer of its own, so a partial write simply leaves the
+ * position of the first entry somewhere in the middle of the frame. Entries are kept in
+ * a ring of arrays so that a contiguous run of them can be handed as is to
+ * {@link GatheringByteChannel#write(ByteBuffer[], int, int)}, without any copy. A chain of
+ * frames takes one entry per frame, the entries of a message but the last being marked as
+ * continued, so that a message is only ever dropped as a whole.
+ * <p>
+ * A {@link FileRegion} takes one entry too, and is sent in turn straight from its files.
+ * Its bytes are not counted in {@link #remainingBytes()}, which are the bytes held in
+ * memory, and it is never dropped.
+ * <p>
+ * The queue counts the writes it issues and the messages it completely sent, the ratio of
+ * both telling how well the messages are coalesced.
+ * <p>
+ * This class is not thread-safe, it belongs to the thread of the selector.
+ */
+public final class OutboundQueue {
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int MAX_BUFFERS_PER_WRITE = 64;
+    private static final ByteBuffer NO_BYTES = ByteBuffer.allocate(0); // the buffer of the entries of the regions
+
+    private ByteBuffer[] buffers = new ByteBuffer[INITIAL_CAPACITY];
+    private Frame[] frames = new Frame[INITIAL_CAPACITY]; // frame owning the buffer at the same index, or null
+    private boolean[] continued = new boolean[INITIAL_CAPACITY]; // the message goes on in the next entry
+    private FileRegion[] regions = new FileRegion[INITIAL_CAPACITY]; // region of the entry, or null
+    private boolean headStarted; // some entries of the first message have already been sent
+    private int head;
+    private int size;
+    private long remainingBytes;
+    private long writes;
+    private long messagesSent;
+
+    /**
+     * Adds a buffer to the queue. The buffer is in read-mode and must not be modified until
+     * it has been sent.
+     *
+     * @param buffer bytes to send
+     */
+    public void add(ByteBuffer buffer) {
+        add(buffer, null, false);
+    }
+
+    /**
+     * Adds a frame, with the frames chained to it, to the queue. The queue takes the
+     * reference of the caller on the frame and releases it once the whole chain is sent.
+     *
+     * @param frame frame to send
+     */
+    public void add(Frame frame) {
+        var segment = frame;
+        while (segment.next() != null) {
+            add(segment.view(), null, true);
+            segment = segment.next();
+        }
+        add(segment.view(), frame, false);
+    }
+
+    /**
+     * Adds a region of files to the queue. The queue closes it once it is sent, or when it is
+     * cleared.
+     *
+     * @param region bytes to send
+     */
+    public void add(FileRegion region) {
+        if (region.remaining() == 0) {
+            region.close();
+            return;
+        }
+        add(NO_BYTES, null, false);
+        regions[(head + size - 1) & (buffers.length - 1)] = region;
+    }
+
+    private void add(ByteBuffer buffer, Frame frame, boolean isContinued) {
+        if (size == buffers.length) {
+            grow();
+        }
+        var tail = (head + size) & (buffers.length - 1);
+        buffers[tail] = buffer;
+        frames[tail] = frame;
+        continued[tail] = isContinued;
+        regions[tail] = null;
+        size++;
+        remainingBytes += buffer.remaining();
+    }
+
+    private void grow() {
+        var newBuffers = new ByteBuffer[buffers.length * 2];
+        var newFrames = new Frame[buffers.length * 2];
+        var newContinued = new boolean[buffers.length * 2];
+        var newRegions = new FileRegion[buffers.length * 2];
+        for (var i = 0; i < size; i++) {
+            var index = (head + i) & (buffers.length - 1);
+            newBuffers[i] = buffers[index];
+            newFrames[i] = frames[index];
+            newContinued[i] = continued[index];
+            newRegions[i] = regions[index];
+        }
+        buffers = newBuffers;
+        frames = newFrames;
+        continued = newContinued;
+        regions = newRegions;
+        head = 0;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the number of buffers and frames not yet completely sent
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of bytes not yet sent
+     */
+    public long remainingBytes() {
+        return remainingBytes;
+    }
+
+    /**
+     * @return the number of writes issued since the creation of the queue
+     */
+    public long writes() {
+        return writes;
+    }
+
+    /**
+     * @return the number of messages completely sent since the creation of the queue
+     */
+    public long messagesSent() {
+        return messagesSent;
+    }
+
+    /**
+     * Drops the oldest message which has not started to be sent. A message partially
+     * written cannot be dropped without corrupting the stream, so it is kept. A region is
+     * never dropped: it is kept like a partially written message at the head of the queue,
+     * and nothing is dropped when it is the second message.
+     *
+     * @return the number of bytes dropped, 0 if there was no message to drop
+     */
+    public int dropOldest() {
+        if (size == 0) {
+            return 0;
+        }
+        var mask = buffers.length - 1;
+        var headLength = messageLength(0);
+        if (regions[head] == null && !headStarted && buffers[head].position() == 0) {
+            var dropped = 0;
+            for (var i = 0; i < headLength; i++) {
+                dropped += removeHead();
+            }
+            return dropped;
+        }
+        if (headLength == size || regions[(head + headLength) & mask] != null) {
+            return 0;
+        }
+        // drop the second message by moving the partially written one over it
+        var droppedLength = messageLength(headLength);
+        var dropped = 0;
+        for (var i = headLength; i < headLength + droppedLength; i++) {
+            dropped += buffers[(head + i) & mask].remaining();
+        }
+        var droppedFrame = frames[(head + headLength + droppedLength - 1) & mask];
+        for (var i = headLength - 1; i >= 0; i--) {
+            var from = (head + i) & mask;
+            var to = (head + i + droppedLength) & mask;
+            buffers[to] = buffers[from];
+            frames[to] = frames[from];
+            continued[to] = continued[from];
+            regions[to] = regions[from];
+        }
+        for (var i = 0; i < droppedLength; i++) {
+            var index = (head + i) & mask;
+            buffers[index] = null;
+            frames[index] = null;
+        }
+        head = (head + droppedLength) & mask;
+        size -= droppedLength;
+        remainingBytes -= dropped;
+        if (droppedFrame != null) {
+            droppedFrame.release();
+        }
+        return dropped;
+    }
+
+    /**
+     * @param offset index, from the head, of the first entry of a message
+     * @return the number of entries of the message
+     */
+    private int messageLength(int offset) {
+        var mask = buffers.length - 1;
+        var length = 1;
+        while (continued[(head + offset + length - 1) & mask]) {
+            length++;
+        }
+        return length;
+    }
+
+    private int removeHead() {
+        var buffer = buffers[head];
+        var frame = frames[head];
+        var region = regions[head];
+        buffers[head] = null;
+        frames[head] = null;
+        regions[head] = null;
+        head = (head + 1) & (buffers.length - 1);
+        size--;
+        remainingBytes -= buffer.remaining();
+        if (frame != null) {
+            frame.release();
+        }
+        if (region != null) {
+            region.close();
+        }
+        return buffer.remaining();
+    }
+
+    /**
+     * Writes as many queued frames as the channel accepts. Gathering writes are issued
+     * until the queue is empty or the channel stops accepting all the bytes it is given,
+     * the regions being transferred in turn.
+     *
+     * @param channel channel to write to
+     * @return the number of bytes written
+     * @throws IOException if the write fails
+     */
+    public long flush(GatheringByteChannel channel) throws IOException {
+        var total = 0L;
+        while (size != 0) {
+            var region = regions[head];
+            if (region != null) {
+                total += region.transferTo(channel);
+                if (region.remaining() != 0) {
+                    return total;
+                }
+                removeHead();
+                continue;
+            }
+            // only a contiguous run of the ring, up to the next region, can be given to the channel
+            var length = Math.min(Math.min(size, buffers.length - head), MAX_BUFFERS_PER_WRITE);
+            var expected = 0L;
+            for (var i = head; i < head + length; i++) {
+                if (regions[i] != null) {
+                    length = i - head;
+                    break;
+                }
+                expected += buffers[i].remaining();
+            }
+            var written = channel.write(buffers, head, length);
+            writes++;
+            total += written;
+            remainingBytes -= written;
+            removeSent();
+            if (written < expected) {
+                return total;
+            }
+        }
+        return total;
+    }
+
+    private void removeSent() {
+        while (size != 0 && regions[head] == null && !buffers[head].hasRemaining()) {
+            headStarted = continued[head];
+            if (!headStarted) {
+                messagesSent++;
+            }
+            removeHead();
+        }
+    }
+
+    /**
+     * Drops all the queued frames, releasing the ones coming from a pool, and closes the
+     * queued regions.
+     */
+    public void clear() {
+        for (var i = 0; i < size; i++) {
+            var index = (head + i) & (buffers.length - 1);
+            var frame = frames[index];
+            if (frame != null) {
+                frame.release();
+            }
+            if (regions[index] != null) {
+                regions[index].close();
+            }
+        }
+        Arrays.fill(buffers, null);
+        Arrays.fill(frames, null);
+        Arrays.fill(regions, null);
+        Arrays.fill(continued, false);
+        headStarted = false;
+        head = 0;
+        size = 0;
+        remainingBytes = 0;
+    }
+}
@@ -0,0 +1,110 @@
+package fr.networks.tcp_blocking.utils;
+
+import java.nio.ByteBuffer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Turns pairs of big-endian ints into their sums, a whole batch at once.
+ * <p>
+ * The pairs are copied in bulk out of a long view of the source, each long holding a
+ * pair in its high and low halves, summed in arrays, then copied in bulk into an int
+ * view of the destination. The views keep the big-endian order of the buffers. The sums
+ * are computed with the incubating Vector API when the module {@code jdk.incubator.vector}
+ * is available, that is with {@code --add-modules jdk.incubator.vector}, and by a plain
+ * loop otherwise.
+ * <p>
+ * This class is not thread-safe, it holds the arrays of the batch being summed.
+ */
+public abstract class PairSummer {
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+    private static final Logger logger = Logger.getLogger(PairSummer.class.getName());
+
+    private final long[] pairs;
+    private final int[] sums;
+
+    PairSummer(int maxPairs) {
+        if (maxPairs <= 0) {
+            throw new IllegalArgumentException("maxPairs must be positive");
+        }
+        pairs = new long[maxPairs];
+        sums = new int[maxPairs];
+    }
+
+    /**
+     * @param maxPairs number of pairs summed by a call to sum, at most
+     * @return a summer using the Vector API if it is available, a scalar one otherwise
+     */
+    public static PairSummer create(int maxPairs) {
+        if (ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent()) {
+            try {
+                return (PairSummer) Class.forName(PairSummer.class.getPackageName() + ".VectorPairSummer")
+                        .getDeclaredConstructor(int.class)
+                        .newInstance(maxPairs);
+            } catch (ReflectiveOperationException | LinkageError | UnsupportedOperationException e) {
+                logger.log(Level.FINE, "Vector API not usable, summing with a scalar loop", e);
+            }
+        }
+        return scalar(maxPairs);
+    }
+
+    /**
+     * @param maxPairs number of pairs summed by a call to sum, at most
+     * @return a summer which does not use the Vector API
+     */
+    public static PairSummer scalar(int maxPairs) {
+        return new ScalarPairSummer(maxPairs);
+    }
+
+    /**
+     * Sums as many pairs of ints of src as dst has room for, up to maxPairs, and advances
+     * the positions of both buffers accordingly
+     *
+     * @param src pairs of ints, in read-mode
+     * @param dst buffer receiving the sums, in write-mode
+     * @return the number of pairs summed
+     */
+    public final int sum(ByteBuffer src, ByteBuffer dst) {
+        var count = Math.min(Math.min(src.remaining() / Long.BYTES, dst.remaining() / Integer.BYTES), pairs.length);
+        if (count == 0) {
+            return 0;
+        }
+        src.asLongBuffer().get(pairs, 0, count);
+        sum(pairs, sums, count);
+        dst.asIntBuffer().put(sums, 0, count);
+        src.position(src.position() + count * Long.BYTES);
+        dst.position(dst.position() + count * Integer.BYTES);
+        return count;
+    }
+
+    /**
+     * @param pairs pairs of ints, the first one in the high half of each long
+     * @param sums  array receiving the sums
+     * @param count number of pairs
+     */
+    abstract void sum(long[] pairs, int[] sums, int count);
+
+    /**
+     * @return true if the sums are computed with the Vector API
+     */
+    public abstract boolean isVectorized();
+
+    private static final class ScalarPairSummer extends PairSummer {
+        private ScalarPairSummer(int maxPairs) {
+            super(maxPairs);
+        }
+
+        @Override
+        void sum(long[] pairs, int[] sums, int count) {
+            for (var i = 0; i < count; i++) {
+                var pair = pairs[i];
+                sums[i] = (int) (pair >> Integer.SIZE) + (int) pair;
+            }
+        }
+
+        @Override
+        public boolean isVectorized() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package fr.networks.tcp_blocking.utils;
+
+/**
+ * What to do with a connection whose outbound queue went over its high watermark
+ */
+public enum SlowConsumerPolicy {
+    /**
+     * Drop the oldest queued frames until the queue is back to its low watermark
+     */
+    DROP_OLDEST,
+    /**
+     * Drop the new frames until the queue is back to its low watermark
+     */
+    DROP_NEWEST,
+    /**
+     * Close the connection
+     */
+    DISCONNECT,
+    /**
+     * Keep every frame, the ones over the high watermark being appended to a file on disk
+     * until the connection has caught up
+     */
+    SPILL_TO_DISK
+}
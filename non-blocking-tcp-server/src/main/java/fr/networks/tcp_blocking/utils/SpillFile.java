@@ -0,0 +1,114 @@
+package fr.networks.tcp_blocking.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * An append-only backlog of bytes kept in a temporary file instead of the heap.
+ * <p>
+ * Bytes are appended through memory-mapped segments of the file and sent back with
+ * {@link FileChannel#transferTo(long, long, WritableByteChannel)}, so they never go
+ * through a Java buffer on their way out. Once everything has been sent, the file is
+ * truncated and reused from its beginning. The file is deleted when the backlog is closed.
+ * <p>
+ * This class is not thread-safe, it belongs to the thread of the selector.
+ */
+public final class SpillFile implements Closeable {
+    private final FileChannel channel;
+    private final int segmentSize;
+    private MappedByteBuffer segment; // segment receiving the appended bytes, or null
+    private long segmentStart;
+    private long readPosition;
+    private long writePosition;
+
+    private SpillFile(FileChannel channel, int segmentSize) {
+        this.channel = channel;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Creates a backlog in a new temporary file
+     *
+     * @param directory   directory of the file
+     * @param segmentSize size of the regions of the file mapped at once
+     * @return an empty backlog
+     * @throws IOException if the file cannot be created
+     */
+    public static SpillFile create(Path directory, int segmentSize) throws IOException {
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("segmentSize must be positive");
+        }
+        var path = Files.createTempFile(directory, "spill-", ".bin");
+        return new SpillFile(FileChannel.open(path, READ, WRITE, DELETE_ON_CLOSE), segmentSize);
+    }
+
+    /**
+     * Appends the remaining bytes of src to the backlog
+     *
+     * @param src bytes to append, in read-mode
+     * @throws IOException if the file cannot be mapped
+     */
+    public void append(ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            if (segment == null || !segment.hasRemaining()) {
+                segmentStart = writePosition;
+                segment = channel.map(FileChannel.MapMode.READ_WRITE, segmentStart, segmentSize);
+            }
+            var length = Math.min(src.remaining(), segment.remaining());
+            segment.put(segment.position(), src, src.position(), length);
+            segment.position(segment.position() + length);
+            src.position(src.position() + length);
+            writePosition += length;
+        }
+    }
+
+    /**
+     * @return the number of bytes appended and not yet sent
+     */
+    public long remaining() {
+        return writePosition - readPosition;
+    }
+
+    /**
+     * Sends as many bytes of the backlog as the target accepts
+     *
+     * @param target channel to send to
+     * @return the number of bytes sent
+     * @throws IOException if the transfer fails
+     */
+    public long transferTo(WritableByteChannel target) throws IOException {
+        var sent = channel.transferTo(readPosition, remaining(), target);
+        readPosition += sent;
+        if (readPosition == writePosition) {
+            rewind();
+        }
+        return sent;
+    }
+
+    /**
+     * The transfer may hand the pages of the file to the socket instead of copying them,
+     * and they stay there until the peer acknowledges them. Writing over them would change
+     * bytes already sent, so the file is truncated to give the next appends new pages.
+     */
+    private void rewind() throws IOException {
+        readPosition = 0;
+        writePosition = 0;
+        segmentStart = 0;
+        segment = null;
+        channel.truncate(0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        segment = null;
+        channel.close();
+    }
+}
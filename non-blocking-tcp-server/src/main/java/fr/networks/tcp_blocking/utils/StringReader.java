@@ -1,33 +1,92 @@
 package fr.networks.tcp_blocking.utils;
 
 import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
+import java.util.Objects;
 
+/**
+ * Reads a string encoded in UTF-8, preceded by its size in bytes as an int.
+ * <p>
+ * A string whose bytes are all in the buffer given to {@link #process(ByteBuffer)} is
+ * decoded straight from it, or looked up in a {@link StringCache} if the reader has one.
+ * Otherwise, a string fitting in a buffer of the pool is gathered in a buffer borrowed
+ * from the pool, then decoded at once. A larger string, up to maxSize bytes, is decoded
+ * as its bytes arrive with a decoder reused from one string to the next, into a char
+ * buffer borrowed from a {@link CharBufferPool} and grown on demand, so that its bytes
+ * are never gathered.
+ */
 public class StringReader implements Reader<String> {
 
     private enum State {
         DONE, WAITING_SIZE, WAITING_CONTENT, ERROR
     }
 
+    public static final int MAX_SIZE = 1_024 - Integer.BYTES;
+    private static final int INITIAL_CHARS = 16 * 1_024;
+
     private StringReader.State state = State.WAITING_SIZE;
     private final IntReader sizeReader = new IntReader();
-    private final ByteBuffer stringBuffer = ByteBuffer.allocate(1_024 - Integer.BYTES); // write-mode
+    private final BufferPool pool;
+    private final CharBufferPool charPool;
+    private final int maxSize;
+    private final StringCache cache; // or null
+    private ByteBuffer stringBuffer; // write-mode, borrowed from the pool only while waiting for the content
+    private CharsetDecoder decoder; // created with the first large string
+    private CharBuffer chars; // write-mode, borrowed from charPool only while decoding a large string
+    private ByteBuffer carry; // write-mode, the bytes of a character split between two calls to process
+    private int remaining; // bytes of the large string not received yet
     private String value;
 
-    private void fillBuffer(ByteBuffer buffer, ByteBuffer internalBuffer) {
-        buffer.flip();
-        try {
-            if (buffer.remaining() <= internalBuffer.remaining()) {
-                internalBuffer.put(buffer);
-            } else {
-                var oldLimit = buffer.limit();
-                buffer.limit(internalBuffer.remaining());
-                internalBuffer.put(buffer);
-                buffer.limit(oldLimit);
-            }
-        } finally {
-            buffer.compact();
+    public StringReader() {
+        this(new BufferPool(MAX_SIZE, 1));
+    }
+
+    /**
+     * @param pool pool to borrow the internal buffer from, its buffers must hold at least MAX_SIZE bytes
+     */
+    public StringReader(BufferPool pool) {
+        this(pool, null, MAX_SIZE, null);
+    }
+
+    /**
+     * @param pool  pool to borrow the internal buffer from, its buffers must hold at least MAX_SIZE bytes
+     * @param cache cache of the strings read, only used by the thread of this reader
+     */
+    public StringReader(BufferPool pool, StringCache cache) {
+        this(pool, null, MAX_SIZE, Objects.requireNonNull(cache));
+    }
+
+    /**
+     * @param pool     pool to borrow the internal buffer from, its buffers must hold at least MAX_SIZE bytes
+     * @param charPool pool to borrow the characters of the strings too large for pool from, it may be null if
+     *                 maxSize is MAX_SIZE
+     * @param maxSize  size in bytes of the largest string accepted
+     */
+    public StringReader(BufferPool pool, CharBufferPool charPool, int maxSize) {
+        this(pool, charPool, maxSize, null);
+    }
+
+    private StringReader(BufferPool pool, CharBufferPool charPool, int maxSize, StringCache cache) {
+        if (pool.bufferSize() < MAX_SIZE) {
+            throw new IllegalArgumentException("buffers of the pool are too small");
+        }
+        if (maxSize < 0 || maxSize > pool.bufferSize() && charPool == null) {
+            throw new IllegalArgumentException("a char pool is needed for strings of " + maxSize + " bytes");
         }
+        this.pool = pool;
+        this.charPool = charPool;
+        this.maxSize = maxSize;
+        this.cache = cache;
+    }
+
+    private void fillBuffer(ByteBuffer buffer, ByteBuffer internalBuffer) {
+        var length = Math.min(buffer.remaining(), internalBuffer.remaining());
+        internalBuffer.put(internalBuffer.position(), buffer, buffer.position(), length);
+        internalBuffer.position(internalBuffer.position() + length);
+        buffer.position(buffer.position() + length);
     }
 
     @Override
@@ -39,30 +98,106 @@ public class StringReader implements Reader<String> {
         if (state == State.WAITING_SIZE) {
             var status = sizeReader.process(buffer);
             if (status == ProcessStatus.DONE) {
-                state = State.WAITING_CONTENT;
                 int size = sizeReader.get();
-                if (size < 0 || size > 1020) {
+                if (size < 0 || size > maxSize) {
+                    state = State.ERROR;
                     return ProcessStatus.ERROR;
                 }
-                stringBuffer.limit(size);
+                if (size <= buffer.remaining()) {
+                    // the whole string is already there, no need to gather it
+                    decodeInPlace(buffer, size);
+                    state = State.DONE;
+                    return ProcessStatus.DONE;
+                }
+                state = State.WAITING_CONTENT;
+                if (size <= pool.bufferSize()) {
+                    stringBuffer = pool.acquire();
+                    stringBuffer.limit(size);
+                } else {
+                    startDecoding(size);
+                }
             } else {
                 return status;
             }
         }
 
         if (state == State.WAITING_CONTENT) {
+            if (chars != null) {
+                return decodeContent(buffer);
+            }
             fillBuffer(buffer, stringBuffer);
             if (stringBuffer.hasRemaining()) {
                 return ProcessStatus.REFILL;
             }
             state = State.DONE;
-            stringBuffer.flip();
-            value = StandardCharsets.UTF_8.decode(stringBuffer).toString();
+            value = decode(stringBuffer, 0, stringBuffer.position());
+            releaseBuffer();
             return ProcessStatus.DONE;
         }
         throw new AssertionError();
     }
 
+    private void decodeInPlace(ByteBuffer buffer, int size) {
+        value = decode(buffer, buffer.position(), size);
+        buffer.position(buffer.position() + size);
+    }
+
+    private String decode(ByteBuffer bytes, int index, int length) {
+        return cache == null ? Utf8.decode(bytes, index, length) : cache.get(bytes, index, length);
+    }
+
+    private void startDecoding(int size) {
+        if (decoder == null) {
+            decoder = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            carry = ByteBuffer.allocate(Integer.BYTES);
+        }
+        decoder.reset();
+        remaining = size;
+        // a string never has more chars than bytes
+        chars = charPool.acquire(Math.min(size, INITIAL_CHARS));
+    }
+
+    /**
+     * Decodes the bytes of the large string available in buffer
+     */
+    private ProcessStatus decodeContent(ByteBuffer buffer) {
+        var oldLimit = buffer.limit();
+        try {
+            var available = Math.min(buffer.remaining(), remaining);
+            buffer.limit(buffer.position() + available);
+            remaining -= available;
+            var last = remaining == 0;
+            // first complete the character split by the previous call, one byte at a time
+            while (carry.position() != 0 && buffer.hasRemaining()) {
+                carry.put(buffer.get()).flip();
+                decode(carry, last && !buffer.hasRemaining());
+                carry.compact();
+            }
+            decode(buffer, last);
+            carry.put(buffer); // at most the first bytes of a character
+        } finally {
+            buffer.limit(oldLimit);
+        }
+        if (remaining != 0) {
+            return ProcessStatus.REFILL;
+        }
+        while (decoder.flush(chars).isOverflow()) {
+            chars = charPool.grow(chars);
+        }
+        state = State.DONE;
+        value = chars.flip().toString();
+        releaseBuffer();
+        return ProcessStatus.DONE;
+    }
+
+    private void decode(ByteBuffer bytes, boolean endOfInput) {
+        while (decoder.decode(bytes, chars, endOfInput).isOverflow()) {
+            chars = charPool.grow(chars);
+        }
+    }
+
     @Override
     public String get() {
         if (state != State.DONE) {
@@ -75,6 +210,18 @@ public class StringReader implements Reader<String> {
     public void reset() {
         state = State.WAITING_SIZE;
         sizeReader.reset();
-        stringBuffer.clear();
+        releaseBuffer();
+    }
+
+    private void releaseBuffer() {
+        if (stringBuffer != null) {
+            pool.release(stringBuffer);
+            stringBuffer = null;
+        }
+        if (chars != null) {
+            charPool.release(chars);
+            chars = null;
+            carry.clear();
+        }
     }
 }
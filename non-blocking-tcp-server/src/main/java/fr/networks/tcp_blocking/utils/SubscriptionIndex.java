@@ -0,0 +1,146 @@
+package fr.networks.tcp_blocking.utils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+
+/**
+ * An index from named topics to their subscribers.
+ * <p>
+ * The subscribers of a topic are kept in a dense array, so that delivering to a topic
+ * costs the number of its subscribers, whatever the number of topics or of subscribers
+ * of the other topics. Subscribing returns a {@link Subscription} handle which knows its
+ * slot in the array, so that unsubscribing is O(1) too. A topic disappears with its last
+ * subscriber.
+ * <p>
+ * This class is not thread-safe, it belongs to the thread of the selector.
+ *
+ * @param <T> type of the subscribers
+ */
+public final class SubscriptionIndex<T> {
+    private static final int INITIAL_CAPACITY = 4;
+
+    /**
+     * The membership of a subscriber to a topic
+     *
+     * @param <T> type of the subscriber
+     */
+    public static final class Subscription<T> {
+        private final Topic<T> topic;
+        private final T subscriber;
+        private int slot; // index in the subscribers of the topic, -1 once unsubscribed
+
+        private Subscription(Topic<T> topic, T subscriber) {
+            this.topic = topic;
+            this.subscriber = subscriber;
+        }
+
+        public String topic() {
+            return topic.name;
+        }
+
+        public T subscriber() {
+            return subscriber;
+        }
+
+        public boolean isActive() {
+            return slot != -1;
+        }
+    }
+
+    private static final class Topic<T> {
+        private final String name;
+        @SuppressWarnings("unchecked")
+        private Subscription<T>[] subscriptions = (Subscription<T>[]) new Subscription<?>[INITIAL_CAPACITY];
+        private int size;
+
+        private Topic(String name) {
+            this.name = name;
+        }
+    }
+
+    private final HashMap<String, Topic<T>> topics = new HashMap<>();
+
+    /**
+     * Subscribes subscriber to topic. The caller is expected to keep the subscription to
+     * unsubscribe, and not to subscribe twice to the same topic.
+     *
+     * @param topic      name of the topic
+     * @param subscriber subscriber
+     * @return the subscription
+     */
+    public Subscription<T> subscribe(String topic, T subscriber) {
+        Objects.requireNonNull(subscriber);
+        var entry = topics.computeIfAbsent(topic, Topic::new);
+        if (entry.size == entry.subscriptions.length) {
+            entry.subscriptions = Arrays.copyOf(entry.subscriptions, entry.size * 2);
+        }
+        var subscription = new Subscription<>(entry, subscriber);
+        subscription.slot = entry.size;
+        entry.subscriptions[entry.size++] = subscription;
+        return subscription;
+    }
+
+    /**
+     * Ends a subscription, does nothing if it already ended
+     *
+     * @param subscription subscription returned by subscribe
+     * @return true if the topic has no subscriber left
+     */
+    public boolean unsubscribe(Subscription<T> subscription) {
+        if (subscription.slot == -1) {
+            return false;
+        }
+        var topic = subscription.topic;
+        var last = topic.subscriptions[--topic.size];
+        topic.subscriptions[subscription.slot] = last;
+        last.slot = subscription.slot;
+        topic.subscriptions[topic.size] = null;
+        subscription.slot = -1;
+        if (topic.size == 0) {
+            topics.remove(topic.name);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param topic name of the topic
+     * @return the number of subscribers of topic
+     */
+    public int subscribers(String topic) {
+        var entry = topics.get(topic);
+        return entry == null ? 0 : entry.size;
+    }
+
+    /**
+     * @return the number of topics with at least one subscriber
+     */
+    public int topics() {
+        return topics.size();
+    }
+
+    /**
+     * Calls action on every subscriber of topic, with argument. The action may end any
+     * subscription of the subscriber it is given. A non-capturing action avoids any
+     * allocation.
+     *
+     * @param topic    name of the topic
+     * @param action   action taking a subscriber and argument
+     * @param argument argument given to every call
+     * @param <A>      type of the argument
+     */
+    public <A> void forEachSubscriber(String topic, BiConsumer<? super T, ? super A> action, A argument) {
+        var entry = topics.get(topic);
+        if (entry == null) {
+            return;
+        }
+        // from the end, so that unsubscribing the current subscriber does not skip any other
+        for (var i = entry.size - 1; i >= 0; i--) {
+            if (i < entry.size) {
+                action.accept(entry.subscriptions[i].subscriber, argument);
+            }
+        }
+    }
+}
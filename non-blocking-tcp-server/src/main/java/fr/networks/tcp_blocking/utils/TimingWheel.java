@@ -0,0 +1,190 @@
+package fr.networks.tcp_blocking.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * A hashed timing wheel, driven from a select loop.
+ * <p>
+ * Time is cut in ticks of tickMillis. A timer due at tick t is linked in the bucket
+ * t % wheelSize, so arming, re-arming and cancelling a timer are O(1) whatever the
+ * number of timers, and expiring only visits the buckets of the elapsed ticks. Timers
+ * due more than one turn of the wheel ahead simply stay in their bucket until their tick
+ * comes.
+ * <p>
+ * The select loop asks {@link #timeoutMillis()} for its select timeout, then calls
+ * {@link #expire()} after each select.
+ * <p>
+ * This class is not thread-safe, it belongs to the thread of the selector.
+ */
+public final class TimingWheel {
+
+    /**
+     * A timer which can be armed again and again without allocation
+     */
+    public static final class Timer {
+        private final Runnable action;
+        private long deadlineTick;
+        private Timer previous;
+        private Timer next;
+        private Timer nextExpired;
+        private boolean armed;
+
+        /**
+         * @param action action run on the thread of the wheel when the timer expires
+         */
+        public Timer(Runnable action) {
+            this.action = action;
+        }
+
+        public boolean isArmed() {
+            return armed;
+        }
+    }
+
+    private final Timer[] buckets;
+    private final int mask;
+    private final long tickNanos;
+    private final LongSupplier nanoClock;
+    private final long origin;
+    private long currentTick; // first tick not expired yet
+    private int size;
+
+    public TimingWheel(long tickMillis, int wheelSize) {
+        this(tickMillis, wheelSize, System::nanoTime);
+    }
+
+    /**
+     * @param tickMillis duration of a tick
+     * @param wheelSize  number of buckets, a power of two
+     * @param nanoClock  source of the time, in nanoseconds
+     */
+    public TimingWheel(long tickMillis, int wheelSize, LongSupplier nanoClock) {
+        if (tickMillis <= 0 || wheelSize <= 0 || Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException("invalid wheel " + tickMillis + " " + wheelSize);
+        }
+        this.buckets = new Timer[wheelSize];
+        this.mask = wheelSize - 1;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.nanoClock = nanoClock;
+        this.origin = nanoClock.getAsLong();
+    }
+
+    private long tickOf(long nanos) {
+        return (nanos - origin) / tickNanos;
+    }
+
+    /**
+     * Arms timer to expire in delayMillis, or re-arms it if it was already armed
+     *
+     * @param timer       timer to arm
+     * @param delayMillis delay before expiration
+     */
+    public void schedule(Timer timer, long delayMillis) {
+        if (timer.armed) {
+            unlink(timer);
+        }
+        var deadline = nanoClock.getAsLong() - origin + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        // round up so that a timer never expires before its delay
+        timer.deadlineTick = Math.max(currentTick, (deadline + tickNanos - 1) / tickNanos);
+        link(timer);
+    }
+
+    /**
+     * Disarms timer, does nothing if it is not armed
+     *
+     * @param timer timer to disarm
+     */
+    public void cancel(Timer timer) {
+        if (timer.armed) {
+            unlink(timer);
+        }
+    }
+
+    private void link(Timer timer) {
+        var index = (int) (timer.deadlineTick & mask);
+        var head = buckets[index];
+        timer.previous = null;
+        timer.next = head;
+        if (head != null) {
+            head.previous = timer;
+        }
+        buckets[index] = timer;
+        timer.armed = true;
+        size++;
+    }
+
+    private void unlink(Timer timer) {
+        if (timer.previous != null) {
+            timer.previous.next = timer.next;
+        } else {
+            buckets[(int) (timer.deadlineTick & mask)] = timer.next;
+        }
+        if (timer.next != null) {
+            timer.next.previous = timer.previous;
+        }
+        timer.previous = null;
+        timer.next = null;
+        timer.armed = false;
+        size--;
+    }
+
+    /**
+     * @return the number of armed timers
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The timeout to give to select so that it returns when the next bucket holding timers
+     * is due.
+     *
+     * @return a timeout in milliseconds, 0 meaning that select can block indefinitely
+     */
+    public long timeoutMillis() {
+        if (size == 0) {
+            return 0;
+        }
+        var tick = currentTick;
+        while (buckets[(int) (tick & mask)] == null) {
+            tick++;
+        }
+        var delay = origin + tick * tickNanos - nanoClock.getAsLong();
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(delay + TimeUnit.MILLISECONDS.toNanos(1) - 1));
+    }
+
+    /**
+     * Runs the actions of all the timers whose deadline has passed. An action may arm or
+     * cancel any timer, including its own.
+     */
+    public void expire() {
+        var nowTick = tickOf(nanoClock.getAsLong());
+        if (nowTick < currentTick || size == 0) {
+            currentTick = Math.max(currentTick, nowTick);
+            return;
+        }
+        // unlink every due timer first, so that the actions can freely modify the wheel
+        Timer expired = null;
+        var lastTick = Math.min(nowTick, currentTick + mask);
+        for (var tick = currentTick; tick <= lastTick; tick++) {
+            var timer = buckets[(int) (tick & mask)];
+            while (timer != null) {
+                var next = timer.next;
+                if (timer.deadlineTick <= nowTick) {
+                    unlink(timer);
+                    timer.nextExpired = expired;
+                    expired = timer;
+                }
+                timer = next;
+            }
+        }
+        currentTick = nowTick + 1;
+        while (expired != null) {
+            var timer = expired;
+            expired = timer.nextExpired;
+            timer.nextExpired = null;
+            timer.action.run();
+        }
+    }
+}
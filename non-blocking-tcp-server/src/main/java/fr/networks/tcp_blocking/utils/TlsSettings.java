@@ -0,0 +1,124 @@
+package fr.networks.tcp_blocking.utils;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Objects;
+
+/**
+ * How a server encrypts its connections with TLS.
+ * <p>
+ * The sessions are kept so that a client reconnecting resumes its session rather than
+ * running a full handshake. With TLS 1.3, and TLS 1.2 when the client supports them, the
+ * server hands out session tickets holding the session encrypted, and keeps nothing. The
+ * other TLS 1.2 clients resume from the session cache of the server, which keeps up to
+ * sessionCacheSize sessions. Either way, a session is resumed for sessionTimeoutSeconds
+ * at most.
+ *
+ * @param context               context holding the key and the certificate of the server
+ * @param sessionCacheSize      sessions kept by the server, 0 for no limit
+ * @param sessionTimeoutSeconds lifetime of a session, and of its tickets
+ */
+public record TlsSettings(SSLContext context, int sessionCacheSize, int sessionTimeoutSeconds) {
+
+    public static final int DEFAULT_SESSION_CACHE_SIZE = 20_480;
+    public static final int DEFAULT_SESSION_TIMEOUT_SECONDS = 24 * 3_600;
+    private static final String KEY_STORE_TYPE = "PKCS12";
+    private static final String SELF_SIGNED_ALIAS = "server";
+
+    public TlsSettings {
+        Objects.requireNonNull(context);
+        if (sessionCacheSize < 0 || sessionTimeoutSeconds <= 0) {
+            throw new IllegalArgumentException("invalid session cache " + sessionCacheSize + " "
+                    + sessionTimeoutSeconds);
+        }
+    }
+
+    /**
+     * @return settings with the key and the certificate of the PKCS12 keyStore, keeping
+     * the sessions as by default
+     */
+    public static TlsSettings load(Path keyStore, char[] password) throws IOException, GeneralSecurityException {
+        var keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(loadKeyStore(keyStore, password), password);
+        var context = SSLContext.getInstance("TLS");
+        context.init(keyManagers.getKeyManagers(), null, null);
+        return new TlsSettings(context, DEFAULT_SESSION_CACHE_SIZE, DEFAULT_SESSION_TIMEOUT_SECONDS);
+    }
+
+    /**
+     * Keeps the sessions of context as configured, to be called once before the first
+     * engine is created
+     */
+    public void configureSessions() {
+        var sessions = context.getServerSessionContext();
+        sessions.setSessionCacheSize(sessionCacheSize);
+        sessions.setSessionTimeout(sessionTimeoutSeconds);
+    }
+
+    /**
+     * @return a new engine for a connection accepted by the server
+     */
+    public SSLEngine newServerEngine() {
+        var engine = context.createSSLEngine();
+        engine.setUseClientMode(false);
+        return engine;
+    }
+
+    /**
+     * @return a context for the clients, trusting the certificates of the PKCS12 trustStore.
+     * The clients sharing it resume their sessions.
+     */
+    public static SSLContext clientContext(Path trustStore, char[] password) throws IOException,
+            GeneralSecurityException {
+        var trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(loadKeyStore(trustStore, password));
+        var context = SSLContext.getInstance("TLS");
+        context.init(null, trustManagers.getTrustManagers(), null);
+        return context;
+    }
+
+    private static KeyStore loadKeyStore(Path path, char[] password) throws IOException, GeneralSecurityException {
+        var keyStore = KeyStore.getInstance(KEY_STORE_TYPE);
+        try (var in = Files.newInputStream(path)) {
+            keyStore.load(in, password);
+        }
+        return keyStore;
+    }
+
+    /**
+     * Creates a PKCS12 key store holding an EC key and a certificate signed by itself for
+     * localhost and 127.0.0.1, with the keytool of the running JDK, so that TLS can be
+     * tried locally. The same store serves as the trust store of the clients.
+     *
+     * @param keyStore path of the key store, which must not exist
+     * @param password password of the key store and of its key
+     * @throws IOException if keytool cannot be run or fails
+     */
+    public static void generateSelfSigned(Path keyStore, char[] password) throws IOException {
+        var keytool = Path.of(System.getProperty("java.home"), "bin", "keytool");
+        var process = new ProcessBuilder(keytool.toString(), "-genkeypair", "-alias", SELF_SIGNED_ALIAS,
+                "-keyalg", "EC", "-groupname", "secp256r1", "-validity", "365", "-dname", "CN=localhost",
+                "-ext", "SAN=dns:localhost,ip:127.0.0.1", "-storetype", KEY_STORE_TYPE,
+                "-keystore", keyStore.toString(), "-storepass", new String(password), "-keypass", new String(password))
+                .redirectErrorStream(true)
+                .start();
+        var output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        try {
+            if (process.waitFor() != 0) {
+                throw new IOException("keytool failed: " + output.strip());
+            }
+        } catch (InterruptedException e) {
+            process.destroy();
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while running keytool", e);
+        }
+    }
+}
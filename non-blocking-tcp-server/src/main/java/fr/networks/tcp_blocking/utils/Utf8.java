@@ -0,0 +1,134 @@
+package fr.networks.tcp_blocking.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Helpers on the UTF-8 encoding of strings, without going through a CharBuffer.
+ */
+public final class Utf8 {
+    private Utf8() {
+        throw new AssertionError();
+    }
+
+    /**
+     * @param chars characters to encode
+     * @return the number of bytes of chars encoded in UTF-8, an unpaired surrogate
+     * counting as the one byte of its replacement
+     */
+    public static int encodedLength(CharSequence chars) {
+        var length = 0;
+        for (var i = 0; i < chars.length(); i++) {
+            var c = chars.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < chars.length()
+                        && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                    length += 4;
+                    i++;
+                } else {
+                    length++; // replaced by '?'
+                }
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Decodes length bytes of buffer starting at index, without changing its position nor
+     * its limit. The bytes of a heap buffer are decoded where they are, the ones of a
+     * direct buffer are first copied at once.
+     *
+     * @param buffer buffer holding the bytes
+     * @param index  index of the first byte
+     * @param length number of bytes
+     * @return the decoded string, malformed input being replaced
+     */
+    public static String decode(ByteBuffer buffer, int index, int length) {
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + index, length, StandardCharsets.UTF_8);
+        }
+        var bytes = new byte[length];
+        buffer.get(index, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Checks incrementally that bytes are well-formed UTF-8: no overlong encoding, no
+     * surrogate, nothing over U+10FFFF and no truncated sequence.
+     */
+    public static final class Validator {
+        private static final long ASCII_MASK = 0x8080808080808080L;
+
+        private int needed; // continuation bytes expected
+        private int lower = 0x80; // bounds of the next continuation byte
+        private int upper = 0xBF;
+        private boolean valid = true;
+
+        /**
+         * Checks length bytes of buffer starting at index, without changing its position nor
+         * its limit
+         *
+         * @return false if the bytes checked so far are not well-formed
+         */
+        public boolean update(ByteBuffer buffer, int index, int length) {
+            var end = index + length;
+            for (var i = index; i < end && valid; i++) {
+                if (needed == 0) {
+                    // skip ASCII eight bytes at a time
+                    while (i + Long.BYTES <= end && (buffer.getLong(i) & ASCII_MASK) == 0) {
+                        i += Long.BYTES;
+                    }
+                    if (i == end) {
+                        break;
+                    }
+                }
+                var b = buffer.get(i) & 0xFF;
+                if (needed == 0) {
+                    if (b < 0x80) {
+                        continue;
+                    }
+                    if (b >= 0xC2 && b <= 0xDF) {
+                        needed = 1;
+                    } else if (b >= 0xE0 && b <= 0xEF) {
+                        lower = b == 0xE0 ? 0xA0 : 0x80;
+                        upper = b == 0xED ? 0x9F : 0xBF;
+                        needed = 2;
+                    } else if (b >= 0xF0 && b <= 0xF4) {
+                        lower = b == 0xF0 ? 0x90 : 0x80;
+                        upper = b == 0xF4 ? 0x8F : 0xBF;
+                        needed = 3;
+                    } else {
+                        valid = false;
+                    }
+                } else if (b < lower || b > upper) {
+                    valid = false;
+                } else {
+                    lower = 0x80;
+                    upper = 0xBF;
+                    needed--;
+                }
+            }
+            return valid;
+        }
+
+        /**
+         * @return true if all the bytes checked since the last reset are well-formed and end a character
+         */
+        public boolean isComplete() {
+            return valid && needed == 0;
+        }
+
+        public void reset() {
+            needed = 0;
+            lower = 0x80;
+            upper = 0xBF;
+            valid = true;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package fr.networks.tcp_blocking.utils;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * A {@link PairSummer} computing the sums with the Vector API. It is only loaded, by
+ * {@link PairSummer#create(int)}, when the module jdk.incubator.vector is available.
+ */
+final class VectorPairSummer extends PairSummer {
+    private static final VectorSpecies<Long> LONGS = LongVector.SPECIES_PREFERRED;
+    // as many int lanes as LONGS has long lanes
+    private static final VectorSpecies<Integer> INTS = LONGS.length() < 2 ? null
+            : IntVector.SPECIES_PREFERRED.withShape(VectorShape.forBitSize(LONGS.vectorBitSize() / 2));
+
+    VectorPairSummer(int maxPairs) {
+        super(maxPairs);
+        if (INTS == null) {
+            throw new UnsupportedOperationException("no vector of at least two longs");
+        }
+    }
+
+    @Override
+    void sum(long[] pairs, int[] sums, int count) {
+        var i = 0;
+        for (var bound = LONGS.loopBound(count); i < bound; i += LONGS.length()) {
+            var pair = LongVector.fromArray(LONGS, pairs, i);
+            // adding the low half to the high one leaves the sum of the ints, overflow included, in the high half
+            var sum = pair.add(pair.lanewise(VectorOperators.LSHL, Integer.SIZE)).lanewise(VectorOperators.LSHR, Integer.SIZE);
+            ((IntVector) sum.castShape(INTS, 0)).intoArray(sums, i);
+        }
+        for (; i < count; i++) {
+            var pair = pairs[i];
+            sums[i] = (int) (pair >> Integer.SIZE) + (int) pair;
+        }
+    }
+
+    @Override
+    public boolean isVectorized() {
+        return true;
+    }
+}
@@ -0,0 +1,41 @@
+package fr.networks.tcp_blocking.utils;
+
+/**
+ * How the frames queued to a connection are batched before being written.
+ * <p>
+ * While coalescing, a frame queued to an empty outbound queue does not trigger a write:
+ * the frames queued after it join the batch, which is written in one go once it holds
+ * maxBytes, or once flushDelayMillis have elapsed since its first frame. A longer delay
+ * makes fewer and larger writes, at the cost of the latency of the first frames of each
+ * batch.
+ *
+ * @param maxBytes         bytes of a batch written without waiting for its deadline, 0 for no batching
+ * @param flushDelayMillis delay after which a batch is written whatever its size
+ */
+public record WriteCoalescing(int maxBytes, long flushDelayMillis) {
+
+    public static final WriteCoalescing DISABLED = new WriteCoalescing(0, 0);
+
+    /**
+     * Bytes of a batch written without waiting for its deadline, by default
+     */
+    public static final int DEFAULT_MAX_BYTES = 16 * 1_024;
+
+    public WriteCoalescing {
+        if (maxBytes < 0 || flushDelayMillis < 0) {
+            throw new IllegalArgumentException("invalid coalescing " + maxBytes + " " + flushDelayMillis);
+        }
+    }
+
+    /**
+     * @param flushDelayMillis delay after which a batch is written whatever its size
+     * @return batches of at most {@link #DEFAULT_MAX_BYTES} written after flushDelayMillis
+     */
+    public static WriteCoalescing of(long flushDelayMillis) {
+        return new WriteCoalescing(DEFAULT_MAX_BYTES, flushDelayMillis);
+    }
+
+    public boolean enabled() {
+        return maxBytes > 0;
+    }
+}
@@ -0,0 +1,135 @@
+package fr.networks.tcp_blocking;
+
+import fr.networks.tcp_blocking.utils.BufferPool;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BufferPoolTest {
+
+    @Test
+    public void buffersAreClearedDirectAndOfTheRightSize() {
+        var pool = new BufferPool(64, 4);
+        var buffer = pool.acquire();
+        assertTrue(buffer.isDirect());
+        assertEquals(0, buffer.position());
+        assertEquals(64, buffer.limit());
+        assertEquals(64, buffer.capacity());
+        assertEquals(64, pool.bufferSize());
+    }
+
+    @Test
+    public void releasedBuffersAreReusedCleared() {
+        var pool = new BufferPool(64, 1);
+        var buffer = pool.acquire();
+        buffer.putInt(42).flip();
+        pool.release(buffer);
+        var reused = pool.acquire();
+        assertSame(buffer, reused);
+        assertEquals(0, reused.position());
+        assertEquals(64, reused.limit());
+    }
+
+    @Test
+    public void buffersOfASlabDoNotOverlap() {
+        var pool = new BufferPool(16, 4);
+        var buffers = new ArrayList<ByteBuffer>();
+        for (var i = 0; i < 4; i++) {
+            var buffer = pool.acquire();
+            while (buffer.hasRemaining()) {
+                buffer.put((byte) i);
+            }
+            buffers.add(buffer.flip());
+        }
+        for (var i = 0; i < 4; i++) {
+            var buffer = buffers.get(i);
+            while (buffer.hasRemaining()) {
+                assertEquals((byte) i, buffer.get());
+            }
+        }
+    }
+
+    @Test
+    public void anExhaustedPoolAllocatesANewSlab() {
+        var pool = new BufferPool(16, 2);
+        var acquired = Collections.newSetFromMap(new IdentityHashMap<ByteBuffer, Boolean>());
+        for (var i = 0; i < 5; i++) {
+            assertTrue(acquired.add(pool.acquire()));
+        }
+        var stats = pool.stats();
+        // three slabs of two buffers, one of them still in the pool
+        assertEquals(6, stats.capacity());
+        assertEquals(1, stats.available());
+        assertEquals(5, stats.inUse());
+    }
+
+    @Test
+    public void statsCountAcquisitionsAndHits() {
+        var pool = new BufferPool(16, 4);
+        var empty = pool.stats();
+        assertEquals(0, empty.acquisitions());
+        assertEquals(1.0, empty.hitRate());
+        assertEquals(0, empty.inUse());
+
+        var first = pool.acquire();
+        // the first acquisition allocates the slab, the next three are served by it
+        var others = new ArrayList<ByteBuffer>();
+        for (var i = 0; i < 3; i++) {
+            others.add(pool.acquire());
+        }
+        var full = pool.stats();
+        assertEquals(16, full.bufferSize());
+        assertEquals(4, full.capacity());
+        assertEquals(0, full.available());
+        assertEquals(4, full.inUse());
+        assertEquals(4, full.acquisitions());
+        assertEquals(3, full.hits());
+        assertEquals(0.75, full.hitRate());
+
+        pool.release(first);
+        others.forEach(pool::release);
+        var released = pool.stats();
+        assertEquals(4, released.available());
+        assertEquals(0, released.inUse());
+
+        pool.acquire();
+        var reused = pool.stats();
+        assertEquals(5, reused.acquisitions());
+        assertEquals(4, reused.hits());
+        assertEquals(0.8, reused.hitRate());
+        assertEquals(4, reused.capacity());
+    }
+
+    @Test
+    public void buffersCanBeReleasedOnOtherThreads() throws InterruptedException {
+        var pool = new BufferPool(16, 8);
+        var threads = new Thread[4];
+        for (var i = 0; i < threads.length; i++) {
+            threads[i] = Thread.ofPlatform().start(() -> {
+                for (var j = 0; j < 10_000; j++) {
+                    pool.release(pool.acquire());
+                }
+            });
+        }
+        for (var thread : threads) {
+            thread.join();
+        }
+        var stats = pool.stats();
+        assertEquals(0, stats.inUse());
+        assertEquals(40_000, stats.acquisitions());
+        assertEquals(stats.capacity(), stats.available());
+        // at most one slab per thread missing at the same time
+        assertTrue(stats.capacity() <= 8 * threads.length);
+    }
+
+    @Test
+    public void invalidSizesAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new BufferPool(0, 4));
+        assertThrows(IllegalArgumentException.class, () -> new BufferPool(16, 0));
+    }
+}
@@ -0,0 +1,154 @@
+package fr.networks.tcp_blocking;
+
+import fr.networks.tcp_blocking.exo5.Message;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A blocking chat client for the tests of the servers, whose reads give up after a timeout
+ */
+final class ChatTestClient implements AutoCloseable {
+    private static final int TIMEOUT_MILLIS = 5_000;
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final String login;
+
+    private ChatTestClient(Socket socket, String login) throws IOException {
+        this.socket = socket;
+        this.in = new DataInputStream(socket.getInputStream());
+        this.login = login;
+    }
+
+    /**
+     * @param receiveBufferSize receive buffer of the socket, 0 for the default one
+     */
+    static ChatTestClient connect(int port, String login, int receiveBufferSize) throws IOException {
+        var socket = new Socket();
+        if (receiveBufferSize != 0) {
+            // before connecting, so that the window of the connection is small from the start
+            socket.setReceiveBufferSize(receiveBufferSize);
+        }
+        socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        socket.setSoTimeout(TIMEOUT_MILLIS);
+        return new ChatTestClient(socket, login);
+    }
+
+    static ChatTestClient connect(int port, String login) throws IOException {
+        return connect(port, login, 0);
+    }
+
+    /**
+     * Connects one client per login, and returns once every client receives the messages
+     * of the room it is in. Each client sends a message in turn and waits for it, the
+     * clients connected before it receiving it too, and then all those messages are read.
+     */
+    static List<ChatTestClient> connectAll(int port, String... logins) throws IOException {
+        var clients = new ArrayList<ChatTestClient>();
+        for (var login : logins) {
+            var client = connect(port, login);
+            clients.add(client);
+            client.roundTrip();
+        }
+        for (var i = 0; i < clients.size(); i++) {
+            for (var j = i + 1; j < clients.size(); j++) {
+                clients.get(i).receive();
+            }
+        }
+        return clients;
+    }
+
+    String login() {
+        return login;
+    }
+
+    void send(String text) throws IOException {
+        send(new Message(login, text));
+    }
+
+    void send(Message message) throws IOException {
+        write(message.encode().flip());
+    }
+
+    /**
+     * @param bb bytes to send, in read-mode
+     */
+    void write(ByteBuffer bb) throws IOException {
+        var bytes = new byte[bb.remaining()];
+        bb.get(bytes);
+        socket.getOutputStream().write(bytes);
+        socket.getOutputStream().flush();
+    }
+
+    /**
+     * @return number of bytes received and not read yet
+     */
+    int available() throws IOException {
+        return in.available();
+    }
+
+    int readInt() throws IOException {
+        return in.readInt();
+    }
+
+    void skip(int count) throws IOException {
+        in.skipNBytes(count);
+    }
+
+    byte[] readBytes(int count) throws IOException {
+        return in.readNBytes(count);
+    }
+
+    Message receive() throws IOException {
+        var login = new byte[in.readInt()];
+        in.readFully(login);
+        var text = new byte[in.readInt()];
+        in.readFully(text);
+        return new Message(new String(login, StandardCharsets.UTF_8), new String(text, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Sends a message and waits for its broadcast, skipping the messages of the others
+     */
+    void roundTrip() throws IOException {
+        var message = new Message(login, "ready " + login);
+        send(message);
+        while (!receive().equals(message)) {
+            // a message of another client
+        }
+    }
+
+    /**
+     * @return true if the server closed the connection, once the bytes it sent before are read
+     */
+    boolean isClosedByServer() throws IOException {
+        try {
+            while (in.read() != -1) {
+                // bytes sent before the close
+            }
+            return true;
+        } catch (EOFException e) {
+            return true;
+        } catch (SocketTimeoutException e) {
+            return false;
+        } catch (IOException e) {
+            // reset by the server
+            return true;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
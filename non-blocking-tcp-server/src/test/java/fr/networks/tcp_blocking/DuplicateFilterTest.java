@@ -0,0 +1,41 @@
+package fr.networks.tcp_blocking;
+
+import fr.networks.tcp_blocking.utils.DuplicateFilter;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DuplicateFilterTest {
+
+    @Test
+    public void messagesAreOnlySeenOnce() {
+        var filter = new DuplicateFilter();
+        assertTrue(filter.firstSeen(1, 0));
+        assertTrue(filter.firstSeen(1, 1));
+        assertTrue(filter.firstSeen(2, 0));
+        assertFalse(filter.firstSeen(1, 0));
+        assertFalse(filter.firstSeen(1, 1));
+        assertFalse(filter.firstSeen(2, 0));
+    }
+
+    @Test
+    public void outOfOrderMessagesAreSeen() {
+        var filter = new DuplicateFilter();
+        assertTrue(filter.firstSeen(1, 10));
+        assertTrue(filter.firstSeen(1, 7));
+        assertFalse(filter.firstSeen(1, 7));
+        // skipping numbers forgets the bits left from the previous turn of the window
+        assertTrue(filter.firstSeen(1, 10 + 4_096 + 7));
+        assertTrue(filter.firstSeen(1, 4_096 + 8));
+        assertFalse(filter.firstSeen(1, 4_096 + 8));
+    }
+
+    @Test
+    public void messagesOlderThanTheWindowAreDropped() {
+        var filter = new DuplicateFilter();
+        assertTrue(filter.firstSeen(1, 100_000));
+        assertFalse(filter.firstSeen(1, 100_000 - 4_096));
+        assertTrue(filter.firstSeen(1, 100_000 - 4_095));
+        assertFalse(filter.firstSeen(1, -1));
+    }
+}
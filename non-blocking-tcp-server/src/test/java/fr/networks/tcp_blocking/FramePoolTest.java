@@ -0,0 +1,132 @@
+package fr.networks.tcp_blocking;
+
+import fr.networks.tcp_blocking.utils.FramePool;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FramePoolTest {
+
+    @Test
+    public void sealSizesTheWholeChain() {
+        var pool = new FramePool(16, 4);
+        var frame = pool.acquire();
+        frame.content().putInt(1).putInt(2);
+        frame.chain(pool.acquire()).content().putInt(3);
+        frame.seal();
+        assertEquals(3 * Integer.BYTES, frame.size());
+        assertEquals(2 * Integer.BYTES, frame.view().remaining());
+        assertEquals(Integer.BYTES, frame.next().view().remaining());
+        frame.release();
+    }
+
+    @Test
+    public void viewsHaveTheirOwnPosition() {
+        var pool = new FramePool(16, 4);
+        var frame = pool.acquire();
+        frame.content().putInt(42);
+        frame.seal();
+        var first = frame.view();
+        assertEquals(42, first.getInt());
+        var second = frame.view();
+        assertEquals(Integer.BYTES, second.remaining());
+        assertEquals(42, second.getInt());
+        frame.release();
+    }
+
+    @Test
+    public void onlyTheLastReleaseRecyclesTheFrame() {
+        var pool = new FramePool(16, 4);
+        var frame = pool.acquire();
+        frame.content().putInt(42);
+        frame.seal().retain();
+        frame.release();
+        // still held by one reference, so not in the pool
+        var other = pool.acquire();
+        assertNotSame(frame, other);
+        frame.release();
+        var recycled = pool.acquire();
+        assertSame(frame, recycled);
+        // cleared for the next message
+        assertEquals(0, recycled.content().position());
+        assertEquals(16, recycled.content().limit());
+        assertNull(recycled.next());
+    }
+
+    @Test
+    public void releasingAChainRecyclesEverySegmentInItsOwnPool() {
+        var small = new FramePool(16, 4);
+        var large = new FramePool(64, 4);
+        var frame = small.acquire();
+        var segment = frame.chain(large.acquire());
+        frame.content().putInt(1);
+        segment.content().putInt(2);
+        frame.seal();
+        frame.release();
+        assertSame(frame, small.acquire());
+        assertSame(segment, large.acquire());
+        assertEquals(64, segment.content().capacity());
+    }
+
+    @Test
+    public void keepsAtMostMaxPooledFrames() {
+        var pool = new FramePool(16, 1);
+        var first = pool.acquire();
+        var second = pool.acquire();
+        first.seal().release();
+        second.seal().release();
+        assertSame(first, pool.acquire());
+        var fresh = pool.acquire();
+        assertNotSame(first, fresh);
+        assertNotSame(second, fresh);
+    }
+
+    @Test
+    public void releaseAfterTheLastReferenceFails() {
+        var pool = new FramePool(16, 4);
+        var frame = pool.acquire();
+        frame.seal().release();
+        assertThrows(IllegalStateException.class, frame::release);
+    }
+
+    @Test
+    public void retainAfterTheLastReferenceFails() {
+        var pool = new FramePool(16, 4);
+        var frame = pool.acquire();
+        frame.seal().release();
+        assertThrows(IllegalStateException.class, frame::retain);
+    }
+
+    @Test
+    public void releaseOfAnUnsealedFrameFails() {
+        var pool = new FramePool(16, 4);
+        var frame = pool.acquire();
+        assertThrows(IllegalStateException.class, frame::release);
+    }
+
+    @Test
+    public void aFrameCannotBeChainedTwice() {
+        var pool = new FramePool(16, 4);
+        var frame = pool.acquire();
+        frame.chain(pool.acquire());
+        assertThrows(IllegalStateException.class, () -> frame.chain(pool.acquire()));
+    }
+
+    @Test
+    public void framesReleasedOnOtherThreadsAreRecycled() throws InterruptedException {
+        var pool = new FramePool(16, 1_000);
+        var frame = pool.acquire();
+        frame.seal();
+        var threads = new Thread[8];
+        for (var i = 0; i < threads.length; i++) {
+            frame.retain();
+            threads[i] = Thread.ofPlatform().start(frame::release);
+        }
+        for (var thread : threads) {
+            thread.join();
+        }
+        assertNotSame(frame, pool.acquire());
+        frame.release();
+        assertSame(frame, pool.acquire());
+    }
+}
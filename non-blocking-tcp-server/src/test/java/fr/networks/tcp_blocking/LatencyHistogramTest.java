@@ -0,0 +1,49 @@
+package fr.networks.tcp_blocking;
+
+import fr.networks.tcp_blocking.bench.LatencyHistogram;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void smallValuesAreExact() {
+        var histogram = new LatencyHistogram();
+        for (var i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        assertEquals(100, histogram.count());
+        assertEquals(50, histogram.valueAt(50));
+        assertEquals(99, histogram.valueAt(99));
+        assertEquals(100, histogram.valueAt(100));
+        assertEquals(100, histogram.max());
+    }
+
+    @Test
+    public void largeValuesAreWithinTwoPercents() {
+        var histogram = new LatencyHistogram();
+        for (var i = 1; i <= 1_000; i++) {
+            histogram.record(i * 1_000_000L);
+        }
+        assertEquals(500_000_000L, histogram.valueAt(50), 500_000_000L * 0.02);
+        assertEquals(999_000_000L, histogram.valueAt(99.9), 999_000_000L * 0.02);
+        assertEquals(1_000_000_000L, histogram.valueAt(100));
+    }
+
+    @Test
+    public void mergeAddsTheCounts() {
+        var low = new LatencyHistogram();
+        var high = new LatencyHistogram();
+        for (var i = 0; i < 90; i++) {
+            low.record(10);
+        }
+        for (var i = 0; i < 10; i++) {
+            high.record(Long.MAX_VALUE);
+        }
+        low.merge(high);
+        assertEquals(100, low.count());
+        assertEquals(10, low.valueAt(90));
+        assertEquals(Long.MAX_VALUE, low.valueAt(91));
+    }
+}
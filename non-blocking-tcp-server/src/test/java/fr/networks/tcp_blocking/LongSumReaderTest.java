@@ -0,0 +1,98 @@
+package fr.networks.tcp_blocking;
+
+import fr.networks.tcp_blocking.exo3.LongSumReader;
+import fr.networks.tcp_blocking.utils.Reader;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LongSumReaderTest {
+
+    private static ByteBuffer operation(long... operands) {
+        var bb = ByteBuffer.allocate(Integer.BYTES + operands.length * Long.BYTES);
+        bb.putInt(operands.length);
+        for (var operand : operands) {
+            bb.putLong(operand);
+        }
+        return bb.flip();
+    }
+
+    @Test
+    public void simple() {
+        var bb = ByteBuffer.allocate(1024).put(operation(1, 2, Long.MAX_VALUE)).flip();
+        var reader = new LongSumReader();
+        assertEquals(Reader.ProcessStatus.DONE, reader.process(bb));
+        assertEquals(3 + Long.MAX_VALUE, reader.get());
+        assertFalse(bb.hasRemaining());
+    }
+
+    @Test
+    public void byteByByte() {
+        var stream = operation(-5, 1L << 40, 7, 0x0102030405060708L);
+        var bb = ByteBuffer.allocate(1024);
+        var reader = new LongSumReader();
+        while (stream.remaining() > 1) {
+            bb.put(stream.get()).flip();
+            assertEquals(Reader.ProcessStatus.REFILL, reader.process(bb));
+            assertTrue(reader.inProgress());
+            // no byte is kept in the buffer
+            assertFalse(bb.hasRemaining());
+            bb.compact();
+        }
+        bb.put(stream.get()).flip();
+        assertEquals(Reader.ProcessStatus.DONE, reader.process(bb));
+        assertEquals(-5 + (1L << 40) + 7 + 0x0102030405060708L, reader.get());
+    }
+
+    @Test
+    public void stopsAtTheEndOfTheOperation() {
+        var bb = ByteBuffer.allocate(1024).put(operation(1, 2)).put(operation()).put(operation(3)).flip();
+        var reader = new LongSumReader();
+        assertEquals(Reader.ProcessStatus.DONE, reader.process(bb));
+        assertEquals(3L, reader.get());
+        reader.reset();
+        assertEquals(Reader.ProcessStatus.DONE, reader.process(bb));
+        assertEquals(0L, reader.get());
+        reader.reset();
+        assertEquals(Reader.ProcessStatus.DONE, reader.process(bb));
+        assertEquals(3L, reader.get());
+        reader.reset();
+        assertFalse(reader.inProgress());
+        assertEquals(Reader.ProcessStatus.REFILL, reader.process(bb));
+    }
+
+    @Test
+    public void negativeCountSumsToZero() {
+        var bb = ByteBuffer.allocate(1024).putInt(-3).flip();
+        var reader = new LongSumReader();
+        assertEquals(Reader.ProcessStatus.DONE, reader.process(bb));
+        assertEquals(0L, reader.get());
+    }
+
+    @Test
+    public void manyOperandsInSmallBuffer() {
+        var reader = new LongSumReader();
+        var bb = ByteBuffer.allocate(13);
+        var stream = ByteBuffer.allocate(Integer.BYTES + 100_000 * Long.BYTES).putInt(100_000);
+        var expected = 0L;
+        for (var i = 0; i < 100_000; i++) {
+            stream.putLong(i * 31L);
+            expected += i * 31L;
+        }
+        stream.flip();
+        var status = Reader.ProcessStatus.REFILL;
+        while (status == Reader.ProcessStatus.REFILL) {
+            var length = Math.min(bb.remaining(), stream.remaining());
+            bb.put(bb.position(), stream, stream.position(), length);
+            bb.position(bb.position() + length);
+            stream.position(stream.position() + length);
+            status = reader.process(bb.flip());
+            bb.compact();
+        }
+        assertEquals(Reader.ProcessStatus.DONE, status);
+        assertEquals(expected, reader.get());
+        assertFalse(stream.hasRemaining());
+    }
+}
@@ -0,0 +1,177 @@
+package fr.networks.tcp_blocking;
+
+import fr.networks.tcp_blocking.exo5.Compression;
+import fr.networks.tcp_blocking.exo5.Federation;
+import fr.networks.tcp_blocking.exo5.ForwardReader;
+import fr.networks.tcp_blocking.exo5.Message;
+import fr.networks.tcp_blocking.exo5.MessageEncoder;
+import fr.networks.tcp_blocking.exo5.MessageReader;
+import fr.networks.tcp_blocking.utils.BufferPool;
+import fr.networks.tcp_blocking.utils.CharBufferPool;
+import fr.networks.tcp_blocking.utils.Frame;
+import fr.networks.tcp_blocking.utils.FramePool;
+import fr.networks.tcp_blocking.utils.Reader;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.zip.Inflater;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessageEncoderTest {
+
+    private static ByteBuffer gather(Frame frame) {
+        var bb = ByteBuffer.allocate(frame.size());
+        for (var segment = frame; segment != null; segment = segment.next()) {
+            bb.put(segment.view());
+        }
+        frame.release();
+        return bb;
+    }
+
+    private static MessageReader inflatingReader() {
+        var reader = new MessageReader(new BufferPool(1024, 4), new CharBufferPool(1 << 20, 1), 1 << 20, null);
+        reader.acceptCompressed(new Inflater(), new FramePool(100, 4));
+        return reader;
+    }
+
+    /**
+     * @return a text of random letters, compressed to more than a buffer of the pool of the reader
+     */
+    private static String randomText(int length) {
+        var random = new Random(0);
+        var builder = new StringBuilder();
+        for (var i = 0; i < length; i++) {
+            builder.append((char) ('a' + random.nextInt(16)));
+        }
+        return builder.toString();
+    }
+
+    private static Message roundTrip(MessageEncoder encoder, Message msg) {
+        var bb = gather(encoder.encode(msg)).flip();
+        var reader = new MessageReader(new BufferPool(1024, 4), new CharBufferPool(1 << 20, 1), 1 << 20);
+        assertEquals(Reader.ProcessStatus.DONE, reader.process(bb));
+        assertFalse(bb.hasRemaining());
+        return reader.get();
+    }
+
+    @Test
+    public void smallMessageFitsInOneFrame() {
+        var encoder = new MessageEncoder(new FramePool(2048, 4), new FramePool(16, 4));
+        var msg = new Message("bob", "hello €");
+        var frame = encoder.encode(msg);
+        assertNull(frame.next());
+        assertEquals(2 * Integer.BYTES + 3 + 9, frame.size());
+        frame.release();
+        assertEquals(msg, roundTrip(encoder, msg));
+    }
+
+    @Test
+    public void largeMessageIsChained() {
+        // 7 bytes per frame, so that sizes and characters straddle frames
+        var encoder = new MessageEncoder(new FramePool(64, 4), new FramePool(7, 64));
+        var msg = new Message("béb", "😀a€".repeat(20_000) + "\uD800!");
+        var frame = encoder.encode(msg);
+        assertNotNull(frame.next());
+        frame.release();
+        assertEquals(new Message(msg.login(), msg.msg().replace('\uD800', '?')), roundTrip(encoder, msg));
+    }
+
+    @Test
+    public void compressedMessageIsInflated() {
+        var encoder = new MessageEncoder(new FramePool(64, 4), new FramePool(7, 64));
+        var msg = new Message("béb", "😀a€".repeat(20_000));
+        var compressed = gather(encoder.compress(msg)).flip();
+        assertEquals(Compression.COMPRESSED, compressed.getInt(0));
+        assertTrue(compressed.remaining() < 1_000);
+        // a plain message follows in the same buffer
+        var bb = ByteBuffer.allocate(1024).put(compressed).put(gather(encoder.encode(new Message("bob", "hi"))).flip())
+                .flip();
+        var reader = inflatingReader();
+        assertEquals(Reader.ProcessStatus.DONE, reader.process(bb));
+        assertEquals(msg, reader.get());
+        reader.reset();
+        assertEquals(Reader.ProcessStatus.DONE, reader.process(bb));
+        assertEquals(new Message("bob", "hi"), reader.get());
+        assertFalse(bb.hasRemaining());
+    }
+
+    @Test
+    public void incompressibleMessageIsNotCompressed() {
+        var encoder = new MessageEncoder(new FramePool(64, 4), new FramePool(7, 64));
+        // shorter than its header, then longer once deflated
+        assertNull(encoder.compress(new Message("bob", "hi")));
+        assertNull(encoder.compress(new Message("bob", "0123456789abcdef")));
+        // the encoder is still usable
+        var msg = new Message("bob", "ab".repeat(1_000));
+        var reader = inflatingReader();
+        assertEquals(Reader.ProcessStatus.DONE, reader.process(gather(encoder.compress(msg)).flip()));
+        assertEquals(msg, reader.get());
+    }
+
+    @Test
+    public void largeCompressedTextIsGatheredInFrames() {
+        var encoder = new MessageEncoder(new FramePool(64, 4), new FramePool(2048, 64));
+        var msg = new Message("bob", randomText(20_000) + "€");
+        var compressed = gather(encoder.compress(msg)).flip();
+        assertTrue(compressed.remaining() > 4 * 1024);
+        var reader = inflatingReader();
+        // fed in small parts, so that the frames are filled across calls
+        var status = Reader.ProcessStatus.REFILL;
+        while (compressed.hasRemaining()) {
+            var part = compressed.slice(compressed.position(), Math.min(333, compressed.remaining()));
+            compressed.position(compressed.position() + part.remaining());
+            status = reader.process(part);
+            assertFalse(part.hasRemaining());
+        }
+        assertEquals(Reader.ProcessStatus.DONE, status);
+        assertEquals(msg, reader.get());
+        reader.reset();
+    }
+
+    @Test
+    public void compressedFrameIsRejectedUntilAccepted() {
+        var encoder = new MessageEncoder(new FramePool(64, 4), new FramePool(2048, 4));
+        var bb = gather(encoder.compress(new Message("bob", "ab".repeat(1_000)))).flip();
+        var reader = new MessageReader(new BufferPool(1024, 4), new CharBufferPool(1 << 20, 1), 1 << 20, null);
+        assertEquals(Reader.ProcessStatus.ERROR, reader.process(bb));
+    }
+
+    @Test
+    public void compressedSizeLargerThanTextIsRejected() {
+        var bb = ByteBuffer.allocate(64);
+        bb.putInt(Compression.COMPRESSED).putInt(3).put((byte) 'b').put((byte) 'o').put((byte) 'b');
+        bb.putInt(10).putInt(11).flip();
+        assertEquals(Reader.ProcessStatus.ERROR, inflatingReader().process(bb));
+    }
+
+    @Test
+    public void corruptedCompressedTextIsRejected() {
+        var encoder = new MessageEncoder(new FramePool(64, 4), new FramePool(2048, 4));
+        var bb = gather(encoder.compress(new Message("bob", "ab".repeat(1_000)))).flip();
+        bb.put(bb.limit() - 5, (byte) (bb.get(bb.limit() - 5) ^ 0x55));
+        assertEquals(Reader.ProcessStatus.ERROR, inflatingReader().process(bb));
+    }
+
+    @Test
+    public void forwardedMessageIsUnwrapped() {
+        // 7 bytes per frame, so that the header and the message straddle frames
+        var encoder = new MessageEncoder(new FramePool(64, 4), new FramePool(7, 64));
+        var msg = new Message("béb", "hello €".repeat(10));
+        var message = encoder.encode(msg);
+        var forward = gather(encoder.forward(3, 1L << 40, "lobby", message)).flip();
+        assertEquals(Federation.FORWARD, forward.getInt(0));
+        var bb = ByteBuffer.allocate(1024).put(forward).flip();
+        var reader = new ForwardReader(new FramePool(2048, 4), new FramePool(16, 64), 1 << 20);
+        assertEquals(Reader.ProcessStatus.DONE, reader.process(bb));
+        assertFalse(bb.hasRemaining());
+        assertEquals(3, reader.origin());
+        assertEquals(1L << 40, reader.sequence());
+        assertEquals("lobby", reader.room());
+        assertEquals(gather(message).flip(), gather(reader.get()).flip());
+        // an incomplete header waits for more bytes
+        reader.reset();
+        assertEquals(Reader.ProcessStatus.REFILL, reader.process(ByteBuffer.allocate(16).putInt(Federation.FORWARD).flip()));
+    }
+}
@@ -0,0 +1,125 @@
+package fr.networks.tcp_blocking;
+
+import fr.networks.tcp_blocking.exo5.Message;
+import fr.networks.tcp_blocking.exo5.MessageEncoder;
+import fr.networks.tcp_blocking.exo5.MessageLog;
+import fr.networks.tcp_blocking.exo5.MessageReader;
+import fr.networks.tcp_blocking.utils.FramePool;
+import fr.networks.tcp_blocking.utils.LogRetention;
+import fr.networks.tcp_blocking.utils.Reader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessageLogTest {
+    private static final LogRetention SMALL_SEGMENTS = new LogRetention(256, 1 << 20, 60_000);
+
+    @TempDir
+    Path directory;
+
+    private final MessageEncoder encoder = new MessageEncoder(new FramePool(64, 4), new FramePool(64, 4));
+
+    private void append(MessageLog log, int from, int to) throws IOException {
+        for (var i = from; i < to; i++) {
+            var frame = encoder.encode(new Message("bob", "message " + i));
+            assertEquals(i, log.append(frame));
+            frame.release();
+        }
+    }
+
+    private static List<String> texts(MessageLog.Replay replay) throws IOException {
+        var out = new ByteArrayOutputStream();
+        try (replay) {
+            var target = Channels.newChannel(out);
+            while (replay.remaining() != 0) {
+                replay.transferTo(target);
+            }
+        }
+        var bb = ByteBuffer.wrap(out.toByteArray());
+        var reader = new MessageReader();
+        var texts = new ArrayList<String>();
+        while (bb.hasRemaining()) {
+            assertEquals(Reader.ProcessStatus.DONE, reader.process(bb));
+            texts.add(reader.get().msg());
+            reader.reset();
+        }
+        return texts;
+    }
+
+    private static List<String> expected(int from, int to) {
+        var texts = new ArrayList<String>();
+        for (var i = from; i < to; i++) {
+            texts.add("message " + i);
+        }
+        return texts;
+    }
+
+    @Test
+    public void replaysAcrossSegments() throws IOException {
+        try (var log = MessageLog.open(directory, SMALL_SEGMENTS)) {
+            append(log, 0, 200);
+            assertTrue(Files.list(directory).count() > 1);
+            assertEquals(expected(0, 200), texts(log.replay(0)));
+            assertEquals(expected(137, 200), texts(log.replay(137)));
+            assertEquals(expected(190, 200), texts(log.replayLast(10)));
+            assertEquals(200, log.replayLast(10).endSequence());
+            assertEquals(List.of(), texts(log.replay(200)));
+        }
+    }
+
+    @Test
+    public void reopenedLogGoesOn() throws IOException {
+        try (var log = MessageLog.open(directory, SMALL_SEGMENTS)) {
+            append(log, 0, 50);
+        }
+        try (var log = MessageLog.open(directory, SMALL_SEGMENTS)) {
+            assertEquals(50, log.nextSequence());
+            append(log, 50, 100);
+            assertEquals(expected(40, 100), texts(log.replay(40)));
+        }
+    }
+
+    @Test
+    public void unsealedSegmentIsRecovered() throws IOException {
+        var log = MessageLog.open(directory, SMALL_SEGMENTS);
+        append(log, 0, 3);
+        // as after a crash, the last segment keeps its unused mapped bytes
+        try (var reopened = MessageLog.open(directory, SMALL_SEGMENTS)) {
+            assertEquals(3, reopened.nextSequence());
+            assertEquals(expected(0, 3), texts(reopened.replay(0)));
+        }
+        log.close();
+    }
+
+    @Test
+    public void retentionDeletesTheOldestSegments() throws IOException {
+        try (var log = MessageLog.open(directory, new LogRetention(256, 1_024, 60_000))) {
+            append(log, 0, 500);
+            assertTrue(log.firstSequence() > 0);
+            try (var files = Files.list(directory)) {
+                assertTrue(files.count() <= 1_024 / 256 + 1);
+            }
+            assertEquals(expected((int) log.firstSequence(), 500), texts(log.replay(0)));
+        }
+    }
+
+    @Test
+    public void replayOutlivesTheRetention() throws IOException {
+        try (var log = MessageLog.open(directory, new LogRetention(256, 1_024, 60_000))) {
+            append(log, 0, 20);
+            var replay = log.replay(0);
+            append(log, 20, 500);
+            assertEquals(expected(0, 20), texts(replay));
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package fr.networks.tcp_blocking;
+
+import fr.networks.tcp_blocking.exo5.Message;
+import fr.networks.tcp_blocking.exo5.MessageWireReader;
+import fr.networks.tcp_blocking.exo5.MessageWireWriter;
+import fr.networks.tcp_blocking.utils.Reader;
+import fr.networks.tcp_blocking.utils.StringReader;
+import org.junit.jupiter.api.Test;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessageWireTest {
+
+    private static ByteBuffer encodedByCharset(Message msg) {
+        var login = StandardCharsets.UTF_8.encode(msg.login());
+        var text = StandardCharsets.UTF_8.encode(msg.msg());
+        var bb = ByteBuffer.allocate(2 * Integer.BYTES + login.remaining() + text.remaining());
+        return bb.putInt(login.remaining()).put(login).putInt(text.remaining()).put(text).flip();
+    }
+
+    @Test
+    public void writerEncodesAsTheCharset() {
+        for (var msg : new Message[] {
+                new Message("bob", "hello"),
+                new Message("béb", "😀a€".repeat(100)),
+                new Message("", ""),
+                new Message("bob", "lone \uD800 and \uDC00 surrogates\uD83D")}) {
+            var bb = MessageWireWriter.encodeInto(msg, ByteBuffer.allocate(MessageWireWriter.encodedSize(msg)));
+            assertFalse(bb.hasRemaining());
+            assertEquals(encodedByCharset(msg), bb.flip());
+        }
+    }
+
+    @Test
+    public void writerWritesNothingWhenShort() {
+        var msg = new Message("bob", "hello €");
+        var bb = ByteBuffer.allocate(MessageWireWriter.encodedSize(msg) - 1).putInt(42);
+        assertThrows(BufferOverflowException.class, () -> MessageWireWriter.encodeInto(msg, bb));
+        assertEquals(Integer.BYTES, bb.position());
+    }
+
+    @Test
+    public void componentsAreReadInPlace() {
+        var msg = new Message("béb", "hello €");
+        var bb = msg.encode().flip();
+        var reader = new MessageWireReader();
+        assertEquals(Reader.ProcessStatus.DONE, reader.process(bb));
+        assertFalse(bb.hasRemaining());
+        var login = "béb".getBytes(StandardCharsets.UTF_8);
+        assertEquals(login.length, reader.loginLength());
+        assertArrayEquals(login, Arrays.copyOfRange(reader.bytes(), reader.loginOffset(),
+                reader.loginOffset() + reader.loginLength()));
+        assertEquals("hello €", reader.msg());
+        assertEquals(msg, reader.get());
+        assertSame(reader.get(), reader.get());
+    }
+
+    @Test
+    public void messagesSplitAnywhere() {
+        var first = new Message("bob", "😀a€".repeat(2_000));
+        var second = new Message("alice", "hi");
+        var stream = ByteBuffer.allocate(MessageWireWriter.encodedSize(first) + MessageWireWriter.encodedSize(second));
+        MessageWireWriter.encodeInto(second, MessageWireWriter.encodeInto(first, stream)).flip();
+        var reader = new MessageWireReader();
+        var bb = ByteBuffer.allocate(3);
+        var messages = new Message[2];
+        var read = 0;
+        while (stream.hasRemaining()) {
+            bb.put(stream.get()).flip();
+            var status = reader.process(bb);
+            bb.compact();
+            assertNotEquals(Reader.ProcessStatus.ERROR, status);
+            if (status == Reader.ProcessStatus.DONE) {
+                messages[read++] = reader.get();
+                reader.reset();
+            }
+        }
+        assertArrayEquals(new Message[] {first, second}, messages);
+    }
+
+    @Test
+    public void accessorsNeedACompleteMessage() {
+        var reader = new MessageWireReader();
+        assertEquals(Reader.ProcessStatus.REFILL, reader.process(ByteBuffer.allocate(16).putInt(3).flip()));
+        assertThrows(IllegalStateException.class, reader::get);
+        assertThrows(IllegalStateException.class, reader::loginLength);
+    }
+
+    @Test
+    public void sizesOutOfBoundsAreRejected() {
+        var reader = new MessageWireReader();
+        assertEquals(Reader.ProcessStatus.ERROR, reader.process(ByteBuffer.allocate(16).putInt(-1).flip()));
+        assertThrows(IllegalStateException.class, () -> reader.process(ByteBuffer.allocate(16)));
+        reader.reset();
+        var tooLong = ByteBuffer.allocate(16).putInt(StringReader.MAX_SIZE + 1).flip();
+        assertEquals(Reader.ProcessStatus.ERROR, reader.process(tooLong));
+    }
+}
@@ -0,0 +1,222 @@
+package fr.networks.tcp_blocking;
+
+import fr.networks.tcp_blocking.utils.FileRegion;
+import fr.networks.tcp_blocking.utils.FramePool;
+import fr.networks.tcp_blocking.utils.OutboundQueue;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OutboundQueueTest {
+
+    /**
+     * A channel accepting at most limit bytes per write
+     */
+    private static class SlowChannel implements GatheringByteChannel {
+        private final ByteBuffer received = ByteBuffer.allocate(1024);
+        private final int limit;
+        private int writes;
+
+        private SlowChannel(int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            writes++;
+            var written = 0;
+            for (var i = offset; i < offset + length; i++) {
+                while (srcs[i].hasRemaining() && written < limit) {
+                    received.put(srcs[i].get());
+                    written++;
+                }
+            }
+            return written;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            return (int) write(new ByteBuffer[] { src }, 0, 1);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void partialWrites() throws Exception {
+        var queue = new OutboundQueue();
+        for (var i = 0; i < 20; i++) {
+            queue.add(ByteBuffer.allocate(Integer.BYTES).putInt(i).flip());
+        }
+        var channel = new SlowChannel(7);
+        assertEquals(7, queue.flush(channel));
+        assertEquals(19, queue.size());
+        while (!queue.isEmpty()) {
+            queue.flush(channel);
+        }
+        channel.received.flip();
+        for (var i = 0; i < 20; i++) {
+            assertEquals(i, channel.received.getInt());
+        }
+    }
+
+    @Test
+    public void onlyOneWriteWhenEverythingFits() throws Exception {
+        var queue = new OutboundQueue();
+        for (var i = 0; i < 10; i++) {
+            queue.add(ByteBuffer.allocate(Integer.BYTES).putInt(i).flip());
+        }
+        var channel = new SlowChannel(1024);
+        assertEquals(40, queue.flush(channel));
+        assertEquals(1, channel.writes);
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void framesAreReleasedOnceSent() throws Exception {
+        var pool = new FramePool(16, 1);
+        var frame = pool.acquire();
+        frame.content().putInt(42);
+        frame.seal();
+        var queue = new OutboundQueue();
+        queue.add(frame.retain());
+        queue.add(frame.retain());
+        frame.release();
+        queue.flush(new SlowChannel(1024));
+        assertTrue(queue.isEmpty());
+        assertSame(frame, pool.acquire());
+    }
+
+    @Test
+    public void dropOldestKeepsThePartiallySentFrame() throws Exception {
+        var queue = new OutboundQueue();
+        for (var i = 0; i < 3; i++) {
+            queue.add(ByteBuffer.allocate(Integer.BYTES).putInt(i).flip());
+        }
+        var channel = new SlowChannel(2);
+        queue.flush(channel);
+        assertEquals(10, queue.remainingBytes());
+        assertEquals(4, queue.dropOldest());
+        assertEquals(6, queue.remainingBytes());
+        channel = new SlowChannel(1024);
+        queue.flush(channel);
+        channel.received.flip();
+        assertEquals(0, channel.received.getShort()); // end of the first frame
+        assertEquals(2, channel.received.getInt());
+        assertEquals(0, queue.dropOldest());
+    }
+
+    @Test
+    public void chainedFramesAreDroppedAsAWhole() throws Exception {
+        var pool = new FramePool(4, 8);
+        var queue = new OutboundQueue();
+        for (var i = 0; i < 3; i++) {
+            var frame = pool.acquire();
+            frame.content().putInt(i);
+            frame.chain(pool.acquire()).content().putInt(i);
+            queue.add(frame.seal());
+        }
+        assertEquals(6, queue.size());
+        // the first frame of the first message is sent, the second one is untouched
+        queue.flush(new SlowChannel(4));
+        assertEquals(20, queue.remainingBytes());
+        assertEquals(8, queue.dropOldest());
+        assertEquals(12, queue.remainingBytes());
+        var channel = new SlowChannel(1024);
+        queue.flush(channel);
+        channel.received.flip();
+        assertEquals(0, channel.received.getInt()); // end of the first message
+        assertEquals(2, channel.received.getInt());
+        assertEquals(2, channel.received.getInt());
+        assertEquals(0, queue.dropOldest());
+    }
+
+    @Test
+    public void countsWritesAndMessagesSent() throws Exception {
+        var pool = new FramePool(4, 8);
+        var queue = new OutboundQueue();
+        for (var i = 0; i < 3; i++) {
+            var frame = pool.acquire();
+            frame.content().putInt(i);
+            frame.chain(pool.acquire()).content().putInt(i);
+            queue.add(frame.seal());
+        }
+        // the first message is sent, the second one only partially
+        queue.flush(new SlowChannel(12));
+        assertEquals(1, queue.writes());
+        assertEquals(1, queue.messagesSent());
+        queue.flush(new SlowChannel(1024));
+        assertEquals(2, queue.writes());
+        assertEquals(3, queue.messagesSent());
+    }
+
+    /**
+     * A region of the bytes of a buffer
+     */
+    private static class BufferRegion implements FileRegion {
+        private final ByteBuffer bytes;
+        private boolean closed;
+
+        private BufferRegion(ByteBuffer bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public long remaining() {
+            return bytes.remaining();
+        }
+
+        @Override
+        public long transferTo(WritableByteChannel target) throws java.io.IOException {
+            return target.write(bytes);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    @Test
+    public void regionsAreSentInOrder() throws Exception {
+        var queue = new OutboundQueue();
+        queue.add(ByteBuffer.allocate(Integer.BYTES).putInt(1).flip());
+        var region = new BufferRegion(ByteBuffer.allocate(2 * Integer.BYTES).putInt(2).putInt(3).flip());
+        queue.add(region);
+        queue.add(ByteBuffer.allocate(Integer.BYTES).putInt(4).flip());
+        assertEquals(8, queue.remainingBytes());
+        // the region is never dropped
+        assertEquals(4, queue.dropOldest());
+        assertEquals(4, queue.dropOldest());
+        assertEquals(0, queue.dropOldest());
+        queue.add(ByteBuffer.allocate(Integer.BYTES).putInt(4).flip());
+        queue.add(ByteBuffer.allocate(Integer.BYTES).putInt(5).flip());
+        var channel = new SlowChannel(6);
+        queue.flush(channel);
+        assertFalse(region.closed);
+        while (!queue.isEmpty()) {
+            queue.flush(channel);
+        }
+        assertTrue(region.closed);
+        channel.received.flip();
+        for (var i = 2; i <= 5; i++) {
+            assertEquals(i, channel.received.getInt());
+        }
+    }
+}
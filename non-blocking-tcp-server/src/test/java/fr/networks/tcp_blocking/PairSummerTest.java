@@ -0,0 +1,59 @@
+package fr.networks.tcp_blocking;
+
+import fr.networks.tcp_blocking.utils.PairSummer;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PairSummerTest {
+
+    private static void checkSums(PairSummer summer) {
+        var random = new Random(0);
+        var src = ByteBuffer.allocateDirect(1024);
+        for (var i = 0; i < 100; i++) {
+            src.putInt(random.nextInt()).putInt(i == 0 ? Integer.MAX_VALUE : random.nextInt());
+        }
+        src.put((byte) 1).flip(); // an incomplete pair
+        var expected = src.duplicate();
+        var dst = ByteBuffer.allocateDirect(1024);
+        assertEquals(100, summer.sum(src, dst));
+        assertEquals(1, src.remaining());
+        assertEquals(400, dst.position());
+        dst.flip();
+        for (var i = 0; i < 100; i++) {
+            assertEquals(expected.getInt() + expected.getInt(), dst.getInt());
+        }
+    }
+
+    @Test
+    public void scalar() {
+        checkSums(PairSummer.scalar(128));
+    }
+
+    @Test
+    public void bestAvailable() {
+        // the tests run with the Vector API
+        var summer = PairSummer.create(128);
+        assertTrue(summer.isVectorized());
+        checkSums(summer);
+    }
+
+    @Test
+    public void boundedByTheRoomInDst() {
+        var src = ByteBuffer.allocate(80);
+        for (var i = 0; i < 10; i++) {
+            src.putInt(i).putInt(i);
+        }
+        src.flip();
+        var dst = ByteBuffer.allocate(14);
+        assertEquals(3, PairSummer.create(128).sum(src, dst));
+        assertEquals(56, src.remaining());
+        dst.flip();
+        assertEquals(0, dst.getInt());
+        assertEquals(2, dst.getInt());
+        assertEquals(4, dst.getInt());
+    }
+}
@@ -0,0 +1,129 @@
+package fr.networks.tcp_blocking;
+
+import fr.networks.tcp_blocking.reactor.Connection;
+import fr.networks.tcp_blocking.reactor.ListenMode;
+import fr.networks.tcp_blocking.reactor.Reactor;
+import fr.networks.tcp_blocking.reactor.ReactorGroup;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class ReactorGroupTest {
+
+    /**
+     * A client which is only counted
+     */
+    private static final class Idle extends Connection {
+        private Idle(Reactor reactor, SelectionKey key) {
+            super(reactor, key);
+        }
+
+        @Override
+        protected void opened() {
+            setInterestOps(SelectionKey.OP_READ);
+        }
+
+        @Override
+        protected void doRead() throws IOException {
+            if (sc.read(ByteBuffer.allocate(16)) == -1) {
+                silentlyClose();
+            }
+        }
+
+        @Override
+        protected void doWrite() {
+            throw new AssertionError();
+        }
+    }
+
+    private static boolean reusePortSupported() throws IOException {
+        try (var channel = ServerSocketChannel.open()) {
+            return channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (var channel = ServerSocketChannel.open()) {
+            channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            return channel.socket().getLocalPort();
+        }
+    }
+
+    private static int[] connectAll(ReactorGroup group, int port, int nbClients) throws Exception {
+        var thread = Thread.ofPlatform().start(() -> {
+            try {
+                group.launch();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        var clients = new ArrayList<SocketChannel>();
+        try {
+            for (var i = 0; i < nbClients; i++) {
+                clients.add(SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), port)));
+            }
+            var deadline = System.nanoTime() + 5_000_000_000L;
+            int[] counts;
+            do {
+                Thread.sleep(10);
+                counts = group.connectionCounts();
+            } while (Arrays.stream(counts).sum() != nbClients && System.nanoTime() < deadline);
+            return counts;
+        } finally {
+            for (var client : clients) {
+                client.close();
+            }
+            thread.interrupt();
+            thread.join();
+        }
+    }
+
+    @Test
+    public void sharedHandsOutRoundRobin() throws Exception {
+        var port = freePort();
+        var group = new ReactorGroup(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 4,
+                ListenMode.SHARED, Idle::new);
+        assertArrayEquals(new int[] { 10, 10, 10, 10 }, connectAll(group, port, 40));
+    }
+
+    @Test
+    public void reusePortSpreadsTheConnections() throws Exception {
+        assumeTrue(reusePortSupported());
+        var port = freePort();
+        var group = new ReactorGroup(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 4,
+                ListenMode.REUSE_PORT, Idle::new);
+        var counts = connectAll(group, port, 200);
+        assertEquals(200, Arrays.stream(counts).sum());
+        // the kernel hashes the connections, the only guarantee is that they are spread
+        assertTrue(Arrays.stream(counts).filter(count -> count > 0).count() > 1, Arrays.toString(counts));
+    }
+
+    @Test
+    public void bindsSeveralChannelsOnThePort() throws Exception {
+        assumeTrue(reusePortSupported());
+        var port = freePort();
+        var channels = ReactorGroup.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 3);
+        try {
+            for (var channel : channels) {
+                assertEquals(port, channel.socket().getLocalPort());
+            }
+        } finally {
+            for (var channel : channels) {
+                channel.close();
+            }
+        }
+    }
+}
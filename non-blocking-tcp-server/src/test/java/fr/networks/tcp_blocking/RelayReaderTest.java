@@ -0,0 +1,98 @@
+package fr.networks.tcp_blocking;
+
+import fr.networks.tcp_blocking.exo5.Message;
+import fr.networks.tcp_blocking.exo5.MessageReader;
+import fr.networks.tcp_blocking.exo5.RelayReader;
+import fr.networks.tcp_blocking.utils.BufferPool;
+import fr.networks.tcp_blocking.utils.CharBufferPool;
+import fr.networks.tcp_blocking.utils.Frame;
+import fr.networks.tcp_blocking.utils.FramePool;
+import fr.networks.tcp_blocking.utils.Reader;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RelayReaderTest {
+
+    private static RelayReader newReader(boolean validateUtf8) {
+        return new RelayReader(new FramePool(2048, 4), new FramePool(16, 64), 1 << 20, validateUtf8);
+    }
+
+    private static ByteBuffer bytesOf(Frame frame) {
+        var bb = ByteBuffer.allocate(frame.size());
+        for (var segment = frame; segment != null; segment = segment.next()) {
+            bb.put(segment.view());
+        }
+        return bb.flip();
+    }
+
+    @Test
+    public void bytesAreRelayedAsReceived() {
+        var encoded = new Message("bob", "hello €").encode().flip();
+        var bb = ByteBuffer.allocate(1024).put(encoded.duplicate()).flip();
+        var reader = newReader(true);
+        assertEquals(Reader.ProcessStatus.DONE, reader.process(bb));
+        assertNull(reader.command());
+        var frame = reader.get();
+        assertEquals(encoded, bytesOf(frame));
+        frame.release();
+        assertFalse(bb.hasRemaining());
+    }
+
+    @Test
+    public void loginSuffixAndLargeText() {
+        var text = "😀a€".repeat(1_000);
+        var encoded = new Message("bob", text).encode().flip();
+        var reader = newReader(true);
+        reader.loginSuffix("@room".getBytes(StandardCharsets.US_ASCII));
+        // 7 bytes at a time
+        var bb = ByteBuffer.allocate(7);
+        var status = Reader.ProcessStatus.REFILL;
+        while (encoded.hasRemaining()) {
+            while (encoded.hasRemaining() && bb.hasRemaining()) {
+                bb.put(encoded.get());
+            }
+            status = reader.process(bb.flip());
+            bb.compact();
+        }
+        assertEquals(Reader.ProcessStatus.DONE, status);
+        var frame = reader.get();
+        assertNotNull(frame.next());
+        var messageReader = new MessageReader(new BufferPool(1024, 4), new CharBufferPool(1 << 16, 1), 1 << 16);
+        var relayed = bytesOf(frame);
+        frame.release();
+        assertEquals(Reader.ProcessStatus.DONE, messageReader.process(relayed));
+        assertEquals(new Message("bob@room", text), messageReader.get());
+    }
+
+    @Test
+    public void commandsAreDecoded() {
+        var bb = new Message("bob", "/join room").encode().flip();
+        var reader = newReader(false);
+        assertEquals(Reader.ProcessStatus.DONE, reader.process(bb));
+        assertEquals("/join room", reader.command());
+        reader.get().release();
+    }
+
+    @Test
+    public void malformedUtf8() {
+        // an overlong encoding of '\0'
+        var malformed = ByteBuffer.allocate(1024).putInt(3).put(StandardCharsets.UTF_8.encode("bob"))
+                .putInt(2).put((byte) 0xC0).put((byte) 0x80).flip();
+        assertEquals(Reader.ProcessStatus.ERROR, newReader(true).process(malformed.duplicate()));
+        var reader = newReader(false);
+        assertEquals(Reader.ProcessStatus.DONE, reader.process(malformed));
+        reader.get().release();
+    }
+
+    @Test
+    public void surrogateAfterAsciiIsMalformed() {
+        var ascii = StandardCharsets.UTF_8.encode("a".repeat(21));
+        var bb = ByteBuffer.allocate(1024).putInt(3).put(StandardCharsets.UTF_8.encode("bob"))
+                .putInt(24).put(ascii).put((byte) 0xED).put((byte) 0xA0).put((byte) 0x80).flip();
+        assertEquals(Reader.ProcessStatus.ERROR, newReader(true).process(bb));
+    }
+}
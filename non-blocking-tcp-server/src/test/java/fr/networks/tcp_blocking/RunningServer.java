@@ -0,0 +1,54 @@
+package fr.networks.tcp_blocking;
+
+import fr.networks.tcp_blocking.exo5.ServerChat;
+import fr.networks.tcp_blocking.exo5.ServerChatConfig;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+
+/**
+ * A {@link ServerChat} launched on a free loopback port for a test, stopped when closed
+ */
+final class RunningServer implements AutoCloseable {
+    private final ServerChat server;
+    private final int port;
+    private final Thread thread;
+
+    private RunningServer(ServerChat server, int port) {
+        this.server = server;
+        this.port = port;
+        this.thread = Thread.ofPlatform().start(() -> {
+            try {
+                server.launch();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    static int freePort() throws IOException {
+        try (var socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    static RunningServer start(ServerChatConfig config) throws IOException {
+        var port = freePort();
+        return new RunningServer(new ServerChat(port, config), port);
+    }
+
+    ServerChat server() {
+        return server;
+    }
+
+    int port() {
+        return port;
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        thread.interrupt();
+        thread.join();
+    }
+}
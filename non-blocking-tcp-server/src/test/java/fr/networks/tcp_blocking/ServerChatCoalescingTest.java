@@ -0,0 +1,137 @@
+package fr.networks.tcp_blocking;
+
+import fr.networks.tcp_blocking.exo5.Message;
+import fr.networks.tcp_blocking.exo5.MessageWireWriter;
+import fr.networks.tcp_blocking.exo5.ServerChatConfig;
+import fr.networks.tcp_blocking.utils.WriteCoalescing;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ServerChatCoalescingTest {
+    private static final int MAX_BYTES = 4 * 1_024;
+
+    private static RunningServer start(WriteCoalescing coalescing) throws IOException {
+        return RunningServer.start(ServerChatConfig.DEFAULT.withReactors(1).withCoalescing(coalescing));
+    }
+
+    /**
+     * Sends count messages of sender in a single write, so that they reach the server together
+     */
+    private static void sendAll(ChatTestClient sender, int count) throws IOException {
+        var messages = new Message[count];
+        var size = 0;
+        for (var i = 0; i < count; i++) {
+            messages[i] = new Message(sender.login(), "m" + i);
+            size += MessageWireWriter.encodedSize(messages[i]);
+        }
+        var bb = ByteBuffer.allocate(size);
+        for (var message : messages) {
+            message.encodeInto(bb);
+        }
+        sender.write(bb.flip());
+    }
+
+    private static void close(List<ChatTestClient> clients) throws IOException {
+        for (var client : clients) {
+            client.close();
+        }
+    }
+
+    private static long millisSince(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    @Test
+    public void batchedFramesArriveIntactAndInOrderAtTheDeadline() throws Exception {
+        var delayMillis = 300;
+        try (var server = start(new WriteCoalescing(MAX_BYTES, delayMillis))) {
+            var clients = ChatTestClient.connectAll(server.port(), "a", "b");
+            try {
+                var before = server.server().writeStats();
+                var start = System.nanoTime();
+                // about 1 KB of frames for each client, under MAX_BYTES
+                sendAll(clients.get(0), 100);
+                for (var client : clients) {
+                    assertEquals(new Message("a", "m0"), client.receive());
+                    assertTrue(millisSince(start) >= delayMillis, "written before the deadline");
+                    for (var i = 1; i < 100; i++) {
+                        assertEquals(new Message("a", "m" + i), client.receive());
+                    }
+                }
+                var after = server.server().writeStats();
+                var frames = after.frames() - before.frames();
+                var writes = after.writes() - before.writes();
+                // the counters of the last write of connectAll may be added after the snapshot
+                assertTrue(frames >= 200);
+                assertTrue(writes <= 5, writes + " writes for " + frames + " frames");
+            } finally {
+                close(clients);
+            }
+        }
+    }
+
+    @Test
+    public void batchIsWrittenBeforeTheDeadlineOnceItHoldsMaxBytes() throws Exception {
+        var delayMillis = 2_000;
+        try (var server = start(new WriteCoalescing(MAX_BYTES, delayMillis))) {
+            var clients = ChatTestClient.connectAll(server.port(), "a", "b");
+            try {
+                var start = System.nanoTime();
+                // about 6 KB of frames for each client, over MAX_BYTES
+                sendAll(clients.get(0), 500);
+                var receiver = clients.get(1);
+                assertEquals(new Message("a", "m0"), receiver.receive());
+                assertTrue(millisSince(start) < delayMillis / 2, "not written before the deadline");
+                // the rest of the batch, in order, some of it at the deadline
+                for (var i = 1; i < 500; i++) {
+                    assertEquals(new Message("a", "m" + i), receiver.receive());
+                }
+            } finally {
+                close(clients);
+            }
+        }
+    }
+
+    @Test
+    public void aLargeMessageIsWrittenAtOnce() throws Exception {
+        var delayMillis = 2_000;
+        try (var server = start(new WriteCoalescing(MAX_BYTES, delayMillis))) {
+            var clients = ChatTestClient.connectAll(server.port(), "a", "b");
+            try {
+                var message = new Message("a", "x".repeat(2 * MAX_BYTES));
+                var start = System.nanoTime();
+                clients.get(0).send(message);
+                assertEquals(message, clients.get(1).receive());
+                assertTrue(millisSince(start) < delayMillis / 2, "not written before the deadline");
+            } finally {
+                close(clients);
+            }
+        }
+    }
+
+    @Test
+    public void disabledCoalescingDoesNotDelayWrites() throws Exception {
+        try (var server = start(WriteCoalescing.DISABLED)) {
+            var clients = ChatTestClient.connectAll(server.port(), "a", "b");
+            try {
+                for (var i = 0; i < 10; i++) {
+                    var message = new Message("a", "m" + i);
+                    var start = System.nanoTime();
+                    clients.get(0).send(message);
+                    assertEquals(message, clients.get(1).receive());
+                    // far under any delay a batch would wait for
+                    assertTrue(millisSince(start) < 250, "delayed by " + millisSince(start) + " ms");
+                    assertEquals(message, clients.get(0).receive());
+                }
+            } finally {
+                close(clients);
+            }
+        }
+    }
+}
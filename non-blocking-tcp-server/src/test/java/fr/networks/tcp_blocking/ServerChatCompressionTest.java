@@ -0,0 +1,119 @@
+package fr.networks.tcp_blocking;
+
+import fr.networks.tcp_blocking.exo5.Compression;
+import fr.networks.tcp_blocking.exo5.Message;
+import fr.networks.tcp_blocking.exo5.MessageEncoder;
+import fr.networks.tcp_blocking.exo5.ServerChat;
+import fr.networks.tcp_blocking.exo5.ServerChatConfig;
+import fr.networks.tcp_blocking.utils.FramePool;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ServerChatCompressionTest {
+    private static final MessageEncoder ENCODER = new MessageEncoder(new FramePool(2048, 4),
+            new FramePool(64 * 1024, 4));
+
+    private static ByteBuffer compressed(Message message) {
+        var frame = ENCODER.compress(message);
+        assertNotNull(frame);
+        var bb = ByteBuffer.allocate(frame.size());
+        for (var segment = frame; segment != null; segment = segment.next()) {
+            bb.put(segment.view());
+        }
+        frame.release();
+        return bb.flip();
+    }
+
+    private static ByteBuffer hello(int features) {
+        return ByteBuffer.allocate(Compression.HELLO_SIZE).putInt(Compression.HELLO).putInt(features).flip();
+    }
+
+    /**
+     * @return a text of random letters, whose compressed text is larger than a buffer of the pool of the server
+     */
+    private static String randomText(int length) {
+        var random = new Random(0);
+        var builder = new StringBuilder();
+        for (var i = 0; i < length; i++) {
+            builder.append((char) ('a' + random.nextInt(16)));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Connects a client asking for DEFLATE, the features granted being the next int it reads
+     */
+    private static ChatTestClient negotiate(int port) throws IOException {
+        var client = ChatTestClient.connect(port, "z");
+        client.write(hello(Compression.DEFLATE));
+        assertEquals(Compression.HELLO, client.readInt());
+        return client;
+    }
+
+    @Test
+    public void grantedClientSendsCompressedTexts() throws Exception {
+        try (var server = RunningServer.start(ServerChatConfig.DEFAULT.withReactors(1))) {
+            var compressing = negotiate(server.port());
+            assertEquals(Compression.DEFLATE, compressing.readInt());
+            try (var plain = ChatTestClient.connect(server.port(), "a")) {
+                plain.roundTrip();
+                // the compressed text fits in a buffer of the pool, then spans several large frames
+                var small = new Message("z", "ab".repeat(1_000));
+                var large = new Message("z", randomText(200_000) + "€");
+                assertTrue(compressed(large).remaining() > 64 * 1024);
+                for (var message : new Message[] {small, large}) {
+                    compressing.write(compressed(message));
+                    assertEquals(message, plain.receive());
+                }
+                // and the client granted DEFLATE gets the ones of the others compressed
+                var text = new Message("a", "cd".repeat(1_000));
+                plain.send(text);
+                assertEquals(text, plain.receive());
+                // the one of a too short to be compressed, its own two messages, then the last one of a
+                assertEquals(new Message("a", "ready a"), compressing.receive());
+                for (var login : new String[] {"z", "z", "a"}) {
+                    assertEquals(Compression.COMPRESSED, compressing.readInt());
+                    assertEquals(login.length(), compressing.readInt());
+                    compressing.skip(login.length());
+                    compressing.readInt();
+                    compressing.skip(compressing.readInt());
+                }
+            } finally {
+                compressing.close();
+            }
+        }
+    }
+
+    @Test
+    public void refusedClientCannotSendCompressedTexts() throws Exception {
+        var config = ServerChatConfig.DEFAULT.withReactors(1).withCompressionThreshold(ServerChat.NO_COMPRESSION);
+        try (var server = RunningServer.start(config)) {
+            var refused = negotiate(server.port());
+            assertEquals(0, refused.readInt());
+            try (var plain = ChatTestClient.connect(server.port(), "a")) {
+                plain.roundTrip();
+                refused.write(compressed(new Message("z", "ab".repeat(1_000))));
+                assertTrue(refused.isClosedByServer());
+                // the other clients are still served
+                plain.roundTrip();
+            } finally {
+                refused.close();
+            }
+        }
+    }
+
+    @Test
+    public void clientWithoutHelloCannotSendCompressedTexts() throws Exception {
+        try (var server = RunningServer.start(ServerChatConfig.DEFAULT.withReactors(1));
+             var client = ChatTestClient.connect(server.port(), "z")) {
+            client.roundTrip();
+            client.write(compressed(new Message("z", "ab".repeat(1_000))));
+            assertTrue(client.isClosedByServer());
+        }
+    }
+}
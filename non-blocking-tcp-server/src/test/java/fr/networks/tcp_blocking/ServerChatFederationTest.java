@@ -0,0 +1,236 @@
+package fr.networks.tcp_blocking;
+
+import fr.networks.tcp_blocking.exo5.Federation;
+import fr.networks.tcp_blocking.exo5.Message;
+import fr.networks.tcp_blocking.exo5.MessageWireWriter;
+import fr.networks.tcp_blocking.exo5.ServerChat;
+import fr.networks.tcp_blocking.exo5.ServerChatConfig;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ServerChatFederationTest {
+    private static final int NB_MESSAGES = 50;
+    private static final int NB_REACTORS = 3;
+    private static final long LINK_TIMEOUT_MILLIS = 10_000;
+    private static final String SECRET = "secret of the tests";
+    private static final int PEER_NODE = 9;
+
+    @TempDir
+    Path directory;
+
+    private static List<InetSocketAddress> peers(int... peerPorts) {
+        var peers = new ArrayList<InetSocketAddress>();
+        for (var peerPort : peerPorts) {
+            peers.add(new InetSocketAddress("localhost", peerPort));
+        }
+        return peers;
+    }
+
+    private static void close(List<? extends AutoCloseable> closeables) throws Exception {
+        for (var closeable : closeables) {
+            closeable.close();
+        }
+    }
+
+    /**
+     * Waits for every node to count expected link ends
+     */
+    private static void awaitLinks(List<RunningServer> nodes, int expected) throws Exception {
+        var deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(LINK_TIMEOUT_MILLIS);
+        while (nodes.stream().mapToInt(node -> node.server().federationStats().links()).sum() < expected) {
+            assertTrue(System.nanoTime() < deadline, "the nodes are not linked");
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * @return the messages m0 to m(NB_MESSAGES - 1) of client then end, in a single write
+     */
+    private static ByteBuffer messages(ChatTestClient client) {
+        var bb = ByteBuffer.allocate(64 * (NB_MESSAGES + 1));
+        for (var i = 0; i < NB_MESSAGES; i++) {
+            new Message(client.login(), "m" + i).encodeInto(bb);
+        }
+        new Message(client.login(), "end").encodeInto(bb);
+        return bb.flip();
+    }
+
+    /**
+     * Reads the messages of receiver until the end of each sender, checking that the
+     * messages of each sender arrive once and in order. The other messages are skipped.
+     */
+    private static void receiveInOrder(ChatTestClient receiver, List<ChatTestClient> senders) throws IOException {
+        var next = new HashMap<String, Integer>();
+        for (var sender : senders) {
+            next.put(sender.login(), 0);
+        }
+        var ended = new HashSet<String>();
+        while (ended.size() < senders.size()) {
+            var message = receiver.receive();
+            var login = message.login();
+            if (!next.containsKey(login) || message.msg().startsWith("ready ")) {
+                continue;
+            }
+            assertFalse(ended.contains(login), message + " after the end of " + login);
+            if (message.msg().equals("end")) {
+                assertEquals(NB_MESSAGES, next.get(login), "end of " + login);
+                ended.add(login);
+            } else {
+                assertEquals(new Message(login, "m" + next.get(login)), message, "at " + receiver.login());
+                next.merge(login, 1, Integer::sum);
+            }
+        }
+    }
+
+    @Test
+    public void messagesOfEachSenderReachEveryNodeOnceAndInOrder() throws Exception {
+        // a triangle: node 2 dials node 1, node 3 dials nodes 1 and 2
+        var peerPorts = new int[] {RunningServer.freePort(), RunningServer.freePort(), RunningServer.freePort()};
+        var dials = List.of(peers(), peers(peerPorts[0]), peers(peerPorts[0], peerPorts[1]));
+        var nodes = new ArrayList<RunningServer>();
+        var clients = new ArrayList<ChatTestClient>();
+        try {
+            for (var i = 0; i < 3; i++) {
+                var config = ServerChatConfig.DEFAULT.withReactors(NB_REACTORS)
+                        .withFederation(new Federation(i + 1, peerPorts[i], dials.get(i), SECRET));
+                if (i == 0) {
+                    config = config.withHistoryDirectory(directory);
+                }
+                nodes.add(RunningServer.start(config));
+            }
+            awaitLinks(nodes, 6);
+            // a receiver on each node, then two senders on node 3 and one on node 2, on different shards
+            var receivers = new ArrayList<ChatTestClient>();
+            for (var i = 0; i < 3; i++) {
+                var receiver = ChatTestClient.connect(nodes.get(i).port(), "r" + (i + 1));
+                clients.add(receiver);
+                receivers.add(receiver);
+                receiver.roundTrip();
+            }
+            var senders = new ArrayList<ChatTestClient>();
+            for (var login : new String[] {"s", "t"}) {
+                senders.add(ChatTestClient.connect(nodes.get(2).port(), login));
+            }
+            senders.add(ChatTestClient.connect(nodes.get(1).port(), "u"));
+            clients.addAll(senders);
+            for (var sender : senders) {
+                sender.roundTrip();
+            }
+            for (var sender : senders) {
+                sender.write(messages(sender));
+            }
+            for (var receiver : receivers) {
+                receiveInOrder(receiver, senders);
+            }
+            // and the history of node 1 holds them in that order too
+            var receiver = receivers.get(0);
+            receiver.send("/since 0");
+            receiveInOrder(receiver, senders);
+            var end = receiver.receive();
+            assertEquals(ServerChat.HISTORY_LOGIN, end.login());
+            assertTrue(end.msg().startsWith(ServerChat.DEFAULT_ROOM + " "));
+        } finally {
+            close(clients);
+            close(nodes);
+        }
+    }
+
+    /**
+     * @return the challenge of the PEER frame of the node the peer is connected to
+     */
+    private static byte[] readChallenge(ChatTestClient peer) throws IOException {
+        assertEquals(Federation.PEER, peer.readInt());
+        assertEquals(1, peer.readInt());
+        return peer.readBytes(Federation.CHALLENGE_SIZE);
+    }
+
+    /**
+     * @return the PEER frame of the peer with its challenge, then its answer to the
+     * challenge of the node keyed by secret, or a FORWARD frame instead if secret is null
+     */
+    private static ByteBuffer handshake(byte[] challenge, byte[] nodeChallenge, String secret) {
+        var bb = ByteBuffer.allocate(Federation.PEER_SIZE + Federation.AUTH_SIZE);
+        bb.putInt(Federation.PEER).putInt(PEER_NODE).put(challenge);
+        if (secret != null) {
+            var federation = new Federation(PEER_NODE, 0, List.of(), secret);
+            bb.putInt(Federation.AUTH).put(federation.answer(nodeChallenge, PEER_NODE));
+        }
+        return bb.flip();
+    }
+
+    /**
+     * @return message forwarded by the peer to the default room
+     */
+    private static ByteBuffer forward(Message message) {
+        var room = ServerChat.DEFAULT_ROOM.getBytes(StandardCharsets.US_ASCII);
+        var bb = ByteBuffer.allocate(Federation.FORWARD_HEADER_SIZE + room.length + MessageWireWriter.encodedSize(message));
+        bb.putInt(Federation.FORWARD).putInt(PEER_NODE).putLong(0).putInt(room.length).put(room);
+        return message.encodeInto(bb).flip();
+    }
+
+    /**
+     * Connects a peer to a lone node, the peer sending its handshake then a forwarded message
+     *
+     * @param secret secret the peer answers with, or null if it forwards without answering
+     * @return true if the message reached the client of the node
+     */
+    private static boolean forwardsThroughAPeer(String secret) throws Exception {
+        var peerPort = RunningServer.freePort();
+        var config = ServerChatConfig.DEFAULT.withReactors(1)
+                .withFederation(new Federation(1, peerPort, List.of(), SECRET));
+        try (var server = RunningServer.start(config);
+             var client = ChatTestClient.connect(server.port(), "a");
+             var peer = ChatTestClient.connect(peerPort, "peer")) {
+            client.roundTrip();
+            var challenge = Federation.challenge();
+            peer.write(handshake(challenge, readChallenge(peer), secret));
+            peer.write(forward(new Message("x", "forwarded")));
+            if (SECRET.equals(secret)) {
+                // the node proves it knows the secret too
+                assertEquals(Federation.AUTH, peer.readInt());
+                var answer = peer.readBytes(Federation.ANSWER_SIZE);
+                assertTrue(new Federation(PEER_NODE, 0, List.of(), SECRET).isAnswer(answer, challenge, 1));
+            } else {
+                assertTrue(peer.isClosedByServer());
+                assertEquals(0, server.server().federationStats().links());
+            }
+            // the forwarded message, if any, comes before this one
+            client.send("after");
+            var message = client.receive();
+            if (message.equals(new Message("x", "forwarded"))) {
+                assertEquals(new Message("a", "after"), client.receive());
+                return true;
+            }
+            assertEquals(new Message("a", "after"), message);
+            return false;
+        }
+    }
+
+    @Test
+    public void peerKnowingTheSecretIsLinked() throws Exception {
+        assertTrue(forwardsThroughAPeer(SECRET));
+    }
+
+    @Test
+    public void peerNotKnowingTheSecretIsClosedBeforeForwarding() throws Exception {
+        assertFalse(forwardsThroughAPeer("a guess"));
+    }
+
+    @Test
+    public void peerNotAnsweringIsClosedBeforeForwarding() throws Exception {
+        assertFalse(forwardsThroughAPeer(null));
+    }
+}
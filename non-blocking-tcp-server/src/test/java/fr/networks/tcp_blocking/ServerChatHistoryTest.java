@@ -0,0 +1,76 @@
+package fr.networks.tcp_blocking;
+
+import fr.networks.tcp_blocking.exo5.Message;
+import fr.networks.tcp_blocking.exo5.ServerChat;
+import fr.networks.tcp_blocking.exo5.ServerChatConfig;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ServerChatHistoryTest {
+    private static final int NB_MESSAGES = 50;
+
+    @TempDir
+    Path directory;
+
+    /**
+     * @return the messages of client in a single write, then the command
+     */
+    private static ByteBuffer messagesThen(ChatTestClient client, String command) {
+        var bb = ByteBuffer.allocate(64 * (NB_MESSAGES + 1));
+        for (var i = 0; i < NB_MESSAGES; i++) {
+            new Message(client.login(), "m" + i).encodeInto(bb);
+        }
+        new Message(client.login(), command).encodeInto(bb);
+        return bb.flip();
+    }
+
+    @Test
+    public void messagesSentWhileTheHistoryOpensAreKeptAndReplayed() throws Exception {
+        var config = ServerChatConfig.DEFAULT.withReactors(1).withHistoryDirectory(directory);
+        try (var server = RunningServer.start(config);
+             var client = ChatTestClient.connect(server.port(), "a")) {
+            // the first message of the room opens its history, the next ones and the replay wait for it
+            client.write(messagesThen(client, "/since 0"));
+            for (var i = 0; i < NB_MESSAGES; i++) {
+                assertEquals(new Message("a", "m" + i), client.receive());
+            }
+            for (var i = 0; i < NB_MESSAGES; i++) {
+                assertEquals(new Message("a", "m" + i), client.receive());
+            }
+            assertEquals(new Message(ServerChat.HISTORY_LOGIN, ServerChat.DEFAULT_ROOM + " " + NB_MESSAGES),
+                    client.receive());
+            // once open, the history goes on
+            client.send("after");
+            assertEquals(new Message("a", "after"), client.receive());
+            client.send("/history 2");
+            assertEquals(new Message("a", "m" + (NB_MESSAGES - 1)), client.receive());
+            assertEquals(new Message("a", "after"), client.receive());
+            assertEquals(new Message(ServerChat.HISTORY_LOGIN, ServerChat.DEFAULT_ROOM + " " + (NB_MESSAGES + 1)),
+                    client.receive());
+        }
+    }
+
+    @Test
+    public void aHistoryWhichCannotBeOpenedIsGivenUp() throws Exception {
+        // a file where the directory of the room should be
+        var file = Files.createFile(directory.resolve("histories"));
+        var config = ServerChatConfig.DEFAULT.withReactors(1).withHistoryDirectory(file);
+        try (var server = RunningServer.start(config);
+             var client = ChatTestClient.connect(server.port(), "a")) {
+            client.write(messagesThen(client, "/history 10"));
+            for (var i = 0; i < NB_MESSAGES; i++) {
+                assertEquals(new Message("a", "m" + i), client.receive());
+            }
+            // nothing replayed, before or after the open failed
+            client.send("/history 10");
+            client.send("last");
+            assertEquals(new Message("a", "last"), client.receive());
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package fr.networks.tcp_blocking;
+
+import fr.networks.tcp_blocking.exo5.Message;
+import fr.networks.tcp_blocking.exo5.ServerChatConfig;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ServerChatReactorsTest {
+    private static final int MESSAGES_PER_SENDER = 200;
+
+    @Test
+    public void broadcastsReachTheClientsOfEveryReactor() throws Exception {
+        try (var server = RunningServer.start(ServerChatConfig.DEFAULT.withReactors(2))) {
+            var clients = ChatTestClient.connectAll(server.port(), "a", "b", "c", "d");
+            try {
+                // the acceptor hands out the clients round-robin
+                assertArrayEquals(new int[] {2, 2}, server.server().connectionCounts());
+                // a and b are on different reactors, so each message crosses to the other one
+                for (var i = 0; i < MESSAGES_PER_SENDER; i++) {
+                    clients.get(0).send("a" + i);
+                    clients.get(1).send("b" + i);
+                }
+                for (var client : clients) {
+                    var fromA = new ArrayList<String>();
+                    var fromB = new ArrayList<String>();
+                    for (var i = 0; i < 2 * MESSAGES_PER_SENDER; i++) {
+                        var message = client.receive();
+                        (message.login().equals("a") ? fromA : fromB).add(message.msg());
+                    }
+                    for (var i = 0; i < MESSAGES_PER_SENDER; i++) {
+                        assertEquals("a" + i, fromA.get(i), client.login());
+                        assertEquals("b" + i, fromB.get(i), client.login());
+                    }
+                }
+            } finally {
+                for (var client : clients) {
+                    client.close();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void aClientAloneOnItsReactorGetsTheMessagesOfTheOthers() throws Exception {
+        try (var server = RunningServer.start(ServerChatConfig.DEFAULT.withReactors(3))) {
+            var clients = ChatTestClient.connectAll(server.port(), "a", "b", "c");
+            try {
+                assertArrayEquals(new int[] {1, 1, 1}, server.server().connectionCounts());
+                clients.get(2).send("hello");
+                for (var client : clients) {
+                    assertEquals(new Message("c", "hello"), client.receive());
+                }
+            } finally {
+                for (var client : clients) {
+                    client.close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package fr.networks.tcp_blocking;
+
+import fr.networks.tcp_blocking.exo5.Message;
+import fr.networks.tcp_blocking.exo5.ServerChatConfig;
+import fr.networks.tcp_blocking.utils.OutboundLimits;
+import fr.networks.tcp_blocking.utils.SlowConsumerPolicy;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * A client with a small receive buffer which does not read is a slow consumer of the
+ * messages of a client which does. The messages are large enough for the socket buffers
+ * of the server to fill up, whatever their autotuning, before the sender stops.
+ */
+public class ServerChatSlowConsumerTest {
+    private static final int RECEIVE_BUFFER_SIZE = 4 * 1_024;
+    private static final int PAYLOAD_SIZE = 16 * 1_024;
+    private static final int NB_MESSAGES = 400;
+    private static final String PADDING = "x".repeat(PAYLOAD_SIZE);
+
+    private static OutboundLimits limits(SlowConsumerPolicy policy) {
+        return new OutboundLimits(16 * 1_024, 64 * 1_024, policy, 32 * 1_024 * 1_024, 64 * 1_024 * 1_024);
+    }
+
+    private static String text(int index) {
+        return index + " " + PADDING;
+    }
+
+    private static int index(Message message) {
+        return Integer.parseInt(message.msg(), 0, message.msg().indexOf(' '), 10);
+    }
+
+    /**
+     * Connects the sender, then the slow consumer with a small receive buffer
+     */
+    private static List<ChatTestClient> connect(int port) throws IOException {
+        var sender = ChatTestClient.connect(port, "a");
+        sender.roundTrip();
+        var slow = ChatTestClient.connect(port, "s", RECEIVE_BUFFER_SIZE);
+        slow.roundTrip();
+        sender.receive();
+        return List.of(sender, slow);
+    }
+
+    /**
+     * Sends the messages one by one, each one once the previous one came back, so that
+     * only the slow consumer falls behind. A message comes back once it is queued, or
+     * not, to every client of the reactor, so the counters are final on return.
+     */
+    private static void sendAll(ChatTestClient sender) throws IOException {
+        for (var i = 0; i < NB_MESSAGES; i++) {
+            var message = new Message(sender.login(), text(i));
+            sender.send(message);
+            assertEquals(message, sender.receive());
+        }
+    }
+
+    private static List<Integer> receive(ChatTestClient client, long count) throws IOException {
+        var indexes = new ArrayList<Integer>();
+        for (var i = 0; i < count; i++) {
+            var message = client.receive();
+            assertEquals("a", message.login());
+            indexes.add(index(message));
+        }
+        return indexes;
+    }
+
+    private static void assertIncreasing(List<Integer> indexes) {
+        for (var i = 1; i < indexes.size(); i++) {
+            assertTrue(indexes.get(i - 1) < indexes.get(i), "out of order at " + i + ": " + indexes);
+        }
+    }
+
+    private static void close(List<ChatTestClient> clients) throws IOException {
+        for (var client : clients) {
+            client.close();
+        }
+    }
+
+    private static RunningServer start(SlowConsumerPolicy policy) throws IOException {
+        return RunningServer.start(ServerChatConfig.DEFAULT.withReactors(1).withLimits(limits(policy)));
+    }
+
+    @Test
+    public void dropOldestKeepsTheNewestMessagesInOrder() throws Exception {
+        try (var server = start(SlowConsumerPolicy.DROP_OLDEST)) {
+            var clients = connect(server.port());
+            try {
+                sendAll(clients.get(0));
+                var stats = server.server().outboundStats();
+                assertTrue(stats.droppedOldest() > 0);
+                assertEquals(0, stats.droppedNewest());
+                assertEquals(0, stats.disconnected());
+                var indexes = receive(clients.get(1), NB_MESSAGES - stats.droppedOldest());
+                assertIncreasing(indexes);
+                assertEquals(0, indexes.getFirst());
+                assertEquals(NB_MESSAGES - 1, indexes.getLast());
+                // the slow consumer caught up and is served again
+                clients.get(1).roundTrip();
+            } finally {
+                close(clients);
+            }
+        }
+    }
+
+    @Test
+    public void dropNewestKeepsTheOldestMessagesInOrder() throws Exception {
+        try (var server = start(SlowConsumerPolicy.DROP_NEWEST)) {
+            var clients = connect(server.port());
+            try {
+                sendAll(clients.get(0));
+                var stats = server.server().outboundStats();
+                assertTrue(stats.droppedNewest() > 0);
+                assertEquals(0, stats.droppedOldest());
+                assertEquals(0, stats.disconnected());
+                var indexes = receive(clients.get(1), NB_MESSAGES - stats.droppedNewest());
+                // the first messages were queued, and the next ones dropped until the queue drained
+                assertIncreasing(indexes);
+                assertEquals(0, indexes.getFirst());
+                clients.get(1).roundTrip();
+            } finally {
+                close(clients);
+            }
+        }
+    }
+
+    @Test
+    public void disconnectClosesTheSlowConsumerOnly() throws Exception {
+        try (var server = start(SlowConsumerPolicy.DISCONNECT)) {
+            var clients = connect(server.port());
+            try {
+                sendAll(clients.get(0));
+                var stats = server.server().outboundStats();
+                assertEquals(1, stats.disconnected());
+                assertEquals(0, stats.droppedOldest());
+                assertEquals(0, stats.droppedNewest());
+                // the bytes already in the socket buffers are still received, in order
+                var indexes = new ArrayList<Integer>();
+                try {
+                    while (true) {
+                        indexes.add(index(clients.get(1).receive()));
+                    }
+                } catch (IOException e) {
+                    // closed by the server
+                }
+                assertIncreasing(indexes);
+                assertTrue(indexes.size() < NB_MESSAGES);
+                assertArrayEquals(new int[] {1}, server.server().connectionCounts());
+                clients.get(0).roundTrip();
+            } finally {
+                close(clients);
+            }
+        }
+    }
+
+    @Test
+    public void spillToDiskDeliversEveryMessageInOrder() throws Exception {
+        try (var server = start(SlowConsumerPolicy.SPILL_TO_DISK)) {
+            var clients = connect(server.port());
+            try {
+                sendAll(clients.get(0));
+                var stats = server.server().outboundStats();
+                assertTrue(stats.spilled() > 0);
+                assertEquals(0, stats.droppedOldest());
+                assertEquals(0, stats.droppedNewest());
+                assertEquals(0, stats.disconnected());
+                var indexes = receive(clients.get(1), NB_MESSAGES);
+                for (var i = 0; i < NB_MESSAGES; i++) {
+                    assertEquals(i, indexes.get(i));
+                }
+                clients.get(1).roundTrip();
+            } finally {
+                close(clients);
+            }
+        }
+    }
+
+    @Test
+    public void readsPauseOverTheFanOutHighWatermarkAndResumeUnderTheLowOne() throws Exception {
+        // no slow consumer policy applies, only the fan-out bounds, which are further apart
+        // than the largest send buffer, so that the queue cannot drain under the low one
+        // before the slow consumer reads
+        var limits = new OutboundLimits(32 * 1_024 * 1_024, 64 * 1_024 * 1_024, SlowConsumerPolicy.DROP_OLDEST,
+                1_024 * 1_024, 6 * 1_024 * 1_024);
+        try (var server = RunningServer.start(ServerChatConfig.DEFAULT.withReactors(1).withLimits(limits))) {
+            var clients = connect(server.port());
+            var sender = clients.get(0);
+            var slow = clients.get(1);
+            try {
+                var sent = 0;
+                while (server.server().outboundStats().readPauses() == 0) {
+                    assertTrue(sent < 1_000, "the reads were never paused");
+                    var message = new Message(sender.login(), text(sent++));
+                    sender.send(message);
+                    assertEquals(message, sender.receive());
+                }
+                var last = new Message(sender.login(), text(sent));
+                sender.send(last);
+                Thread.sleep(200);
+                // not read by the server while the slow consumer holds the fan-out
+                assertEquals(0, sender.available());
+                var indexes = receive(slow, sent + 1);
+                for (var i = 0; i <= sent; i++) {
+                    assertEquals(i, indexes.get(i));
+                }
+                // read once the slow consumer drained its queue
+                assertEquals(last, sender.receive());
+                assertEquals(1, server.server().outboundStats().readPauses());
+                assertEquals(0, server.server().outboundStats().droppedOldest());
+            } finally {
+                close(clients);
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package fr.networks.tcp_blocking;
+
+import fr.networks.tcp_blocking.exo5.Message;
+import fr.networks.tcp_blocking.exo5.ServerChat;
+import fr.networks.tcp_blocking.exo5.ServerChatConfig;
+import fr.networks.tcp_blocking.utils.TlsSettings;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ServerChatTlsTest {
+    private static final char[] PASSWORD = "changeit".toCharArray();
+
+    @TempDir
+    static Path directory;
+    private static ServerChat server;
+    private static Thread thread;
+    private static int port;
+    private static SSLContext clientContext;
+
+    @BeforeAll
+    public static void start() throws Exception {
+        var keyStore = directory.resolve("server.p12");
+        TlsSettings.generateSelfSigned(keyStore, PASSWORD);
+        clientContext = TlsSettings.clientContext(keyStore, PASSWORD);
+        try (var socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        server = new ServerChat(port, ServerChatConfig.DEFAULT.withReactors(1)
+                .withTls(TlsSettings.load(keyStore, PASSWORD)));
+        thread = Thread.ofPlatform().start(() -> {
+            try {
+                server.launch();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    @AfterAll
+    public static void stop() throws InterruptedException {
+        thread.interrupt();
+        thread.join();
+    }
+
+    private static SSLSocket connect(SSLContext context, String... protocols) throws IOException {
+        var socket = (SSLSocket) context.getSocketFactory().createSocket();
+        if (protocols.length != 0) {
+            socket.setEnabledProtocols(protocols);
+        }
+        // the session is resumed only by a socket knowing the host and the port of the server
+        socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        return socket;
+    }
+
+    private static void send(SSLSocket socket, Message message) throws IOException {
+        var bb = message.encode().flip();
+        var bytes = new byte[bb.remaining()];
+        bb.get(bytes);
+        socket.getOutputStream().write(bytes);
+        socket.getOutputStream().flush();
+    }
+
+    private static Message receive(SSLSocket socket) throws IOException {
+        var in = new DataInputStream(socket.getInputStream());
+        var login = new byte[in.readInt()];
+        in.readFully(login);
+        var text = new byte[in.readInt()];
+        in.readFully(text);
+        return new Message(new String(login, StandardCharsets.UTF_8), new String(text, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Sends a message and waits for its broadcast, after which the session can be resumed
+     */
+    private static long roundTrip(SSLSocket socket, String login) throws IOException {
+        var message = new Message(login, "ping");
+        send(socket, message);
+        assertEquals(message, receive(socket));
+        return socket.getSession().getCreationTime();
+    }
+
+    @Test
+    public void clientsChatOverTls() throws IOException {
+        try (var alice = connect(clientContext)) {
+            roundTrip(alice, "alice");
+            try (var bob = connect(clientContext)) {
+                roundTrip(bob, "bob");
+                assertEquals(new Message("bob", "ping"), receive(alice));
+                // larger than a record and than the input buffer of a context
+                var large = new Message("alice", "😀a€".repeat(20_000));
+                send(alice, large);
+                assertEquals(large, receive(alice));
+                assertEquals(large, receive(bob));
+            }
+        }
+    }
+
+    @Test
+    public void reconnectionsResumeTheirSession() throws Exception {
+        for (var protocol : new String[] {"TLSv1.3", "TLSv1.2"}) {
+            var context = TlsSettings.clientContext(directory.resolve("server.p12"), PASSWORD);
+            long created;
+            try (var socket = connect(context, protocol)) {
+                created = roundTrip(socket, "alice");
+                assertEquals(protocol, socket.getSession().getProtocol());
+            }
+            Thread.sleep(5);
+            try (var socket = connect(context, protocol)) {
+                assertEquals(created, roundTrip(socket, "alice"), protocol);
+            }
+            try (var socket = connect(TlsSettings.clientContext(directory.resolve("server.p12"), PASSWORD),
+                    protocol)) {
+                assertNotEquals(created, roundTrip(socket, "alice"), protocol);
+            }
+        }
+    }
+
+    @Test
+    public void idleSessionsHoldNoBuffer() throws Exception {
+        try (var alice = connect(clientContext)) {
+            roundTrip(alice, "alice");
+            var deadline = System.nanoTime() + 5_000_000_000L;
+            while (server.tlsBufferPoolStats().inUse() != 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, server.tlsBufferPoolStats().inUse());
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package fr.networks.tcp_blocking;
+
+import fr.networks.tcp_blocking.utils.SpillFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SpillFileTest {
+    private static final int SEGMENT_SIZE = 8;
+
+    @TempDir
+    Path directory;
+
+    /**
+     * A channel accepting at most limit bytes per write
+     */
+    private static class SlowChannel implements WritableByteChannel {
+        private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        private final int limit;
+
+        private SlowChannel(int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            var written = Math.min(limit, src.remaining());
+            for (var i = 0; i < written; i++) {
+                received.write(src.get());
+            }
+            return written;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static byte[] bytes(int from, int count) {
+        var bytes = new byte[count];
+        for (var i = 0; i < count; i++) {
+            bytes[i] = (byte) (from + i);
+        }
+        return bytes;
+    }
+
+    @Test
+    public void appendsAcrossSegmentsAndDrainsInOrder() throws IOException {
+        try (var spill = SpillFile.create(directory, SEGMENT_SIZE)) {
+            // the second append crosses the end of the first segment, the third spans a whole one
+            spill.append(ByteBuffer.wrap(bytes(0, 5)));
+            spill.append(ByteBuffer.wrap(bytes(5, 6)));
+            spill.append(ByteBuffer.wrap(bytes(11, 9)));
+            assertEquals(20, spill.remaining());
+
+            var target = new SlowChannel(3);
+            assertEquals(3, spill.transferTo(target));
+            assertEquals(17, spill.remaining());
+            // appended while the backlog is partially sent, after the bytes already there
+            spill.append(ByteBuffer.wrap(bytes(20, 4)));
+            while (spill.remaining() != 0) {
+                assertTrue(spill.transferTo(target) <= 3);
+            }
+            assertArrayEquals(bytes(0, 24), target.received.toByteArray());
+        }
+    }
+
+    @Test
+    public void rewindsOnceEmpty() throws IOException {
+        try (var spill = SpillFile.create(directory, SEGMENT_SIZE)) {
+            spill.append(ByteBuffer.wrap(bytes(0, 20)));
+            var target = new SlowChannel(7);
+            while (spill.remaining() != 0) {
+                spill.transferTo(target);
+            }
+            assertEquals(0, spill.transferTo(target));
+
+            // the file is written again from its beginning, mapping its first segment again
+            spill.append(ByteBuffer.wrap(bytes(100, 20)));
+            assertEquals(20, spill.remaining());
+            var again = new SlowChannel(7);
+            while (spill.remaining() != 0) {
+                spill.transferTo(again);
+            }
+            assertArrayEquals(bytes(100, 20), again.received.toByteArray());
+        }
+    }
+
+    @Test
+    public void rewindsWithinTheFirstSegment() throws IOException {
+        try (var spill = SpillFile.create(directory, SEGMENT_SIZE)) {
+            spill.append(ByteBuffer.wrap(bytes(0, 5)));
+            var target = new SlowChannel(2);
+            while (spill.remaining() != 0) {
+                spill.transferTo(target);
+            }
+            // the segment still mapped is reused from its beginning
+            spill.append(ByteBuffer.wrap(bytes(50, 6)));
+            while (spill.remaining() != 0) {
+                spill.transferTo(target);
+            }
+            var expected = ByteBuffer.allocate(11).put(bytes(0, 5)).put(bytes(50, 6)).array();
+            assertArrayEquals(expected, target.received.toByteArray());
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package fr.networks.tcp_blocking;
+
+import fr.networks.tcp_blocking.utils.StringCache;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StringCacheTest {
+
+    private static ByteBuffer bytes(String string) {
+        return StandardCharsets.UTF_8.encode(string);
+    }
+
+    @Test
+    public void sameBytesGiveTheSameString() {
+        var cache = new StringCache(8, 64);
+        var buffer = ByteBuffer.allocate(64).put(bytes("xx€bob")).put(bytes("€bob"));
+        var first = cache.get(buffer, 2, 6);
+        assertEquals("€bob", first);
+        assertSame(first, cache.get(buffer, 8, 6));
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+        assertEquals(14, buffer.position());
+    }
+
+    @Test
+    public void differentBytesAreNotMixedUp() {
+        var cache = new StringCache(1, 64);
+        assertEquals("alice", cache.get(bytes("alice"), 0, 5));
+        assertEquals("bob", cache.get(bytes("bob"), 0, 3));
+        assertEquals("alice", cache.get(bytes("alice"), 0, 5));
+        assertEquals(0, cache.hits());
+        assertEquals(3, cache.misses());
+    }
+
+    @Test
+    public void longStringsAreNotCached() {
+        var cache = new StringCache(8, 4);
+        var buffer = bytes("alice");
+        var first = cache.get(buffer, 0, 5);
+        assertEquals("alice", first);
+        assertNotSame(first, cache.get(buffer, 0, 5));
+        assertEquals(0, cache.hits() + cache.misses());
+    }
+}
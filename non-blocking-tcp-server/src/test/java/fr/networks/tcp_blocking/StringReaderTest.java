@@ -1,5 +1,8 @@
 package fr.networks.tcp_blocking;
 
+import fr.networks.tcp_blocking.utils.BufferPool;
+import fr.networks.tcp_blocking.utils.CharBufferPool;
+import fr.networks.tcp_blocking.utils.StringCache;
 import fr.networks.tcp_blocking.utils.StringReader;
 import fr.networks.tcp_blocking.utils.Reader;
 import org.junit.jupiter.api.Test;
@@ -16,12 +19,11 @@ public class StringReaderTest {
         var string = "\u20ACa\u20AC";
         var bb = ByteBuffer.allocate(1024);
         var bytes = StandardCharsets.UTF_8.encode(string);
-        bb.putInt(bytes.remaining()).put(bytes);
+        bb.putInt(bytes.remaining()).put(bytes).flip();
         StringReader sr = new StringReader();
         assertEquals(Reader.ProcessStatus.DONE, sr.process(bb));
         assertEquals(string, sr.get());
-        assertEquals(0, bb.position());
-        assertEquals(bb.capacity(), bb.limit());
+        assertFalse(bb.hasRemaining());
     }
 
     @Test
@@ -31,17 +33,17 @@ public class StringReaderTest {
         var bb = ByteBuffer.allocate(1024);
         var bytes = StandardCharsets.UTF_8.encode(string);
         var bytes2 = StandardCharsets.UTF_8.encode(string2);
-        bb.putInt(bytes.remaining()).put(bytes).putInt(bytes2.remaining()).put(bytes2);
+        bb.putInt(bytes.remaining()).put(bytes).putInt(bytes2.remaining()).put(bytes2).flip();
         StringReader sr = new StringReader();
         assertEquals(Reader.ProcessStatus.DONE, sr.process(bb));
         assertEquals(string, sr.get());
-        assertEquals(15, bb.position());
-        assertEquals(bb.capacity(), bb.limit());
+        // the bytes of the second string are left in place
+        assertEquals(15, bb.remaining());
+        assertEquals(11, bb.position());
         sr.reset();
         assertEquals(Reader.ProcessStatus.DONE, sr.process(bb));
         assertEquals(string2, sr.get());
-        assertEquals(0, bb.position());
-        assertEquals(bb.capacity(), bb.limit());
+        assertFalse(bb.hasRemaining());
     }
 
     @Test
@@ -56,11 +58,13 @@ public class StringReaderTest {
             while (bb.hasRemaining() && bbSmall.hasRemaining()) {
                 bbSmall.put(bb.get());
             }
+            bbSmall.flip();
             if (bb.hasRemaining()) {
                 assertEquals(Reader.ProcessStatus.REFILL, sr.process(bbSmall));
             } else {
                 assertEquals(Reader.ProcessStatus.DONE, sr.process(bbSmall));
             }
+            bbSmall.compact();
         }
         assertEquals(string, sr.get());
     }
@@ -78,7 +82,7 @@ public class StringReaderTest {
         var sr = new StringReader();
         var bb = ByteBuffer.allocate(1024);
         var bytes = StandardCharsets.UTF_8.encode("aaaaa");
-        bb.putInt(-1).put(bytes);
+        bb.putInt(-1).put(bytes).flip();
         assertEquals(Reader.ProcessStatus.ERROR, sr.process(bb));
     }
 
@@ -87,7 +91,95 @@ public class StringReaderTest {
         var sr = new StringReader();
         var bb = ByteBuffer.allocate(1024);
         var bytes = StandardCharsets.UTF_8.encode("aaaaa");
-        bb.putInt(1025).put(bytes);
+        bb.putInt(1025).put(bytes).flip();
         assertEquals(Reader.ProcessStatus.ERROR, sr.process(bb));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void bufferBorrowedOnlyWhileIncomplete() {
+        var pool = new BufferPool(1024, 4);
+        var sr = new StringReader(pool);
+        var bb = ByteBuffer.allocate(1024);
+        bb.putInt(5).put(StandardCharsets.UTF_8.encode("ab")).flip();
+        assertEquals(Reader.ProcessStatus.REFILL, sr.process(bb));
+        assertEquals(1, pool.stats().inUse());
+        bb.compact().put(StandardCharsets.UTF_8.encode("cde")).flip();
+        assertEquals(Reader.ProcessStatus.DONE, sr.process(bb));
+        assertEquals("abcde", sr.get());
+        assertEquals(0, pool.stats().inUse());
+    }
+
+    @Test
+    public void largeStringDecodedWhileReceived() {
+        var builder = new StringBuilder();
+        for (var i = 0; builder.length() < 100_000; i++) {
+            builder.append(i).append("\u20AC\uD83D\uDE00\u00E9 ");
+        }
+        var string = builder.toString();
+        var bytes = StandardCharsets.UTF_8.encode(string);
+        var bb = ByteBuffer.allocate(Integer.BYTES + bytes.remaining());
+        bb.putInt(bytes.remaining()).put(bytes).flip();
+        // 7 bytes at a time, so that characters are split between two calls
+        var bbSmall = ByteBuffer.allocate(7);
+        var sr = new StringReader(new BufferPool(1024, 4), new CharBufferPool(1 << 20, 1), 1 << 20);
+        while (bb.hasRemaining()) {
+            while (bb.hasRemaining() && bbSmall.hasRemaining()) {
+                bbSmall.put(bb.get());
+            }
+            bbSmall.flip();
+            if (bb.hasRemaining()) {
+                assertEquals(Reader.ProcessStatus.REFILL, sr.process(bbSmall));
+            } else {
+                assertEquals(Reader.ProcessStatus.DONE, sr.process(bbSmall));
+            }
+            bbSmall.compact();
+        }
+        assertEquals(string, sr.get());
+    }
+
+    @Test
+    public void largeStringsReuseTheReader() {
+        var sr = new StringReader(new BufferPool(1024, 4), new CharBufferPool(1 << 16, 1), 1 << 16);
+        var first = "a".repeat(5_000);
+        var second = "\u20AC".repeat(10_000);
+        var bb = ByteBuffer.allocate(1 << 16);
+        bb.putInt(first.length()).put(StandardCharsets.UTF_8.encode(first))
+                .putInt(3 * second.length()).put(StandardCharsets.UTF_8.encode(second)).flip();
+        assertEquals(Reader.ProcessStatus.DONE, sr.process(bb));
+        assertEquals(first, sr.get());
+        sr.reset();
+        assertEquals(Reader.ProcessStatus.DONE, sr.process(bb));
+        assertEquals(second, sr.get());
+        assertFalse(bb.hasRemaining());
+    }
+
+    @Test
+    public void errorOverMaxSize() {
+        var sr = new StringReader(new BufferPool(1024, 4), new CharBufferPool(1 << 16, 1), 1 << 16);
+        var bb = ByteBuffer.allocate(1024);
+        bb.putInt((1 << 16) + 1).flip();
+        assertEquals(Reader.ProcessStatus.ERROR, sr.process(bb));
+    }
+
+    @Test
+    public void completeStringDecodedInPlace() {
+        var pool = new BufferPool(1024, 4);
+        var cache = new StringCache(16, 64);
+        var sr = new StringReader(pool, cache);
+        var bb = ByteBuffer.allocateDirect(1024);
+        for (var i = 0; i < 3; i++) {
+            bb.putInt(5).put(StandardCharsets.UTF_8.encode("alice"));
+        }
+        bb.flip();
+        assertEquals(Reader.ProcessStatus.DONE, sr.process(bb));
+        var first = sr.get();
+        assertEquals("alice", first);
+        assertEquals(0, pool.stats().acquisitions());
+        sr.reset();
+        assertEquals(Reader.ProcessStatus.DONE, sr.process(bb));
+        assertSame(first, sr.get());
+        assertEquals(9, bb.remaining());
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+    }
+}
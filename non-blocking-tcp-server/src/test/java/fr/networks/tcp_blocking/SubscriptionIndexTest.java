@@ -0,0 +1,65 @@
+package fr.networks.tcp_blocking;
+
+import fr.networks.tcp_blocking.utils.SubscriptionIndex;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SubscriptionIndexTest {
+
+    private static List<String> subscribers(SubscriptionIndex<String> index, String topic) {
+        var result = new ArrayList<String>();
+        index.forEachSubscriber(topic, (subscriber, list) -> list.add(subscriber), result);
+        result.sort(null);
+        return result;
+    }
+
+    @Test
+    public void deliversOnlyToTheSubscribersOfTheTopic() {
+        var index = new SubscriptionIndex<String>();
+        index.subscribe("java", "a");
+        index.subscribe("java", "b");
+        index.subscribe("rust", "c");
+        assertEquals(List.of("a", "b"), subscribers(index, "java"));
+        assertEquals(List.of("c"), subscribers(index, "rust"));
+        assertEquals(List.of(), subscribers(index, "go"));
+        assertEquals(2, index.topics());
+    }
+
+    @Test
+    public void unsubscribeRemovesEmptyTopics() {
+        var index = new SubscriptionIndex<String>();
+        var a = index.subscribe("java", "a");
+        var b = index.subscribe("java", "b");
+        assertFalse(index.unsubscribe(a));
+        assertFalse(a.isActive());
+        assertFalse(index.unsubscribe(a));
+        assertEquals(List.of("b"), subscribers(index, "java"));
+        assertTrue(index.unsubscribe(b));
+        assertEquals(0, index.topics());
+        assertEquals(0, index.subscribers("java"));
+    }
+
+    @Test
+    public void subscribersCanLeaveDuringDelivery() {
+        var index = new SubscriptionIndex<String>();
+        var subscriptions = new ArrayList<SubscriptionIndex.Subscription<String>>();
+        for (var i = 0; i < 10; i++) {
+            subscriptions.add(index.subscribe("java", "s" + i));
+        }
+        var visited = new ArrayList<String>();
+        index.forEachSubscriber("java", (subscriber, list) -> {
+            list.add(subscriber);
+            var number = Integer.parseInt(subscriber.substring(1));
+            if (number % 2 == 0) {
+                index.unsubscribe(subscriptions.get(number));
+            }
+        }, visited);
+        visited.sort(null);
+        assertEquals(List.of("s0", "s1", "s2", "s3", "s4", "s5", "s6", "s7", "s8", "s9"), visited);
+        assertEquals(List.of("s1", "s3", "s5", "s7", "s9"), subscribers(index, "java"));
+    }
+}
@@ -0,0 +1,109 @@
+package fr.networks.tcp_blocking;
+
+import fr.networks.tcp_blocking.utils.TimingWheel;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TimingWheelTest {
+    private long now;
+
+    private TimingWheel newWheel() {
+        return new TimingWheel(10, 8, () -> now);
+    }
+
+    private void advanceMillis(long millis) {
+        now += TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    @Test
+    public void expiresAfterDelay() {
+        var wheel = newWheel();
+        var fired = new ArrayList<String>();
+        var timer = new TimingWheel.Timer(() -> fired.add("a"));
+        wheel.schedule(timer, 25);
+        advanceMillis(20);
+        wheel.expire();
+        assertTrue(fired.isEmpty());
+        advanceMillis(10);
+        wheel.expire();
+        assertEquals(1, fired.size());
+        assertFalse(timer.isArmed());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void rearmPostponesExpiration() {
+        var wheel = newWheel();
+        var fired = new ArrayList<String>();
+        var timer = new TimingWheel.Timer(() -> fired.add("a"));
+        wheel.schedule(timer, 30);
+        advanceMillis(20);
+        wheel.expire();
+        wheel.schedule(timer, 30);
+        advanceMillis(20);
+        wheel.expire();
+        assertTrue(fired.isEmpty());
+        assertEquals(1, wheel.size());
+        advanceMillis(20);
+        wheel.expire();
+        assertEquals(1, fired.size());
+    }
+
+    @Test
+    public void cancel() {
+        var wheel = newWheel();
+        var fired = new ArrayList<String>();
+        var timer = new TimingWheel.Timer(() -> fired.add("a"));
+        wheel.schedule(timer, 10);
+        wheel.cancel(timer);
+        wheel.cancel(timer);
+        advanceMillis(100);
+        wheel.expire();
+        assertTrue(fired.isEmpty());
+        assertEquals(0, wheel.timeoutMillis());
+    }
+
+    @Test
+    public void delayLongerThanTheWheel() {
+        var wheel = newWheel();
+        var fired = new ArrayList<String>();
+        wheel.schedule(new TimingWheel.Timer(() -> fired.add("a")), 500);
+        for (var i = 0; i < 49; i++) {
+            advanceMillis(10);
+            wheel.expire();
+        }
+        assertTrue(fired.isEmpty());
+        advanceMillis(10);
+        wheel.expire();
+        assertEquals(1, fired.size());
+    }
+
+    @Test
+    public void timeoutOfTheNextBucket() {
+        var wheel = newWheel();
+        wheel.schedule(new TimingWheel.Timer(() -> {}), 35);
+        assertEquals(40, wheel.timeoutMillis());
+    }
+
+    @Test
+    public void actionMayRearmItself() {
+        var wheel = newWheel();
+        var fired = new ArrayList<String>();
+        var holder = new TimingWheel.Timer[1];
+        holder[0] = new TimingWheel.Timer(() -> {
+            fired.add("a");
+            wheel.schedule(holder[0], 10);
+        });
+        wheel.schedule(holder[0], 10);
+        advanceMillis(10);
+        wheel.expire();
+        advanceMillis(10);
+        wheel.expire();
+        assertEquals(2, fired.size());
+        assertTrue(holder[0].isArmed());
+    }
+}
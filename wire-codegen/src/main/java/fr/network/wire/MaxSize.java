@@ -0,0 +1,16 @@
+package fr.network.wire;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Size in bytes of the largest string accepted for a String component of a
+ * {@link WireRecord}, instead of the {@link WireRecord#maxSize()} of the record.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.RECORD_COMPONENT)
+public @interface MaxSize {
+    int value();
+}
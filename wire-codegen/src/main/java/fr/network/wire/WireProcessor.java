@@ -0,0 +1,574 @@
+package fr.network.wire;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Generates the reader and the writer of each record annotated with {@link WireRecord}.
+ * <p>
+ * The reader is a single object whatever the number of components: a state counts the
+ * components read so far, the numbers are kept in fields of their own type and the bytes
+ * of all the strings in one array grown on demand, so that reading a record allocates
+ * nothing once the array is large enough. The state machine is a sequence of blocks, one
+ * per state, each falling through to the next once its component is read, the way the
+ * hand-written readers are. The writer computes the size of the strings in UTF-8 first,
+ * then writes the record with absolute puts.
+ */
+@SupportedAnnotationTypes("fr.network.wire.WireRecord")
+public final class WireProcessor extends AbstractProcessor {
+
+    private enum Kind {
+        BYTE("byte", "Byte", "get"), SHORT("short", "Short", "getShort"), INT("int", "Integer", "getInt"),
+        LONG("long", "Long", "getLong"), STRING("String", "Integer", "getInt");
+
+        private final String type;
+        private final String boxed; // class holding the BYTES constant of the number on the wire
+        private final String getter;
+
+        Kind(String type, String boxed, String getter) {
+            this.type = type;
+            this.boxed = boxed;
+            this.getter = getter;
+        }
+    }
+
+    private record Component(String name, Kind kind, int maxSize) {
+        private String constant() {
+            return name.replaceAll("([a-z0-9])([A-Z])", "$1_$2").toUpperCase(Locale.ROOT) + "_MAX_SIZE";
+        }
+    }
+
+    private static final class InvalidRecordException extends Exception {
+        private final Element element;
+
+        private InvalidRecordException(Element element, String message) {
+            super(message);
+            this.element = element;
+        }
+    }
+
+    // members of the generated reader a component cannot be named after
+    private static final Set<String> RESERVED = Set.of("state", "count", "number", "bytes", "end", "value", "get",
+            "reset", "process", "gather", "fill", "reserve");
+    private static final int INITIAL_CAPACITY = 1_024;
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (var element : roundEnv.getElementsAnnotatedWith(WireRecord.class)) {
+            try {
+                var record = checkRecord(element);
+                var reader = readerInterface(record);
+                var components = components(record);
+                var packageName = processingEnv.getElementUtils().getPackageOf(record).getQualifiedName().toString();
+                var recordName = record.getSimpleName().toString();
+                write(record, packageName, recordName + "WireReader",
+                        readerSource(packageName, recordName, reader, components));
+                write(record, packageName, recordName + "WireWriter",
+                        writerSource(packageName, recordName, components));
+            } catch (InvalidRecordException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, e.getMessage(), e.element);
+            }
+        }
+        return true;
+    }
+
+    private static TypeElement checkRecord(Element element) throws InvalidRecordException {
+        if (element.getKind() != ElementKind.RECORD) {
+            throw new InvalidRecordException(element, "@WireRecord only applies to records");
+        }
+        var record = (TypeElement) element;
+        if (record.getNestingKind() != NestingKind.TOP_LEVEL) {
+            throw new InvalidRecordException(element, "a @WireRecord must be a top-level record");
+        }
+        if (!record.getTypeParameters().isEmpty()) {
+            throw new InvalidRecordException(element, "a @WireRecord cannot be generic");
+        }
+        return record;
+    }
+
+    /**
+     * @return the reader interface given to the annotation of record, whose value is only
+     * available as a TypeMirror during the compilation
+     */
+    private static TypeElement readerInterface(TypeElement record) throws InvalidRecordException {
+        for (var mirror : record.getAnnotationMirrors()) {
+            var annotation = (TypeElement) mirror.getAnnotationType().asElement();
+            if (!annotation.getQualifiedName().contentEquals(WireRecord.class.getName())) {
+                continue;
+            }
+            for (var entry : mirror.getElementValues().entrySet()) {
+                if (!entry.getKey().getSimpleName().contentEquals("reader")) {
+                    continue;
+                }
+                var reader = (TypeElement) ((DeclaredType) entry.getValue().getValue()).asElement();
+                if (reader.getKind() != ElementKind.INTERFACE || reader.getTypeParameters().size() != 1
+                        || !hasProcessStatus(reader)) {
+                    throw new InvalidRecordException(record, reader.getQualifiedName()
+                            + " is not a generic interface with a nested ProcessStatus enum");
+                }
+                return reader;
+            }
+        }
+        throw new AssertionError(); // reader has no default value
+    }
+
+    private static boolean hasProcessStatus(TypeElement reader) {
+        for (var member : reader.getEnclosedElements()) {
+            if (member.getKind() == ElementKind.ENUM && member.getSimpleName().contentEquals("ProcessStatus")) {
+                var constants = new HashSet<String>();
+                for (var constant : member.getEnclosedElements()) {
+                    if (constant.getKind() == ElementKind.ENUM_CONSTANT) {
+                        constants.add(constant.getSimpleName().toString());
+                    }
+                }
+                return constants.containsAll(List.of("DONE", "REFILL", "ERROR"));
+            }
+        }
+        return false;
+    }
+
+    private static List<Component> components(TypeElement record) throws InvalidRecordException {
+        var defaultMaxSize = record.getAnnotation(WireRecord.class).maxSize();
+        var components = new ArrayList<Component>();
+        var names = new HashSet<>(RESERVED);
+        for (var component : record.getRecordComponents()) {
+            var name = component.getSimpleName().toString();
+            var kind = kind(component.asType());
+            if (kind == null) {
+                throw new InvalidRecordException(component, "the component " + name
+                        + " is not a byte, a short, an int, a long or a String");
+            }
+            var maxSize = component.getAnnotation(MaxSize.class);
+            if (maxSize != null && kind != Kind.STRING) {
+                throw new InvalidRecordException(component, "@MaxSize only applies to String components");
+            }
+            var max = maxSize != null ? maxSize.value() : defaultMaxSize;
+            if (max < 0) {
+                throw new InvalidRecordException(component, "negative maximum size");
+            }
+            if (!names.add(name)
+                    || (kind == Kind.STRING && (!names.add(name + "Offset") || !names.add(name + "Length")))) {
+                throw new InvalidRecordException(component, "the component " + name
+                        + " clashes with a member of the generated reader");
+            }
+            components.add(new Component(name, kind, max));
+        }
+        if (components.isEmpty()) {
+            throw new InvalidRecordException(record, "a @WireRecord needs at least one component");
+        }
+        return components;
+    }
+
+    private static Kind kind(TypeMirror type) {
+        return switch (type.getKind()) {
+            case BYTE -> Kind.BYTE;
+            case SHORT -> Kind.SHORT;
+            case INT -> Kind.INT;
+            case LONG -> Kind.LONG;
+            case DECLARED -> ((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName()
+                    .contentEquals("java.lang.String") ? Kind.STRING : null;
+            default -> null;
+        };
+    }
+
+    private void write(TypeElement record, String packageName, String className, String source) {
+        var name = packageName.isEmpty() ? className : packageName + "." + className;
+        try (var writer = processingEnv.getFiler().createSourceFile(name, record).openWriter()) {
+            writer.write(source);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void header(StringBuilder source, String packageName, List<String> imports) {
+        if (!packageName.isEmpty()) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+        var jdk = false;
+        for (var name : imports) {
+            // the imports of the JDK come after the other ones, as a group of their own
+            if (!jdk && (name.startsWith("java.") || name.startsWith("javax."))) {
+                jdk = true;
+                if (name != imports.get(0)) {
+                    source.append('\n');
+                }
+            }
+            source.append("import ").append(name).append(";\n");
+        }
+        source.append('\n');
+    }
+
+    private static String readerSource(String packageName, String recordName, TypeElement reader,
+                                       List<Component> components) {
+        var hasStrings = components.stream().anyMatch(component -> component.kind == Kind.STRING);
+        var status = reader.getSimpleName() + ".ProcessStatus";
+        var className = recordName + "WireReader";
+        var states = new ArrayList<Integer>(); // first state of each component
+        var stateCount = 0;
+        for (var component : components) {
+            states.add(stateCount);
+            stateCount += component.kind == Kind.STRING ? 2 : 1;
+        }
+        var source = new StringBuilder();
+        var imports = new ArrayList<String>();
+        if (!(reader.getEnclosingElement() instanceof PackageElement readerPackage)
+                || !readerPackage.getQualifiedName().contentEquals(packageName)) {
+            imports.add(reader.getQualifiedName().toString());
+        }
+        imports.add("java.nio.ByteBuffer");
+        if (hasStrings) {
+            imports.addAll(List.of("java.nio.charset.StandardCharsets", "java.util.Arrays"));
+        }
+        imports.add("javax.annotation.processing.Generated");
+        header(source, packageName, imports);
+        source.append("""
+                /**
+                 * Reads a {@link %1$s} in place from a buffer in read-mode, as a single object
+                 * allocating nothing once its array of bytes is large enough. The strings are only
+                 * decoded when asked for, their bytes being available until reset.
+                 */
+                @Generated("%2$s")
+                public final class %3$s implements %4$s<%1$s> {
+                    private static final int DONE = %5$d;
+                    private static final int ERROR = -1;
+                """.formatted(recordName, WireProcessor.class.getName(), className, reader.getSimpleName(), stateCount));
+        var capacity = 0L;
+        for (var component : components) {
+            if (component.kind == Kind.STRING) {
+                source.append("    private static final int %s = %d;\n".formatted(component.constant(), component.maxSize));
+                capacity += component.maxSize;
+            }
+        }
+        source.append("""
+
+                    private int state;
+                    private int count; // bytes of the number being gathered
+                    private long number; // number being gathered, its bytes above count being dropped by its cast
+                """);
+        if (hasStrings) {
+            source.append("""
+                        private byte[] bytes = new byte[%d]; // bytes of the strings, one after the other
+                        private int end; // bytes used in bytes
+                    """.formatted(Math.min(capacity, INITIAL_CAPACITY)));
+        }
+        for (var component : components) {
+            if (component.kind == Kind.STRING) {
+                source.append("    private int %1$sOffset;\n    private int %1$sLength;\n".formatted(component.name));
+            } else {
+                source.append("    private %s %s;\n".formatted(component.kind.type, component.name));
+            }
+        }
+        source.append("""
+                    private %1$s value; // built by the first call to get
+
+                    @Override
+                    public %2$s process(ByteBuffer buffer) {
+                        if (state == DONE || state == ERROR) {
+                            throw new IllegalStateException();
+                        }
+                """.formatted(recordName, status));
+        for (var i = 0; i < components.size(); i++) {
+            var component = components.get(i);
+            var state = states.get(i);
+            if (component.kind == Kind.STRING) {
+                source.append("""
+                                if (state == %1$d) {
+                                    if (count == 0 && buffer.remaining() >= Integer.BYTES) {
+                                        number = buffer.getInt();
+                                    } else if (!gather(buffer, Integer.BYTES)) {
+                                        return %4$s.REFILL;
+                                    }
+                                    var size = (int) number;
+                                    if (size < 0 || size > %3$s) {
+                                        state = ERROR;
+                                        return %4$s.ERROR;
+                                    }
+                                    %2$sOffset = end;
+                                    %2$sLength = size;
+                                    reserve(size);
+                                    state = %5$d;
+                                }
+                                if (state == %5$d) {
+                                    if (!fill(buffer, %2$sOffset + %2$sLength)) {
+                                        return %4$s.REFILL;
+                                    }
+                                    state = %6$d;
+                                }
+                        """.formatted(state, component.name, component.constant(), status, state + 1, state + 2));
+            } else {
+                source.append("""
+                                if (state == %1$d) {
+                                    if (count == 0 && buffer.remaining() >= %3$s.BYTES) {
+                                        %2$s = buffer.%4$s();
+                                    } else if (gather(buffer, %3$s.BYTES)) {
+                                        %2$s = %5$snumber;
+                                    } else {
+                                        return %6$s.REFILL;
+                                    }
+                                    state = %7$d;
+                                }
+                        """.formatted(state, component.name, component.kind.boxed, component.kind.getter,
+                        component.kind == Kind.LONG ? "" : "(" + component.kind.type + ") ", status, state + 1));
+            }
+        }
+        source.append("""
+                        return %s.DONE;
+                    }
+
+                    /**
+                     * Gathers a number split between buffers, one byte at a time
+                     *
+                     * @return true once the size bytes of the number are in number
+                     */
+                    private boolean gather(ByteBuffer buffer, int size) {
+                        while (count < size && buffer.hasRemaining()) {
+                            number = (number << 8) | (buffer.get() & 0xFF);
+                            count++;
+                        }
+                        if (count < size) {
+                            return false;
+                        }
+                        count = 0;
+                        return true;
+                    }
+                """.formatted(status));
+        if (hasStrings) {
+            source.append("""
+
+                        /**
+                         * Copies the bytes of the current string available in buffer
+                         *
+                         * @return true once bytes holds the bytes up to target
+                         */
+                        private boolean fill(ByteBuffer buffer, int target) {
+                            var length = Math.min(buffer.remaining(), target - end);
+                            buffer.get(buffer.position(), bytes, end, length);
+                            buffer.position(buffer.position() + length);
+                            end += length;
+                            return end == target;
+                        }
+
+                        private void reserve(int size) {
+                            if (bytes.length - end < size) {
+                                bytes = Arrays.copyOf(bytes, Math.max(2 * bytes.length, end + size));
+                            }
+                        }
+
+                        /**
+                         * @return the array holding the bytes of the strings read, valid until reset
+                         */
+                        public byte[] bytes() {
+                            checkDone();
+                            return bytes;
+                        }
+                    """);
+        }
+        for (var component : components) {
+            if (component.kind == Kind.STRING) {
+                source.append("""
+
+                            /**
+                             * @return %1$s, decoded at each call
+                             */
+                            public String %1$s() {
+                                checkDone();
+                                return new String(bytes, %1$sOffset, %1$sLength, StandardCharsets.UTF_8);
+                            }
+
+                            /**
+                             * @return the index in bytes() of the first byte of %1$s
+                             */
+                            public int %1$sOffset() {
+                                checkDone();
+                                return %1$sOffset;
+                            }
+
+                            /**
+                             * @return the size in bytes of %1$s
+                             */
+                            public int %1$sLength() {
+                                checkDone();
+                                return %1$sLength;
+                            }
+                        """.formatted(component.name));
+            } else {
+                source.append("""
+
+                            public %1$s %2$s() {
+                                checkDone();
+                                return %2$s;
+                            }
+                        """.formatted(component.kind.type, component.name));
+            }
+        }
+        var arguments = new StringBuilder();
+        for (var component : components) {
+            arguments.append(arguments.isEmpty() ? "" : ", ").append(component.name).append("()");
+        }
+        source.append("""
+
+                    private void checkDone() {
+                        if (state != DONE) {
+                            throw new IllegalStateException();
+                        }
+                    }
+
+                    @Override
+                    public %1$s get() {
+                        checkDone();
+                        if (value == null) {
+                            value = new %1$s(%2$s);
+                        }
+                        return value;
+                    }
+
+                    @Override
+                    public void reset() {
+                        state = 0;
+                        count = 0;
+                %3$s        value = null;
+                    }
+                }
+                """.formatted(recordName, arguments, hasStrings ? "        end = 0;\n" : ""));
+        return source.toString();
+    }
+
+    private static String writerSource(String packageName, String recordName, List<Component> components) {
+        var hasStrings = components.stream().anyMatch(component -> component.kind == Kind.STRING);
+        var className = recordName + "WireWriter";
+        var source = new StringBuilder();
+        header(source, packageName, List.of("java.nio.BufferOverflowException", "java.nio.ByteBuffer",
+                "javax.annotation.processing.Generated"));
+        var lengths = new StringBuilder();
+        var size = new StringBuilder();
+        var puts = new StringBuilder();
+        for (var component : components) {
+            size.append(size.isEmpty() ? "" : " + ").append(component.kind.boxed).append(".BYTES");
+            if (component.kind == Kind.STRING) {
+                lengths.append("        var %1$sLength = encodedLength(value.%1$s());\n".formatted(component.name));
+                size.append(" + ").append(component.name).append("Length");
+                puts.append("        buffer.putInt(%1$sLength);\n        putUtf8(buffer, value.%1$s());\n"
+                        .formatted(component.name));
+            } else {
+                puts.append("        buffer.%s(value.%s());\n".formatted(component.kind.getter.replace("get", "put"),
+                        component.name));
+            }
+        }
+        if (size.isEmpty()) {
+            size.append('0');
+        }
+        source.append("""
+                /**
+                 * Writes a {@link %1$s} in a buffer, encoding its strings in UTF-8 straight into it.
+                 * An unpaired surrogate is written as '?'.
+                 */
+                @Generated("%2$s")
+                public final class %3$s {
+                    private %3$s() {
+                        throw new AssertionError();
+                    }
+
+                    /**
+                     * @return the number of bytes written by encodeInto for value
+                     */
+                    public static int encodedSize(%1$s value) {
+                %4$s        return %5$s;
+                    }
+
+                    /**
+                     * Writes value at the position of buffer, which is in write-mode
+                     *
+                     * @param value  record to write
+                     * @param buffer buffer receiving the record
+                     * @return buffer
+                     * @throws BufferOverflowException if value does not fit in buffer, nothing being written
+                     */
+                    public static ByteBuffer encodeInto(%1$s value, ByteBuffer buffer) {
+                %4$s        if (buffer.remaining() < %5$s) {
+                            throw new BufferOverflowException();
+                        }
+                %6$s        return buffer;
+                    }
+                """.formatted(recordName, WireProcessor.class.getName(), className, lengths, size, puts));
+        if (hasStrings) {
+            source.append("""
+
+                        private static int encodedLength(String chars) {
+                            var length = 0;
+                            for (var i = 0; i < chars.length(); i++) {
+                                var c = chars.charAt(i);
+                                if (c < 0x80) {
+                                    length++;
+                                } else if (c < 0x800) {
+                                    length += 2;
+                                } else if (Character.isSurrogate(c)) {
+                                    if (Character.isHighSurrogate(c) && i + 1 < chars.length()
+                                            && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                                        length += 4;
+                                        i++;
+                                    } else {
+                                        length++;
+                                    }
+                                } else {
+                                    length += 3;
+                                }
+                            }
+                            return length;
+                        }
+
+                        private static void putUtf8(ByteBuffer buffer, String chars) {
+                            var position = buffer.position();
+                            for (var i = 0; i < chars.length(); i++) {
+                                var c = chars.charAt(i);
+                                if (c < 0x80) {
+                                    buffer.put(position++, (byte) c);
+                                } else if (c < 0x800) {
+                                    buffer.put(position++, (byte) (0xC0 | c >> 6));
+                                    buffer.put(position++, (byte) (0x80 | c & 0x3F));
+                                } else if (Character.isSurrogate(c)) {
+                                    if (Character.isHighSurrogate(c) && i + 1 < chars.length()
+                                            && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                                        var codePoint = Character.toCodePoint(c, chars.charAt(++i));
+                                        buffer.put(position++, (byte) (0xF0 | codePoint >> 18));
+                                        buffer.put(position++, (byte) (0x80 | codePoint >> 12 & 0x3F));
+                                        buffer.put(position++, (byte) (0x80 | codePoint >> 6 & 0x3F));
+                                        buffer.put(position++, (byte) (0x80 | codePoint & 0x3F));
+                                    } else {
+                                        buffer.put(position++, (byte) '?');
+                                    }
+                                } else {
+                                    buffer.put(position++, (byte) (0xE0 | c >> 12));
+                                    buffer.put(position++, (byte) (0x80 | c >> 6 & 0x3F));
+                                    buffer.put(position++, (byte) (0x80 | c & 0x3F));
+                                }
+                            }
+                            buffer.position(position);
+                        }
+                    """);
+        }
+        source.append("}\n");
+        return source.toString();
+    }
+}
@@ -0,0 +1,39 @@
+package fr.network.wire;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares a record as a frame of the wire: its components are written one after the
+ * other in the order of the record, each number in big-endian on as many bytes as its
+ * type, each string in UTF-8 preceded by its size in bytes as an int.
+ * <p>
+ * For a record R, the {@link WireProcessor} generates in the package of R:
+ * <ul>
+ *     <li>RWireReader, a reader of R implementing {@link #reader()}, which keeps the
+ *     components in fields of its own and the bytes of the strings in a single array, and
+ *     only decodes a string when asked for it;</li>
+ *     <li>RWireWriter, whose static encodeInto writes an R in a ByteBuffer without
+ *     encoding its strings in intermediate buffers.</li>
+ * </ul>
+ * The components may be of type byte, short, int, long or String.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface WireRecord {
+
+    /**
+     * @return the interface implemented by the reader, generic in the value read, with a
+     * {@code ProcessStatus process(ByteBuffer)} method returning the DONE, REFILL and ERROR
+     * constants of its nested ProcessStatus enum, a {@code get()} and a {@code reset()}
+     */
+    Class<?> reader();
+
+    /**
+     * @return size in bytes of the largest string accepted by the reader, unless its
+     * component has a {@link MaxSize}
+     */
+    int maxSize() default 1_024;
+}